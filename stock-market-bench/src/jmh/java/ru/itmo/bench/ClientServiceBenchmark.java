@@ -0,0 +1,114 @@
+package ru.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.model.ClientBuyStockRequest;
+import ru.itmo.model.ClientSellStockRequest;
+import ru.itmo.services.StockMarketClientService;
+import ru.itmo.services.execution.UserMailboxes;
+import ru.itmo.services.valuation.PortfolioValuation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StockMarketClientService} valuation and selling for users holding {@code lots} lots,
+ * one per company, against a {@link StubStockMarketClient}, wired as in the application with user mailboxes and
+ * a {@link PortfolioValuation} in either mode.
+ * <p>
+ * The stub doesn't check balances, so users are not funded. Quotes never move, so {@code incremental} valuation
+ * reads the marks set by the trades while {@code on-demand} valuation looks up a quote of every held company.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ClientServiceBenchmark {
+    private static final int USERS = 64;
+    private static final int LOT_COUNT = 1 << 24;
+    private static final int COST = 10;
+
+    @Param({"10", "1000", "10000"})
+    private int lots;
+
+    @Param({"on-demand", "incremental"})
+    private String valuationMode;
+
+    private UserMailboxes mailboxes;
+    private StockMarketClientService service;
+    private String[] userIds;
+    private ClientSellStockRequest[] sellRequests;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Map<String, StocksSnapshot> quotes = new HashMap<>(lots * 2);
+
+        for (int i = 0; i < lots; i++) {
+            quotes.put(companyName(i), new StocksSnapshot(Integer.MAX_VALUE, COST));
+        }
+
+        mailboxes = new UserMailboxes(false);
+        service = new StockMarketClientService(
+                new StubStockMarketClient(quotes),
+                Optional.empty(),
+                new PortfolioValuation(new StubQuoteStream(), valuationMode),
+                mailboxes
+        );
+        userIds = new String[USERS];
+        sellRequests = new ClientSellStockRequest[USERS];
+
+        for (int user = 0; user < USERS; user++) {
+            userIds[user] = service.registerUser("User " + user);
+            for (int i = 0; i < lots; i++) {
+                service.buyStocks(new ClientBuyStockRequest(userIds[user], companyName(i), LOT_COUNT));
+            }
+
+            sellRequests[user] = new ClientSellStockRequest(userIds[user], companyName(lots - 1), 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mailboxes.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        int next(int bound) {
+            index = index + 1 == bound ? 0 : index + 1;
+
+            return index;
+        }
+    }
+
+    @Benchmark
+    public long getUserMoney(Cursor cursor) throws Exception {
+        return service.getUserMoney(userIds[cursor.next(USERS)]);
+    }
+
+    @Benchmark
+    public ClientSellStockRequest sellStock(Cursor cursor) throws Exception {
+        final ClientSellStockRequest sellRequest = sellRequests[cursor.next(USERS)];
+
+        service.sellStock(sellRequest);
+
+        return sellRequest;
+    }
+
+    private static String companyName(int index) {
+        return "Company " + index;
+    }
+}
@@ -0,0 +1,109 @@
+package ru.itmo.bench;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.domain.codec.BinaryCodec;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON (de)serialization of the domain records as the applications exchange them, next to the binary wire format.
+ * The batch is a {@code /get/stocks/batch} response of 64 quotes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DomainCodecBenchmark {
+    private static final TypeReference<Map<String, StocksSnapshot>> SNAPSHOTS_TYPE = new TypeReference<>() {
+    };
+    private static final int BATCH_SIZE = 64;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private BuyStockRequest buyRequest;
+    private StocksSnapshot snapshot;
+    private Map<String, StocksSnapshot> snapshots;
+    private byte[] buyRequestJson;
+    private byte[] snapshotJson;
+    private byte[] snapshotsJson;
+    private byte[] buyRequestBinary;
+    private byte[] snapshotBinary;
+
+    @Setup
+    public void setUp() throws Exception {
+        buyRequest = new BuyStockRequest("VK Company", 10, 100_000);
+        snapshot = new StocksSnapshot(10, 2_500);
+        snapshots = new HashMap<>(BATCH_SIZE * 2);
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            snapshots.put("Company " + i, new StocksSnapshot(i, 100 + i));
+        }
+
+        buyRequestJson = objectMapper.writeValueAsBytes(buyRequest);
+        snapshotJson = objectMapper.writeValueAsBytes(snapshot);
+        snapshotsJson = objectMapper.writeValueAsBytes(snapshots);
+        buyRequestBinary = BinaryCodec.encode(buyRequest);
+        snapshotBinary = BinaryCodec.encode(snapshot);
+    }
+
+    @Benchmark
+    public byte[] writeBuyRequestJson() throws Exception {
+        return objectMapper.writeValueAsBytes(buyRequest);
+    }
+
+    @Benchmark
+    public BuyStockRequest readBuyRequestJson() throws Exception {
+        return objectMapper.readValue(buyRequestJson, BuyStockRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writeSnapshotJson() throws Exception {
+        return objectMapper.writeValueAsBytes(snapshot);
+    }
+
+    @Benchmark
+    public StocksSnapshot readSnapshotJson() throws Exception {
+        return objectMapper.readValue(snapshotJson, StocksSnapshot.class);
+    }
+
+    @Benchmark
+    public byte[] writeSnapshotBatchJson() throws Exception {
+        return objectMapper.writeValueAsBytes(snapshots);
+    }
+
+    @Benchmark
+    public Map<String, StocksSnapshot> readSnapshotBatchJson() throws Exception {
+        return objectMapper.readValue(snapshotsJson, SNAPSHOTS_TYPE);
+    }
+
+    @Benchmark
+    public byte[] writeBuyRequestBinary() {
+        return BinaryCodec.encode(buyRequest);
+    }
+
+    @Benchmark
+    public BuyStockRequest readBuyRequestBinary() {
+        return BinaryCodec.decode(buyRequestBinary, BuyStockRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writeSnapshotBinary() {
+        return BinaryCodec.encode(snapshot);
+    }
+
+    @Benchmark
+    public StocksSnapshot readSnapshotBinary() {
+        return BinaryCodec.decode(snapshotBinary, StocksSnapshot.class);
+    }
+}
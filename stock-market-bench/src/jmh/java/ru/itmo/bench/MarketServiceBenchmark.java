@@ -0,0 +1,123 @@
+package ru.itmo.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.Stocks;
+import ru.itmo.services.StockMarketService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StockMarketService} in direct mode, without journal: buys under 1, 8 and 64 contending threads,
+ * buys rejected for a lack of money, sells and quote lookups. {@code symbols=1} puts every thread on the same hot company,
+ * larger values spread the threads uniformly over that many companies.
+ * <p>
+ * The market is rebuilt before every iteration, its counts leave room for a billion buys and sells in each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MarketServiceBenchmark {
+    private static final int INITIAL_COUNT = 1 << 30;
+    private static final int COST = 10;
+
+    @Param({"1", "1024"})
+    private int symbols;
+
+    private StockMarketService service;
+    private String[] companyNames;
+    private BuyStockRequest[] buyRequests;
+    private BuyStockRequest[] unaffordableBuyRequests;
+    private SellStockRequest[] sellRequests;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        service = new StockMarketService();
+        companyNames = new String[symbols];
+        buyRequests = new BuyStockRequest[symbols];
+        unaffordableBuyRequests = new BuyStockRequest[symbols];
+        sellRequests = new SellStockRequest[symbols];
+
+        for (int i = 0; i < symbols; i++) {
+            companyNames[i] = "Company " + i;
+            buyRequests[i] = new BuyStockRequest(companyNames[i], 1, Integer.MAX_VALUE);
+            unaffordableBuyRequests[i] = new BuyStockRequest(companyNames[i], 1, COST - 1);
+            sellRequests[i] = new SellStockRequest(companyNames[i], 1);
+
+            service.addCompany(companyNames[i]);
+            service.addStocks(new AddStockRequest(companyNames[i], INITIAL_COUNT));
+            service.setCost(new SetCostRequest(companyNames[i], COST));
+        }
+    }
+
+    /**
+     * Per-thread xorshift over the company indexes, cheap enough not to show up next to the measured call.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int seed;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            seed = 0x9E3779B9 * (threadParams.getThreadIndex() + 1);
+        }
+
+        int next(int bound) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+
+            return (seed & Integer.MAX_VALUE) % bound;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public OrderResult buy1Thread(Cursor cursor) {
+        return service.buyStocks(buyRequests[cursor.next(symbols)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public OrderResult buy8Threads(Cursor cursor) {
+        return service.buyStocks(buyRequests[cursor.next(symbols)]);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public OrderResult buy64Threads(Cursor cursor) {
+        return service.buyStocks(buyRequests[cursor.next(symbols)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public OrderResult rejectedBuy8Threads(Cursor cursor) {
+        return service.buyStocks(unaffordableBuyRequests[cursor.next(symbols)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public OrderResult sell8Threads(Cursor cursor) {
+        return service.sellStocks(sellRequests[cursor.next(symbols)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Stocks getStocks8Threads(Cursor cursor) throws Exception {
+        return service.getStocks(companyNames[cursor.next(symbols)]);
+    }
+}
@@ -0,0 +1,110 @@
+package ru.itmo.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import ru.itmo.domain.Stocks;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buy/sell round trips on a single hot symbol: the packed one-word {@link Stocks} cell against
+ * the former pair of {@link AtomicInteger}s with its two-step CAS loop.
+ * <p>
+ * Run with {@code ./gradlew :stock-market-bench:jmh}, thread count can be overridden with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class StocksContentionBenchmark {
+    private static final int INITIAL_COUNT = 1_000_000;
+    private static final int COST = 100;
+
+    @Param({"1"})
+    private int lot;
+
+    private Stocks packed;
+    private LegacyStocks legacy;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        packed = new Stocks(INITIAL_COUNT, COST);
+        legacy = new LegacyStocks(new AtomicInteger(INITIAL_COUNT), new AtomicInteger(COST));
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Retries {
+        public long casFailures;
+    }
+
+    @Benchmark
+    public int packedBuySell(Retries retries) {
+        while (true) {
+            final long state = packed.get();
+            final int count = Stocks.count(state);
+
+            if (count < lot) {
+                return 0;
+            }
+
+            if (packed.compareAndSet(state, Stocks.pack(count - lot, Stocks.cost(state)))) {
+                break;
+            }
+
+            retries.casFailures++;
+        }
+
+        return Stocks.cost(packed.addCount(lot)) * lot;
+    }
+
+    @Benchmark
+    public int legacyBuySell(Retries retries) {
+        while (true) {
+            final int count = legacy.count().get();
+            final int cost = legacy.cost().get();
+
+            if (count < lot) {
+                return 0;
+            }
+
+            if (legacy.cost().compareAndSet(cost, cost) &&
+                    legacy.count().compareAndSet(count, count - lot)
+            ) {
+                break;
+            }
+
+            retries.casFailures++;
+        }
+
+        final int cost = legacy.cost().get();
+
+        legacy.count().addAndGet(lot);
+
+        return cost * lot;
+    }
+
+    @Benchmark
+    public StocksSnapshot packedSnapshot() {
+        return packed.snapshot();
+    }
+
+    @Benchmark
+    public StocksSnapshot legacySnapshot() {
+        return new StocksSnapshot(legacy.count().get(), legacy.cost().get());
+    }
+
+    private record LegacyStocks(AtomicInteger count, AtomicInteger cost) {
+    }
+}
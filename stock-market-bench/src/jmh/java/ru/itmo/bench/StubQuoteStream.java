@@ -0,0 +1,24 @@
+package ru.itmo.bench;
+
+import ru.itmo.client.QuoteStream;
+import ru.itmo.domain.StocksSnapshot;
+
+/**
+ * Quote stream that is never connected to a node yet reports the quotes replayed, so incremental valuation trusts
+ * the marks its trades set and quotes never move.
+ */
+class StubQuoteStream extends QuoteStream {
+    StubQuoteStream() {
+        super(null, null);
+    }
+
+    @Override
+    public boolean isReplayed() {
+        return true;
+    }
+
+    @Override
+    public StocksSnapshot get(String companyName) {
+        return null;
+    }
+}
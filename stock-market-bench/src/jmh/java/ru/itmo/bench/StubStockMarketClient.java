@@ -0,0 +1,52 @@
+package ru.itmo.bench;
+
+import ru.itmo.client.PartitionMap;
+import ru.itmo.client.StockMarketClient;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers from a fixed quote table instead of the market server, so client benchmarks measure
+ * the client service alone.
+ */
+class StubStockMarketClient extends StockMarketClient {
+    private final Map<String, StocksSnapshot> quotes;
+
+    StubStockMarketClient(Map<String, StocksSnapshot> quotes) {
+        super(new PartitionMap("http://localhost:8080", "", 1, 0));
+        this.quotes = quotes;
+    }
+
+    @Override
+    public StocksSnapshot getStock(String companyName) {
+        return quotes.get(companyName);
+    }
+
+    @Override
+    public Map<String, StocksSnapshot> getStocks(Collection<String> companyNames) {
+        final Map<String, StocksSnapshot> snapshots = new HashMap<>(companyNames.size() * 2);
+
+        for (String companyName : companyNames) {
+            final StocksSnapshot snapshot = quotes.get(companyName);
+
+            if (snapshot != null) {
+                snapshots.put(companyName, snapshot);
+            }
+        }
+
+        return snapshots;
+    }
+
+    @Override
+    public int sellStocks(String companyName, int count) {
+        return quotes.get(companyName).cost() * count;
+    }
+
+    @Override
+    public StocksSnapshot buyStock(String companyName, int count, int userMoney) {
+        return new StocksSnapshot(count, quotes.get(companyName).cost());
+    }
+}
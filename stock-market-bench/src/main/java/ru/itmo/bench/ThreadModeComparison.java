@@ -0,0 +1,142 @@
+package ru.itmo.bench;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares two running client applications, one on platform threads and one with
+ * {@code app.virtual-threads.enabled=true}, under the same number of concurrent {@code /get/user/money} calls.
+ * Each call makes the client application block on a quote lookup against the market server.
+ * <p>
+ * Usage: {@code ./gradlew :stock-market-bench:threadModeComparison -PcomparisonArgs="--server http://localhost:8080
+ * --target platform=http://localhost:8081 --target virtual=http://localhost:8082 --concurrency 2000 --seconds 30"}
+ */
+public class ThreadModeComparison {
+    private static final String COMPANY_NAME = "Thread Mode Company";
+    private static final String JSON = "application/json";
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        String serverUrl = "http://localhost:8080";
+        int concurrency = 1000;
+        int seconds = 30;
+        final Map<String, String> targets = new LinkedHashMap<>();
+
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--server" -> serverUrl = args[i + 1];
+                case "--concurrency" -> concurrency = Integer.parseInt(args[i + 1]);
+                case "--seconds" -> seconds = Integer.parseInt(args[i + 1]);
+                case "--target" -> {
+                    final String[] target = args[i + 1].split("=", 2);
+
+                    targets.put(target[0], target[1]);
+                }
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (targets.isEmpty()) {
+            targets.put("platform", "http://localhost:8081");
+            targets.put("virtual", "http://localhost:8082");
+        }
+
+        final ThreadModeComparison comparison = new ThreadModeComparison();
+
+        comparison.seedServer(serverUrl);
+
+        System.out.printf("%-10s %12s %14s %10s %10s %10s %8s%n",
+                "target", "requests", "throughput/s", "p50 ms", "p99 ms", "max ms", "errors");
+
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            final Result result = comparison.run(target.getValue(), concurrency, seconds);
+
+            System.out.printf("%-10s %12d %14.1f %10.2f %10.2f %10.2f %8d%n",
+                    target.getKey(),
+                    result.requests(),
+                    result.requests() / (double) seconds,
+                    result.percentileMillis(50.0),
+                    result.percentileMillis(99.0),
+                    result.latencies().getMaxValue() / NANOS_PER_MILLI,
+                    result.errors());
+        }
+    }
+
+    private void seedServer(String serverUrl) throws Exception {
+        send(serverUrl, "/add/company", "POST", COMPANY_NAME);
+        send(serverUrl, "/add/stocks", "POST",
+                "{\"companyName\":\"" + COMPANY_NAME + "\",\"count\":1000000000}");
+        send(serverUrl, "/set/cost", "POST",
+                "{\"companyName\":\"" + COMPANY_NAME + "\",\"cost\":1}");
+    }
+
+    private Result run(String clientUrl, int concurrency, int seconds) throws Exception {
+        final String userId = send(clientUrl, "/register", "POST", "Thread Mode User");
+
+        send(clientUrl, "/add/money", "POST", "{\"id\":\"" + userId + "\",\"amount\":1000}");
+        send(clientUrl, "/buy/stocks", "POST",
+                "{\"id\":\"" + userId + "\",\"companyName\":\"" + COMPANY_NAME + "\",\"count\":1}");
+
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(clientUrl + "/get/user/money"))
+                .header("Content-Type", JSON)
+                .method("GET", HttpRequest.BodyPublishers.ofString(userId))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+
+        final Semaphore permits = new Semaphore(concurrency);
+        final Histogram latencies = new ConcurrentHistogram(3);
+        final AtomicLong errors = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        while (System.nanoTime() < deadline) {
+            permits.acquire();
+
+            final long start = System.nanoTime();
+
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error != null || response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        } else {
+                            latencies.recordValue(System.nanoTime() - start);
+                        }
+
+                        permits.release();
+                    });
+        }
+
+        permits.acquire(concurrency);
+
+        return new Result(latencies.getTotalCount(), errors.get(), latencies);
+    }
+
+    private String send(String baseUrl, String path, String method, String body) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", JSON)
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private record Result(long requests, long errors, Histogram latencies) {
+        double percentileMillis(double percentile) {
+            return latencies.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package ru.itmo.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmo.client.exceptions.StockMarketServerException;
+import ru.itmo.config.VirtualThreadsConfiguration;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking counterpart of {@link StockMarketClient} built on the JDK {@link HttpClient}.
+ * <p>
+ * The client negotiates HTTP/2 and keeps connections alive in its own pool, so many lookups can be in flight
+ * without holding a thread each. Bodies are (de)serialized straight from and to byte arrays.
+ * <p>
+ * At most {@code client.async.max-connections} requests per node are in flight. Over HTTP/1.1 every one of them
+ * holds a connection of the pool, so this is the number of connections to the node. A request that finds them all
+ * busy fails right away instead of holding up its caller.
+ */
+@Component
+public class AsyncStockMarketClient {
+    private static final String CONTENT_TYPE = "application/json";
+    private static final TypeReference<Map<String, StocksSnapshot>> SNAPSHOTS_TYPE = new TypeReference<>() {
+    };
+    private static final TypeReference<Map<String, Integer>> SYMBOL_IDS_TYPE = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final PartitionMap partitionMap;
+    private final int maxConnections;
+    private final ConcurrentHashMap<String, Semaphore> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConnections requests in flight per node, at least one
+     * @param virtualThreads run response handlers on virtual threads instead of the client's default executor
+     */
+    public AsyncStockMarketClient(
+            ObjectMapper objectMapper,
+            PartitionMap partitionMap,
+            @Value("${client.async.connect-timeout-ms:1000}") long connectTimeoutMillis,
+            @Value("${client.async.request-timeout-ms:5000}") long requestTimeoutMillis,
+            @Value("${client.async.max-connections:16}") int maxConnections,
+            @Value("${app.virtual-threads.enabled:false}") boolean virtualThreads
+    ) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("client.async.max-connections must be positive: " + maxConnections);
+        }
+
+        this.objectMapper = objectMapper;
+        this.partitionMap = partitionMap;
+        this.maxConnections = maxConnections;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.executor = virtualThreads ? VirtualThreadsConfiguration.newVirtualThreadPerTaskExecutor() : null;
+
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+
+        this.httpClient = executor == null ? builder.build() : builder.executor(executor).build();
+    }
+
+    /**
+     * @param node base URL of the node that owns all the companies
+     */
+    public CompletableFuture<Map<String, StocksSnapshot>> getStocks(String node, Collection<String> companyNames) {
+        return post(node, "/get/stocks/batch", json(List.copyOf(companyNames)))
+                .thenApply(body -> read(body, SNAPSHOTS_TYPE));
+    }
+
+    /**
+     * @param node base URL of the node that owns all the companies
+     * @return symbol ids of the companies the node lists
+     */
+    public CompletableFuture<Map<String, Integer>> getSymbolIds(String node, Collection<String> companyNames) {
+        return post(node, "/symbols", json(List.copyOf(companyNames)))
+                .thenApply(body -> read(body, SYMBOL_IDS_TYPE));
+    }
+
+    /**
+     * @return requests in flight per node at most
+     */
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<byte[]> post(String node, String path, HttpRequest.BodyPublisher bodyPublisher) {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(node + path))
+                .timeout(requestTimeout)
+                .header("Content-Type", CONTENT_TYPE)
+                .POST(bodyPublisher)
+                .build();
+        final Semaphore nodeConnections = connections.computeIfAbsent(node, key -> new Semaphore(maxConnections));
+
+        if (!nodeConnections.tryAcquire()) {
+            return CompletableFuture.failedFuture(new StockMarketServerException(String.format(
+                    "All %d connections to %s are busy, %s not sent",
+                    maxConnections,
+                    node,
+                    path
+            )));
+        }
+
+        final CompletableFuture<HttpResponse<byte[]>> sent;
+
+        try {
+            sent = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (RuntimeException e) {
+            nodeConnections.release();
+
+            throw e;
+        }
+
+        return sent
+                .whenComplete((completed, error) -> nodeConnections.release())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(new StockMarketServerException(String.format(
+                                "Stock market responded %d to %s",
+                                response.statusCode(),
+                                path
+                        )));
+                    }
+
+                    return response.body();
+                });
+    }
+
+    private HttpRequest.BodyPublisher json(Object body) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Can't serialize request " + body, e);
+        }
+    }
+
+    private <T> T read(byte[] body, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+}
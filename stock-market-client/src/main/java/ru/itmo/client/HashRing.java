@@ -0,0 +1,84 @@
+package ru.itmo.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of company names onto market nodes.
+ * <p>
+ * Every node is placed on a 64-bit ring at a number of pseudo-random points, a company belongs to the node of the
+ * first point at or after its own hash. Adding a node only moves the companies that land just before its points,
+ * about {@code 1 / nodes} of all, and removing one only moves its own. The ring is immutable, a new partition map
+ * builds a new ring.
+ */
+class HashRing {
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes        base URLs of the nodes, at least one
+     * @param virtualNodes points per node, more points spread the companies more evenly
+     */
+    HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Partition map has no nodes");
+        }
+
+        this.nodes = List.copyOf(nodes);
+
+        final long[][] placed = new long[nodes.size() * virtualNodes][];
+
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                placed[node * virtualNodes + point] = new long[]{hash(nodes.get(node) + "#" + point), node};
+            }
+        }
+
+        Arrays.sort(placed, (left, right) -> left[0] != right[0]
+                ? Long.compare(left[0], right[0])
+                : Long.compare(left[1], right[1]));
+
+        this.points = new long[placed.length];
+        this.owners = new String[placed.length];
+
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = nodes.get((int) placed[i][1]);
+        }
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return base URL of the node that owns the company
+     */
+    String node(String companyName) {
+        final int index = Arrays.binarySearch(points, hash(companyName));
+        final int point = index >= 0 ? index : -index - 1;
+
+        return owners[point == points.length ? 0 : point];
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes with the MurmurHash3 finalizer, so similar names land far apart.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
@@ -0,0 +1,358 @@
+package ru.itmo.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.Listing;
+import ru.itmo.domain.ReleaseRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Assigns every company to one of several market nodes, each of which holds only its own companies.
+ * <p>
+ * The nodes are listed in {@code client.partitions.nodes}, or in {@code client.partitions.file}, one base URL per
+ * line, which is watched for changes. Companies are spread over the nodes by consistent hashing on their names, so
+ * every client with the same node list routes a company to the same node.
+ * <p>
+ * When the node list changes, the companies that change owner are rebalanced: the client releases their stocks on
+ * the old owner and has the new owner adopt them, switches its routing, then releases and hands over again whatever
+ * was sold to the old owner in between. Adopting never reverts the price of a company the new owner already has, so
+ * several clients rebalancing the same change at once only move stocks that are still left behind.
+ * <p>
+ * Every hand-over is a handoff with its own id. The old owner keeps the released stocks as a pending handoff until
+ * the client completes it, and the new owner adopts a handoff once however often it's sent. A hand-over that fails
+ * halfway, because the new owner is down or the client dies, stays pending on the old owner and is resumed, adopted
+ * by its target and completed, before the next rebalance. Resting limit orders and price history are not handed
+ * over, they stay on the old owner.
+ */
+@Component
+public class PartitionMap {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionMap.class);
+
+    private static final ParameterizedTypeReference<List<String>> NAMES_TYPE = new ParameterizedTypeReference<>() {
+    };
+    private static final ParameterizedTypeReference<List<Handoff>> HANDOFFS_TYPE =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final ParameterizedTypeReference<Handoff> HANDOFF_TYPE = new ParameterizedTypeReference<>() {
+    };
+    private static final ParameterizedTypeReference<Void> VOID_TYPE = new ParameterizedTypeReference<>() {
+    };
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final HttpHeaders headers = new HttpHeaders();
+    private final CopyOnWriteArrayList<Consumer<List<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final Path file;
+    private final int virtualNodes;
+    private final long reloadIntervalMillis;
+
+    private volatile HashRing ring;
+    private FileTime fileModified;
+    private Thread watcher;
+
+    /**
+     * @param nodes                comma-separated base URLs of the nodes, a single node by default
+     * @param file                 file with a base URL per line, used instead of {@code nodes} unless blank
+     * @param virtualNodes         ring points per node
+     * @param reloadIntervalMillis how often the file is checked for changes
+     */
+    public PartitionMap(
+            @Value("${client.partitions.nodes:${client.url}}") String nodes,
+            @Value("${client.partitions.file:}") String file,
+            @Value("${client.partitions.virtual-nodes:128}") int virtualNodes,
+            @Value("${client.partitions.reload-interval-ms:1000}") long reloadIntervalMillis
+    ) {
+        this.file = file.isBlank() ? null : Path.of(file);
+        this.virtualNodes = virtualNodes;
+        this.reloadIntervalMillis = reloadIntervalMillis;
+        this.headers.setContentType(MediaType.APPLICATION_JSON);
+
+        try {
+            this.fileModified = this.file == null ? null : Files.getLastModifiedTime(this.file);
+            this.ring = new HashRing(
+                    this.file == null ? parse(List.of(nodes.split(","))) : read(this.file),
+                    virtualNodes
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read partition map " + file, e);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (file == null) {
+            return;
+        }
+
+        watcher = new Thread(this::watch, "partition-map-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    /**
+     * @return base URL of the node that owns the company
+     */
+    public String node(String companyName) {
+        return ring.node(companyName);
+    }
+
+    public List<String> nodes() {
+        return ring.nodes();
+    }
+
+    /**
+     * @return the companies grouped by the node that owns them
+     */
+    public Map<String, List<String>> partition(Collection<String> companyNames) {
+        final HashRing current = ring;
+        final Map<String, List<String>> partitions = new LinkedHashMap<>();
+
+        for (String companyName : companyNames) {
+            partitions.computeIfAbsent(current.node(companyName), node -> new ArrayList<>()).add(companyName);
+        }
+
+        return partitions;
+    }
+
+    /**
+     * @param listener called with the new node list after every rebalance
+     */
+    public void addListener(Consumer<List<String>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Switches routing to the nodes and moves every company whose owner changes to its new owner.
+     * Nodes that can't be reached are logged and skipped, their companies are moved by a later update.
+     */
+    public synchronized void update(List<String> nodes) {
+        final HashRing previous = ring;
+        final HashRing next = new HashRing(parse(nodes), virtualNodes);
+
+        if (Set.copyOf(next.nodes()).equals(Set.copyOf(previous.nodes()))) {
+            return;
+        }
+
+        LOGGER.info("Rebalancing companies from nodes {} to {}", previous.nodes(), next.nodes());
+
+        resume(previous.nodes());
+        rebalance(previous, next, false);
+        ring = next;
+        rebalance(previous, next, true);
+
+        for (Consumer<List<String>> listener : listeners) {
+            listener.accept(next.nodes());
+        }
+    }
+
+    /**
+     * @param sweep hand over only stocks sold to the old owners since the companies were first released, the
+     *              companies themselves are adopted by then
+     */
+    private void rebalance(HashRing previous, HashRing next, boolean sweep) {
+        for (String node : previous.nodes()) {
+            final List<String> companyNames;
+
+            try {
+                companyNames = Optional.ofNullable(
+                        restTemplate.exchange(node + "/companies", HttpMethod.GET, null, NAMES_TYPE).getBody()
+                ).orElse(List.of());
+            } catch (RestClientException e) {
+                LOGGER.error("Can't list companies of node '{}'", node, e);
+
+                continue;
+            }
+
+            final Map<String, List<String>> moved = new LinkedHashMap<>();
+
+            for (String companyName : companyNames) {
+                final String owner = next.node(companyName);
+
+                if (!owner.equals(node)) {
+                    moved.computeIfAbsent(owner, key -> new ArrayList<>()).add(companyName);
+                }
+            }
+
+            moved.forEach((owner, names) -> handOver(node, owner, names, sweep));
+        }
+    }
+
+    /**
+     * Adopts every handoff left pending on the nodes by an earlier rebalance on its target and completes it. A handoff
+     * without a target, cut short before the release was journaled in full, goes back to the node that released it.
+     */
+    private void resume(List<String> nodes) {
+        for (String node : nodes) {
+            final List<Handoff> pending;
+
+            try {
+                pending = Optional.ofNullable(
+                        restTemplate.exchange(node + "/partition/pending", HttpMethod.GET, null, HANDOFFS_TYPE)
+                                .getBody()
+                ).orElse(List.of());
+            } catch (RestClientException e) {
+                LOGGER.error("Can't list pending handoffs of node '{}'", node, e);
+
+                continue;
+            }
+
+            for (Handoff handoff : pending) {
+                LOGGER.info("Resuming handoff {} from node '{}' to node '{}'", handoff.id(), node, handoff.target());
+                adopt(node, handoff.target() == null ? node : handoff.target(), handoff);
+            }
+        }
+    }
+
+    /**
+     * Releases the companies on one node and has another adopt them. Stocks the new owner fails to adopt stay pending
+     * on the node they were released from until the handoff is resumed.
+     */
+    private void handOver(String from, String to, List<String> companyNames, boolean sweep) {
+        final Handoff released;
+
+        try {
+            released = post(
+                    from + "/partition/release",
+                    new ReleaseRequest(UUID.randomUUID().toString(), to, companyNames),
+                    HANDOFF_TYPE
+            );
+        } catch (RestClientException e) {
+            LOGGER.error("Can't release {} companies on node '{}'", companyNames.size(), from, e);
+
+            return;
+        }
+
+        if (released == null) {
+            return;
+        }
+
+        final Handoff handedOver = sweep
+                ? new Handoff(
+                        released.id(),
+                        released.target(),
+                        released.listings().stream().filter(listing -> listing.count() > 0).toList()
+                )
+                : released;
+
+        adopt(from, to, handedOver);
+    }
+
+    /**
+     * Has the target adopt the handoff, then completes it on the node that released it.
+     */
+    private void adopt(String from, String to, Handoff handoff) {
+        try {
+            if (!handoff.listings().isEmpty()) {
+                post(to + "/partition/adopt", handoff, VOID_TYPE);
+            }
+        } catch (RestClientException e) {
+            LOGGER.error(
+                    "Node '{}' can't adopt {} companies, handoff {} stays pending on '{}'",
+                    to,
+                    handoff.listings().size(),
+                    handoff.id(),
+                    from,
+                    e
+            );
+
+            return;
+        }
+
+        try {
+            post(from + "/partition/complete", handoff.id(), VOID_TYPE);
+            LOGGER.info(
+                    "Moved {} stocks of {} companies from node '{}' to node '{}'",
+                    handoff.listings().stream().mapToLong(Listing::count).sum(),
+                    handoff.listings().size(),
+                    from,
+                    to
+            );
+        } catch (RestClientException e) {
+            LOGGER.error("Can't complete handoff {} on node '{}', it's resumed later", handoff.id(), from, e);
+        }
+    }
+
+    private <T> T post(String url, Object request, ParameterizedTypeReference<T> responseType) {
+        return restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(request, headers), responseType).getBody();
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(reloadIntervalMillis);
+
+                final FileTime modified = Files.getLastModifiedTime(file);
+
+                if (!modified.equals(fileModified)) {
+                    fileModified = modified;
+                    update(read(file));
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Can't reload partition map {}", file, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static List<String> read(Path file) throws IOException {
+        return parse(Files.readAllLines(file));
+    }
+
+    /**
+     * @return distinct base URLs without trailing slashes, blank entries and {@code #} comments skipped
+     */
+    private static List<String> parse(List<String> entries) {
+        final Set<String> nodes = new LinkedHashSet<>();
+
+        for (String entry : entries) {
+            String node = entry.trim();
+
+            if (node.isEmpty() || node.startsWith("#")) {
+                continue;
+            }
+
+            while (node.endsWith("/")) {
+                node = node.substring(0, node.length() - 1);
+            }
+
+            nodes.add(node);
+        }
+
+        return List.copyOf(nodes);
+    }
+}
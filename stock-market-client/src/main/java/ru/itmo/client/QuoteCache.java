@@ -0,0 +1,283 @@
+package ru.itmo.client;
+
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.model.QuoteCacheStats;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of server quotes with single-flight loading.
+ * <p>
+ * A quote is served from the cache while it is younger than the configured staleness. Concurrent misses for
+ * the same company share one in-flight load instead of each going to the server. When the cache grows past its
+ * size limit, the oldest of a small sample of entries taken from a random part of the map is evicted.
+ * <p>
+ * Callers waiting for another caller's load get its quote or its exception, never {@code null}: if the load found
+ * no quote, they look it up on their own.
+ */
+public class QuoteCache {
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    private final long maxStalenessNanos;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, CachedQuote> quotes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<StocksSnapshot>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public QuoteCache(long maxStalenessMillis, int maxSize) {
+        this.maxStalenessNanos = maxStalenessMillis * 1_000_000;
+        this.maxSize = maxSize;
+    }
+
+    public StocksSnapshot get(String companyName, Function<String, StocksSnapshot> loader) {
+        final StocksSnapshot cached = fresh(companyName);
+
+        if (cached != null) {
+            hits.increment();
+
+            return cached;
+        }
+
+        final CompletableFuture<StocksSnapshot> load = new CompletableFuture<>();
+        final CompletableFuture<StocksSnapshot> existingLoad = inFlight.putIfAbsent(companyName, load);
+
+        if (existingLoad != null) {
+            coalesced.increment();
+
+            try {
+                return await(existingLoad);
+            } catch (QuoteNotLoadedException e) {
+                return loader.apply(companyName);
+            }
+        }
+
+        misses.increment();
+
+        try {
+            final StocksSnapshot snapshot = loader.apply(companyName);
+
+            store(companyName, snapshot);
+            complete(companyName, load, snapshot);
+
+            return snapshot;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            inFlight.remove(companyName, load);
+        }
+    }
+
+    /**
+     * Batch variant of {@link #get}: companies missing from the cache and not being loaded by another caller are
+     * fetched together with a single call of {@code loader}.
+     */
+    public Map<String, StocksSnapshot> getAll(
+            Collection<String> companyNames,
+            Function<Collection<String>, Map<String, StocksSnapshot>> loader
+    ) {
+        final Map<String, StocksSnapshot> result = new HashMap<>(companyNames.size() * 2);
+        final Map<String, CompletableFuture<StocksSnapshot>> ownLoads = new HashMap<>();
+        final Map<String, CompletableFuture<StocksSnapshot>> foreignLoads = new HashMap<>();
+
+        for (String companyName : companyNames) {
+            final StocksSnapshot cached = fresh(companyName);
+
+            if (cached != null) {
+                hits.increment();
+                result.put(companyName, cached);
+
+                continue;
+            }
+
+            final CompletableFuture<StocksSnapshot> load = new CompletableFuture<>();
+            final CompletableFuture<StocksSnapshot> existingLoad = inFlight.putIfAbsent(companyName, load);
+
+            if (existingLoad == null) {
+                misses.increment();
+                ownLoads.put(companyName, load);
+            } else {
+                coalesced.increment();
+                foreignLoads.put(companyName, existingLoad);
+            }
+        }
+
+        if (!ownLoads.isEmpty()) {
+            try {
+                final Map<String, StocksSnapshot> loaded = loader.apply(ownLoads.keySet());
+
+                ownLoads.forEach((companyName, load) -> {
+                    final StocksSnapshot snapshot = loaded.get(companyName);
+
+                    if (snapshot != null) {
+                        store(companyName, snapshot);
+                        result.put(companyName, snapshot);
+                    }
+
+                    complete(companyName, load, snapshot);
+                });
+            } catch (RuntimeException e) {
+                ownLoads.values().forEach(load -> load.completeExceptionally(e));
+
+                throw e;
+            } finally {
+                ownLoads.forEach(inFlight::remove);
+            }
+        }
+
+        foreignLoads.forEach((companyName, load) -> {
+            try {
+                result.put(companyName, await(load));
+            } catch (QuoteNotLoadedException e) {
+                // Unknown to the server, absent from the result like the companies of the own load.
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Replaces the cached quote with a fresher one learned as a side effect of another call.
+     */
+    public void put(String companyName, StocksSnapshot snapshot) {
+        store(companyName, snapshot);
+    }
+
+    public QuoteCacheStats stats() {
+        return new QuoteCacheStats(
+                true,
+                hits.sum(),
+                misses.sum(),
+                coalesced.sum(),
+                evictions.sum(),
+                quotes.size()
+        );
+    }
+
+    private StocksSnapshot fresh(String companyName) {
+        final CachedQuote cachedQuote = quotes.get(companyName);
+
+        if (cachedQuote == null || System.nanoTime() - cachedQuote.loadedAt() > maxStalenessNanos) {
+            return null;
+        }
+
+        return cachedQuote.snapshot();
+    }
+
+    private void store(String companyName, StocksSnapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+
+        quotes.put(companyName, new CachedQuote(snapshot, System.nanoTime()));
+
+        if (quotes.size() > maxSize) {
+            evictOldestOfSample();
+        }
+    }
+
+    private void evictOldestOfSample() {
+        Map.Entry<String, CachedQuote> oldest = oldestOf(randomRegion());
+
+        if (oldest == null) {
+            oldest = oldestOf(quotes.entrySet().spliterator());
+        }
+
+        if (oldest != null && quotes.remove(oldest.getKey(), oldest.getValue())) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Halves the map at random until about a sample is left. Splitting a {@link ConcurrentHashMap} only splits the
+     * range of its table, so this takes {@code log(size)} steps and never walks the entries before the sample.
+     */
+    private Spliterator<Map.Entry<String, CachedQuote>> randomRegion() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        Spliterator<Map.Entry<String, CachedQuote>> region = quotes.entrySet().spliterator();
+
+        while (region.estimateSize() > EVICTION_SAMPLE_SIZE) {
+            final Spliterator<Map.Entry<String, CachedQuote>> firstHalf = region.trySplit();
+
+            if (firstHalf == null) {
+                break;
+            }
+
+            if (random.nextBoolean()) {
+                region = firstHalf;
+            }
+        }
+
+        return region;
+    }
+
+    private static Map.Entry<String, CachedQuote> oldestOf(Spliterator<Map.Entry<String, CachedQuote>> region) {
+        final OldestEntry oldest = new OldestEntry();
+
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+            if (!region.tryAdvance(oldest)) {
+                break;
+            }
+        }
+
+        return oldest.entry;
+    }
+
+    /**
+     * Completes the load for the callers waiting for it, a missing quote as {@link QuoteNotLoadedException}.
+     */
+    private static void complete(String companyName, CompletableFuture<StocksSnapshot> load, StocksSnapshot snapshot) {
+        if (snapshot == null) {
+            load.completeExceptionally(new QuoteNotLoadedException(companyName));
+        } else {
+            load.complete(snapshot);
+        }
+    }
+
+    private static StocksSnapshot await(CompletableFuture<StocksSnapshot> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    private record CachedQuote(StocksSnapshot snapshot, long loadedAt) {
+    }
+
+    private static final class OldestEntry implements Consumer<Map.Entry<String, CachedQuote>> {
+        private Map.Entry<String, CachedQuote> entry;
+
+        @Override
+        public void accept(Map.Entry<String, CachedQuote> candidate) {
+            if (entry == null || candidate.getValue().loadedAt() - entry.getValue().loadedAt() < 0) {
+                entry = candidate;
+            }
+        }
+    }
+
+    private static final class QuoteNotLoadedException extends RuntimeException {
+        private QuoteNotLoadedException(String companyName) {
+            super("No quote of company " + companyName, null, false, false);
+        }
+    }
+}
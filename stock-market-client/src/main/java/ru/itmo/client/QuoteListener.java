@@ -0,0 +1,11 @@
+package ru.itmo.client;
+
+import ru.itmo.domain.StocksSnapshot;
+
+/**
+ * Receives every quote delivered by the {@link QuoteStream}, on its reader thread.
+ */
+@FunctionalInterface
+public interface QuoteListener {
+    void onQuote(String companyName, StocksSnapshot snapshot);
+}
@@ -0,0 +1,219 @@
+package ru.itmo.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmo.domain.QuoteUpdate;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Keeps local copies of server quotes current through the server-sent quote stream of every market node.
+ * <p>
+ * Quotes of a node are only served while its stream is connected; after a disconnect they are dropped and callers
+ * fall back to polling until the stream is re-established. The server starts every connection with the current quote
+ * of each company and marks the end of that replay, so listeners catch up with whatever they missed while it was down
+ * and know when they did. A quote is looked up in the
+ * stream of the node that owns the company, streams are opened and closed as nodes join and leave the partition map.
+ */
+@Component
+public class QuoteStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuoteStream.class);
+
+    private static final String EVENT_PREFIX = "event:";
+    private static final String DATA_PREFIX = "data:";
+    private static final String REPLAYED_EVENT = "replayed";
+
+    private final ObjectMapper objectMapper;
+    private final PartitionMap partitionMap;
+    private final ConcurrentHashMap<String, NodeStream> streams = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<QuoteListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Value("${client.quote-stream.enabled:false}")
+    private boolean enabled;
+
+    @Value("${client.quote-stream.reconnect-delay-ms:1000}")
+    private long reconnectDelayMillis;
+
+    private boolean running;
+
+    public QuoteStream(ObjectMapper objectMapper, PartitionMap partitionMap) {
+        this.objectMapper = objectMapper;
+        this.partitionMap = partitionMap;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (!enabled) {
+            return;
+        }
+
+        running = true;
+        partitionMap.addListener(this::connect);
+        connect(partitionMap.nodes());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        streams.values().forEach(NodeStream::stop);
+        streams.clear();
+    }
+
+    public void addListener(QuoteListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return {@code true} if the streams of all nodes are connected and have replayed the current quotes, so
+     * listeners have seen the latest quote of every company
+     */
+    public boolean isReplayed() {
+        return !streams.isEmpty() && streams.values().stream().allMatch(stream -> stream.connected && stream.replayed);
+    }
+
+    /**
+     * @return streamed quote of the company, or {@code null} if the stream of its node is down or has not delivered
+     * it yet
+     */
+    public StocksSnapshot get(String companyName) {
+        final NodeStream stream = streams.get(partitionMap.node(companyName));
+
+        return stream != null && stream.connected ? stream.quotes.get(companyName) : null;
+    }
+
+    private synchronized void connect(List<String> nodes) {
+        if (!running) {
+            return;
+        }
+
+        streams.entrySet().removeIf(stream -> {
+            if (nodes.contains(stream.getKey())) {
+                return false;
+            }
+
+            stream.getValue().stop();
+
+            return true;
+        });
+
+        for (String node : nodes) {
+            streams.computeIfAbsent(node, NodeStream::new).start();
+        }
+    }
+
+    private class NodeStream {
+        private final String node;
+        private final ConcurrentHashMap<String, StocksSnapshot> quotes = new ConcurrentHashMap<>();
+
+        private volatile boolean connected;
+        private volatile boolean replayed;
+        private String event;
+        private Thread reader;
+
+        private NodeStream(String node) {
+            this.node = node;
+        }
+
+        private void start() {
+            if (reader != null) {
+                return;
+            }
+
+            reader = new Thread(this::run, "quote-stream-reader-" + node);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void stop() {
+            if (reader != null) {
+                reader.interrupt();
+            }
+        }
+
+        private void run() {
+            final HttpClient httpClient = HttpClient.newHttpClient();
+            final HttpRequest request = HttpRequest.newBuilder(URI.create(node + "/stream/quotes"))
+                    .header("Accept", "text/event-stream")
+                    .GET()
+                    .build();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    final HttpResponse<Stream<String>> response = httpClient.send(
+                            request,
+                            HttpResponse.BodyHandlers.ofLines()
+                    );
+
+                    connected = response.statusCode() == 200;
+
+                    try (Stream<String> lines = response.body()) {
+                        lines.forEach(this::onLine);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Quote stream from '{}' is disconnected: {}", node, e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    connected = false;
+                    replayed = false;
+                    event = null;
+                    quotes.clear();
+                }
+
+                try {
+                    Thread.sleep(reconnectDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void onLine(String line) {
+            if (line.isEmpty()) {
+                event = null;
+            } else if (line.startsWith(EVENT_PREFIX)) {
+                event = line.substring(EVENT_PREFIX.length()).trim();
+            } else if (line.startsWith(DATA_PREFIX)) {
+                if (REPLAYED_EVENT.equals(event)) {
+                    replayed = true;
+                } else {
+                    onData(line);
+                }
+            }
+        }
+
+        private void onData(String line) {
+            try {
+                final QuoteUpdate quoteUpdate = objectMapper.readValue(
+                        line.substring(DATA_PREFIX.length()).trim(),
+                        QuoteUpdate.class
+                );
+
+                final StocksSnapshot snapshot = new StocksSnapshot(quoteUpdate.count(), quoteUpdate.cost());
+
+                quotes.put(quoteUpdate.companyName(), snapshot);
+
+                for (QuoteListener listener : listeners) {
+                    listener.onQuote(quoteUpdate.companyName(), snapshot);
+                }
+            } catch (JsonProcessingException e) {
+                LOGGER.error("Can't parse quote stream event '{}'", line, e);
+            }
+        }
+    }
+}
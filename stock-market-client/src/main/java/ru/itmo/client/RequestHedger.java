@@ -0,0 +1,159 @@
+package ru.itmo.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends a request and, if no response came within the hedging delay, sends a copy of it and returns whichever
+ * response comes first. Copies carry the idempotency key of the request, so the server executes it once.
+ * <p>
+ * Attempts run on a pool of at most {@code max-threads} threads that doesn't queue. A request that finds the pool
+ * busy is sent on the calling thread and a copy that finds it busy isn't sent, so a slow market costs no more than
+ * that many threads however many requests wait for it.
+ */
+@Component
+public class RequestHedger {
+    private final long delayMillis;
+    private final ExecutorService executor;
+
+    /**
+     * @param enabled     {@code false} sends every request once, on the calling thread
+     * @param delayMillis how long to wait for a response before sending a copy
+     * @param maxThreads  attempts in flight at most
+     */
+    public RequestHedger(
+            @Value("${client.hedging.enabled:false}") boolean enabled,
+            @Value("${client.hedging.delay-ms:50}") long delayMillis,
+            @Value("${client.hedging.max-threads:64}") int maxThreads
+    ) {
+        if (enabled && maxThreads < 1) {
+            throw new IllegalArgumentException("Hedging needs at least one thread: " + maxThreads);
+        }
+
+        this.delayMillis = delayMillis;
+        this.executor = enabled ? newExecutor(maxThreads) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A request that failed within the delay isn't hedged.
+     *
+     * @return response of the attempt that succeeded first
+     */
+    public <T> T send(Call<T> call) throws JsonProcessingException {
+        if (executor == null) {
+            return call.execute();
+        }
+
+        final CompletableFuture<T> first;
+
+        try {
+            first = attempt(call);
+        } catch (RejectedExecutionException e) {
+            return call.execute();
+        }
+
+        try {
+            return first.get(delayMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return await(hedge(first, call));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return await(first);
+        } catch (ExecutionException e) {
+            return await(first);
+        }
+    }
+
+    private <T> CompletableFuture<T> hedge(CompletableFuture<T> first, Call<T> call) {
+        try {
+            return firstSuccessful(first, attempt(call));
+        } catch (RejectedExecutionException e) {
+            return first;
+        }
+    }
+
+    private <T> CompletableFuture<T> attempt(Call<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.execute();
+            } catch (JsonProcessingException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return result of the attempt that succeeds first, failure of the last one if both fail
+     */
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+        final BiConsumer<T, Throwable> completion = (value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        };
+
+        first.whenComplete(completion);
+        second.whenComplete(completion);
+
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws JsonProcessingException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof JsonProcessingException cause) {
+                throw cause;
+            }
+
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    private static ExecutorService newExecutor(int maxThreads) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "stock-market-hedging-" + threadNumber.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T execute() throws JsonProcessingException;
+    }
+}
@@ -4,63 +4,226 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import ru.itmo.client.exceptions.OrderRejectedException;
 import ru.itmo.client.exceptions.StockMarketServerException;
+import ru.itmo.config.BinaryMessageConverter;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BatchOrderResult;
 import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.OrderResult;
 import ru.itmo.domain.SellStockRequest;
 import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.domain.SymbolId;
+import ru.itmo.model.QuoteCacheStats;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class StockMarketClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(StockMarketClient.class);
+    private static final long SYMBOL_ID_MISS_TTL_NANOS = TimeUnit.SECONDS.toNanos(1);
 
     private final ObjectMapper objectMapper;
     private final RestTemplate restTemplate;
     private final HttpHeaders headers;
+    private final HttpHeaders binaryHeaders;
+    private final HttpHeaders quoteHeaders;
+    private final QuoteCache quoteCache;
+    private final QuoteStream quoteStream;
+    private final AsyncStockMarketClient asyncClient;
+    private final PartitionMap partitionMap;
+    private final RequestHedger requestHedger;
+    private final int batchSize;
+    private final int retries;
+    private final ConcurrentHashMap<String, Integer> symbolIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> symbolIdMisses = new ConcurrentHashMap<>();
 
-    @Value("${client.url}")
-    private String url;
+    private volatile boolean binaryWire;
 
-    public StockMarketClient(ObjectMapper objectMapper) {
+    @Autowired
+    public StockMarketClient(
+            ObjectMapper objectMapper,
+            QuoteStream quoteStream,
+            AsyncStockMarketClient asyncClient,
+            PartitionMap partitionMap,
+            RequestHedger requestHedger,
+            @Value("${client.async.batch-size:64}") int batchSize,
+            @Value("${client.wire-format:json}") String wireFormat,
+            @Value("${client.quote-cache.enabled:false}") boolean quoteCacheEnabled,
+            @Value("${client.quote-cache.max-staleness-ms:50}") long quoteCacheMaxStalenessMillis,
+            @Value("${client.quote-cache.max-size:10000}") int quoteCacheMaxSize,
+            @Value("${client.retries:1}") int retries
+    ) {
         this.objectMapper = objectMapper;
+        this.quoteStream = quoteStream;
+        this.asyncClient = asyncClient;
+        this.partitionMap = partitionMap;
+        this.requestHedger = requestHedger;
+        this.batchSize = batchSize;
+        this.retries = retries;
         this.restTemplate = new RestTemplate();
         this.headers = new HttpHeaders();
+        this.binaryHeaders = new HttpHeaders();
+        this.quoteHeaders = new HttpHeaders();
+        this.binaryWire = "binary".equals(wireFormat);
+        this.quoteCache = quoteCacheEnabled
+                ? new QuoteCache(quoteCacheMaxStalenessMillis, quoteCacheMaxSize)
+                : null;
 
         this.headers.setContentType(MediaType.APPLICATION_JSON);
+        this.binaryHeaders.setContentType(BinaryMessageConverter.BINARY);
+        this.binaryHeaders.setAccept(List.of(BinaryMessageConverter.BINARY, MediaType.APPLICATION_JSON));
+        this.quoteHeaders.setContentType(MediaType.APPLICATION_JSON);
+        this.quoteHeaders.setAccept(List.of(BinaryMessageConverter.BINARY, MediaType.APPLICATION_JSON));
+        this.restTemplate.getMessageConverters().add(new BinaryMessageConverter());
+        this.partitionMap.addListener(nodes -> {
+            symbolIds.clear();
+            symbolIdMisses.clear();
+        });
+    }
+
+    /**
+     * Client for stubs that answer orders and lookups themselves: no quote stream, async client, quote cache, hedging
+     * or retries, JSON on the wire.
+     */
+    protected StockMarketClient(PartitionMap partitionMap) {
+        this(null, null, null, partitionMap, null, 64, "json", false, 0, 0, 0);
     }
 
     public StocksSnapshot getStock(String companyName) {
+        final StocksSnapshot streamed = quoteStream.get(companyName);
+
+        if (streamed != null) {
+            return streamed;
+        }
+
+        if (quoteCache == null) {
+            return fetchStock(companyName);
+        }
+
+        return quoteCache.get(companyName, this::fetchStock);
+    }
+
+    private StocksSnapshot fetchStock(String companyName) {
         return restTemplate.exchange(
-                getUrl("/get/stocks"),
+                getUrl(companyName, "/get/stocks"),
                 HttpMethod.POST,
-                new HttpEntity<>(companyName, headers),
+                new HttpEntity<>(companyName, binaryWire ? quoteHeaders : headers),
                 StocksSnapshot.class
             ).getBody();
     }
 
-    private String getUrl(String path) {
-        return String.format("%s%s", url, path);
+    /**
+     * Fetches quotes of several companies in one round-trip.
+     *
+     * @return snapshots by company name, companies unknown to the server are absent
+     */
+    public Map<String, StocksSnapshot> getStocks(Collection<String> companyNames) {
+        if (companyNames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, StocksSnapshot> snapshots = new HashMap<>(companyNames.size() * 2);
+        final List<String> missing = new ArrayList<>();
+
+        for (String companyName : companyNames) {
+            final StocksSnapshot streamed = quoteStream.get(companyName);
+
+            if (streamed == null) {
+                missing.add(companyName);
+            } else {
+                snapshots.put(companyName, streamed);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return snapshots;
+        }
+
+        snapshots.putAll(quoteCache == null ? fetchStocks(missing) : quoteCache.getAll(missing, this::fetchStocks));
+
+        return snapshots;
+    }
+
+    public QuoteCacheStats getQuoteCacheStats() {
+        if (quoteCache == null) {
+            return new QuoteCacheStats(false, 0, 0, 0, 0, 0);
+        }
+
+        return quoteCache.stats();
+    }
+
+    /**
+     * Splits the lookup into batches of at most {@code client.async.batch-size} companies of one node and sends all
+     * of them through the async client before waiting for the first one. A node gets no more batches at a time than
+     * the async client has connections to it, the rest are sent as the earlier ones complete.
+     */
+    private Map<String, StocksSnapshot> fetchStocks(Collection<String> companyNames) {
+        final List<CompletableFuture<Map<String, StocksSnapshot>>> batches = new ArrayList<>();
+
+        partitionMap.partition(companyNames).forEach((node, names) -> {
+            final int first = batches.size();
+
+            for (int from = 0; from < names.size(); from += batchSize) {
+                final List<String> batch = names.subList(from, Math.min(names.size(), from + batchSize));
+                final int previous = batches.size() - asyncClient.maxConnections();
+
+                batches.add(previous < first
+                        ? asyncClient.getStocks(node, batch)
+                        : batches.get(previous).thenCompose(snapshots -> asyncClient.getStocks(node, batch)));
+            }
+        });
+
+        final Map<String, StocksSnapshot> snapshots = new HashMap<>(companyNames.size() * 2);
+
+        try {
+            batches.forEach(batch -> snapshots.putAll(batch.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * @return URL of the path on the node that owns the company
+     */
+    private String getUrl(String companyName, String path) {
+        return partitionMap.node(companyName) + path;
     }
 
     public int sellStocks(String companyName, int count) {
         try {
-            Integer result = restTemplate.exchange(
-                    getUrl("/sell/stocks"),
-                    HttpMethod.POST,
-                    new HttpEntity<>(
-                            objectMapper.writeValueAsString(new SellStockRequest(companyName, count)),
-                            headers
-                    ),
-                    Integer.class
-                ).getBody();
+            final int symbolId = symbolId(companyName);
+            final String url = getUrl(companyName, "/sell/stocks");
+            SellStockRequest request = new SellStockRequest(companyName, count, symbolId, idempotencyKey());
+            Integer result = send(() -> post(url, request, Integer.class));
 
             return Optional.ofNullable(result).orElseThrow(StockMarketServerException::new);
         } catch (JsonProcessingException | StockMarketServerException e) {
@@ -70,21 +233,292 @@ public class StockMarketClient {
         }
     }
 
-    public StocksSnapshot buyStock(String companyName, int count, int userMoney) {
+    /**
+     * @param userMoney most the order may spend
+     * @throws OrderRejectedException if the market lacks the stocks or they cost more than the order may spend
+     */
+    public StocksSnapshot buyStock(String companyName, int count, int userMoney) throws OrderRejectedException {
         try {
-            return restTemplate.exchange(
-                            getUrl("/buy/stocks"),
-                            HttpMethod.POST,
-                            new HttpEntity<>(
-                                    objectMapper.writeValueAsString(new BuyStockRequest(companyName, count, userMoney)),
-                                    headers
-                                    ),
-                            StocksSnapshot.class
-                ).getBody();
+            BuyStockRequest request = new BuyStockRequest(
+                    companyName,
+                    count,
+                    userMoney,
+                    symbolId(companyName),
+                    idempotencyKey()
+            );
+            final String url = getUrl(companyName, "/buy/stocks");
+
+            return send(() -> post(url, request, StocksSnapshot.class));
+        } catch (HttpClientErrorException.BadRequest e) {
+            throw new OrderRejectedException(String.format(
+                    "Market rejected buying '%d' stocks of company '%s' for at most %d",
+                    count,
+                    companyName,
+                    userMoney
+            ));
         } catch (JsonProcessingException e) {
             LOGGER.error("Can't buy '{}' stocks of company '{}'", count, companyName, e);
 
             return new StocksSnapshot(0, 0);
         }
     }
+
+    /**
+     * Never waits for a lookup: an id that isn't cached yet is looked up in the background and the order goes out
+     * with the name only, which the server resolves itself. The server only takes an id that belongs to the named
+     * company, so an outdated one costs a lookup by name there, nothing more.
+     *
+     * @return cached id of the company on the node that owns it, {@link SymbolId#NONE} if there is none yet
+     */
+    private int symbolId(String companyName) {
+        final Integer cached = symbolIds.get(companyName);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        resolveSymbolIds(List.of(companyName));
+
+        return SymbolId.NONE;
+    }
+
+    /**
+     * Looks the ids of companies that aren't cached up in one request per node without waiting for the answers.
+     * Ids are cached until the node list changes. A company that is being looked up, or that its node doesn't list,
+     * isn't looked up again for {@link #SYMBOL_ID_MISS_TTL_NANOS}.
+     */
+    private void resolveSymbolIds(Collection<String> companyNames) {
+        final long now = System.nanoTime();
+        final List<String> unresolved = new ArrayList<>();
+
+        for (String companyName : companyNames) {
+            if (symbolIds.containsKey(companyName)) {
+                continue;
+            }
+
+            final Long retryAt = symbolIdMisses.get(companyName);
+            final long nextRetryAt = now + SYMBOL_ID_MISS_TTL_NANOS;
+            final boolean lookUp = retryAt == null
+                    ? symbolIdMisses.putIfAbsent(companyName, nextRetryAt) == null
+                    : retryAt - now <= 0 && symbolIdMisses.replace(companyName, retryAt, nextRetryAt);
+
+            if (lookUp) {
+                unresolved.add(companyName);
+            }
+        }
+
+        if (unresolved.isEmpty()) {
+            return;
+        }
+
+        partitionMap.partition(unresolved).forEach((node, names) -> {
+            for (int from = 0; from < names.size(); from += batchSize) {
+                final List<String> batch = names.subList(from, Math.min(names.size(), from + batchSize));
+
+                asyncClient.getSymbolIds(node, batch).whenComplete((resolved, error) -> {
+                    if (error != null) {
+                        LOGGER.warn("Can't look up symbol ids of {} companies on node '{}'", batch.size(), node, error);
+
+                        return;
+                    }
+
+                    resolved.forEach((companyName, symbolId) -> {
+                        if (SymbolId.isAssigned(symbolId)) {
+                            symbolIds.put(companyName, symbolId);
+                            symbolIdMisses.remove(companyName);
+                        }
+                    });
+                });
+            }
+        });
+    }
+
+    /**
+     * Sends many buys and sells in one round-trip per node, each node gets the orders of its own companies.
+     *
+     * @return one result per order, results of the buys followed by results of the sells,
+     * empty if the batch couldn't be executed. If the orders span several nodes and only some of them executed
+     * their part, the orders of the others have {@code null} results.
+     */
+    public List<OrderResult> executeOrders(List<BuyStockRequest> buyOrders, List<SellStockRequest> sellOrders) {
+        final Map<String, NodeBatch> batches = new LinkedHashMap<>();
+        final List<String> companyNames = new ArrayList<>(buyOrders.size() + sellOrders.size());
+
+        buyOrders.forEach(buyOrder -> companyNames.add(buyOrder.companyName()));
+        sellOrders.forEach(sellOrder -> companyNames.add(sellOrder.companyName()));
+        resolveSymbolIds(companyNames);
+
+        for (int i = 0; i < buyOrders.size(); i++) {
+            batches.computeIfAbsent(partitionMap.node(buyOrders.get(i).companyName()), node -> new NodeBatch())
+                    .addBuy(i, withSymbolId(buyOrders.get(i)));
+        }
+
+        for (int i = 0; i < sellOrders.size(); i++) {
+            batches.computeIfAbsent(partitionMap.node(sellOrders.get(i).companyName()), node -> new NodeBatch())
+                    .addSell(buyOrders.size() + i, withSymbolId(sellOrders.get(i)));
+        }
+
+        if (batches.size() <= 1) {
+            final String node = batches.isEmpty() ? partitionMap.nodes().get(0) : batches.keySet().iterator().next();
+            final NodeBatch orders = batches.isEmpty() ? new NodeBatch() : batches.get(node);
+            final List<OrderResult> results = executeBatch(node, orders.buyOrders, orders.sellOrders);
+
+            return results == null ? List.of() : results;
+        }
+
+        final List<OrderResult> results = new ArrayList<>(Collections.nCopies(
+                buyOrders.size() + sellOrders.size(),
+                null
+        ));
+        boolean executed = false;
+
+        for (Map.Entry<String, NodeBatch> batch : batches.entrySet()) {
+            final NodeBatch orders = batch.getValue();
+            final List<OrderResult> nodeResults = executeBatch(batch.getKey(), orders.buyOrders, orders.sellOrders);
+
+            if (nodeResults == null) {
+                continue;
+            }
+
+            for (int i = 0; i < nodeResults.size(); i++) {
+                results.set(orders.position(i), nodeResults.get(i));
+            }
+
+            executed = true;
+        }
+
+        return executed ? results : List.of();
+    }
+
+    private BuyStockRequest withSymbolId(BuyStockRequest buyOrder) {
+        return SymbolId.isAssigned(buyOrder.symbolId()) ? buyOrder : new BuyStockRequest(
+                buyOrder.companyName(),
+                buyOrder.count(),
+                buyOrder.userAmountMoney(),
+                symbolIds.getOrDefault(buyOrder.companyName(), SymbolId.NONE),
+                buyOrder.idempotencyKey()
+        );
+    }
+
+    private SellStockRequest withSymbolId(SellStockRequest sellOrder) {
+        return SymbolId.isAssigned(sellOrder.symbolId()) ? sellOrder : new SellStockRequest(
+                sellOrder.companyName(),
+                sellOrder.count(),
+                symbolIds.getOrDefault(sellOrder.companyName(), SymbolId.NONE),
+                sellOrder.idempotencyKey()
+        );
+    }
+
+    /**
+     * @return results of the node, {@code null} if it couldn't execute the batch
+     */
+    private List<OrderResult> executeBatch(
+            String node,
+            List<BuyStockRequest> buyOrders,
+            List<SellStockRequest> sellOrders
+    ) {
+        try {
+            BatchOrderResult result = post(
+                    node + "/orders/batch",
+                    new BatchOrderRequest(buyOrders, sellOrders),
+                    BatchOrderResult.class
+            );
+
+            return Optional.ofNullable(result).orElseThrow(StockMarketServerException::new).results();
+        } catch (JsonProcessingException | StockMarketServerException e) {
+            LOGGER.error(
+                    "Can't execute a batch of {} buys and {} sells on node '{}'",
+                    buyOrders.size(),
+                    sellOrders.size(),
+                    node,
+                    e
+            );
+
+            return null;
+        }
+    }
+
+    /**
+     * @return key the server recognizes retries and hedged copies of a request by
+     */
+    private static String idempotencyKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Sends a buy or sell, hedged if hedging is on, and sends it again if it failed before any response came. The
+     * request keeps its idempotency key, so a retry of a request the market did execute gets its outcome instead of
+     * being executed twice. Callers resolve the node before, so every attempt goes to the same one and the partition
+     * map is looked up once per order.
+     */
+    private <T> T send(RequestHedger.Call<T> call) throws JsonProcessingException {
+        for (int retry = 0; ; retry++) {
+            try {
+                return requestHedger.send(call);
+            } catch (ResourceAccessException e) {
+                if (retry >= retries) {
+                    throw e;
+                }
+
+                LOGGER.warn("Request to the stock market failed, retrying: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sends the request in the binary wire format while the server accepts it and in JSON otherwise.
+     * A server that rejects the binary media type switches this client to JSON for good.
+     */
+    private <T> T post(String url, Object request, Class<T> responseType) throws JsonProcessingException {
+        if (binaryWire) {
+            try {
+                return restTemplate.exchange(
+                        url,
+                        HttpMethod.POST,
+                        new HttpEntity<>(request, binaryHeaders),
+                        responseType
+                ).getBody();
+            } catch (HttpClientErrorException.UnsupportedMediaType | HttpClientErrorException.NotAcceptable e) {
+                LOGGER.warn("Stock market doesn't support binary wire format, falling back to JSON", e);
+
+                binaryWire = false;
+            }
+        }
+
+        return restTemplate.exchange(
+                url,
+                HttpMethod.POST,
+                new HttpEntity<>(objectMapper.writeValueAsString(request), headers),
+                responseType
+        ).getBody();
+    }
+
+    /**
+     * Orders of one node with the position of each order's result in the whole batch, buys before sells.
+     */
+    private static class NodeBatch {
+        private final List<BuyStockRequest> buyOrders = new ArrayList<>();
+        private final List<SellStockRequest> sellOrders = new ArrayList<>();
+        private final List<Integer> buyPositions = new ArrayList<>();
+        private final List<Integer> sellPositions = new ArrayList<>();
+
+        private void addBuy(int position, BuyStockRequest buyOrder) {
+            buyOrders.add(buyOrder);
+            buyPositions.add(position);
+        }
+
+        private void addSell(int position, SellStockRequest sellOrder) {
+            sellOrders.add(sellOrder);
+            sellPositions.add(position);
+        }
+
+        /**
+         * @param index position of the result in the node's results
+         */
+        private int position(int index) {
+            return index < buyPositions.size()
+                    ? buyPositions.get(index)
+                    : sellPositions.get(index - buyPositions.size());
+        }
+    }
 }
@@ -0,0 +1,10 @@
+package ru.itmo.client.exceptions;
+
+/**
+ * The market refused the order, it lacks the stocks or the order the money to pay for them.
+ */
+public class OrderRejectedException extends Exception {
+    public OrderRejectedException(String message) {
+        super(message);
+    }
+}
@@ -3,4 +3,8 @@ package ru.itmo.client.exceptions;
 public class StockMarketServerException extends Exception {
     public StockMarketServerException() {
     }
+
+    public StockMarketServerException(String message) {
+        super(message);
+    }
 }
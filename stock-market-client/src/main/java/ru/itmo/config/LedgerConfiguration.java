@@ -0,0 +1,21 @@
+package ru.itmo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.itmo.services.ledger.UserLedger;
+
+import java.nio.file.Path;
+
+@Configuration
+@ConditionalOnProperty(name = "client.ledger.enabled", havingValue = "true")
+public class LedgerConfiguration {
+    @Bean
+    public UserLedger userLedger(
+            @Value("${client.ledger.file:data/ledger/users.log}") String file,
+            @Value("${client.ledger.batch-window-us:200}") long batchWindowMicros
+    ) {
+        return new UserLedger(Path.of(file), batchWindowMicros);
+    }
+}
@@ -0,0 +1,42 @@
+package ru.itmo.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs Tomcat request handling on virtual threads when {@code app.virtual-threads.enabled=true}, as do the user
+ * mailboxes and the response handlers of the async market client.
+ * <p>
+ * Virtual threads need Java 21, so the executor is looked up reflectively and the code still builds for Java 17. The
+ * executor is created with the bean, so enabling the mode on an older runtime fails the startup right away.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfiguration {
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * @throws IllegalStateException if the runtime has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                    "app.virtual-threads.enabled=true needs Java 21 or newer, running on Java "
+                            + Runtime.version().feature(),
+                    e
+            );
+        }
+    }
+}
@@ -7,9 +7,11 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import ru.itmo.client.exceptions.OrderRejectedException;
 import ru.itmo.model.ClientBuyStockRequest;
 import ru.itmo.model.ClientSellStockRequest;
 import ru.itmo.model.DepositRequest;
+import ru.itmo.model.QuoteCacheStats;
 import ru.itmo.model.UserStocks;
 import ru.itmo.services.StockMarketClientService;
 import ru.itmo.services.exceptions.NotEnoughStocksException;
@@ -57,8 +59,19 @@ public class StockMarketClientController {
         }
     }
 
+    @GetMapping("/get/stocks/lots")
+    public ResponseEntity<List<UserStocks>> onGetLots(@RequestBody String id) {
+        try {
+            return ResponseEntity.ok(stockMarketClientService.getUserLots(id));
+        } catch (UserNotFoundException e) {
+            LOGGER.error("Can't get lots", e);
+
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @GetMapping("/get/user/money")
-    public ResponseEntity<Integer> onGetUserMoney(@RequestBody String id) {
+    public ResponseEntity<Long> onGetUserMoney(@RequestBody String id) {
         try {
             return ResponseEntity.ok(stockMarketClientService.getUserMoney(id));
         } catch (UserNotFoundException e) {
@@ -68,6 +81,11 @@ public class StockMarketClientController {
         }
     }
 
+    @GetMapping("/stats/quote-cache")
+    public ResponseEntity<QuoteCacheStats> onGetQuoteCacheStats() {
+        return ResponseEntity.ok(stockMarketClientService.getQuoteCacheStats());
+    }
+
     @PostMapping("/buy/stocks")
     public ResponseEntity<Void> onBuyStocks(@RequestBody ClientBuyStockRequest clientBuyStockRequest) {
         try {
@@ -78,6 +96,10 @@ public class StockMarketClientController {
             LOGGER.error("Can't buy stocks", e);
 
             return ResponseEntity.notFound().build();
+        } catch (OrderRejectedException e) {
+            LOGGER.error("Can't buy stocks", e);
+
+            return ResponseEntity.badRequest().build();
         }
     }
 
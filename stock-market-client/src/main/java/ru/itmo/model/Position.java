@@ -0,0 +1,95 @@
+package ru.itmo.model;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Everything a user holds of one company: total count and cost basis, kept up to date on every change,
+ * and the lots they were bought in, oldest first.
+ * <p>
+ * Changes are made under the monitor of the owning {@link User}. Count and cost basis can be read without it.
+ */
+public class Position {
+    private final String companyName;
+    private final ArrayDeque<UserStocks> lots = new ArrayDeque<>();
+
+    private volatile int count;
+    private volatile long costBasis;
+
+    public Position(String companyName) {
+        this.companyName = companyName;
+    }
+
+    public String getCompanyName() {
+        return companyName;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return amount paid for the stocks still held
+     */
+    public long getCostBasis() {
+        return costBasis;
+    }
+
+    public int getLotCount() {
+        return lots.size();
+    }
+
+    /**
+     * Has to be called under the monitor of the owning user.
+     */
+    public List<UserStocks> getLots() {
+        return lots.stream()
+                .map(lot -> new UserStocks(lot.getCount(), companyName, lot.getCost()))
+                .toList();
+    }
+
+    void add(int lotCount, int cost) {
+        lots.addLast(new UserStocks(lotCount, companyName, cost));
+        count += lotCount;
+        costBasis += (long) lotCount * cost;
+    }
+
+    /**
+     * Takes stocks from the oldest lots first.
+     *
+     * @return cost basis of the removed stocks
+     */
+    long remove(int removedCount) {
+        long removedCostBasis = 0;
+        int remaining = removedCount;
+
+        while (remaining > 0 && !lots.isEmpty()) {
+            final UserStocks lot = lots.peekFirst();
+            final int taken = Math.min(remaining, lot.getCount());
+
+            if (taken == lot.getCount()) {
+                lots.removeFirst();
+            } else {
+                lot.setCount(lot.getCount() - taken);
+            }
+
+            removedCostBasis += (long) taken * lot.getCost();
+            remaining -= taken;
+        }
+
+        count -= removedCount - remaining;
+        costBasis -= removedCostBasis;
+
+        return removedCostBasis;
+    }
+
+    @Override
+    public String toString() {
+        return "Position{" +
+                "companyName='" + companyName + '\'' +
+                ", count=" + count +
+                ", costBasis=" + costBasis +
+                ", lots=" + lots.size() +
+                '}';
+    }
+}
@@ -0,0 +1,4 @@
+package ru.itmo.model;
+
+public record QuoteCacheStats(boolean enabled, long hits, long misses, long coalesced, long evictions, int size) {
+}
@@ -1,13 +1,22 @@
 package ru.itmo.model;
 
+import java.util.Collection;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Balance and portfolio of a user. The portfolio holds one {@link Position} per company, so selling and valuation
+ * cost as much as the number of companies held, whatever the number of lots bought.
+ * <p>
+ * Portfolio changes have to be made under the monitor of the user.
+ */
 public class User {
     private final String name;
     private final AtomicInteger amount;
-    private final ConcurrentLinkedDeque<UserStocks> stocks = new ConcurrentLinkedDeque<>();
+    private final ConcurrentHashMap<String, Position> positions = new ConcurrentHashMap<>();
+    private final AtomicLong holdingsValue = new AtomicLong();
 
     public User(String name, AtomicInteger amount) {
         this.name = name;
@@ -18,25 +27,64 @@ public class User {
         return name;
     }
 
-    public ConcurrentLinkedDeque<UserStocks> getStocks() {
-        return stocks;
+    /**
+     * @return position in the company, {@code null} if the user holds none of its stocks
+     */
+    public Position getPosition(String companyName) {
+        return positions.get(companyName);
+    }
+
+    public Collection<Position> getPositions() {
+        return positions.values();
     }
 
     public AtomicInteger getAmount() {
         return amount;
     }
 
+    /**
+     * @return value of all positions at the latest streamed quotes, only maintained by the incremental valuation
+     */
+    public AtomicLong getHoldingsValue() {
+        return holdingsValue;
+    }
+
+    public void addStocks(String companyName, int count, int cost) {
+        positions.computeIfAbsent(companyName, Position::new).add(count, cost);
+    }
+
+    /**
+     * Takes up to {@code count} stocks of the company from its oldest lots first.
+     *
+     * @return cost basis of the removed stocks
+     */
+    public long removeStocks(String companyName, int count) {
+        final Position position = positions.get(companyName);
+
+        if (position == null) {
+            return 0;
+        }
+
+        final long removedCostBasis = position.remove(count);
+
+        if (position.getCount() == 0) {
+            positions.remove(companyName);
+        }
+
+        return removedCostBasis;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         User user = (User) o;
-        return Objects.equals(name, user.name) && Objects.equals(amount, user.amount) && Objects.equals(stocks, user.stocks);
+        return Objects.equals(name, user.name) && Objects.equals(amount, user.amount) && Objects.equals(positions, user.positions);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, amount, stocks);
+        return Objects.hash(name, amount, positions);
     }
 
     @Override
@@ -44,7 +92,7 @@ public class User {
         return "User{" +
                 "name='" + name + '\'' +
                 ", amount=" + amount +
-                ", stocks=" + stocks +
+                ", positions=" + positions.values() +
                 '}';
     }
 }
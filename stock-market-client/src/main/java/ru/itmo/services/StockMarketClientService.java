@@ -1,18 +1,30 @@
 package ru.itmo.services;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.itmo.client.StockMarketClient;
+import ru.itmo.client.exceptions.OrderRejectedException;
 import ru.itmo.domain.StocksSnapshot;
 import ru.itmo.model.ClientBuyStockRequest;
 import ru.itmo.model.ClientSellStockRequest;
 import ru.itmo.model.DepositRequest;
+import ru.itmo.model.Position;
+import ru.itmo.model.QuoteCacheStats;
 import ru.itmo.model.User;
 import ru.itmo.model.UserStocks;
 import ru.itmo.services.exceptions.NotEnoughStocksException;
 import ru.itmo.services.exceptions.UserNotFoundException;
 import ru.itmo.services.exceptions.UserStocksNotFoundException;
+import ru.itmo.services.execution.UserMailboxes;
+import ru.itmo.services.ledger.LedgerEntryType;
+import ru.itmo.services.ledger.LedgerVisitor;
+import ru.itmo.services.ledger.UserLedger;
+import ru.itmo.services.valuation.PortfolioValuation;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
@@ -21,26 +33,74 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class StockMarketClientService {
+    private static final int LEDGER_COMPACTION_RATIO = 2;
+
     private final StockMarketClient stockMarketClient;
     private final ConcurrentHashMap<String, User> userRepository;
+    private final UserLedger ledger;
+    private final PortfolioValuation valuation;
+    private final UserMailboxes mailboxes;
 
-    public StockMarketClientService(StockMarketClient stockMarketClient) {
+    /**
+     * @param ledger    durable log of balance and portfolio changes, users are rebuilt from it before serving and
+     *                  it's compacted down to the current state when it has grown much larger than that
+     * @param valuation applies portfolio changes and may keep holdings valued as quotes change,
+     *                  {@code null} values every portfolio on demand
+     * @param mailboxes single writers deposits, buys and sells of every user go through, so a user's reservation of
+     *                  money for a buy is never interleaved with another change of the same user
+     */
+    @Autowired
+    public StockMarketClientService(
+            StockMarketClient stockMarketClient,
+            Optional<UserLedger> ledger,
+            PortfolioValuation valuation,
+            UserMailboxes mailboxes
+    ) {
         this.stockMarketClient = stockMarketClient;
         this.userRepository = new ConcurrentHashMap<>();
+        this.ledger = ledger.orElse(null);
+        this.valuation = valuation;
+        this.mailboxes = Objects.requireNonNull(mailboxes, "mailboxes");
+
+        if (this.ledger != null) {
+            long entries = this.ledger.recover(this::applyLedgerEntry);
+
+            if (entries > LEDGER_COMPACTION_RATIO * countLedgerRecords()) {
+                this.ledger.compact(this::dumpLedger);
+            }
+
+            this.ledger.start();
+        }
     }
 
     public String registerUser(String name) {
         String id = UUID.randomUUID().toString();
 
         userRepository.put(id, new User(name, new AtomicInteger(0)));
+        awaitLedger(record(LedgerEntryType.REGISTER, id, name, 0, 0, 0));
 
         return id;
     }
 
     public void addMoney(DepositRequest depositRequest) throws UserNotFoundException {
         User user = getUser(depositRequest.id());
+        long position;
 
-        user.getAmount().addAndGet(depositRequest.amount());
+        try {
+            position = execute(depositRequest.id(), () -> {
+                synchronized (user) {
+                    user.getAmount().addAndGet(depositRequest.amount());
+
+                    return record(LedgerEntryType.DEPOSIT, depositRequest.id(), "", 0, 0, depositRequest.amount());
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Deposit failed: " + depositRequest, e);
+        }
+
+        awaitLedger(position);
     }
 
     public User getUser(String id) throws UserNotFoundException {
@@ -49,63 +109,150 @@ public class StockMarketClientService {
         return Optional.ofNullable(user).orElseThrow(() -> new UserNotFoundException("Can't find user with id: " + id));
     }
 
-    public int getUserMoney(String id) throws UserNotFoundException {
+    /**
+     * @return balance plus holdings, valued at the marks kept by the incremental valuation while it's current and
+     * at freshly fetched quotes otherwise. Both are read under the user's lock, so a trade moving money between the
+     * balance and the holdings is seen whole, marks only ever change the holdings with a single add.
+     */
+    public long getUserMoney(String id) throws UserNotFoundException {
         User user = getUser(id);
 
+        if (valuation != null && valuation.isCurrent()) {
+            synchronized (user) {
+                return user.getAmount().get() + user.getHoldingsValue().get();
+            }
+        }
+
         return user.getAmount().get() +
                 getUserStocks(id).stream()
-                        .map(userStocks -> userStocks.getCount() * userStocks.getCost())
-                        .reduce(Integer::sum)
-                        .orElse(0);
+                        .mapToLong(userStocks -> (long) userStocks.getCount() * userStocks.getCost())
+                        .sum();
     }
 
+    /**
+     * @return one entry per company the user holds, valued at its current cost, or at the average purchase cost
+     * if the market doesn't know the company
+     */
     public List<UserStocks> getUserStocks(String id) throws UserNotFoundException {
-        return getUser(id).getStocks()
-                .stream().map(userStocks -> {
-                    StocksSnapshot stocksSnapshot = stockMarketClient.getStock(userStocks.getCompanyName());
+        final List<Position> positions = List.copyOf(getUser(id).getPositions());
+        final List<String> companyNames = positions.stream()
+                .map(Position::getCompanyName)
+                .toList();
+        final Map<String, StocksSnapshot> quotes = stockMarketClient.getStocks(companyNames);
+
+        return positions.stream()
+                .map(position -> {
+                    StocksSnapshot stocksSnapshot = quotes.get(position.getCompanyName());
+                    int count = position.getCount();
+                    int cost = stocksSnapshot != null
+                            ? stocksSnapshot.cost()
+                            : (int) (position.getCostBasis() / Math.max(count, 1));
 
-                    return new UserStocks(userStocks.getCount(), userStocks.getCompanyName(), stocksSnapshot.cost());
+                    return new UserStocks(count, position.getCompanyName(), cost);
                 })
+                .filter(userStocks -> userStocks.getCount() > 0)
                 .toList();
+    }
 
+    /**
+     * @return every lot the user holds with the cost it was bought at, oldest lots of a company first
+     */
+    public List<UserStocks> getUserLots(String id) throws UserNotFoundException {
+        User user = getUser(id);
+        List<UserStocks> lots = new ArrayList<>();
+
+        synchronized (user) {
+            for (Position position : user.getPositions()) {
+                lots.addAll(position.getLots());
+            }
+        }
+
+        return lots;
     }
 
-    public void buyStocks(ClientBuyStockRequest clientBuyStockRequest) throws UserNotFoundException {
+    public QuoteCacheStats getQuoteCacheStats() {
+        return stockMarketClient.getQuoteCacheStats();
+    }
+
+    /**
+     * Runs in the user's mailbox, so no other command of the user changes the balance while the order is sent and
+     * the balance is the most the market may charge for it.
+     *
+     * @throws OrderRejectedException if the market lacks the stocks or the user the money
+     */
+    public void buyStocks(ClientBuyStockRequest clientBuyStockRequest)
+            throws UserNotFoundException, OrderRejectedException {
         User user = getUser(clientBuyStockRequest.id());
-        int userMoney = user.getAmount().get();
+        long position;
+
+        try {
+            position = execute(clientBuyStockRequest.id(), () -> executeBuy(user, clientBuyStockRequest));
+        } catch (RuntimeException | OrderRejectedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Buy failed: " + clientBuyStockRequest, e);
+        }
+
+        awaitLedger(position);
+    }
 
+    private long executeBuy(User user, ClientBuyStockRequest clientBuyStockRequest) throws OrderRejectedException {
         StocksSnapshot stocksSnapshot = stockMarketClient.buyStock(
                 clientBuyStockRequest.companyName(),
                 clientBuyStockRequest.count(),
-                userMoney
+                user.getAmount().get()
         );
 
-        user.getAmount().addAndGet(-stocksSnapshot.cost() * stocksSnapshot.count());
-        user.getStocks().add(
-                new UserStocks(
-                        stocksSnapshot.count(),
-                        clientBuyStockRequest.companyName(),
-                        stocksSnapshot.cost()
-                )
-        );
+        synchronized (user) {
+            user.getAmount().addAndGet(-stocksSnapshot.cost() * stocksSnapshot.count());
+            addStocks(user, clientBuyStockRequest.companyName(), stocksSnapshot.count(), stocksSnapshot.cost());
+
+            return record(
+                    LedgerEntryType.BUY,
+                    clientBuyStockRequest.id(),
+                    clientBuyStockRequest.companyName(),
+                    stocksSnapshot.count(),
+                    stocksSnapshot.cost(),
+                    stocksSnapshot.cost() * stocksSnapshot.count()
+            );
+        }
     }
 
+    /**
+     * Runs in the user's mailbox, so no other command of the user can sell the same stocks while the order is sent.
+     */
     public void sellStock(
             ClientSellStockRequest clientSellStockRequest
     ) throws UserNotFoundException, UserStocksNotFoundException, NotEnoughStocksException {
         User user = getUser(clientSellStockRequest.id());
-        UserStocks userStocks = user.getStocks().stream()
-                .filter(us -> Objects.equals(us.getCompanyName(), clientSellStockRequest.companyName()))
-                .findAny()
-                .orElseThrow(() ->
-                        new UserStocksNotFoundException(String.format(
-                                "Can't find '%s' in portfolio of user with id: %s",
-                                clientSellStockRequest.companyName(),
-                                clientSellStockRequest.id()
-                        ))
-                );
-
-        if (userStocks.getCount() < clientSellStockRequest.count()) {
+        long position;
+
+        try {
+            position = execute(clientSellStockRequest.id(), () -> executeSell(user, clientSellStockRequest));
+        } catch (UserStocksNotFoundException | NotEnoughStocksException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Sell failed: " + clientSellStockRequest, e);
+        }
+
+        awaitLedger(position);
+    }
+
+    private long executeSell(
+            User user,
+            ClientSellStockRequest clientSellStockRequest
+    ) throws UserStocksNotFoundException, NotEnoughStocksException {
+        Position userPosition = user.getPosition(clientSellStockRequest.companyName());
+
+        if (userPosition == null) {
+            throw new UserStocksNotFoundException(String.format(
+                    "Can't find '%s' in portfolio of user with id: %s",
+                    clientSellStockRequest.companyName(),
+                    clientSellStockRequest.id()
+            ));
+        }
+
+        if (userPosition.getCount() < clientSellStockRequest.count()) {
             throw new NotEnoughStocksException(
                     String.format(
                             "Not enough stocks of company '%s' in portfolio of user with id: %s%n" +
@@ -113,18 +260,132 @@ public class StockMarketClientService {
                             clientSellStockRequest.companyName(),
                             clientSellStockRequest.id(),
                             clientSellStockRequest.count(),
-                            userStocks.getCount()
+                            userPosition.getCount()
                     )
             );
         }
 
-        int amount = stockMarketClient.sellStocks(userStocks.getCompanyName(), clientSellStockRequest.count());
+        int amount = stockMarketClient.sellStocks(clientSellStockRequest.companyName(), clientSellStockRequest.count());
+
+        synchronized (user) {
+            user.getAmount().addAndGet(amount);
+
+            long soldCostBasis = removeStocks(
+                    user,
+                    clientSellStockRequest.companyName(),
+                    clientSellStockRequest.count()
+            );
+
+            return record(
+                    LedgerEntryType.SELL,
+                    clientSellStockRequest.id(),
+                    clientSellStockRequest.companyName(),
+                    clientSellStockRequest.count(),
+                    soldCostBasis,
+                    amount
+            );
+        }
+    }
+
+    private <T> T execute(String userId, UserMailboxes.Command<T> command) throws Exception {
+        return mailboxes.execute(userId, command);
+    }
+
+    /**
+     * Appends the change to the ledger. Called under the user's monitor together with the change itself,
+     * so the ledger keeps the order in which changes of one user were applied.
+     *
+     * @return ledger position to wait for, {@code 0} without a ledger
+     */
+    private long record(LedgerEntryType type, String id, String text, int count, long cost, int amount) {
+        if (ledger == null) {
+            return 0;
+        }
+
+        return ledger.append(type, UUID.fromString(id), text, count, cost, amount);
+    }
 
-        user.getAmount().addAndGet(amount);
-        userStocks.setCount(userStocks.getCount() - clientSellStockRequest.count());
+    private void awaitLedger(long position) {
+        if (ledger != null) {
+            ledger.awaitDurable(position);
+        }
+    }
 
-        if (userStocks.getCount() == 0) {
-            user.getStocks().remove(userStocks);
+    private void applyLedgerEntry(LedgerEntryType type, UUID userId, String text, int count, long cost, int amount) {
+        if (type == LedgerEntryType.REGISTER) {
+            userRepository.put(userId.toString(), new User(text, new AtomicInteger(0)));
+
+            return;
         }
+
+        User user = userRepository.get(userId.toString());
+
+        if (user == null) {
+            return;
+        }
+
+        switch (type) {
+            case DEPOSIT -> user.getAmount().addAndGet(amount);
+            case BUY -> {
+                user.getAmount().addAndGet(-amount);
+                addStocks(user, text, count, Math.toIntExact(cost));
+            }
+            case SELL -> {
+                user.getAmount().addAndGet(amount);
+                removeStocks(user, text, count);
+            }
+            default -> throw new IllegalStateException("Unexpected ledger entry " + type);
+        }
+    }
+
+    private void addStocks(User user, String companyName, int count, int cost) {
+        if (valuation == null) {
+            user.addStocks(companyName, count, cost);
+        } else {
+            valuation.addStocks(user, companyName, count, cost);
+        }
+    }
+
+    private long removeStocks(User user, String companyName, int count) {
+        return valuation == null
+                ? user.removeStocks(companyName, count)
+                : valuation.removeStocks(user, companyName, count);
+    }
+
+    private long countLedgerRecords() {
+        return userRepository.values().stream()
+                .mapToLong(user -> 2 + countLots(user.getPositions()))
+                .sum();
+    }
+
+    /**
+     * Feeds the current state as a minimal sequence of ledger entries: registration, balance and remaining lots.
+     */
+    private void dumpLedger(LedgerVisitor visitor) {
+        userRepository.forEach((id, user) -> {
+            UUID userId = UUID.fromString(id);
+
+            visitor.onEntry(LedgerEntryType.REGISTER, userId, user.getName(), 0, 0, 0);
+            visitor.onEntry(LedgerEntryType.DEPOSIT, userId, "", 0, 0, user.getAmount().get());
+
+            for (Position position : user.getPositions()) {
+                for (UserStocks lot : position.getLots()) {
+                    visitor.onEntry(
+                            LedgerEntryType.BUY,
+                            userId,
+                            lot.getCompanyName(),
+                            lot.getCount(),
+                            lot.getCost(),
+                            0
+                    );
+                }
+            }
+        });
+    }
+
+    private static long countLots(Collection<Position> positions) {
+        return positions.stream()
+                .mapToLong(Position::getLotCount)
+                .sum();
     }
 }
@@ -0,0 +1,139 @@
+package ru.itmo.services.execution;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmo.config.VirtualThreadsConfiguration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the commands of one user one at a time, commands of different users in parallel.
+ * <p>
+ * Every user has a mailbox owned by at most one thread at a time. A command sent to an idle mailbox runs right on
+ * the calling thread, so an uncontended user pays one CAS. Commands sent meanwhile queue up and are drained in
+ * arrival order by a task of the shared executor once the owner is done, their callers wait for the outcome.
+ */
+@Component
+public class UserMailboxes {
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public UserMailboxes(@Value("${app.virtual-threads.enabled:false}") boolean virtualThreads) {
+        this.executor = virtualThreads
+                ? VirtualThreadsConfiguration.newVirtualThreadPerTaskExecutor()
+                : newPlatformExecutor();
+    }
+
+    /**
+     * Executes the command once no other command of the user is running.
+     *
+     * @return result of the command
+     * @throws Exception exception the command failed with
+     */
+    public <T> T execute(String userId, Command<T> command) throws Exception {
+        final Mailbox mailbox = mailboxes.computeIfAbsent(userId, id -> new Mailbox());
+
+        return mailbox.execute(command);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService newPlatformExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "user-mailbox-" + threadNumber.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    @FunctionalInterface
+    public interface Command<T> {
+        T execute() throws Exception;
+    }
+
+    private final class Mailbox {
+        private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean owned = new AtomicBoolean();
+
+        private <T> T execute(Command<T> command) throws Exception {
+            if (queue.isEmpty() && owned.compareAndSet(false, true)) {
+                try {
+                    return command.execute();
+                } finally {
+                    release();
+                }
+            }
+
+            final CompletableFuture<T> outcome = new CompletableFuture<>();
+
+            queue.add(() -> {
+                try {
+                    outcome.complete(command.execute());
+                } catch (Throwable e) {
+                    outcome.completeExceptionally(e);
+                }
+            });
+
+            if (owned.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+
+            return await(outcome);
+        }
+
+        private void drain() {
+            Runnable task;
+
+            try {
+                while ((task = queue.poll()) != null) {
+                    task.run();
+                }
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * A command queued while the mailbox was owned either sees it released and takes it itself, or was queued
+         * before the release and is found here.
+         */
+        private void release() {
+            owned.set(false);
+
+            if (!queue.isEmpty() && owned.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> outcome) throws Exception {
+        try {
+            return outcome.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+
+            throw e;
+        }
+    }
+}
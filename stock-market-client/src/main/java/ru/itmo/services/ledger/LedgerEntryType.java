@@ -0,0 +1,21 @@
+package ru.itmo.services.ledger;
+
+public enum LedgerEntryType {
+    /**
+     * {@code text} is the user name.
+     */
+    REGISTER,
+    /**
+     * {@code amount} is added to the balance.
+     */
+    DEPOSIT,
+    /**
+     * A lot of {@code count} stocks of company {@code text} bought at {@code cost}, {@code amount} is charged.
+     */
+    BUY,
+    /**
+     * {@code count} stocks of company {@code text} are taken from its oldest lots first, {@code cost} is the amount
+     * they were bought for and {@code amount} is credited.
+     */
+    SELL
+}
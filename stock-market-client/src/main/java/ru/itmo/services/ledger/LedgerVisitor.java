@@ -0,0 +1,8 @@
+package ru.itmo.services.ledger;
+
+import java.util.UUID;
+
+@FunctionalInterface
+public interface LedgerVisitor {
+    void onEntry(LedgerEntryType type, UUID userId, String text, int count, long cost, int amount);
+}
@@ -0,0 +1,392 @@
+package ru.itmo.services.ledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of user balance and portfolio changes in a single file.
+ * <p>
+ * An entry is {@code [int length][int crc32][byte type][long id msb][long id lsb][int count][long cost][int amount]
+ * [text UTF-8]}, where the length covers everything after the checksum.
+ * <p>
+ * Appending only encodes the entry into an in-memory batch under a short lock. A single flusher thread swaps the
+ * batch out, writes it with one call and syncs the file, so concurrent changes share one write and one fsync.
+ */
+public class UserLedger implements AutoCloseable {
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int FIXED_BODY_SIZE = 1 + 3 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int MAX_TEXT_LENGTH = 4096;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int INITIAL_BATCH_SIZE = 1 << 16;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final LedgerEntryType[] TYPES = LedgerEntryType.values();
+
+    private final Path path;
+    private final long batchWindowNanos;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Object flushMonitor = new Object();
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(INITIAL_BATCH_SIZE);
+
+    private volatile long appendedPosition;
+    private volatile long durablePosition;
+    private volatile IOException failure;
+    private volatile boolean running = true;
+
+    public UserLedger(Path path, long batchWindowMicros) {
+        this.path = path;
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.flusher = new Thread(this::flushLoop, "user-ledger-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Feeds every intact entry to the visitor in append order and cuts off a torn tail left by a crash.
+     * The file is read sequentially in large chunks and entries are decoded in place.
+     * Has to be called once before {@link #start}.
+     *
+     * @return number of entries replayed
+     */
+    public long recover(LedgerVisitor visitor) {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+
+            channel = FileChannel.open(
+                    path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE
+            );
+
+            final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+            long position = 0;
+            long entries = 0;
+
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+
+                int entryLength;
+
+                while ((entryLength = nextEntryLength(buffer)) > 0) {
+                    if (!replayEntry(buffer, entryLength, visitor)) {
+                        return truncate(position, entries);
+                    }
+
+                    position += entryLength;
+                    entries++;
+                }
+
+                if (entryLength < 0) {
+                    return truncate(position, entries);
+                }
+
+                buffer.compact();
+            }
+
+            return truncate(position, entries);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't recover user ledger " + path, e);
+        }
+    }
+
+    /**
+     * Replaces the ledger with the entries the dump feeds to its visitor, typically one per user and lot of the
+     * recovered state. Has to be called after {@link #recover} and before {@link #start}.
+     */
+    public void compact(Consumer<LedgerVisitor> dump) {
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel output = FileChannel.open(
+                temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+            dump.accept((type, userId, text, count, cost, amount) -> {
+                final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+                try {
+                    if (buffer.remaining() < HEADER_SIZE + FIXED_BODY_SIZE + bytes.length) {
+                        write(output, buffer);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                encode(buffer, type, userId, bytes, count, cost, amount);
+            });
+            write(output, buffer);
+            output.force(true);
+            channel.close();
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            appendedPosition = channel.size();
+            durablePosition = appendedPosition;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't compact user ledger " + path, e);
+        }
+    }
+
+    public void start() {
+        flusher.start();
+    }
+
+    /**
+     * Adds the entry to the current batch without waiting for it to reach the disk.
+     *
+     * @return ledger position right after the entry, to be passed to {@link #awaitDurable}
+     */
+    public long append(LedgerEntryType type, UUID userId, String text, int count, long cost, int amount) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("Text is too long for the user ledger: " + text);
+        }
+
+        final int entryLength = HEADER_SIZE + FIXED_BODY_SIZE + bytes.length;
+
+        appendLock.lock();
+
+        try {
+            if (batch.remaining() < entryLength) {
+                batch = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + entryLength))
+                        .put(batch.flip());
+            }
+
+            encode(batch, type, userId, bytes, count, cost, amount);
+
+            final long position = appendedPosition + entryLength;
+
+            appendedPosition = position;
+
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything up to {@code position} is on disk.
+     */
+    public void awaitDurable(long position) {
+        if (durablePosition >= position) {
+            return;
+        }
+
+        LockSupport.unpark(flusher);
+
+        synchronized (flushMonitor) {
+            while (durablePosition < position && failure == null && running) {
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new UncheckedIOException("User ledger " + path + " is not writable", failure);
+        }
+    }
+
+    public long appendedPosition() {
+        return appendedPosition;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close user ledger " + path, e);
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            if (appendedPosition == durablePosition) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+
+                continue;
+            }
+
+            LockSupport.parkNanos(this, batchWindowNanos);
+
+            try {
+                flush();
+            } catch (IOException e) {
+                synchronized (flushMonitor) {
+                    failure = e;
+                    flushMonitor.notifyAll();
+                }
+
+                return;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        final ByteBuffer toWrite;
+        final long position;
+
+        appendLock.lock();
+
+        try {
+            position = appendedPosition;
+            toWrite = batch;
+            batch = flushing;
+            flushing = toWrite;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (position == durablePosition) {
+            return;
+        }
+
+        write(channel, toWrite);
+        channel.force(false);
+
+        synchronized (flushMonitor) {
+            durablePosition = position;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private void encode(
+            ByteBuffer buffer,
+            LedgerEntryType type,
+            UUID userId,
+            byte[] text,
+            int count,
+            long cost,
+            int amount
+    ) {
+        final int start = buffer.position();
+        final int bodyStart = start + HEADER_SIZE;
+
+        buffer.position(bodyStart);
+        buffer.put((byte) type.ordinal())
+                .putLong(userId.getMostSignificantBits())
+                .putLong(userId.getLeastSignificantBits())
+                .putInt(count)
+                .putLong(cost)
+                .putInt(amount)
+                .put(text);
+
+        crc.reset();
+        crc.update(buffer.array(), bodyStart, buffer.position() - bodyStart);
+        buffer.putInt(start, buffer.position() - bodyStart);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * @return length of the complete entry at the buffer position, {@code 0} if it's cut by the end of the buffer
+     * and {@code -1} if the length itself is broken
+     */
+    private static int nextEntryLength(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return 0;
+        }
+
+        final int bodyLength = buffer.getInt(buffer.position());
+
+        if (bodyLength < FIXED_BODY_SIZE || bodyLength > FIXED_BODY_SIZE + MAX_TEXT_LENGTH) {
+            return -1;
+        }
+
+        return buffer.remaining() < HEADER_SIZE + bodyLength ? 0 : HEADER_SIZE + bodyLength;
+    }
+
+    /**
+     * @return {@code false} if the checksum doesn't match, the buffer position is left untouched then
+     */
+    private boolean replayEntry(ByteBuffer buffer, int entryLength, LedgerVisitor visitor) {
+        final int start = buffer.position();
+        final int bodyStart = start + HEADER_SIZE;
+        final int bodyLength = entryLength - HEADER_SIZE;
+
+        crc.reset();
+        crc.update(buffer.array(), bodyStart, bodyLength);
+
+        if ((int) crc.getValue() != buffer.getInt(start + Integer.BYTES)
+                || buffer.get(bodyStart) < 0
+                || buffer.get(bodyStart) >= TYPES.length) {
+            return false;
+        }
+
+        buffer.position(bodyStart);
+
+        final LedgerEntryType type = TYPES[buffer.get()];
+        final UUID userId = new UUID(buffer.getLong(), buffer.getLong());
+        final int count = buffer.getInt();
+        final long cost = buffer.getLong();
+        final int amount = buffer.getInt();
+        final String text = new String(
+                buffer.array(),
+                buffer.position(),
+                bodyLength - FIXED_BODY_SIZE,
+                StandardCharsets.UTF_8
+        );
+
+        buffer.position(start + entryLength);
+        visitor.onEntry(type, userId, text, count, cost, amount);
+
+        return true;
+    }
+
+    private long truncate(long position, long entries) throws IOException {
+        channel.truncate(position);
+        channel.position(position);
+        appendedPosition = position;
+        durablePosition = position;
+
+        return entries;
+    }
+
+    private static void write(FileChannel output, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+
+        buffer.clear();
+    }
+}
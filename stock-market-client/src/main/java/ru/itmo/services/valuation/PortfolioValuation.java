@@ -0,0 +1,141 @@
+package ru.itmo.services.valuation;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmo.client.QuoteStream;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.model.Position;
+import ru.itmo.model.User;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies portfolio changes and, in {@code incremental} mode, keeps the value of every user's holdings marked to the
+ * latest streamed quotes, so it can be read without asking the market for any quote.
+ * <p>
+ * Every company has a mark: its latest known cost and the positions held in it. A streamed quote moves the mark and
+ * adds {@code count * (new cost - old cost)} to the holders of that company only. Buys and sells change a position
+ * under the same mark monitor and value the change at the mark, so a user's holdings value always equals the sum of
+ * its positions at their marks, however trades and quotes interleave.
+ * <p>
+ * In the default {@code on-demand} mode changes go straight to the user and nothing is maintained.
+ */
+@Component
+public class PortfolioValuation {
+    private static final String INCREMENTAL_MODE = "incremental";
+
+    private final QuoteStream quoteStream;
+    private final boolean incremental;
+    private final ConcurrentHashMap<String, Mark> marks = new ConcurrentHashMap<>();
+
+    public PortfolioValuation(QuoteStream quoteStream, @Value("${client.valuation.mode:on-demand}") String mode) {
+        this.quoteStream = quoteStream;
+        this.incremental = INCREMENTAL_MODE.equals(mode);
+
+        if (incremental) {
+            quoteStream.addListener(this::onQuote);
+        }
+    }
+
+    /**
+     * @return {@code true} if {@link User#getHoldingsValue} tracks the market, which needs a connected quote stream
+     * that has replayed the quotes missed while it was down
+     */
+    public boolean isCurrent() {
+        return incremental && quoteStream.isReplayed();
+    }
+
+    /**
+     * Has to be called under the monitor of the user.
+     *
+     * @param cost cost the stocks were bought at, also the mark of a company no quote was streamed for yet
+     */
+    public void addStocks(User user, String companyName, int count, int cost) {
+        if (!incremental) {
+            user.addStocks(companyName, count, cost);
+
+            return;
+        }
+
+        final Mark mark = mark(companyName, cost);
+
+        synchronized (mark) {
+            user.addStocks(companyName, count, cost);
+            mark.holders.put(user, user.getPosition(companyName));
+            user.getHoldingsValue().addAndGet((long) count * mark.cost);
+        }
+    }
+
+    /**
+     * Has to be called under the monitor of the user.
+     *
+     * @return cost basis of the removed stocks
+     */
+    public long removeStocks(User user, String companyName, int count) {
+        if (!incremental) {
+            return user.removeStocks(companyName, count);
+        }
+
+        final Mark mark = marks.get(companyName);
+
+        if (mark == null) {
+            return user.removeStocks(companyName, count);
+        }
+
+        synchronized (mark) {
+            final Position position = user.getPosition(companyName);
+            final int countBefore = position == null ? 0 : position.getCount();
+            final long removedCostBasis = user.removeStocks(companyName, count);
+            final Position remaining = user.getPosition(companyName);
+            final int countAfter = remaining == null ? 0 : remaining.getCount();
+
+            if (remaining == null) {
+                mark.holders.remove(user);
+            }
+
+            user.getHoldingsValue().addAndGet((long) (countAfter - countBefore) * mark.cost);
+
+            return removedCostBasis;
+        }
+    }
+
+    private void onQuote(String companyName, StocksSnapshot snapshot) {
+        final Mark mark = mark(companyName, snapshot.cost());
+
+        synchronized (mark) {
+            final long delta = snapshot.cost() - mark.cost;
+
+            if (delta == 0) {
+                return;
+            }
+
+            for (Map.Entry<User, Position> holder : mark.holders.entrySet()) {
+                holder.getKey().getHoldingsValue().addAndGet(holder.getValue().getCount() * delta);
+            }
+
+            mark.cost = snapshot.cost();
+        }
+    }
+
+    private Mark mark(String companyName, int initialCost) {
+        final Mark mark = marks.get(companyName);
+
+        return mark != null ? mark : marks.computeIfAbsent(companyName, key -> new Mark(initialCost));
+    }
+
+    /**
+     * Latest known cost of a company and the positions held in it, both guarded by the mark's monitor.
+     * Users are compared by identity, their equality depends on their mutable state.
+     */
+    private static final class Mark {
+        private final Map<User, Position> holders = new IdentityHashMap<>();
+
+        private int cost;
+
+        private Mark(int cost) {
+            this.cost = cost;
+        }
+    }
+}
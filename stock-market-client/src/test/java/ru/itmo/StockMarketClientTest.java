@@ -19,19 +19,26 @@ import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.web.client.RestTemplate;
 import org.testcontainers.containers.FixedHostPortGenericContainer;
+import ru.itmo.client.PartitionMap;
 import ru.itmo.domain.AddStockRequest;
 import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
 import ru.itmo.model.ClientBuyStockRequest;
 import ru.itmo.model.ClientSellStockRequest;
 import ru.itmo.model.DepositRequest;
 import ru.itmo.model.UserStocks;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @AutoConfigureMockMvc
@@ -55,6 +62,9 @@ public class StockMarketClientTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private PartitionMap partitionMap;
+
     private String userId;
 
     private static final String COMPANY_NAME = "VK Company";
@@ -169,6 +179,103 @@ public class StockMarketClientTest {
         assertEquals(expectedStocksAfterSell, actualStocksAfterSell);
     }
 
+    @Test
+    public void testSellAcrossLots() throws Exception {
+        post("/buy/stocks", new ClientBuyStockRequest(userId, COMPANY_NAME, 3));
+        post("/buy/stocks", new ClientBuyStockRequest(userId, COMPANY_NAME, 2));
+
+        assertEquals(
+                objectMapper.writeValueAsString(List.of(new UserStocks(5, COMPANY_NAME, 100))),
+                getRawResult("/get/stocks", userId)
+        );
+
+        post("/sell/stocks", new ClientSellStockRequest(userId, COMPANY_NAME, 4));
+
+        assertEquals(
+                objectMapper.writeValueAsString(List.of(new UserStocks(1, COMPANY_NAME, 100))),
+                getRawResult("/get/stocks/lots", userId)
+        );
+        assertEquals(1000, Integer.parseInt(getRawResult("/get/user/money", userId)));
+    }
+
+    @Test
+    public void testConcurrentBuysDoNotOverspend() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<Integer>> buys = new ArrayList<>();
+        int filled = 0;
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                buys.add(executor.submit(() -> mockMvc.perform(MockMvcRequestBuilders.post("/buy/stocks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(
+                                new ClientBuyStockRequest(userId, COMPANY_NAME, 1)
+                        ))).andReturn().getResponse().getStatus()));
+            }
+
+            for (Future<Integer> buy : buys) {
+                final int status = buy.get();
+
+                // buys beyond the balance are rejected by the market
+                assertTrue(status == 200 || status == 400, "Unexpected status: " + status);
+
+                if (status == 200) {
+                    filled++;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(10, filled);
+
+        assertEquals(
+                objectMapper.writeValueAsString(List.of(new UserStocks(10, COMPANY_NAME, 100))),
+                getRawResult("/get/stocks", userId)
+        );
+        assertEquals(1000, Integer.parseInt(getRawResult("/get/user/money", userId)));
+    }
+
+    @Test
+    public void testRebalanceToSecondNode() throws Exception {
+        final String firstNode = "http://localhost:8080";
+        final String secondNode = "http://localhost:8081";
+        final MyContainer secondContainer = new MyContainer("ru.itmo/stock-market-server:0.0.1-snapshot")
+                .withFixedExposedPort(8081, 8080)
+                .withExposedPorts(8080);
+
+        secondContainer.start();
+
+        try {
+            partitionMap.update(List.of(firstNode, secondNode));
+
+            final String owner = partitionMap.node(COMPANY_NAME);
+
+            assertEquals(new StocksSnapshot(200, 100), getNodeStocks(owner));
+
+            post("/buy/stocks", new ClientBuyStockRequest(userId, COMPANY_NAME, 5));
+
+            assertEquals(500, Integer.parseInt(getRawResult("/get/user/money", userId)));
+            assertEquals(new StocksSnapshot(195, 100), getNodeStocks(owner));
+
+            partitionMap.update(List.of(firstNode));
+
+            assertEquals(new StocksSnapshot(195, 100), getNodeStocks(firstNode));
+        } finally {
+            partitionMap.update(List.of(firstNode));
+            secondContainer.stop();
+        }
+    }
+
+    private StocksSnapshot getNodeStocks(String node) {
+        return restTemplate.exchange(
+                node + "/get/stocks",
+                HttpMethod.POST,
+                new HttpEntity<>(COMPANY_NAME, headers),
+                StocksSnapshot.class
+        ).getBody();
+    }
+
     private ResultActions post(String path, Object serializableContent) {
         try {
             final RequestBuilder requestBuilder = MockMvcRequestBuilders.post(path)
@@ -0,0 +1,170 @@
+package ru.itmo.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.itmo.client.exceptions.StockMarketServerException;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lookups against a node that holds every request until the test lets it through, answering each company with a
+ * snapshot of its own.
+ */
+class AsyncStockMarketClientTest {
+    private static final int MAX_CONNECTIONS = 2;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+
+    private volatile CountDownLatch received = new CountDownLatch(MAX_CONNECTIONS);
+    private volatile CountDownLatch released = new CountDownLatch(0);
+
+    private HttpServer server;
+    private PartitionMap partitionMap;
+    private AsyncStockMarketClient asyncClient;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(handlers);
+        server.createContext("/get/stocks/batch", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+            try {
+                received.countDown();
+                released.await(10, TimeUnit.SECONDS);
+
+                final Map<String, StocksSnapshot> snapshots = new HashMap<>();
+
+                for (String companyName : objectMapper.readValue(exchange.getRequestBody(), String[].class)) {
+                    snapshots.put(companyName, new StocksSnapshot(1, companyName.length()));
+                }
+
+                inFlight.decrementAndGet();
+                respond(exchange, snapshots);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+
+        partitionMap = new PartitionMap("http://localhost:" + server.getAddress().getPort(), "", 1, 0);
+        asyncClient = new AsyncStockMarketClient(objectMapper, partitionMap, 1000, 5000, MAX_CONNECTIONS, false);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        released.countDown();
+        asyncClient.shutdown();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * A lookup that finds every connection taken fails at once instead of blocking its caller, the lookups in flight
+     * are unaffected and the node takes requests again once they complete.
+     */
+    @Test
+    public void testFailsRequestWhileAllConnectionsAreBusy() throws Exception {
+        released = new CountDownLatch(1);
+
+        final List<CompletableFuture<Map<String, StocksSnapshot>>> lookups = new ArrayList<>();
+
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            lookups.add(asyncClient.getStocks(partitionMap.node("alpha"), List.of("alpha")));
+        }
+
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+
+        final CompletableFuture<Map<String, StocksSnapshot>> rejected =
+                asyncClient.getStocks(partitionMap.node("alpha"), List.of("beta"));
+
+        assertTrue(rejected.isDone());
+        assertInstanceOf(
+                StockMarketServerException.class,
+                assertThrows(ExecutionException.class, rejected::get).getCause()
+        );
+
+        released.countDown();
+
+        for (CompletableFuture<Map<String, StocksSnapshot>> lookup : lookups) {
+            assertEquals(Map.of("alpha", new StocksSnapshot(1, 5)), lookup.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(
+                Map.of("beta", new StocksSnapshot(1, 4)),
+                asyncClient.getStocks(partitionMap.node("beta"), List.of("beta")).get(10, TimeUnit.SECONDS)
+        );
+    }
+
+    /**
+     * A lookup of more batches than there are connections to the node sends the rest as the first ones complete.
+     */
+    @Test
+    public void testSendsBatchesOfLargeLookupAsConnectionsFree() {
+        final StockMarketClient client = new StockMarketClient(
+                objectMapper,
+                new ManualQuoteStream(),
+                asyncClient,
+                partitionMap,
+                null,
+                4,
+                "json",
+                false,
+                0,
+                0,
+                0
+        );
+        final List<String> companyNames = new ArrayList<>();
+
+        for (int i = 0; i < 10 * 4 * MAX_CONNECTIONS; i++) {
+            companyNames.add("company-" + "x".repeat(i));
+        }
+
+        final Map<String, StocksSnapshot> snapshots = client.getStocks(companyNames);
+
+        assertEquals(companyNames.size(), snapshots.size());
+
+        for (String companyName : companyNames) {
+            assertEquals(new StocksSnapshot(1, companyName.length()), snapshots.get(companyName));
+        }
+
+        assertTrue(maxInFlight.get() <= MAX_CONNECTIONS, "In flight: " + maxInFlight.get());
+    }
+
+    private void respond(HttpExchange exchange, Object body) throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(body);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
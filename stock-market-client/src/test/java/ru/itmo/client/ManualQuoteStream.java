@@ -0,0 +1,46 @@
+package ru.itmo.client;
+
+import ru.itmo.domain.StocksSnapshot;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Quote stream fed by the test instead of market nodes, replayed until told otherwise.
+ */
+public class ManualQuoteStream extends QuoteStream {
+    private final List<QuoteListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean replayed = true;
+
+    public ManualQuoteStream() {
+        super(null, null);
+    }
+
+    @Override
+    public void addListener(QuoteListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean isReplayed() {
+        return replayed;
+    }
+
+    @Override
+    public StocksSnapshot get(String companyName) {
+        return null;
+    }
+
+    public void setReplayed(boolean replayed) {
+        this.replayed = replayed;
+    }
+
+    public void publish(String companyName, int count, int cost) {
+        final StocksSnapshot snapshot = new StocksSnapshot(count, cost);
+
+        for (QuoteListener listener : listeners) {
+            listener.onQuote(companyName, snapshot);
+        }
+    }
+}
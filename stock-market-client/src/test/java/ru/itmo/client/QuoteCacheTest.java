@@ -0,0 +1,182 @@
+package ru.itmo.client;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuoteCacheTest {
+    @Test
+    public void testServesFreshQuotesFromCache() {
+        final QuoteCache quoteCache = new QuoteCache(60_000, 100);
+        final AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(new StocksSnapshot(1, 2), quoteCache.get("company", companyName -> {
+                loads.incrementAndGet();
+
+                return new StocksSnapshot(1, 2);
+            }));
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(9, quoteCache.stats().hits());
+        assertEquals(1, quoteCache.stats().misses());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final QuoteCache quoteCache = new QuoteCache(60_000, 100);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+
+        final CompletableFuture<StocksSnapshot> first = CompletableFuture.supplyAsync(
+                () -> quoteCache.get("company", companyName -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    await(release);
+
+                    return new StocksSnapshot(5, 10);
+                })
+        );
+
+        loading.await();
+
+        final CompletableFuture<StocksSnapshot> second = CompletableFuture.supplyAsync(
+                () -> quoteCache.get("company", companyName -> {
+                    loads.incrementAndGet();
+
+                    return new StocksSnapshot(0, 0);
+                })
+        );
+
+        while (quoteCache.stats().coalesced() == 0) {
+            Thread.onSpinWait();
+        }
+
+        release.countDown();
+
+        assertEquals(new StocksSnapshot(5, 10), first.get(10, TimeUnit.SECONDS));
+        assertEquals(new StocksSnapshot(5, 10), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testWaitersOfBatchLoadNeverGetNull() throws Exception {
+        final QuoteCache quoteCache = new QuoteCache(60_000, 100);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<Map<String, StocksSnapshot>> batch = CompletableFuture.supplyAsync(
+                () -> quoteCache.getAll(List.of("known", "unknown"), companyNames -> {
+                    loading.countDown();
+                    await(release);
+
+                    return Map.of("known", new StocksSnapshot(3, 4));
+                })
+        );
+
+        loading.await();
+
+        final CompletableFuture<StocksSnapshot> single = CompletableFuture.supplyAsync(
+                () -> quoteCache.get("unknown", companyName -> new StocksSnapshot(7, 8))
+        );
+        final CompletableFuture<Map<String, StocksSnapshot>> otherBatch = CompletableFuture.supplyAsync(
+                () -> quoteCache.getAll(List.of("unknown"), companyNames -> Map.of())
+        );
+
+        while (quoteCache.stats().coalesced() < 2) {
+            Thread.onSpinWait();
+        }
+
+        release.countDown();
+
+        assertEquals(Map.of("known", new StocksSnapshot(3, 4)), batch.get(10, TimeUnit.SECONDS));
+        assertEquals(new StocksSnapshot(7, 8), single.get(10, TimeUnit.SECONDS));
+
+        final Map<String, StocksSnapshot> other = otherBatch.get(10, TimeUnit.SECONDS);
+
+        assertFalse(other.containsKey("unknown"));
+        assertFalse(other.containsValue(null));
+    }
+
+    @Test
+    public void testWaitersGetExceptionOfFailedLoad() throws Exception {
+        final QuoteCache quoteCache = new QuoteCache(60_000, 100);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<StocksSnapshot> first = CompletableFuture.supplyAsync(
+                () -> quoteCache.get("company", companyName -> {
+                    loading.countDown();
+                    await(release);
+
+                    throw new IllegalStateException("Server is down");
+                })
+        );
+
+        loading.await();
+
+        final CompletableFuture<StocksSnapshot> second = CompletableFuture.supplyAsync(
+                () -> quoteCache.get("company", companyName -> new StocksSnapshot(0, 0))
+        );
+
+        while (quoteCache.stats().coalesced() == 0) {
+            Thread.onSpinWait();
+        }
+
+        release.countDown();
+
+        assertTrue(assertThrows(Exception.class, () -> first.get(10, TimeUnit.SECONDS)).getCause()
+                instanceof IllegalStateException);
+        assertTrue(assertThrows(Exception.class, () -> second.get(10, TimeUnit.SECONDS)).getCause()
+                instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testEvictsOldestQuotesFromWholeCache() throws Exception {
+        final int maxSize = 256;
+        final QuoteCache quoteCache = new QuoteCache(60_000, maxSize);
+        final List<String> staleNames = new ArrayList<>();
+
+        for (int i = 0; i < maxSize; i++) {
+            staleNames.add("stale-" + i);
+            quoteCache.put("stale-" + i, new StocksSnapshot(i, i));
+        }
+
+        Thread.sleep(2);
+
+        for (int i = 0; i < 4 * maxSize; i++) {
+            quoteCache.put("fresh-" + i, new StocksSnapshot(i, i));
+        }
+
+        assertEquals(maxSize, quoteCache.stats().size());
+        assertEquals(4 * maxSize, quoteCache.stats().evictions());
+
+        final int staleLeft = quoteCache.getAll(staleNames, companyNames -> Map.of()).size();
+
+        assertTrue(staleLeft < maxSize / 16, "Stale quotes left: " + staleLeft);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException(e);
+        }
+    }
+}
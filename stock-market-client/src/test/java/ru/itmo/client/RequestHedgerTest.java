@@ -0,0 +1,134 @@
+package ru.itmo.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestHedgerTest {
+    private static final int SENDERS = 16;
+
+    private RequestHedger requestHedger;
+
+    @AfterEach
+    public void tearDown() {
+        if (requestHedger != null) {
+            requestHedger.shutdown();
+        }
+    }
+
+    @Test
+    public void testSendsCopyWhenFirstAttemptIsSlow() throws Exception {
+        requestHedger = new RequestHedger(true, 20, 4);
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        try {
+            final String response = requestHedger.send(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        stuck.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    return "first";
+                }
+
+                return "copy";
+            });
+
+            assertEquals("copy", response);
+            assertEquals(2, attempts.get());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            stuck.countDown();
+        }
+    }
+
+    @Test
+    public void testDoesNotHedgeAttemptThatFailedWithinDelay() {
+        requestHedger = new RequestHedger(true, 1_000, 4);
+
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> requestHedger.send(() -> {
+            attempts.incrementAndGet();
+
+            throw new IllegalStateException("Refused");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testSendsOnCallingThreadWhenDisabled() throws Exception {
+        requestHedger = new RequestHedger(false, 0, 0);
+
+        assertEquals(Thread.currentThread().getName(), requestHedger.send(() -> Thread.currentThread().getName()));
+    }
+
+    /**
+     * Every attempt is slower than the delay, so each sender asks for a copy while the pool is far smaller than the
+     * number of senders. Attempts the pool can't take run on the senders' own threads or aren't sent.
+     */
+    @Test
+    public void testRunsAtMostMaxThreadsAttemptsOnPool() throws Exception {
+        requestHedger = new RequestHedger(true, 1, 2);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+
+        try {
+            final List<Future<Integer>> responses = new ArrayList<>();
+
+            for (int i = 0; i < SENDERS; i++) {
+                final int sender = i;
+
+                responses.add(senders.submit(() -> requestHedger.send(() -> {
+                    if (Thread.currentThread().getName().startsWith("stock-market-hedging-")) {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    }
+
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        if (Thread.currentThread().getName().startsWith("stock-market-hedging-")) {
+                            running.decrementAndGet();
+                        }
+                    }
+
+                    return sender;
+                })));
+            }
+
+            for (int i = 0; i < SENDERS; i++) {
+                assertEquals(i, responses.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            senders.shutdownNow();
+        }
+
+        assertTrue(maxRunning.get() <= 2, "Attempts on the pool at once: " + maxRunning.get());
+    }
+
+    @Test
+    public void testRejectsPoolWithoutThreads() {
+        assertThrows(IllegalArgumentException.class, () -> new RequestHedger(true, 50, 0));
+    }
+}
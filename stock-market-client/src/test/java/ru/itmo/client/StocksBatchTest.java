@@ -0,0 +1,137 @@
+package ru.itmo.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch lookups against two nodes, each answering the companies it lists and recording the names it was asked for.
+ */
+class StocksBatchTest {
+    private static final String UNKNOWN = "unknown";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final Map<String, List<String>> requested = new ConcurrentHashMap<>();
+
+    private AsyncStockMarketClient asyncClient;
+    private PartitionMap partitionMap;
+    private StockMarketClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        final List<String> nodes = new ArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            final String node = "http://localhost:" + server.getAddress().getPort();
+
+            requested.put(node, new CopyOnWriteArrayList<>());
+            server.createContext("/get/stocks/batch", exchange -> {
+                final Map<String, StocksSnapshot> snapshots = new HashMap<>();
+
+                for (String companyName : objectMapper.readValue(exchange.getRequestBody(), String[].class)) {
+                    requested.get(node).add(companyName);
+
+                    if (!companyName.equals(UNKNOWN)) {
+                        snapshots.put(companyName, new StocksSnapshot(1, companyName.length()));
+                    }
+                }
+
+                respond(exchange, snapshots);
+            });
+            server.start();
+            servers.add(server);
+            nodes.add(node);
+        }
+
+        partitionMap = new PartitionMap(String.join(",", nodes), "", 128, 0);
+        asyncClient = new AsyncStockMarketClient(objectMapper, partitionMap, 1000, 5000, 4, false);
+        client = new StockMarketClient(
+                objectMapper,
+                new ManualQuoteStream(),
+                asyncClient,
+                partitionMap,
+                null,
+                3,
+                "json",
+                false,
+                0,
+                0,
+                0
+        );
+    }
+
+    @AfterEach
+    public void tearDown() {
+        asyncClient.shutdown();
+
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Every node is asked only for the companies it owns, in batches, and the answers are merged. A company no node
+     * lists is left out.
+     */
+    @Test
+    public void testSplitsLookupAcrossNodes() {
+        final List<String> companyNames = new ArrayList<>();
+        final Map<String, StocksSnapshot> expected = new HashMap<>();
+
+        for (int i = 0; i < 20; i++) {
+            companyNames.add("company-" + "x".repeat(i));
+            expected.put(companyNames.get(i), new StocksSnapshot(1, companyNames.get(i).length()));
+        }
+
+        companyNames.add(UNKNOWN);
+
+        assertEquals(expected, client.getStocks(companyNames));
+
+        for (Map.Entry<String, List<String>> node : requested.entrySet()) {
+            assertFalse(node.getValue().isEmpty(), node.getKey());
+
+            for (String companyName : node.getValue()) {
+                assertEquals(node.getKey(), partitionMap.node(companyName), companyName);
+            }
+        }
+
+        assertEquals(companyNames.size(), requested.values().stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    public void testSendsNothingForEmptyLookup() {
+        assertEquals(Map.of(), client.getStocks(List.of()));
+        assertTrue(requested.values().stream().allMatch(List::isEmpty));
+    }
+
+    private void respond(HttpExchange exchange, Object body) throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(body);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.itmo.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BatchOrderResult;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.SymbolId;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Orders against a node that answers symbol lookups and batches, recording the ids the orders carry.
+ */
+class SymbolIdCacheTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<List<String>> lookups = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> sentSymbolIds = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private AsyncStockMarketClient asyncClient;
+    private StockMarketClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/symbols", exchange -> {
+            lookups.add(List.of(objectMapper.readValue(exchange.getRequestBody(), String[].class)));
+            respond(exchange, Map.of("alpha", 7));
+        });
+        server.createContext("/orders/batch", exchange -> {
+            final BatchOrderRequest request = objectMapper.readValue(
+                    exchange.getRequestBody(),
+                    BatchOrderRequest.class
+            );
+
+            for (BuyStockRequest buyOrder : request.buyOrders()) {
+                sentSymbolIds.put(buyOrder.companyName(), buyOrder.symbolId());
+            }
+
+            respond(exchange, new BatchOrderResult(request.buyOrders().stream()
+                    .map(buyOrder -> OrderResult.filled(buyOrder.count(), 1))
+                    .toList()));
+        });
+        server.start();
+
+        final PartitionMap partitionMap = new PartitionMap(
+                "http://localhost:" + server.getAddress().getPort(),
+                "",
+                1,
+                0
+        );
+
+        asyncClient = new AsyncStockMarketClient(objectMapper, partitionMap, 1000, 5000, 4, false);
+        client = new StockMarketClient(objectMapper, null, asyncClient, partitionMap, null, 64, "json", false, 0, 0, 0);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        asyncClient.shutdown();
+        server.stop(0);
+    }
+
+    /**
+     * The first orders go out by name while their ids are looked up in one request in the background, the next ones
+     * carry the id. A company the node doesn't list isn't looked up again right away.
+     */
+    @Test
+    public void testLooksIdsUpOnceInBackground() throws Exception {
+        final List<BuyStockRequest> orders = List.of(
+                new BuyStockRequest("alpha", 1, 10),
+                new BuyStockRequest("unknown", 1, 10),
+                new BuyStockRequest("alpha", 2, 10)
+        );
+
+        assertEquals(3, client.executeOrders(orders, List.of()).size());
+        assertEquals(SymbolId.NONE, sentSymbolIds.get("alpha"));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (sentSymbolIds.get("alpha") != 7 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            client.executeOrders(orders, List.of());
+        }
+
+        assertEquals(7, sentSymbolIds.get("alpha"));
+        assertEquals(SymbolId.NONE, sentSymbolIds.get("unknown"));
+        assertEquals(List.of(List.of("alpha", "unknown")), lookups);
+        assertTrue(System.nanoTime() < deadline);
+    }
+
+    private void respond(HttpExchange exchange, Object body) throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(body);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
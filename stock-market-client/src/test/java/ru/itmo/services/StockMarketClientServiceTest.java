@@ -0,0 +1,362 @@
+package ru.itmo.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.client.ManualQuoteStream;
+import ru.itmo.client.PartitionMap;
+import ru.itmo.client.StockMarketClient;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.model.ClientBuyStockRequest;
+import ru.itmo.model.ClientSellStockRequest;
+import ru.itmo.model.DepositRequest;
+import ru.itmo.model.Position;
+import ru.itmo.model.User;
+import ru.itmo.model.UserStocks;
+import ru.itmo.services.execution.UserMailboxes;
+import ru.itmo.services.ledger.LedgerEntryType;
+import ru.itmo.services.ledger.UserLedger;
+import ru.itmo.services.valuation.PortfolioValuation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StockMarketClientServiceTest {
+    private static final List<String> COMPANIES = List.of("alpha", "beta", "gamma", "delta");
+    private static final int USERS = 8;
+    private static final int TRADES = 2_000;
+
+    @TempDir
+    Path directory;
+
+    private final ManualQuoteStream quoteStream = new ManualQuoteStream();
+    private final MarketStub market = new MarketStub();
+    private final UserMailboxes mailboxes = new UserMailboxes(false);
+    private final StockMarketClientService service = new StockMarketClientService(
+            market,
+            Optional.empty(),
+            new PortfolioValuation(quoteStream, "incremental"),
+            mailboxes
+    );
+
+    @AfterEach
+    public void tearDown() {
+        mailboxes.shutdown();
+    }
+
+    @Test
+    public void testUserMoneyKeepsHoldingsBeyondIntRange() throws Exception {
+        final String userId = service.registerUser("user");
+
+        service.addMoney(new DepositRequest(userId, 100_000));
+        quote("alpha", 10);
+        service.buyStocks(new ClientBuyStockRequest(userId, "alpha", 1_000));
+        quote("alpha", Integer.MAX_VALUE / 2);
+
+        final long expected = 90_000 + 1_000L * (Integer.MAX_VALUE / 2);
+
+        assertEquals(expected, service.getUserMoney(userId));
+
+        quoteStream.setReplayed(false);
+
+        assertEquals(expected, service.getUserMoney(userId));
+    }
+
+    /**
+     * Marks are only trusted once the stream has replayed the quotes, before that the holdings are valued at the
+     * quotes fetched from the market, which here moved while the stream didn't deliver them.
+     */
+    @Test
+    public void testUserMoneyIgnoresMarksUntilStreamIsReplayed() throws Exception {
+        final String userId = service.registerUser("user");
+
+        service.addMoney(new DepositRequest(userId, 1_000));
+        quote("alpha", 10);
+        service.buyStocks(new ClientBuyStockRequest(userId, "alpha", 20));
+        quoteStream.setReplayed(false);
+        market.costs.put("alpha", 30);
+
+        assertEquals(800 + 20 * 30, service.getUserMoney(userId));
+
+        quoteStream.publish("alpha", 1, 30);
+        quoteStream.setReplayed(true);
+
+        assertEquals(800 + 20 * 30, service.getUserMoney(userId));
+    }
+
+    /**
+     * Users buy and sell while quotes keep changing. Once the stream delivers the final quotes, the money of every
+     * user has to be the same whether it's read from the incrementally kept holdings or valued from scratch.
+     */
+    @Test
+    public void testUserMoneyMatchesRecomputationAfterConcurrentTradesAndQuotes() throws Exception {
+        final List<String> userIds = new ArrayList<>();
+        final AtomicBoolean quoting = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(USERS + 1);
+
+        for (String companyName : COMPANIES) {
+            quote(companyName, 10);
+        }
+
+        for (int i = 0; i < USERS; i++) {
+            userIds.add(service.registerUser("user-" + i));
+            service.addMoney(new DepositRequest(userIds.get(i), 100_000_000));
+        }
+
+        try {
+            final Future<?> quotes = executor.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (quoting.get()) {
+                    quote(COMPANIES.get(random.nextInt(COMPANIES.size())), random.nextInt(1, 100));
+                }
+            });
+            final List<Future<?>> traders = new ArrayList<>();
+
+            for (String userId : userIds) {
+                traders.add(executor.submit(() -> trade(userId)));
+            }
+
+            for (Future<?> trader : traders) {
+                trader.get(30, TimeUnit.SECONDS);
+            }
+
+            quoting.set(false);
+            quotes.get(10, TimeUnit.SECONDS);
+        } finally {
+            quoting.set(false);
+            executor.shutdownNow();
+        }
+
+        for (String companyName : COMPANIES) {
+            quote(companyName, ThreadLocalRandom.current().nextInt(1, 100));
+        }
+
+        for (String userId : userIds) {
+            final User user = service.getUser(userId);
+            long expected = user.getAmount().get();
+
+            for (Position position : user.getPositions()) {
+                expected += (long) position.getCount() * market.costs.get(position.getCompanyName());
+            }
+
+            assertEquals(expected, service.getUserMoney(userId), userId);
+
+            quoteStream.setReplayed(false);
+
+            assertEquals(expected, service.getUserMoney(userId), userId);
+
+            quoteStream.setReplayed(true);
+        }
+    }
+
+    /**
+     * Quotes stand still, so every trade only moves money between the balance and the holdings and a read taken
+     * while trades are in flight has to see the deposit whole.
+     */
+    @Test
+    public void testUserMoneyStaysWholeWhileTradesAreInFlight() throws Exception {
+        final List<String> userIds = new ArrayList<>();
+        final AtomicBoolean trading = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(USERS * 2);
+
+        for (String companyName : COMPANIES) {
+            quote(companyName, 10);
+        }
+
+        for (int i = 0; i < USERS; i++) {
+            userIds.add(service.registerUser("user-" + i));
+            service.addMoney(new DepositRequest(userIds.get(i), 100_000_000));
+        }
+
+        try {
+            final List<Future<?>> traders = new ArrayList<>();
+            final List<Future<?>> readers = new ArrayList<>();
+
+            for (String userId : userIds) {
+                traders.add(executor.submit(() -> trade(userId)));
+                readers.add(executor.submit(() -> {
+                    while (trading.get()) {
+                        assertEquals(100_000_000, service.getUserMoney(userId), userId);
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> trader : traders) {
+                trader.get(30, TimeUnit.SECONDS);
+            }
+
+            trading.set(false);
+
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            trading.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompactsLedgerDownToCurrentState() throws Exception {
+        final Path path = directory.resolve("users.log");
+        final UUID userId = UUID.randomUUID();
+        final UUID otherUserId = UUID.randomUUID();
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            ledger.recover((type, id, text, count, cost, amount) -> {
+            });
+            ledger.start();
+            ledger.append(LedgerEntryType.REGISTER, userId, "user", 0, 0, 0);
+            ledger.append(LedgerEntryType.REGISTER, otherUserId, "other", 0, 0, 0);
+
+            for (int i = 1; i <= 200; i++) {
+                ledger.append(LedgerEntryType.DEPOSIT, userId, "", 0, 0, 100);
+                ledger.append(LedgerEntryType.BUY, userId, "alpha", 2, i, 2 * i);
+                ledger.append(LedgerEntryType.SELL, userId, "alpha", 1, 0, i + 1);
+            }
+
+            ledger.append(LedgerEntryType.BUY, userId, "beta", 5, 7, 35);
+            ledger.append(LedgerEntryType.DEPOSIT, otherUserId, "", 0, 0, 50);
+            ledger.awaitDurable(ledger.appendedPosition());
+        }
+
+        final long uncompactedSize = Files.size(path);
+        final Map<String, String> recovered;
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            final StockMarketClientService service = new StockMarketClientService(
+                    null,
+                    Optional.of(ledger),
+                    null,
+                    mailboxes
+            );
+
+            recovered = describe(service, userId, otherUserId);
+
+            assertTrue(Files.size(path) < uncompactedSize / 4);
+
+            service.addMoney(new DepositRequest(otherUserId.toString(), 25));
+        }
+
+        final List<UserStocks> lots = new ArrayList<>();
+
+        for (int cost = 101; cost <= 200; cost++) {
+            lots.add(new UserStocks(2, "alpha", cost));
+        }
+
+        lots.add(new UserStocks(5, "beta", 7));
+
+        assertEquals("user 65, " + lots, recovered.get(userId.toString()));
+        assertEquals("other 50, []", recovered.get(otherUserId.toString()));
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            final StockMarketClientService service = new StockMarketClientService(
+                    null,
+                    Optional.of(ledger),
+                    null,
+                    mailboxes
+            );
+            final Map<String, String> restored = describe(service, userId, otherUserId);
+
+            assertEquals(recovered.get(userId.toString()), restored.get(userId.toString()));
+            assertEquals("other 75, []", restored.get(otherUserId.toString()));
+        }
+    }
+
+    private Void trade(String userId) throws Exception {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < TRADES; i++) {
+            final String companyName = COMPANIES.get(random.nextInt(COMPANIES.size()));
+            final Position position = service.getUser(userId).getPosition(companyName);
+            final int count = random.nextInt(1, 10);
+
+            if (position != null && position.getCount() >= count && random.nextBoolean()) {
+                service.sellStock(new ClientSellStockRequest(userId, companyName, count));
+            } else {
+                service.buyStocks(new ClientBuyStockRequest(userId, companyName, count));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Moves the market cost and streams it, as a node does.
+     */
+    private void quote(String companyName, int cost) {
+        market.costs.put(companyName, cost);
+        quoteStream.publish(companyName, 1, cost);
+    }
+
+    /**
+     * @return name, balance and lots of every user, lots sorted by company
+     */
+    private static Map<String, String> describe(StockMarketClientService service, UUID... userIds) throws Exception {
+        final Map<String, String> users = new TreeMap<>();
+
+        for (UUID userId : userIds) {
+            final User user = service.getUser(userId.toString());
+            final List<UserStocks> lots = service.getUserLots(userId.toString()).stream()
+                    .sorted((left, right) -> left.getCompanyName().compareTo(right.getCompanyName()))
+                    .toList();
+
+            users.put(userId.toString(), user.getName() + " " + user.getAmount().get() + ", " + lots);
+        }
+
+        return users;
+    }
+
+    /**
+     * Fills every order at the current cost, whatever the balance.
+     */
+    private static final class MarketStub extends StockMarketClient {
+        private final Map<String, Integer> costs = new ConcurrentHashMap<>();
+
+        private MarketStub() {
+            super(new PartitionMap("http://localhost:8080", "", 1, 0));
+        }
+
+        @Override
+        public Map<String, StocksSnapshot> getStocks(Collection<String> companyNames) {
+            final Map<String, StocksSnapshot> snapshots = new HashMap<>();
+
+            for (String companyName : companyNames) {
+                snapshots.put(companyName, new StocksSnapshot(1, costs.get(companyName)));
+            }
+
+            return snapshots;
+        }
+
+        @Override
+        public int sellStocks(String companyName, int count) {
+            return costs.get(companyName) * count;
+        }
+
+        @Override
+        public StocksSnapshot buyStock(String companyName, int count, int userMoney) {
+            return new StocksSnapshot(count, costs.get(companyName));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.itmo.services.execution;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UserMailboxesTest {
+    private static final int SENDERS = 8;
+    private static final int COMMANDS = 10_000;
+
+    private final UserMailboxes mailboxes = new UserMailboxes(false);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+        mailboxes.shutdown();
+    }
+
+    /**
+     * Commands sent while the user's mailbox is owned queue up and run in the order they were sent, each sender
+     * waiting for the outcome of its own command.
+     */
+    @Test
+    public void testRunsQueuedCommandsInArrivalOrder() throws Exception {
+        final CompletableFuture<Void> owned = new CompletableFuture<>();
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+        final List<Integer> executed = new CopyOnWriteArrayList<>();
+        final Future<Integer> owner = executor.submit(() -> mailboxes.execute("user", () -> {
+            owned.complete(null);
+            released.join();
+            executed.add(0);
+
+            return 0;
+        }));
+        final List<Future<Integer>> senders = new ArrayList<>();
+
+        owned.get(10, TimeUnit.SECONDS);
+
+        for (int i = 1; i <= SENDERS; i++) {
+            final int number = i;
+            final CompletableFuture<Thread> sender = new CompletableFuture<>();
+
+            senders.add(executor.submit(() -> {
+                sender.complete(Thread.currentThread());
+
+                return mailboxes.execute("user", () -> {
+                    executed.add(number);
+
+                    return number;
+                });
+            }));
+            awaitWaiting(sender.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(List.of(), executed);
+
+        released.complete(null);
+
+        assertEquals(0, owner.get(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < SENDERS; i++) {
+            assertEquals(i + 1, senders.get(i).get(10, TimeUnit.SECONDS));
+        }
+
+        final List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i <= SENDERS; i++) {
+            expected.add(i);
+        }
+
+        assertEquals(expected, executed);
+    }
+
+    /**
+     * Senders race on one user, its commands never overlap and none is lost.
+     */
+    @Test
+    public void testRunsCommandsOfOneUserOneAtATime() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final int[] executed = new int[1];
+        final List<Future<?>> senders = new ArrayList<>();
+
+        for (int i = 0; i < SENDERS; i++) {
+            senders.add(executor.submit(() -> {
+                for (int j = 0; j < COMMANDS; j++) {
+                    mailboxes.execute("user", () -> {
+                        if (!running.compareAndSet(false, true)) {
+                            overlapped.set(true);
+                        }
+
+                        executed[0]++;
+                        running.set(false);
+
+                        return null;
+                    });
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<?> sender : senders) {
+            sender.get(30, TimeUnit.SECONDS);
+        }
+
+        assertFalse(overlapped.get());
+        assertEquals(SENDERS * COMMANDS, mailboxes.execute("user", () -> executed[0]));
+    }
+
+    /**
+     * A user whose command is stuck holds up only its own mailbox, and a failed command fails only its sender.
+     */
+    @Test
+    public void testIsolatesUsers() throws Exception {
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+        final Future<Void> stuck = executor.submit(() -> mailboxes.execute("stuck", () -> released.join()));
+        final IllegalStateException failure = new IllegalStateException("failed");
+
+        assertEquals("other", executor.submit(() -> mailboxes.execute("other", () -> "other"))
+                .get(10, TimeUnit.SECONDS));
+        assertSame(failure, assertThrows(IllegalStateException.class, () -> mailboxes.execute("other", () -> {
+            throw failure;
+        })));
+        assertEquals("after", mailboxes.execute("other", () -> "after"));
+
+        released.complete(null);
+        stuck.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until the sender is parked waiting for the outcome of its queued command.
+     */
+    private static void awaitWaiting(Thread sender) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (sender.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(Thread.State.WAITING, sender.getState());
+    }
+}
@@ -0,0 +1,138 @@
+package ru.itmo.services.ledger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserLedgerTest {
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testCompactionReplacesEntriesAndKeepsAppending() throws IOException {
+        final Path path = directory.resolve("ledger/users.log");
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            ledger.recover((type, userId, text, count, cost, amount) -> {
+            });
+            ledger.start();
+            ledger.append(LedgerEntryType.REGISTER, USER_ID, "user", 0, 0, 0);
+
+            for (int i = 0; i < 1_000; i++) {
+                ledger.append(LedgerEntryType.DEPOSIT, USER_ID, "", 0, 0, 1);
+            }
+
+            ledger.awaitDurable(ledger.appendedPosition());
+        }
+
+        final long uncompactedSize = Files.size(path);
+        final List<Entry> compacted = List.of(
+                new Entry(LedgerEntryType.REGISTER, USER_ID, "user", 0, 0, 0),
+                new Entry(LedgerEntryType.DEPOSIT, USER_ID, "", 0, 0, 1_000)
+        );
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            final List<Entry> recovered = new ArrayList<>();
+
+            assertEquals(1_001, ledger.recover(collect(recovered)));
+            assertEquals(1_001, recovered.size());
+
+            ledger.compact(visitor -> compacted.forEach(entry -> entry.feed(visitor)));
+
+            assertEquals(Files.size(path), ledger.appendedPosition());
+            assertTrue(Files.size(path) < uncompactedSize / 100);
+            assertFalse(Files.exists(path.resolveSibling("users.log.tmp")));
+
+            ledger.start();
+            ledger.awaitDurable(ledger.append(LedgerEntryType.BUY, USER_ID, "company", 3, 10, 30));
+        }
+
+        final List<Entry> expected = new ArrayList<>(compacted);
+
+        expected.add(new Entry(LedgerEntryType.BUY, USER_ID, "company", 3, 10, 30));
+
+        assertEquals(expected, recover(path));
+    }
+
+    @Test
+    public void testRecoveryCutsTornTail() throws IOException {
+        final Path path = directory.resolve("users.log");
+        final long intactSize;
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            ledger.recover((type, userId, text, count, cost, amount) -> {
+            });
+            ledger.start();
+            ledger.append(LedgerEntryType.REGISTER, USER_ID, "user", 0, 0, 0);
+            intactSize = ledger.append(LedgerEntryType.DEPOSIT, USER_ID, "", 0, 0, 5);
+            ledger.awaitDurable(ledger.append(LedgerEntryType.DEPOSIT, USER_ID, "", 0, 0, 7));
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - 3);
+        }
+
+        assertEquals(2, recover(path).size());
+        assertEquals(intactSize, Files.size(path));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(48).putInt(40).putInt(0x1234).rewind(), intactSize);
+        }
+
+        assertEquals(2, recover(path).size());
+        assertEquals(intactSize, Files.size(path));
+    }
+
+    @Test
+    public void testKeepsCostBasisBeyondIntRange() {
+        final Path path = directory.resolve("users.log");
+        final long costBasis = 3L * Integer.MAX_VALUE;
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            ledger.recover((type, userId, text, count, cost, amount) -> {
+            });
+            ledger.start();
+            ledger.awaitDurable(ledger.append(LedgerEntryType.SELL, USER_ID, "company", 3, costBasis, 9));
+        }
+
+        assertEquals(List.of(new Entry(LedgerEntryType.SELL, USER_ID, "company", 3, costBasis, 9)), recover(path));
+    }
+
+    private static List<Entry> recover(Path path) {
+        final List<Entry> entries = new ArrayList<>();
+
+        try (UserLedger ledger = new UserLedger(path, 100)) {
+            ledger.recover(collect(entries));
+            ledger.start();
+        }
+
+        return entries;
+    }
+
+    private static LedgerVisitor collect(List<Entry> entries) {
+        return (type, userId, text, count, cost, amount) -> entries.add(
+                new Entry(type, userId, text, count, cost, amount)
+        );
+    }
+
+    private record Entry(LedgerEntryType type, UUID userId, String text, int count, long cost, int amount) {
+        void feed(LedgerVisitor visitor) {
+            visitor.onEntry(type, userId, text, count, cost, amount);
+        }
+    }
+}
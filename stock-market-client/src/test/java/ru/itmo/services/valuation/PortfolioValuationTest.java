@@ -0,0 +1,153 @@
+package ru.itmo.services.valuation;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.client.ManualQuoteStream;
+import ru.itmo.model.Position;
+import ru.itmo.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PortfolioValuationTest {
+    private static final List<String> COMPANIES = List.of("alpha", "beta", "gamma", "delta");
+    private static final int TRADERS = 8;
+    private static final int TRADES = 20_000;
+
+    @Test
+    public void testIsCurrentOnlyWhileStreamIsReplayed() {
+        final ManualQuoteStream quoteStream = new ManualQuoteStream();
+
+        assertFalse(new PortfolioValuation(quoteStream, "on-demand").isCurrent());
+
+        final PortfolioValuation valuation = new PortfolioValuation(quoteStream, "incremental");
+
+        assertTrue(valuation.isCurrent());
+
+        quoteStream.setReplayed(false);
+
+        assertFalse(valuation.isCurrent());
+    }
+
+    @Test
+    public void testMarksHoldingsToLatestQuote() {
+        final ManualQuoteStream quoteStream = new ManualQuoteStream();
+        final PortfolioValuation valuation = new PortfolioValuation(quoteStream, "incremental");
+        final User user = new User("user", new AtomicInteger());
+
+        synchronized (user) {
+            valuation.addStocks(user, "alpha", 10, 5);
+        }
+
+        assertEquals(50, user.getHoldingsValue().get());
+
+        quoteStream.publish("alpha", 1, Integer.MAX_VALUE);
+
+        assertEquals(10L * Integer.MAX_VALUE, user.getHoldingsValue().get());
+
+        synchronized (user) {
+            assertEquals(20, valuation.removeStocks(user, "alpha", 4));
+            valuation.addStocks(user, "alpha", 1, 7);
+        }
+
+        assertEquals(7L * Integer.MAX_VALUE, user.getHoldingsValue().get());
+
+        synchronized (user) {
+            valuation.removeStocks(user, "alpha", 7);
+        }
+
+        assertEquals(0, user.getHoldingsValue().get());
+
+        quoteStream.publish("alpha", 1, 3);
+
+        assertEquals(0, user.getHoldingsValue().get());
+    }
+
+    /**
+     * Traders buy and sell for their own users while quotes of the same companies keep changing. Once a final quote of
+     * every company is streamed, the incrementally kept value of each user has to equal its positions valued from
+     * scratch at those quotes.
+     */
+    @Test
+    public void testHoldingsMatchRecomputationAfterConcurrentTradesAndQuotes() throws Exception {
+        final ManualQuoteStream quoteStream = new ManualQuoteStream();
+        final PortfolioValuation valuation = new PortfolioValuation(quoteStream, "incremental");
+        final List<User> users = new ArrayList<>();
+        final AtomicBoolean quoting = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(TRADERS + 1);
+
+        for (int i = 0; i < TRADERS; i++) {
+            users.add(new User("user-" + i, new AtomicInteger()));
+        }
+
+        try {
+            final Future<?> quotes = executor.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (quoting.get()) {
+                    quoteStream.publish(COMPANIES.get(random.nextInt(COMPANIES.size())), 1, random.nextInt(1, 1_000));
+                }
+            });
+            final List<Future<?>> traders = new ArrayList<>();
+
+            for (User user : users) {
+                traders.add(executor.submit(() -> trade(valuation, user)));
+            }
+
+            for (Future<?> trader : traders) {
+                trader.get(30, TimeUnit.SECONDS);
+            }
+
+            quoting.set(false);
+            quotes.get(10, TimeUnit.SECONDS);
+        } finally {
+            quoting.set(false);
+            executor.shutdownNow();
+        }
+
+        final Map<String, Integer> finalCosts = new ConcurrentHashMap<>();
+
+        for (String companyName : COMPANIES) {
+            finalCosts.put(companyName, ThreadLocalRandom.current().nextInt(1, 1_000));
+            quoteStream.publish(companyName, 1, finalCosts.get(companyName));
+        }
+
+        for (User user : users) {
+            long expected = 0;
+
+            for (Position position : user.getPositions()) {
+                expected += (long) position.getCount() * finalCosts.get(position.getCompanyName());
+            }
+
+            assertEquals(expected, user.getHoldingsValue().get(), user.getName());
+        }
+    }
+
+    private static void trade(PortfolioValuation valuation, User user) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < TRADES; i++) {
+            final String companyName = COMPANIES.get(random.nextInt(COMPANIES.size()));
+
+            synchronized (user) {
+                if (random.nextBoolean()) {
+                    valuation.addStocks(user, companyName, random.nextInt(1, 10), random.nextInt(1, 1_000));
+                } else {
+                    valuation.removeStocks(user, companyName, random.nextInt(1, 10));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.itmo.config;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import ru.itmo.domain.codec.BinaryCodec;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes domain records in the {@link BinaryCodec} format for {@value BinaryCodec#MEDIA_TYPE} bodies.
+ */
+public class BinaryMessageConverter extends AbstractHttpMessageConverter<Object> {
+    public static final MediaType BINARY = MediaType.valueOf(BinaryCodec.MEDIA_TYPE);
+
+    public BinaryMessageConverter() {
+        super(BINARY);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return BinaryCodec.supports(clazz);
+    }
+
+    @Override
+    protected Object readInternal(
+            Class<?> clazz,
+            HttpInputMessage inputMessage
+    ) throws IOException, HttpMessageNotReadableException {
+        try {
+            return BinaryCodec.decode(inputMessage.getBody().readAllBytes(), clazz);
+        } catch (IllegalArgumentException e) {
+            throw new HttpMessageNotReadableException(e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(Object value, HttpOutputMessage outputMessage) throws IOException {
+        outputMessage.getBody().write(BinaryCodec.encode(value));
+    }
+}
@@ -1,4 +1,7 @@
 package ru.itmo.domain;
 
-public record AddStockRequest(String companyName, int count) {
+public record AddStockRequest(String companyName, int count, int symbolId) {
+    public AddStockRequest(String companyName, int count) {
+        this(companyName, count, SymbolId.NONE);
+    }
 }
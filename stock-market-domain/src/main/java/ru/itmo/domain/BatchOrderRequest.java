@@ -0,0 +1,13 @@
+package ru.itmo.domain;
+
+import java.util.List;
+
+/**
+ * Buys and sells executed in one pass, buys first, each list in its own order. A missing list is an empty one.
+ */
+public record BatchOrderRequest(List<BuyStockRequest> buyOrders, List<SellStockRequest> sellOrders) {
+    public BatchOrderRequest {
+        buyOrders = buyOrders == null ? List.of() : buyOrders;
+        sellOrders = sellOrders == null ? List.of() : sellOrders;
+    }
+}
@@ -0,0 +1,9 @@
+package ru.itmo.domain;
+
+import java.util.List;
+
+/**
+ * One result per order of a {@link BatchOrderRequest}, results of the buys followed by results of the sells.
+ */
+public record BatchOrderResult(List<OrderResult> results) {
+}
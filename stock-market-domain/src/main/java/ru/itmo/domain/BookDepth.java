@@ -0,0 +1,9 @@
+package ru.itmo.domain;
+
+import java.util.List;
+
+/**
+ * Aggregated price levels of an order book, best price first on both sides.
+ */
+public record BookDepth(String companyName, List<BookLevel> bids, List<BookLevel> asks) {
+}
@@ -0,0 +1,4 @@
+package ru.itmo.domain;
+
+public record BookLevel(int price, int count, int orders) {
+}
@@ -1,4 +1,21 @@
 package ru.itmo.domain;
 
-public record BuyStockRequest(String companyName, int count, int userAmountMoney) {
+/**
+ * @param idempotencyKey optional client-generated key, a repeated request with the same key gets the result of the
+ *                       first one instead of being executed again
+ */
+public record BuyStockRequest(
+        String companyName,
+        int count,
+        int userAmountMoney,
+        int symbolId,
+        String idempotencyKey
+) {
+    public BuyStockRequest(String companyName, int count, int userAmountMoney) {
+        this(companyName, count, userAmountMoney, SymbolId.NONE);
+    }
+
+    public BuyStockRequest(String companyName, int count, int userAmountMoney, int symbolId) {
+        this(companyName, count, userAmountMoney, symbolId, null);
+    }
 }
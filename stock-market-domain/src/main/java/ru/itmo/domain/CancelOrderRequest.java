@@ -0,0 +1,4 @@
+package ru.itmo.domain;
+
+public record CancelOrderRequest(String companyName, long orderId) {
+}
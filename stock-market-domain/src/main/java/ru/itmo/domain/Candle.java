@@ -0,0 +1,11 @@
+package ru.itmo.domain;
+
+/**
+ * Prices and traded volume of a company over one interval. A single recorded event is a candle of zero width
+ * with all four prices equal.
+ *
+ * @param start  start of the interval, epoch milliseconds
+ * @param volume stocks bought and sold within the interval
+ */
+public record Candle(long start, int open, int high, int low, int close, long volume) {
+}
@@ -0,0 +1,16 @@
+package ru.itmo.domain;
+
+import java.util.List;
+
+/**
+ * Companies released by one market node for another to adopt.
+ *
+ * @param id       chosen by whoever moves the companies, adopting the same handoff again is a no-op
+ * @param target   base URL of the node that adopts the companies
+ * @param listings stocks and cost of every released company
+ */
+public record Handoff(String id, String target, List<Listing> listings) {
+    public Handoff {
+        listings = listings == null ? List.of() : listings;
+    }
+}
@@ -0,0 +1,11 @@
+package ru.itmo.domain;
+
+/**
+ * Outcome of a bulk import.
+ *
+ * @param rows          rows imported into the market
+ * @param invalidRows   rows skipped because they couldn't be parsed
+ * @param elapsedMillis time from opening the file to the last row applied
+ */
+public record ImportResult(long rows, long invalidRows, long elapsedMillis) {
+}
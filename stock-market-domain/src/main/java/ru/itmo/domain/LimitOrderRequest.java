@@ -0,0 +1,4 @@
+package ru.itmo.domain;
+
+public record LimitOrderRequest(String companyName, OrderSide side, int price, int count) {
+}
@@ -0,0 +1,7 @@
+package ru.itmo.domain;
+
+/**
+ * Outcome of a limit order: how much of it was matched immediately and how much is left resting in the book.
+ */
+public record LimitOrderResult(long orderId, int filledCount, long filledAmount, int restingCount) {
+}
@@ -0,0 +1,8 @@
+package ru.itmo.domain;
+
+/**
+ * Stocks and cost of a company, as imported in bulk or handed over between market nodes. Applying it lists the
+ * company unless it already is and adds the count to its stocks.
+ */
+public record Listing(String companyName, int count, int cost) {
+}
@@ -0,0 +1,27 @@
+package ru.itmo.domain;
+
+/**
+ * Outcome of a buy or sell: the count and cost it was filled at, both {@code 0} unless it's {@code FILLED}.
+ * Rejections are preallocated, so rejecting an order allocates nothing.
+ */
+public record OrderResult(OrderStatus status, int count, int cost) {
+    private static final OrderResult[] REJECTIONS = new OrderResult[OrderStatus.values().length];
+
+    static {
+        for (OrderStatus status : OrderStatus.values()) {
+            REJECTIONS[status.ordinal()] = new OrderResult(status, 0, 0);
+        }
+    }
+
+    public static OrderResult filled(int count, int cost) {
+        return new OrderResult(OrderStatus.FILLED, count, cost);
+    }
+
+    public static OrderResult rejected(OrderStatus status) {
+        if (status == OrderStatus.FILLED) {
+            throw new IllegalArgumentException("A filled order isn't a rejection");
+        }
+
+        return REJECTIONS[status.ordinal()];
+    }
+}
@@ -0,0 +1,6 @@
+package ru.itmo.domain;
+
+public enum OrderSide {
+    BUY,
+    SELL
+}
@@ -0,0 +1,12 @@
+package ru.itmo.domain;
+
+public enum OrderStatus {
+    FILLED,
+    NOT_FOUND,
+    NOT_ENOUGH_AMOUNT,
+    NOT_ENOUGH_STOCKS,
+    /**
+     * The idempotency key of the order was first used by a different order.
+     */
+    IDEMPOTENCY_KEY_REUSED
+}
@@ -0,0 +1,9 @@
+package ru.itmo.domain;
+
+import java.util.List;
+
+/**
+ * Candles of a company at one resolution, oldest first.
+ */
+public record PriceHistory(String companyName, String resolution, List<Candle> candles) {
+}
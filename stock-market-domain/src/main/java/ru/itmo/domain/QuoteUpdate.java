@@ -0,0 +1,4 @@
+package ru.itmo.domain;
+
+public record QuoteUpdate(String companyName, int count, int cost) {
+}
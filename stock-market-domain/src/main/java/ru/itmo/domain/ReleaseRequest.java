@@ -0,0 +1,10 @@
+package ru.itmo.domain;
+
+import java.util.List;
+
+/**
+ * Releases the companies on a market node as handoff {@code handoffId} to the {@code target} node. Releasing with an
+ * id that is still pending returns that handoff again.
+ */
+public record ReleaseRequest(String handoffId, String target, List<String> companyNames) {
+}
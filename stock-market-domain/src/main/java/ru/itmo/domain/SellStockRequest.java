@@ -1,4 +1,15 @@
 package ru.itmo.domain;
 
-public record SellStockRequest(String companyName, int count) {
+/**
+ * @param idempotencyKey optional client-generated key, a repeated request with the same key gets the result of the
+ *                       first one instead of being executed again
+ */
+public record SellStockRequest(String companyName, int count, int symbolId, String idempotencyKey) {
+    public SellStockRequest(String companyName, int count) {
+        this(companyName, count, SymbolId.NONE);
+    }
+
+    public SellStockRequest(String companyName, int count, int symbolId) {
+        this(companyName, count, symbolId, null);
+    }
 }
@@ -1,4 +1,7 @@
 package ru.itmo.domain;
 
-public record SetCostRequest(String companyName, int cost) {
+public record SetCostRequest(String companyName, int cost, int symbolId) {
+    public SetCostRequest(String companyName, int cost) {
+        this(companyName, cost, SymbolId.NONE);
+    }
 }
@@ -1,6 +1,92 @@
 package ru.itmo.domain;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public record Stocks(AtomicInteger count, AtomicInteger cost) {
+/**
+ * Quote cell of a single company.
+ * <p>
+ * Count of stocks and their cost are packed into one 64-bit word (count in the high half, cost in the low half),
+ * so every read and every update of the pair is a single atomic operation and can never observe a torn state.
+ */
+public final class Stocks {
+    private static final long COST_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLong state;
+
+    public Stocks(int count, int cost) {
+        this.state = new AtomicLong(pack(count, cost));
+    }
+
+    public static long pack(int count, int cost) {
+        return ((long) count << 32) | (cost & COST_MASK);
+    }
+
+    public static int count(long state) {
+        return (int) (state >> 32);
+    }
+
+    public static int cost(long state) {
+        return (int) state;
+    }
+
+    /**
+     * @return {@code state} with {@code delta} added to its count, as {@link #addCount} would leave it
+     */
+    public static long plusCount(long state, int delta) {
+        return state + ((long) delta << 32);
+    }
+
+    public long get() {
+        return state.get();
+    }
+
+    public boolean compareAndSet(long expectedState, long newState) {
+        return state.compareAndSet(expectedState, newState);
+    }
+
+    public int count() {
+        return count(state.get());
+    }
+
+    public int cost() {
+        return cost(state.get());
+    }
+
+    public StocksSnapshot snapshot() {
+        final long current = state.get();
+
+        return new StocksSnapshot(count(current), cost(current));
+    }
+
+    /**
+     * Adds {@code delta} to the count with a single fetch-and-add, leaving the cost untouched.
+     *
+     * @return state before the update
+     */
+    public long addCount(int delta) {
+        return state.getAndAdd((long) delta << 32);
+    }
+
+    /**
+     * @return state before the update
+     */
+    public long setCost(int cost) {
+        long current = state.get();
+
+        while (!state.weakCompareAndSetVolatile(current, pack(count(current), cost))) {
+            current = state.get();
+        }
+
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        final long current = state.get();
+
+        return "Stocks{" +
+                "count=" + count(current) +
+                ", cost=" + cost(current) +
+                '}';
+    }
 }
@@ -0,0 +1,20 @@
+package ru.itmo.domain;
+
+/**
+ * Dense integer ids the market assigns to companies when they are listed, starting from {@code 1}.
+ * A request may carry the id instead of, or next to, the company name. When both are given the id is only used if
+ * the company listed under it has that name, otherwise the company is looked up by name.
+ */
+public final class SymbolId {
+    /**
+     * Id of a request that names the company only, it's also what a JSON request without an id deserializes to.
+     */
+    public static final int NONE = 0;
+
+    private SymbolId() {
+    }
+
+    public static boolean isAssigned(int symbolId) {
+        return symbolId > NONE;
+    }
+}
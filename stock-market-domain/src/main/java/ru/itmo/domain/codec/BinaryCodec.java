@@ -0,0 +1,423 @@
+package ru.itmo.domain.codec;
+
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BatchOrderResult;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.CancelOrderRequest;
+import ru.itmo.domain.LimitOrderRequest;
+import ru.itmo.domain.LimitOrderResult;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.OrderSide;
+import ru.itmo.domain.OrderStatus;
+import ru.itmo.domain.QuoteUpdate;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the domain records: big-endian fixed-width numbers, enums as one byte and company
+ * names as a 4-byte length followed by UTF-8 bytes ({@code -1} length for {@code null}).
+ * Fields are written in record component order without any field names or type tags, lists as a 4-byte size
+ * followed by their elements.
+ */
+public final class BinaryCodec {
+    public static final String MEDIA_TYPE = "application/x-stock-market";
+
+    private static final Map<Class<?>, RecordCodec<?>> CODECS = new HashMap<>();
+
+    static {
+        register(Integer.class, new RecordCodec<>() {
+            @Override
+            public int size(Integer value) {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void write(Integer value, ByteBuffer buffer) {
+                buffer.putInt(value);
+            }
+
+            @Override
+            public Integer read(ByteBuffer buffer) {
+                return buffer.getInt();
+            }
+        });
+        register(StocksSnapshot.class, new RecordCodec<>() {
+            @Override
+            public int size(StocksSnapshot value) {
+                return 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(StocksSnapshot value, ByteBuffer buffer) {
+                buffer.putInt(value.count()).putInt(value.cost());
+            }
+
+            @Override
+            public StocksSnapshot read(ByteBuffer buffer) {
+                return new StocksSnapshot(buffer.getInt(), buffer.getInt());
+            }
+        });
+        register(AddStockRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(AddStockRequest value) {
+                return stringSize(value.companyName()) + 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(AddStockRequest value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.putInt(value.count()).putInt(value.symbolId());
+            }
+
+            @Override
+            public AddStockRequest read(ByteBuffer buffer) {
+                return new AddStockRequest(getString(buffer), buffer.getInt(), buffer.getInt());
+            }
+        });
+        register(SetCostRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(SetCostRequest value) {
+                return stringSize(value.companyName()) + 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(SetCostRequest value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.putInt(value.cost()).putInt(value.symbolId());
+            }
+
+            @Override
+            public SetCostRequest read(ByteBuffer buffer) {
+                return new SetCostRequest(getString(buffer), buffer.getInt(), buffer.getInt());
+            }
+        });
+        register(SellStockRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(SellStockRequest value) {
+                return stringSize(value.companyName()) + 2 * Integer.BYTES + stringSize(value.idempotencyKey());
+            }
+
+            @Override
+            public void write(SellStockRequest value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.putInt(value.count()).putInt(value.symbolId());
+                putString(buffer, value.idempotencyKey());
+            }
+
+            @Override
+            public SellStockRequest read(ByteBuffer buffer) {
+                return new SellStockRequest(getString(buffer), buffer.getInt(), buffer.getInt(), getString(buffer));
+            }
+        });
+        register(BuyStockRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(BuyStockRequest value) {
+                return stringSize(value.companyName()) + 3 * Integer.BYTES + stringSize(value.idempotencyKey());
+            }
+
+            @Override
+            public void write(BuyStockRequest value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.putInt(value.count()).putInt(value.userAmountMoney()).putInt(value.symbolId());
+                putString(buffer, value.idempotencyKey());
+            }
+
+            @Override
+            public BuyStockRequest read(ByteBuffer buffer) {
+                return new BuyStockRequest(
+                        getString(buffer),
+                        buffer.getInt(),
+                        buffer.getInt(),
+                        buffer.getInt(),
+                        getString(buffer)
+                );
+            }
+        });
+        register(LimitOrderRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(LimitOrderRequest value) {
+                return stringSize(value.companyName()) + 1 + 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(LimitOrderRequest value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.put(value.side() == null ? -1 : (byte) value.side().ordinal())
+                        .putInt(value.price())
+                        .putInt(value.count());
+            }
+
+            @Override
+            public LimitOrderRequest read(ByteBuffer buffer) {
+                final String companyName = getString(buffer);
+                final byte side = buffer.get();
+
+                return new LimitOrderRequest(
+                        companyName,
+                        side < 0 ? null : OrderSide.values()[side],
+                        buffer.getInt(),
+                        buffer.getInt()
+                );
+            }
+        });
+        register(LimitOrderResult.class, new RecordCodec<>() {
+            @Override
+            public int size(LimitOrderResult value) {
+                return 2 * Long.BYTES + 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(LimitOrderResult value, ByteBuffer buffer) {
+                buffer.putLong(value.orderId())
+                        .putInt(value.filledCount())
+                        .putLong(value.filledAmount())
+                        .putInt(value.restingCount());
+            }
+
+            @Override
+            public LimitOrderResult read(ByteBuffer buffer) {
+                return new LimitOrderResult(buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+            }
+        });
+        register(CancelOrderRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(CancelOrderRequest value) {
+                return stringSize(value.companyName()) + Long.BYTES;
+            }
+
+            @Override
+            public void write(CancelOrderRequest value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.putLong(value.orderId());
+            }
+
+            @Override
+            public CancelOrderRequest read(ByteBuffer buffer) {
+                return new CancelOrderRequest(getString(buffer), buffer.getLong());
+            }
+        });
+        register(QuoteUpdate.class, new RecordCodec<>() {
+            @Override
+            public int size(QuoteUpdate value) {
+                return stringSize(value.companyName()) + 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(QuoteUpdate value, ByteBuffer buffer) {
+                putString(buffer, value.companyName());
+                buffer.putInt(value.count()).putInt(value.cost());
+            }
+
+            @Override
+            public QuoteUpdate read(ByteBuffer buffer) {
+                return new QuoteUpdate(getString(buffer), buffer.getInt(), buffer.getInt());
+            }
+        });
+        register(OrderResult.class, new RecordCodec<>() {
+            @Override
+            public int size(OrderResult value) {
+                return 1 + 2 * Integer.BYTES;
+            }
+
+            @Override
+            public void write(OrderResult value, ByteBuffer buffer) {
+                buffer.put(value.status() == null ? -1 : (byte) value.status().ordinal())
+                        .putInt(value.count())
+                        .putInt(value.cost());
+            }
+
+            @Override
+            public OrderResult read(ByteBuffer buffer) {
+                final byte status = buffer.get();
+
+                return new OrderResult(
+                        status < 0 ? null : OrderStatus.values()[status],
+                        buffer.getInt(),
+                        buffer.getInt()
+                );
+            }
+        });
+        register(BatchOrderRequest.class, new RecordCodec<>() {
+            @Override
+            public int size(BatchOrderRequest value) {
+                return listSize(value.buyOrders(), BuyStockRequest.class)
+                        + listSize(value.sellOrders(), SellStockRequest.class);
+            }
+
+            @Override
+            public void write(BatchOrderRequest value, ByteBuffer buffer) {
+                putList(buffer, value.buyOrders(), BuyStockRequest.class);
+                putList(buffer, value.sellOrders(), SellStockRequest.class);
+            }
+
+            @Override
+            public BatchOrderRequest read(ByteBuffer buffer) {
+                return new BatchOrderRequest(
+                        getList(buffer, BuyStockRequest.class),
+                        getList(buffer, SellStockRequest.class)
+                );
+            }
+        });
+        register(BatchOrderResult.class, new RecordCodec<>() {
+            @Override
+            public int size(BatchOrderResult value) {
+                return listSize(value.results(), OrderResult.class);
+            }
+
+            @Override
+            public void write(BatchOrderResult value, ByteBuffer buffer) {
+                putList(buffer, value.results(), OrderResult.class);
+            }
+
+            @Override
+            public BatchOrderResult read(ByteBuffer buffer) {
+                return new BatchOrderResult(getList(buffer, OrderResult.class));
+            }
+        });
+    }
+
+    private BinaryCodec() {
+    }
+
+    public static boolean supports(Class<?> type) {
+        return CODECS.containsKey(type);
+    }
+
+    public static byte[] encode(Object value) {
+        final RecordCodec<Object> codec = codec(value.getClass());
+        final ByteBuffer buffer = ByteBuffer.allocate(codec.size(value));
+
+        codec.write(value, buffer);
+
+        return buffer.position() == buffer.capacity()
+                ? buffer.array()
+                : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are truncated, carry an unknown enum value or a broken length,
+     *                                  or don't end with the value
+     */
+    public static <T> T decode(byte[] bytes, Class<T> type) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final T value;
+
+        try {
+            value = type.cast(codec(type).read(buffer));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated binary " + type.getSimpleName(), e);
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(buffer.remaining() + " bytes after binary " + type.getSimpleName());
+        }
+
+        return value;
+    }
+
+    /**
+     * Upper bound of the encoded size, a UTF-16 char never takes more than three UTF-8 bytes.
+     */
+    static int stringSize(String value) {
+        return Integer.BYTES + (value == null ? 0 : 3 * value.length());
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        final String value = new String(
+                buffer.array(),
+                buffer.arrayOffset() + buffer.position(),
+                length,
+                StandardCharsets.UTF_8
+        );
+
+        buffer.position(buffer.position() + length);
+
+        return value;
+    }
+
+    static <T> int listSize(List<T> values, Class<T> type) {
+        final RecordCodec<T> codec = codec(type);
+
+        int size = Integer.BYTES;
+
+        for (T value : values) {
+            size += codec.size(value);
+        }
+
+        return size;
+    }
+
+    static <T> void putList(ByteBuffer buffer, List<T> values, Class<T> type) {
+        final RecordCodec<T> codec = codec(type);
+
+        buffer.putInt(values.size());
+
+        for (T value : values) {
+            codec.write(value, buffer);
+        }
+    }
+
+    /**
+     * Every element takes at least one byte, so a size beyond the remaining bytes is rejected before allocating.
+     */
+    static <T> List<T> getList(ByteBuffer buffer, Class<T> type) {
+        final RecordCodec<T> codec = codec(type);
+        final int size = buffer.getInt();
+
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IndexOutOfBoundsException("Broken list size " + size);
+        }
+
+        final List<T> values = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            values.add(codec.read(buffer));
+        }
+
+        return values;
+    }
+
+    private static <T> void register(Class<T> type, RecordCodec<T> codec) {
+        CODECS.put(type, codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> RecordCodec<T> codec(Class<?> type) {
+        final RecordCodec<T> codec = (RecordCodec<T>) CODECS.get(type);
+
+        if (codec == null) {
+            throw new IllegalArgumentException("No binary encoding for " + type.getName());
+        }
+
+        return codec;
+    }
+}
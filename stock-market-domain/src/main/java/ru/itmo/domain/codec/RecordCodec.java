@@ -0,0 +1,11 @@
+package ru.itmo.domain.codec;
+
+import java.nio.ByteBuffer;
+
+interface RecordCodec<T> {
+    int size(T value);
+
+    void write(T value, ByteBuffer buffer);
+
+    T read(ByteBuffer buffer);
+}
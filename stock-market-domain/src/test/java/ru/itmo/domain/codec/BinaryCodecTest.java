@@ -0,0 +1,123 @@
+package ru.itmo.domain.codec;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BatchOrderResult;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.CancelOrderRequest;
+import ru.itmo.domain.LimitOrderRequest;
+import ru.itmo.domain.LimitOrderResult;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.OrderSide;
+import ru.itmo.domain.OrderStatus;
+import ru.itmo.domain.QuoteUpdate;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCodecTest {
+    private static final List<Object> VALUES = List.of(
+            42,
+            new StocksSnapshot(Integer.MAX_VALUE, Integer.MIN_VALUE),
+            new AddStockRequest("Company", 10, 3),
+            new SetCostRequest("Компания «Рога»", 25, 0),
+            new SellStockRequest("Company", 5, 7, "key-1"),
+            new SellStockRequest("Company", 5, 0, null),
+            new BuyStockRequest("株式会社", 3, 1000, 2, "key-2"),
+            new BuyStockRequest("", 0, 0, 0, null),
+            new LimitOrderRequest("Company", OrderSide.SELL, 12, 4),
+            new LimitOrderRequest("Company", null, 0, 0),
+            new LimitOrderResult(Long.MAX_VALUE, 3, 4L * Integer.MAX_VALUE, 1),
+            new CancelOrderRequest("Company", 17),
+            new QuoteUpdate("Company", 100, 10),
+            OrderResult.filled(2, 50),
+            OrderResult.rejected(OrderStatus.NOT_ENOUGH_AMOUNT),
+            new OrderResult(null, 0, 0),
+            new BatchOrderRequest(
+                    List.of(new BuyStockRequest("A", 1, 10), new BuyStockRequest("B", 2, 20, 5, "key-3")),
+                    List.of(new SellStockRequest("C", 3))
+            ),
+            new BatchOrderRequest(List.of(), List.of()),
+            new BatchOrderResult(List.of(OrderResult.filled(1, 1), OrderResult.rejected(OrderStatus.NOT_FOUND)))
+    );
+
+    @Test
+    public void testRoundTripsEverySupportedRecord() {
+        for (Object value : VALUES) {
+            assertTrue(BinaryCodec.supports(value.getClass()), value.getClass().getName());
+            assertEquals(value, BinaryCodec.decode(BinaryCodec.encode(value), value.getClass()));
+        }
+    }
+
+    @Test
+    public void testEncodesNamesAsUtf8() {
+        final byte[] bytes = BinaryCodec.encode(new QuoteUpdate("é", 1, 2));
+
+        assertEquals(Integer.BYTES + 2 + 2 * Integer.BYTES, bytes.length);
+        assertEquals(2, ByteBuffer.wrap(bytes).getInt());
+    }
+
+    @Test
+    public void testRejectsEveryTruncation() {
+        for (Object value : VALUES) {
+            final byte[] bytes = BinaryCodec.encode(value);
+
+            for (int length = 0; length < bytes.length; length++) {
+                final byte[] truncated = Arrays.copyOf(bytes, length);
+
+                assertThrows(
+                        IllegalArgumentException.class,
+                        () -> BinaryCodec.decode(truncated, value.getClass()),
+                        value + " truncated to " + length
+                );
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsTrailingBytes() {
+        final byte[] bytes = BinaryCodec.encode(new StocksSnapshot(1, 2));
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> BinaryCodec.decode(Arrays.copyOf(bytes, bytes.length + 1), StocksSnapshot.class)
+        );
+    }
+
+    @Test
+    public void testRejectsBrokenLengthsAndEnums() {
+        final byte[] hugeName = ByteBuffer.allocate(3 * Integer.BYTES).putInt(Integer.MAX_VALUE).array();
+        final byte[] negativeList = ByteBuffer.allocate(Integer.BYTES).putInt(-5).array();
+        final byte[] hugeList = ByteBuffer.allocate(2 * Integer.BYTES).putInt(Integer.MAX_VALUE).array();
+        final byte[] unknownStatus = ByteBuffer.allocate(1 + 2 * Integer.BYTES)
+                .put((byte) OrderStatus.values().length)
+                .array();
+        final byte[] unknownSide = ByteBuffer.allocate(Integer.BYTES + 1 + 2 * Integer.BYTES)
+                .putInt(0)
+                .put((byte) 7)
+                .array();
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(hugeName, AddStockRequest.class));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(negativeList, BatchOrderResult.class));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(hugeList, BatchOrderResult.class));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(unknownStatus, OrderResult.class));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(unknownSide, LimitOrderRequest.class));
+    }
+
+    @Test
+    public void testRejectsUnsupportedTypes() {
+        assertFalse(BinaryCodec.supports(String.class));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.encode("Company"));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(new byte[0], String.class));
+    }
+}
@@ -0,0 +1,279 @@
+package ru.itmo.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load against a running market server and client application.
+ * <p>
+ * Requests are issued on a fixed schedule, one every {@code 1 / rate} seconds, whether or not earlier ones have
+ * completed. Latency is measured from the scheduled start rather than from the actual send, so a stall in the system
+ * under test, or in the generator itself, is charged to every request that should have been sent during it instead
+ * of silently thinning the load (coordinated omission). Requests that fail, by timing out or losing the connection,
+ * are recorded at the same latency as the rest, so the tail includes them, and once more in an error histogram of
+ * their own, reported next to the main one.
+ * <p>
+ * Usage: {@code ./gradlew :stock-market-load:run --args="--server http://localhost:8080
+ * --client http://localhost:8081 --rate 2000 --seconds 60 --symbols 500 --zipf 1.1
+ * --mix register=1,deposit=4,buy=25,sell=20,get-stocks=25,get-money=25"}
+ */
+public class LoadGenerator {
+    private static final String JSON = "application/json";
+    private static final String COMPANY_PREFIX = "Load Company ";
+    private static final int INITIAL_STOCKS = 1_000_000_000;
+    private static final int COST = 10;
+    private static final int INITIAL_MONEY = 1_000_000_000;
+    private static final int SEEDED_SYMBOLS = 5;
+    private static final int SEEDED_LOT = 10_000;
+    private static final int DEPOSIT = 100;
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final LoadOptions options;
+    private final HttpClient httpClient;
+    private final ZipfDistribution symbolPopularity;
+    private final SplittableRandom random = new SplittableRandom();
+    private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> rejected = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> errors = new EnumMap<>(Operation.class);
+    private final Histogram total = new ConcurrentHistogram(3);
+    private final Histogram totalErrors = new ConcurrentHistogram(3);
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private String[] userIds;
+    private long issued;
+    private long maxDispatchLagNanos;
+
+    public LoadGenerator(LoadOptions options) {
+        this.options = options;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.symbolPopularity = new ZipfDistribution(options.symbols(), options.zipfExponent());
+
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new ConcurrentHistogram(3));
+            rejected.put(operation, new LongAdder());
+            errors.put(operation, new ConcurrentHistogram(3));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadGenerator generator = new LoadGenerator(LoadOptions.parse(args));
+
+        generator.seed();
+        generator.run();
+        generator.report(System.out);
+        generator.writeHistograms();
+    }
+
+    /**
+     * Lists every symbol on the server and registers funded users on the client, each holding a lot of the most
+     * popular symbols so that sells have something to sell.
+     */
+    public void seed() throws Exception {
+        for (int symbol = 0; symbol < options.symbols(); symbol++) {
+            final String companyName = companyName(symbol);
+
+            send(options.serverUrl(), "/add/company", "POST", companyName);
+            send(options.serverUrl(), "/add/stocks", "POST",
+                    "{\"companyName\":\"" + companyName + "\",\"count\":" + INITIAL_STOCKS + "}");
+            send(options.serverUrl(), "/set/cost", "POST",
+                    "{\"companyName\":\"" + companyName + "\",\"cost\":" + COST + "}");
+        }
+
+        userIds = new String[options.users()];
+
+        for (int user = 0; user < options.users(); user++) {
+            userIds[user] = send(options.clientUrl(), "/register", "POST", "Load User " + user);
+
+            send(options.clientUrl(), "/add/money", "POST",
+                    "{\"id\":\"" + userIds[user] + "\",\"amount\":" + INITIAL_MONEY + "}");
+
+            for (int symbol = 0; symbol < Math.min(SEEDED_SYMBOLS, options.symbols()); symbol++) {
+                send(options.clientUrl(), "/buy/stocks", "POST", orderBody(userIds[user], symbol, SEEDED_LOT));
+            }
+        }
+    }
+
+    public void run() throws InterruptedException {
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.rate();
+        final long start = System.nanoTime();
+        final long recordFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds());
+        final long end = recordFrom + TimeUnit.SECONDS.toNanos(options.seconds());
+
+        for (long intendedStart = start; intendedStart < end; intendedStart = start + issued * intervalNanos) {
+            long now = System.nanoTime();
+
+            while (now < intendedStart) {
+                if (intendedStart - now > SPIN_THRESHOLD_NANOS) {
+                    LockSupport.parkNanos(intendedStart - now - SPIN_THRESHOLD_NANOS);
+                } else {
+                    Thread.onSpinWait();
+                }
+
+                now = System.nanoTime();
+            }
+
+            maxDispatchLagNanos = Math.max(maxDispatchLagNanos, now - intendedStart);
+            dispatch(options.mix().next(random), intendedStart, intendedStart >= recordFrom);
+            issued++;
+        }
+
+        final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.timeoutSeconds() + 1L);
+
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void report(PrintStream out) {
+        out.printf("issued %d requests at %d/s, %d still in flight, max dispatch lag %.2f ms%n",
+                issued, options.rate(), inFlight.get(), maxDispatchLagNanos / NANOS_PER_MILLI);
+        out.printf("%-12s %10s %10s %8s %10s %10s %10s %10s%n",
+                "operation", "requests", "rejected", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        for (Operation operation : Operation.values()) {
+            printRow(out, operation.optionName(), histograms.get(operation),
+                    rejected.get(operation).sum(), errors.get(operation).getTotalCount());
+        }
+
+        printRow(out, "total", total,
+                rejected.values().stream().mapToLong(LongAdder::sum).sum(), totalErrors.getTotalCount());
+
+        if (totalErrors.getTotalCount() == 0) {
+            return;
+        }
+
+        out.printf("%nfailed requests only%n");
+        out.printf("%-12s %10s %10s %8s %10s %10s %10s %10s%n",
+                "operation", "requests", "rejected", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        for (Operation operation : Operation.values()) {
+            final Histogram operationErrors = errors.get(operation);
+
+            if (operationErrors.getTotalCount() > 0) {
+                printRow(out, operation.optionName(), operationErrors, 0, operationErrors.getTotalCount());
+            }
+        }
+
+        printRow(out, "total", totalErrors, 0, totalErrors.getTotalCount());
+    }
+
+    public void writeHistograms() throws IOException {
+        if (options.histogramDirectory() == null) {
+            return;
+        }
+
+        Files.createDirectories(options.histogramDirectory());
+
+        for (Operation operation : Operation.values()) {
+            writeHistogram(operation.optionName(), histograms.get(operation));
+            writeHistogram(operation.optionName() + "-errors", errors.get(operation));
+        }
+
+        writeHistogram("total", total);
+        writeHistogram("total-errors", totalErrors);
+    }
+
+    private void dispatch(Operation operation, long intendedStart, boolean recorded) {
+        final String userId = userIds[random.nextInt(userIds.length)];
+        final HttpRequest request = switch (operation) {
+            case REGISTER -> request("/register", "POST", "Load User");
+            case DEPOSIT -> request("/add/money", "POST", "{\"id\":\"" + userId + "\",\"amount\":" + DEPOSIT + "}");
+            case BUY -> request("/buy/stocks", "POST", orderBody(userId, symbolPopularity.next(random), 1));
+            case SELL -> request("/sell/stocks", "POST", orderBody(userId, symbolPopularity.next(random), 1));
+            case GET_STOCKS -> request("/get/stocks", "GET", userId);
+            case GET_MONEY -> request("/get/user/money", "GET", userId);
+        };
+
+        inFlight.incrementAndGet();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    final long latency = System.nanoTime() - intendedStart;
+
+                    inFlight.decrementAndGet();
+
+                    if (!recorded) {
+                        return;
+                    }
+
+                    if (error != null) {
+                        errors.get(operation).recordValue(latency);
+                        totalErrors.recordValue(latency);
+                    } else if (response.statusCode() != 200) {
+                        rejected.get(operation).increment();
+                    }
+
+                    histograms.get(operation).recordValue(latency);
+                    total.recordValue(latency);
+                });
+    }
+
+    private HttpRequest request(String path, String method, String body) {
+        return HttpRequest.newBuilder(URI.create(options.clientUrl() + path))
+                .header("Content-Type", JSON)
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .timeout(Duration.ofSeconds(options.timeoutSeconds()))
+                .build();
+    }
+
+    private String send(String baseUrl, String path, String method, String body) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", JSON)
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        final HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(path + " answered " + response.statusCode() + ": " + response.body());
+        }
+
+        return response.body();
+    }
+
+    private void writeHistogram(String name, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(
+                Files.newOutputStream(options.histogramDirectory().resolve(name + ".hgrm"))
+        )) {
+            histogram.outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram histogram, long rejected, long errors) {
+        out.printf("%-12s %10d %10d %8d %10.2f %10.2f %10.2f %10.2f%n",
+                name,
+                histogram.getTotalCount(),
+                rejected,
+                errors,
+                histogram.getValueAtPercentile(50.0) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.0) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                histogram.getMaxValue() / NANOS_PER_MILLI);
+    }
+
+    private static String orderBody(String userId, int symbol, int count) {
+        return "{\"id\":\"" + userId + "\",\"companyName\":\"" + companyName(symbol) + "\",\"count\":" + count + "}";
+    }
+
+    private static String companyName(int symbol) {
+        return COMPANY_PREFIX + symbol;
+    }
+}
@@ -0,0 +1,76 @@
+package ru.itmo.load;
+
+import java.nio.file.Path;
+
+/**
+ * Command line of the load generator, every option is {@code --name value}.
+ *
+ * @param rate                requests per second issued on schedule, regardless of how fast responses come back
+ * @param warmupSeconds       leading part of the run that is executed but not recorded
+ * @param zipfExponent        skew of symbol popularity, {@code 0} is uniform
+ * @param histogramDirectory  where to write a {@code .hgrm} percentile distribution per operation, optional
+ */
+public record LoadOptions(
+        String serverUrl,
+        String clientUrl,
+        int rate,
+        int seconds,
+        int warmupSeconds,
+        int symbols,
+        double zipfExponent,
+        int users,
+        OperationMix mix,
+        int timeoutSeconds,
+        Path histogramDirectory
+) {
+    private static final String DEFAULT_MIX = "register=1,deposit=4,buy=25,sell=20,get-stocks=25,get-money=25";
+
+    public static LoadOptions parse(String[] args) {
+        String serverUrl = "http://localhost:8080";
+        String clientUrl = "http://localhost:8081";
+        int rate = 1000;
+        int seconds = 60;
+        int warmupSeconds = 10;
+        int symbols = 100;
+        double zipfExponent = 1.0;
+        int users = 100;
+        String mix = DEFAULT_MIX;
+        int timeoutSeconds = 30;
+        Path histogramDirectory = null;
+
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--server" -> serverUrl = args[i + 1];
+                case "--client" -> clientUrl = args[i + 1];
+                case "--rate" -> rate = Integer.parseInt(args[i + 1]);
+                case "--seconds" -> seconds = Integer.parseInt(args[i + 1]);
+                case "--warmup-seconds" -> warmupSeconds = Integer.parseInt(args[i + 1]);
+                case "--symbols" -> symbols = Integer.parseInt(args[i + 1]);
+                case "--zipf" -> zipfExponent = Double.parseDouble(args[i + 1]);
+                case "--users" -> users = Integer.parseInt(args[i + 1]);
+                case "--mix" -> mix = args[i + 1];
+                case "--timeout-seconds" -> timeoutSeconds = Integer.parseInt(args[i + 1]);
+                case "--hgrm-dir" -> histogramDirectory = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (rate < 1 || seconds < 1 || warmupSeconds < 0 || symbols < 1 || users < 1) {
+            throw new IllegalArgumentException("Rate, seconds, symbols and users have to be positive");
+        }
+
+        return new LoadOptions(
+                serverUrl,
+                clientUrl,
+                rate,
+                seconds,
+                warmupSeconds,
+                symbols,
+                zipfExponent,
+                users,
+                OperationMix.parse(mix),
+                timeoutSeconds,
+                histogramDirectory
+        );
+    }
+}
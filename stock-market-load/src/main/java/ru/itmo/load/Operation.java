@@ -0,0 +1,33 @@
+package ru.itmo.load;
+
+/**
+ * Calls of the client application the load generator mixes, by their name in {@code --mix}.
+ */
+public enum Operation {
+    REGISTER("register"),
+    DEPOSIT("deposit"),
+    BUY("buy"),
+    SELL("sell"),
+    GET_STOCKS("get-stocks"),
+    GET_MONEY("get-money");
+
+    private final String optionName;
+
+    Operation(String optionName) {
+        this.optionName = optionName;
+    }
+
+    public String optionName() {
+        return optionName;
+    }
+
+    public static Operation byOptionName(String optionName) {
+        for (Operation operation : values()) {
+            if (operation.optionName.equals(optionName)) {
+                return operation;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown operation " + optionName);
+    }
+}
@@ -0,0 +1,68 @@
+package ru.itmo.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * Weighted choice between operations, parsed from {@code register=1,deposit=4,buy=25,...}.
+ */
+public class OperationMix {
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    private OperationMix(Map<Operation, Integer> weights) {
+        this.operations = new Operation[weights.size()];
+        this.cumulativeWeights = new int[weights.size()];
+
+        int total = 0;
+        int i = 0;
+
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            total += weight.getValue();
+            operations[i] = weight.getKey();
+            cumulativeWeights[i] = total;
+            i++;
+        }
+
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix has no positive weights: " + weights);
+        }
+    }
+
+    public static OperationMix parse(String mix) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+
+        for (String part : mix.split(",")) {
+            final String[] weight = part.trim().split("=", 2);
+
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight, got " + part);
+            }
+
+            final int value = Integer.parseInt(weight[1].trim());
+
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative weight for " + weight[0]);
+            }
+
+            if (value > 0) {
+                weights.put(Operation.byOptionName(weight[0].trim()), value);
+            }
+        }
+
+        return new OperationMix(weights);
+    }
+
+    public Operation next(RandomGenerator random) {
+        final int point = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (point < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+
+        throw new IllegalStateException("Weight " + point + " is out of the mix");
+    }
+}
@@ -0,0 +1,37 @@
+package ru.itmo.load;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Ranks {@code 0..n-1} where rank {@code k} is drawn with probability proportional to {@code 1 / (k + 1)^s},
+ * so a handful of symbols receive most of the traffic. Sampling is a binary search over the precomputed CDF.
+ */
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    public ZipfDistribution(int n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Zipf distribution needs at least one rank: " + n);
+        }
+
+        this.cumulative = new double[n];
+
+        double sum = 0;
+
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    public int next(RandomGenerator random) {
+        final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,23 @@
+package ru.itmo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.itmo.services.history.MarketHistory;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@ConditionalOnProperty(name = "market.history.enabled", havingValue = "true")
+public class HistoryConfiguration {
+    @Bean
+    public MarketHistory marketHistory(
+            @Value("${market.history.ticks:4096}") int tickCapacity,
+            @Value("${market.history.candles:1024}") int candleCapacity,
+            @Value("${market.history.max-symbols:1024}") int maxSymbols,
+            @Value("${market.history.idle-s:3600}") long idleSeconds
+    ) {
+        return new MarketHistory(tickCapacity, candleCapacity, maxSymbols, TimeUnit.SECONDS.toMillis(idleSeconds));
+    }
+}
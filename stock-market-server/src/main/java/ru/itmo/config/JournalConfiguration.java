@@ -0,0 +1,52 @@
+package ru.itmo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.itmo.services.journal.Durability;
+import ru.itmo.services.journal.MarketJournal;
+import ru.itmo.services.journal.MarketSnapshotter;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+@Configuration
+@ConditionalOnProperty(name = "market.journal.enabled", havingValue = "true")
+public class JournalConfiguration {
+    @Bean
+    public MarketJournal marketJournal(
+            @Value("${market.journal.directory:data/journal}") String directory,
+            @Value("${market.journal.segment-size-mb:64}") int segmentSizeMegabytes,
+            @Value("${market.journal.durability:batched}") String durability,
+            @Value("${market.journal.batch-window-us:200}") long batchWindowMicros,
+            @Value("${market.journal.async-interval-ms:10}") long asyncIntervalMillis
+    ) {
+        final long segmentSize = (long) segmentSizeMegabytes << 20;
+
+        if (segmentSizeMegabytes < 1 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Journal segment size has to be between 1 and 2047 MB: " + segmentSizeMegabytes
+            );
+        }
+
+        return new MarketJournal(
+                Path.of(directory),
+                (int) segmentSize,
+                Durability.valueOf(durability.toUpperCase(Locale.ROOT)),
+                batchWindowMicros,
+                asyncIntervalMillis
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "market.snapshot.enabled", havingValue = "true")
+    public MarketSnapshotter marketSnapshotter(
+            MarketJournal marketJournal,
+            @Value("${market.snapshot.directory:data/snapshots}") String directory,
+            @Value("${market.snapshot.interval-s:60}") long intervalSeconds,
+            @Value("${market.snapshot.retained:2}") int retained
+    ) {
+        return new MarketSnapshotter(Path.of(directory), marketJournal, intervalSeconds, retained);
+    }
+}
@@ -0,0 +1,19 @@
+package ru.itmo.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+    /**
+     * The binary converter goes last, so it is only chosen when a client explicitly sends or accepts
+     * the binary media type and JSON stays the default.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new BinaryMessageConverter());
+    }
+}
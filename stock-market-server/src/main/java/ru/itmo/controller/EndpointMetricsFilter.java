@@ -0,0 +1,44 @@
+package ru.itmo.controller;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import ru.itmo.services.metrics.MarketMetrics;
+
+import java.io.IOException;
+
+/**
+ * Records request latency by the matched mapping pattern, e.g. {@code /book/{company}}, so path variables
+ * don't create a series per value.
+ */
+@Component
+public class EndpointMetricsFilter extends OncePerRequestFilter {
+    private static final String UNMATCHED = "unmatched";
+
+    private final MarketMetrics metrics;
+
+    public EndpointMetricsFilter(MarketMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        final long start = System.nanoTime();
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            final Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+            metrics.recordRequest(pattern == null ? UNMATCHED : pattern.toString(), System.nanoTime() - start);
+        }
+    }
+}
@@ -2,36 +2,102 @@ package ru.itmo.controller;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BatchOrderResult;
+import ru.itmo.domain.BookDepth;
 import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.CancelOrderRequest;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.ImportResult;
+import ru.itmo.domain.LimitOrderRequest;
+import ru.itmo.domain.LimitOrderResult;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.PriceHistory;
+import ru.itmo.domain.QuoteUpdate;
+import ru.itmo.domain.ReleaseRequest;
 import ru.itmo.domain.SellStockRequest;
 import ru.itmo.domain.AddStockRequest;
 import ru.itmo.domain.SetCostRequest;
-import ru.itmo.domain.Stocks;
 import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.services.OrderBookService;
+import ru.itmo.services.QuoteStreamService;
 import ru.itmo.services.StockMarketService;
-import ru.itmo.services.exceptions.NotEnoughAmountException;
-import ru.itmo.services.exceptions.NotEnoughStocksException;
+import ru.itmo.services.exceptions.HistoryNotFoundException;
+import ru.itmo.services.exceptions.InvalidOrderException;
+import ru.itmo.services.exceptions.OrderNotFoundException;
 import ru.itmo.services.exceptions.StocksNotFoundException;
+import ru.itmo.services.metrics.MarketMetrics;
+import ru.itmo.services.seed.ImportFormat;
+import ru.itmo.services.seed.MarketImporter;
+import ru.itmo.services.stream.QuoteSink;
+import ru.itmo.services.stream.QuoteSubscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 public class StocksMarketController {
     private static Logger LOGGER = LoggerFactory.getLogger(StocksMarketController.class);
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
 
     private final StockMarketService stockMarketService;
+    private final OrderBookService orderBookService;
+    private final QuoteStreamService quoteStreamService;
+    private final MarketMetrics marketMetrics;
+    private final MarketImporter marketImporter;
 
-    public StocksMarketController(StockMarketService stockMarketService) {
+    public StocksMarketController(
+            StockMarketService stockMarketService,
+            OrderBookService orderBookService,
+            QuoteStreamService quoteStreamService,
+            MarketMetrics marketMetrics,
+            MarketImporter marketImporter
+    ) {
         this.stockMarketService = stockMarketService;
+        this.orderBookService = orderBookService;
+        this.quoteStreamService = quoteStreamService;
+        this.marketMetrics = marketMetrics;
+        this.marketImporter = marketImporter;
     }
 
+    /**
+     * @return symbol id of the company, requests may carry it instead of the name
+     */
     @PostMapping("/add/company")
-    public ResponseEntity<Void> addCompany(@RequestBody String companyName) {
-        stockMarketService.addCompany(companyName);
+    public ResponseEntity<Integer> addCompany(@RequestBody String companyName) {
+        return ResponseEntity.ok(stockMarketService.addCompany(companyName));
+    }
 
-        return ResponseEntity.ok().build();
+    /**
+     * Clients look companies up before they are listed, so an unknown one is an answer rather than an error and
+     * isn't logged.
+     */
+    @GetMapping("/symbol/{company}")
+    public ResponseEntity<Integer> getSymbolId(@PathVariable("company") String companyName) {
+        try {
+            return ResponseEntity.ok(stockMarketService.getSymbolId(companyName));
+        } catch (StocksNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * @return symbol ids of the listed companies among the requested ones, unknown companies are absent
+     */
+    @PostMapping("/symbols")
+    public ResponseEntity<Map<String, Integer>> getSymbolIds(@RequestBody List<String> companyNames) {
+        return ResponseEntity.ok(stockMarketService.getSymbolIds(companyNames));
     }
 
     @PostMapping("/add/stocks")
@@ -63,9 +129,7 @@ public class StocksMarketController {
     @PostMapping("/get/stocks")
     public ResponseEntity<StocksSnapshot> getStocks(@RequestBody String companyName) {
         try {
-            Stocks stocks = stockMarketService.getStocks(companyName);
-
-            return ResponseEntity.ok(new StocksSnapshot(stocks.count().get(), stocks.cost().get()));
+            return ResponseEntity.ok(stockMarketService.getStocks(companyName).snapshot());
         } catch (StocksNotFoundException e) {
             LOGGER.error("Stock requested with info {} not found", companyName, e);
 
@@ -73,31 +137,242 @@ public class StocksMarketController {
         }
     }
 
+    /**
+     * Same as {@link #getSymbolId}, an id that isn't listed, e.g. one cached before a restart, isn't logged.
+     */
+    @GetMapping("/get/stocks/{symbolId}")
+    public ResponseEntity<StocksSnapshot> getStocks(@PathVariable("symbolId") int symbolId) {
+        try {
+            return ResponseEntity.ok(stockMarketService.getStocks(symbolId).snapshot());
+        } catch (StocksNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/get/stocks/batch")
+    public ResponseEntity<Map<String, StocksSnapshot>> getStocksBatch(@RequestBody List<String> companyNames) {
+        return ResponseEntity.ok(stockMarketService.getStocksSnapshots(companyNames));
+    }
+
+    /**
+     * Server-sent events with the current quote of every followed company, a {@code replayed} event once they are all
+     * sent, then their changes. Slow consumers only receive the latest quote of each company.
+     */
+    @GetMapping(value = "/stream/quotes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamQuotes(@RequestParam(value = "companies", required = false) List<String> companyNames) {
+        final SseEmitter emitter = new SseEmitter(0L);
+        final QuoteSubscription subscription = quoteStreamService.subscribe(companyNames, new QuoteSink() {
+            @Override
+            public void send(QuoteUpdate quoteUpdate) throws IOException {
+                emitter.send(SseEmitter.event().name("quote").data(quoteUpdate, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void replayed() throws IOException {
+                emitter.send(SseEmitter.event().name("replayed").data(""));
+            }
+        });
+
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+
+        return emitter;
+    }
+
+    /**
+     * Rejections are logged and counted by the service, at most a few per second, so they're only mapped to
+     * a status here.
+     */
     @PostMapping("/buy/stocks")
     public ResponseEntity<StocksSnapshot> buyStocks(@RequestBody BuyStockRequest buyStockRequest) {
+        final OrderResult result = stockMarketService.buyStocks(buyStockRequest);
+
+        return switch (result.status()) {
+            case FILLED -> ResponseEntity.ok(new StocksSnapshot(result.count(), result.cost()));
+            case NOT_FOUND -> ResponseEntity.notFound().build();
+            case NOT_ENOUGH_AMOUNT, NOT_ENOUGH_STOCKS -> ResponseEntity.badRequest().build();
+            case IDEMPOTENCY_KEY_REUSED -> ResponseEntity.unprocessableEntity().build();
+        };
+    }
+
+    @PostMapping("/sell/stocks")
+    public ResponseEntity<Integer> sellStocks(@RequestBody SellStockRequest sellStocksRequest) {
+        final OrderResult result = stockMarketService.sellStocks(sellStocksRequest);
+
+        return switch (result.status()) {
+            case FILLED -> ResponseEntity.ok(result.count() * result.cost());
+            case IDEMPOTENCY_KEY_REUSED -> ResponseEntity.unprocessableEntity().build();
+            default -> ResponseEntity.notFound().build();
+        };
+    }
+
+    /**
+     * Executes a batch of buys and sells in one request. Rejected orders don't fail the batch,
+     * they are reported in their own result.
+     */
+    @PostMapping("/orders/batch")
+    public ResponseEntity<BatchOrderResult> executeOrders(@RequestBody BatchOrderRequest batchOrderRequest) {
+        return ResponseEntity.ok(new BatchOrderResult(stockMarketService.executeOrders(batchOrderRequest)));
+    }
+
+    @PostMapping("/order/limit")
+    public ResponseEntity<LimitOrderResult> placeLimitOrder(@RequestBody LimitOrderRequest limitOrderRequest) {
         try {
-            return ResponseEntity.ok(
-                    stockMarketService.buyStocks(buyStockRequest)
-            );
+            return ResponseEntity.ok(orderBookService.placeLimitOrder(limitOrderRequest));
         } catch (StocksNotFoundException e) {
-            LOGGER.error("Stock requested with info {} not found", buyStockRequest, e);
+            LOGGER.error("Stock requested with info {} not found", limitOrderRequest, e);
 
             return ResponseEntity.notFound().build();
-        } catch (NotEnoughAmountException | NotEnoughStocksException e) {
-            LOGGER.error("Not enough amount or stocks for request: {}", buyStockRequest, e);
+        } catch (InvalidOrderException e) {
+            LOGGER.error("Invalid limit order: {}", limitOrderRequest, e);
 
             return ResponseEntity.badRequest().build();
         }
     }
 
-    @PostMapping("/sell/stocks")
-    public ResponseEntity<Integer> sellStocks(@RequestBody SellStockRequest sellStocksRequest) {
+    @PostMapping("/order/cancel")
+    public ResponseEntity<Integer> cancelOrder(@RequestBody CancelOrderRequest cancelOrderRequest) {
+        try {
+            return ResponseEntity.ok(orderBookService.cancelOrder(cancelOrderRequest));
+        } catch (StocksNotFoundException | OrderNotFoundException e) {
+            LOGGER.error("Order requested with info {} not found", cancelOrderRequest, e);
+
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/book/{company}")
+    public ResponseEntity<BookDepth> getBook(
+            @PathVariable("company") String companyName,
+            @RequestParam(value = "depth", defaultValue = "10") int depth
+    ) {
+        if (depth < 0) {
+            LOGGER.error("Negative depth {} requested for the book of {}", depth, companyName);
+
+            return ResponseEntity.badRequest().build();
+        }
+
         try {
-            return ResponseEntity.ok(stockMarketService.sellStocks(sellStocksRequest));
+            return ResponseEntity.ok(orderBookService.getDepth(companyName, depth));
         } catch (StocksNotFoundException e) {
-            LOGGER.error("Stock requested with info {} not found", sellStocksRequest, e);
+            LOGGER.error("Stock requested with info {} not found", companyName, e);
+
+            return ResponseEntity.notFound().build();
+        }
+    }
 
+    /**
+     * Price history of the company, read without blocking trades. Not found for a company whose history isn't kept,
+     * while a kept history without candles in the range is returned empty.
+     *
+     * @param resolution {@code tick}, {@code 1s}, {@code 1m} or {@code 1h}
+     * @param from       start of the range, epoch milliseconds, inclusive
+     * @param to         end of the range, epoch milliseconds, exclusive
+     */
+    @GetMapping("/history/{company}")
+    public ResponseEntity<PriceHistory> getHistory(
+            @PathVariable("company") String companyName,
+            @RequestParam(value = "resolution", defaultValue = "1m") String resolution,
+            @RequestParam(value = "from", defaultValue = "0") long from,
+            @RequestParam(value = "to", defaultValue = "9223372036854775807") long to
+    ) {
+        try {
+            return ResponseEntity.ok(stockMarketService.getHistory(companyName, resolution, from, to));
+        } catch (StocksNotFoundException e) {
+            LOGGER.error("Stock requested with info {} not found", companyName, e);
+
+            return ResponseEntity.notFound().build();
+        } catch (HistoryNotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Can't read history of {}", companyName, e);
+
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Imports listings from the request body, one per line, streamed to disk rather than read into memory.
+     *
+     * @param format {@code csv} or {@code ndjson}
+     */
+    @PostMapping("/import")
+    public ResponseEntity<ImportResult> importListings(
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            InputStream body
+    ) {
+        try {
+            return ResponseEntity.ok(marketImporter.importStream(body, ImportFormat.of(format)));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Can't import listings in format {}", format, e);
+
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            LOGGER.error("Import of listings in format {} failed", format, e);
+
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/companies")
+    public ResponseEntity<List<String>> getCompanyNames() {
+        return ResponseEntity.ok(stockMarketService.getCompanyNames());
+    }
+
+    /**
+     * Takes all stocks of the companies out of this node so another node can adopt them. They stay pending here until
+     * the handoff is completed.
+     *
+     * @return the pending handoff with stocks and cost of every released company, unknown companies are absent
+     */
+    @PostMapping("/partition/release")
+    public ResponseEntity<Handoff> releaseListings(@RequestBody ReleaseRequest releaseRequest) {
+        try {
+            return ResponseEntity.ok(stockMarketService.releaseListings(releaseRequest));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Can't release companies", e);
+
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Adds the stocks of a handoff released by another node, once however often it's sent.
+     */
+    @PostMapping("/partition/adopt")
+    public ResponseEntity<Void> adoptListings(@RequestBody Handoff handoff) {
+        try {
+            stockMarketService.adoptListings(handoff);
+
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Can't adopt companies", e);
+
+            return ResponseEntity.badRequest().build();
         }
     }
+
+    /**
+     * Forgets a handoff released by this node once its target adopted it.
+     */
+    @PostMapping("/partition/complete")
+    public ResponseEntity<Void> completeHandoff(@RequestBody String handoffId) {
+        stockMarketService.completeHandoff(handoffId);
+
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * @return handoffs released by this node that weren't completed, to be adopted by their targets
+     */
+    @GetMapping("/partition/pending")
+    public ResponseEntity<List<Handoff>> getPendingHandoffs() {
+        return ResponseEntity.ok(stockMarketService.getPendingHandoffs());
+    }
+
+    @GetMapping(value = "/metrics", produces = PROMETHEUS_TEXT)
+    public ResponseEntity<String> metrics() {
+        return ResponseEntity.ok(marketMetrics.writePrometheus());
+    }
 }
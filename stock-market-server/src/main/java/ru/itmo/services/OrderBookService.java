@@ -0,0 +1,94 @@
+package ru.itmo.services;
+
+import org.springframework.stereotype.Service;
+import ru.itmo.domain.BookDepth;
+import ru.itmo.domain.CancelOrderRequest;
+import ru.itmo.domain.LimitOrderRequest;
+import ru.itmo.domain.LimitOrderResult;
+import ru.itmo.domain.Stocks;
+import ru.itmo.services.exceptions.InvalidOrderException;
+import ru.itmo.services.exceptions.OrderNotFoundException;
+import ru.itmo.services.exceptions.StocksNotFoundException;
+import ru.itmo.services.orderbook.OrderBook;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class OrderBookService {
+    private final StockMarketService stockMarketService;
+    private final ConcurrentHashMap<String, OrderBook> orderBooks;
+    private final AtomicLong orderIds;
+
+    public OrderBookService(StockMarketService stockMarketService) {
+        this.stockMarketService = stockMarketService;
+        this.orderBooks = new ConcurrentHashMap<>();
+        this.orderIds = new AtomicLong();
+    }
+
+    public LimitOrderResult placeLimitOrder(
+            LimitOrderRequest limitOrderRequest
+    ) throws StocksNotFoundException, InvalidOrderException {
+        if (limitOrderRequest.side() == null || limitOrderRequest.price() <= 0 || limitOrderRequest.count() <= 0) {
+            throw new InvalidOrderException("Limit order must have a side, positive price and count: " + limitOrderRequest);
+        }
+
+        final LimitOrderResult limitOrderResult = getOrderBook(limitOrderRequest.companyName()).place(
+                orderIds.incrementAndGet(),
+                limitOrderRequest.side(),
+                limitOrderRequest.price(),
+                limitOrderRequest.count()
+        );
+
+        if (limitOrderResult.filledCount() > 0) {
+            stockMarketService.commitExternalCostChange(limitOrderRequest.companyName());
+        }
+
+        return limitOrderResult;
+    }
+
+    public int cancelOrder(
+            CancelOrderRequest cancelOrderRequest
+    ) throws StocksNotFoundException, OrderNotFoundException {
+        final int remaining = getOrderBook(cancelOrderRequest.companyName()).cancel(cancelOrderRequest.orderId());
+
+        if (remaining < 0) {
+            throw new OrderNotFoundException(String.format(
+                    "Can't find resting order %d of company '%s'",
+                    cancelOrderRequest.orderId(),
+                    cancelOrderRequest.companyName()
+            ));
+        }
+
+        return remaining;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code levels} is negative
+     */
+    public BookDepth getDepth(String companyName, int levels) throws StocksNotFoundException {
+        if (levels < 0) {
+            throw new IllegalArgumentException("Book depth can't be negative: " + levels);
+        }
+
+        stockMarketService.getStocks(companyName);
+
+        return Optional.ofNullable(orderBooks.get(companyName))
+                .map(orderBook -> orderBook.depth(levels))
+                .orElseGet(() -> new BookDepth(companyName, Collections.emptyList(), Collections.emptyList()));
+    }
+
+    private OrderBook getOrderBook(String companyName) throws StocksNotFoundException {
+        final OrderBook orderBook = orderBooks.get(companyName);
+
+        if (orderBook != null) {
+            return orderBook;
+        }
+
+        final Stocks stocks = stockMarketService.getStocks(companyName);
+
+        return orderBooks.computeIfAbsent(companyName, name -> new OrderBook(name, stocks));
+    }
+}
@@ -0,0 +1,66 @@
+package ru.itmo.services;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.itmo.services.stream.QuoteSink;
+import ru.itmo.services.stream.QuoteSubscription;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class QuoteStreamService {
+    private final StockMarketService stockMarketService;
+    private final ExecutorService dispatcher;
+
+    public QuoteStreamService(
+            StockMarketService stockMarketService,
+            @Value("${market.stream.dispatch-threads:2}") int dispatchThreads
+    ) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        this.stockMarketService = stockMarketService;
+        this.dispatcher = Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "quote-stream-" + threadNumber.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Subscribes the sink to changes of the given companies and immediately queues their current quotes, the sink is
+     * told once they are all sent.
+     *
+     * @param companyNames companies to follow, {@code null} or empty for the whole market
+     */
+    public QuoteSubscription subscribe(Collection<String> companyNames, QuoteSink quoteSink) {
+        final Set<String> filter = companyNames == null || companyNames.isEmpty() ? null : Set.copyOf(companyNames);
+        final QuoteSubscription subscription = new QuoteSubscription(
+                filter,
+                quoteSink,
+                dispatcher,
+                stockMarketService::removeQuoteListener
+        );
+
+        stockMarketService.addQuoteListener(subscription);
+        stockMarketService.forEachStocks((companyName, stocks) -> {
+            if (subscription.isSubscribed(companyName)) {
+                subscription.onQuote(companyName, stocks);
+            }
+        });
+        subscription.markReplayed();
+
+        return subscription;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+    }
+}
@@ -1,108 +1,978 @@
 package ru.itmo.services;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.itmo.domain.BatchOrderRequest;
 import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.Candle;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.Listing;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.OrderStatus;
+import ru.itmo.domain.PriceHistory;
+import ru.itmo.domain.ReleaseRequest;
 import ru.itmo.domain.SellStockRequest;
 import ru.itmo.domain.StocksSnapshot;
 import ru.itmo.domain.AddStockRequest;
 import ru.itmo.domain.SetCostRequest;
 import ru.itmo.domain.Stocks;
-import ru.itmo.services.exceptions.NotEnoughAmountException;
-import ru.itmo.services.exceptions.NotEnoughStocksException;
+import ru.itmo.domain.SymbolId;
+import ru.itmo.services.exceptions.HistoryNotFoundException;
+import ru.itmo.services.exceptions.IdempotencyKeyReusedException;
 import ru.itmo.services.exceptions.StocksNotFoundException;
+import ru.itmo.services.history.MarketHistory;
+import ru.itmo.services.history.Resolution;
+import ru.itmo.services.idempotency.IdempotencyCache;
+import ru.itmo.services.journal.JournalEntryType;
+import ru.itmo.services.journal.JournalReplay;
+import ru.itmo.services.journal.MarketJournal;
+import ru.itmo.services.journal.MarketSnapshotter;
+import ru.itmo.services.market.Handoffs;
+import ru.itmo.services.market.MarketTable;
+import ru.itmo.services.metrics.MarketMetrics;
+import ru.itmo.services.metrics.RejectionReason;
+import ru.itmo.services.sequencer.MarketCommand;
+import ru.itmo.services.sequencer.MarketSequencer;
+import ru.itmo.services.stream.QuoteListener;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 @Service
 public class StockMarketService {
-    private final ConcurrentHashMap<String, Stocks> stocksMarket;
+    private static final String SEQUENCER_MODE = "sequencer";
+
+    private final MarketTable market;
+    private final MarketSequencer sequencer;
+    private final MarketJournal journal;
+    private final MarketMetrics metrics;
+    private final IdempotencyCache idempotencyCache;
+    private final MarketHistory history;
+    private final CopyOnWriteArrayList<QuoteListener> quoteListeners = new CopyOnWriteArrayList<>();
+    private final Object adoptions = new Object();
 
     public StockMarketService() {
-        this.stocksMarket = new ConcurrentHashMap<>();
+        this.market = new MarketTable();
+        this.sequencer = null;
+        this.journal = null;
+        this.metrics = new MarketMetrics(0, 0);
+        this.idempotencyCache = new IdempotencyCache(100_000, 60);
+        this.history = null;
     }
 
-    public void addCompany(String companyName) {
-        stocksMarket.putIfAbsent(
-                companyName,
-                new Stocks(
-                        new AtomicInteger(0),
-                        new AtomicInteger(0)
-                )
-        );
+    /**
+     * @param engineMode       {@code direct} executes commands on the request thread, {@code sequencer} hands buy,
+     *                         sell, addStocks and setCost over to per-company single writers
+     * @param journal          durable journal of state changes, replayed into the market before serving
+     * @param snapshotter      periodic snapshots of the journaled state, the newest one is loaded before the replay
+     *                         so only the journal after it has to be read
+     * @param metrics          trade, rejection and contention counters
+     * @param idempotencyCache outcomes of buys and sells that carried an idempotency key, returned to their copies
+     * @param history          price changes and trades of every company with candles built from them
+     */
+    @Autowired
+    public StockMarketService(
+            @Value("${market.engine.mode:direct}") String engineMode,
+            @Value("${market.sequencer.shards:4}") int sequencerShards,
+            @Value("${market.sequencer.ring-size:4096}") int sequencerRingSize,
+            Optional<MarketJournal> journal,
+            Optional<MarketSnapshotter> snapshotter,
+            MarketMetrics metrics,
+            IdempotencyCache idempotencyCache,
+            Optional<MarketHistory> history
+    ) {
+        this.market = new MarketTable();
+        this.journal = journal.orElse(null);
+        this.metrics = metrics;
+        this.idempotencyCache = idempotencyCache;
+        this.history = history.orElse(null);
+
+        if (this.journal != null) {
+            final long snapshotPosition = snapshotter
+                    .map(marketSnapshotter -> marketSnapshotter.load(market))
+                    .orElse(0L);
+
+            this.journal.replay(snapshotPosition, this::applyJournalEntry);
+        }
+
+        this.sequencer = SEQUENCER_MODE.equals(engineMode)
+                ? new MarketSequencer(sequencerShards, sequencerRingSize, this::execute)
+                : null;
+
+        snapshotter.ifPresent(MarketSnapshotter::start);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sequencer != null) {
+            sequencer.close();
+        }
+    }
+
+    public void addQuoteListener(QuoteListener quoteListener) {
+        quoteListeners.add(quoteListener);
+    }
+
+    public void removeQuoteListener(QuoteListener quoteListener) {
+        quoteListeners.remove(quoteListener);
+    }
+
+    /**
+     * Journals and publishes the current cost of the company after it was changed outside of this service,
+     * e.g. by a trade in its order book.
+     */
+    public void commitExternalCostChange(String companyName) {
+        final Stocks stock = market.stocks(market.symbolId(companyName));
+
+        if (stock == null) {
+            return;
+        }
+
+        synchronized (stock) {
+            changeCost(companyName, () -> {
+                final int cost = stock.cost();
+
+                journal(JournalEntryType.SET_COST, companyName, cost);
+                recordHistory(companyName, cost, 0);
+            });
+        }
+
+        publishQuote(companyName, stock);
+        awaitJournal();
+    }
+
+    /**
+     * Lists the company under the next free symbol id. The listing is journaled before the company becomes visible,
+     * so none of its trades can precede it in the journal.
+     *
+     * @return symbol id of the company, the existing one if it's already listed
+     */
+    public int addCompany(String companyName) {
+        final int symbolId = listCompany(companyName);
+
+        awaitJournal();
+
+        return symbolId;
+    }
+
+    /**
+     * Lists, stocks and prices the companies of one import batch, in batch order, and waits for the journal once for
+     * all of them. In sequencer mode every change is published before the first one is awaited.
+     */
+    public void importListings(List<Listing> listings) {
+        applyListings(listings, true);
+    }
+
+    /**
+     * Takes over companies released by another node, the same way as {@link #importListings} except that a company
+     * that is already listed here keeps its cost, so adopting never reverts a price.
+     * <p>
+     * A handoff is adopted once, adopting it again, as a client does when it retries or resumes the handoff, changes
+     * nothing. Its id is journaled and snapshotted once its stocks are added, a crash right in between adopts the
+     * stocks of a retried handoff twice.
+     */
+    public void adoptListings(Handoff handoff) {
+        if (handoff.id() == null) {
+            throw new IllegalArgumentException("Handoff has no id: " + handoff);
+        }
+
+        synchronized (adoptions) {
+            if (market.handoffs().isAdopted(handoff.id())) {
+                return;
+            }
+
+            applyListings(handoff.listings(), false);
+
+            synchronized (market) {
+                journal(JournalEntryType.HANDOFF_ADOPTED, handoff.id(), 0);
+                market.handoffs().adopt(handoff.id());
+            }
+
+            awaitJournal();
+        }
+    }
+
+    /**
+     * Takes all stocks of the companies out of the market so another node can adopt them. Each company's count is
+     * zeroed in one step and returned with its current cost. The companies stay listed without stocks: buys that
+     * still reach this node are rejected, and stocks sold here meanwhile are returned by the next release. Unknown
+     * companies are skipped.
+     * <p>
+     * The released stocks stay in a pending handoff until {@link #completeHandoff} is called for it, so they survive
+     * a restart of this node and a client that died before the target adopted them. The handoff, its target and every
+     * released count are journaled under the market lock, so a snapshot never sees a count zeroed without it being
+     * pending. Releasing a handoff that is still pending returns it without releasing anything again.
+     * <p>
+     * Only stocks and costs are handed over. Resting limit orders stay in this node's order books and the price
+     * history stays in this node's history, neither is journaled, so they can't be handed over consistently.
+     *
+     * @return the pending handoff
+     * @throws IllegalArgumentException if the handoff has no id or no target
+     */
+    public Handoff releaseListings(ReleaseRequest releaseRequest) {
+        final String handoffId = releaseRequest.handoffId();
+
+        if (handoffId == null || releaseRequest.target() == null || releaseRequest.companyNames() == null) {
+            throw new IllegalArgumentException("Release needs a handoff id, a target and companies: " + releaseRequest);
+        }
+
+        final Handoffs handoffs = market.handoffs();
+        final List<String> released = new ArrayList<>(releaseRequest.companyNames().size());
+        Handoff handoff;
+
+        synchronized (market) {
+            handoff = handoffs.pending(handoffId);
+
+            if (handoff == null) {
+                handoffs.begin(handoffId, releaseRequest.target());
+                journal(JournalEntryType.HANDOFF_STARTED, handoffId, 0);
+                journal(JournalEntryType.HANDOFF_TARGET, releaseRequest.target(), 0);
+
+                for (String companyName : releaseRequest.companyNames()) {
+                    final Stocks stock = market.stocks(market.symbolId(companyName));
+
+                    if (stock == null) {
+                        continue;
+                    }
+
+                    long state = stock.get();
+
+                    while (!stock.compareAndSet(state, Stocks.pack(0, Stocks.cost(state)))) {
+                        state = stock.get();
+                    }
+
+                    journal(JournalEntryType.RELEASE_STOCKS, companyName, Stocks.count(state));
+                    handoffs.release(companyName, Stocks.count(state), Stocks.cost(state));
+
+                    if (Stocks.count(state) > 0) {
+                        released.add(companyName);
+                    }
+                }
+
+                handoff = handoffs.pending(handoffId);
+            }
+        }
+
+        for (String companyName : released) {
+            publishQuote(companyName, market.stocks(market.symbolId(companyName)));
+        }
+
+        awaitJournal();
+
+        return handoff;
+    }
+
+    /**
+     * Forgets a handoff its target adopted. Completing a handoff that isn't pending changes nothing.
+     */
+    public void completeHandoff(String handoffId) {
+        synchronized (market) {
+            if (market.handoffs().complete(handoffId)) {
+                journal(JournalEntryType.HANDOFF_COMPLETED, handoffId, 0);
+            }
+        }
+
+        awaitJournal();
+    }
+
+    /**
+     * @return handoffs released here and not completed, oldest first
+     */
+    public List<Handoff> getPendingHandoffs() {
+        return market.handoffs().pending();
+    }
+
+    /**
+     * @return names of all listed companies, in listing order
+     */
+    public List<String> getCompanyNames() {
+        final List<String> companyNames = new ArrayList<>(market.size());
+
+        market.forEach((companyName, stock) -> companyNames.add(companyName));
+
+        return companyNames;
+    }
+
+    /**
+     * @return {@code true} if no company is listed, e.g. neither a snapshot nor the journal had any
+     */
+    public boolean isEmpty() {
+        return market.size() == 0;
+    }
+
+    /**
+     * @param overwriteCost {@code false} sets the cost of newly listed companies only
+     */
+    private void applyListings(List<Listing> listings, boolean overwriteCost) {
+        final List<CompletableFuture<Object>> pending = sequencer == null
+                ? null
+                : new ArrayList<>(listings.size() * 2);
+
+        for (Listing listing : listings) {
+            final String companyName = listing.companyName();
+            final boolean listed = SymbolId.isAssigned(market.symbolId(companyName));
+            final int symbolId = listCompany(companyName);
+
+            if (listing.count() != 0) {
+                final AddStockRequest addStockRequest = new AddStockRequest(companyName, listing.count(), symbolId);
+
+                if (sequencer == null) {
+                    doAddStocks(symbolId, addStockRequest);
+                } else {
+                    pending.add(sequencer.submit(MarketCommand.ADD_STOCKS, symbolId, addStockRequest));
+                }
+            }
+
+            if (overwriteCost || !listed) {
+                final SetCostRequest setCostRequest = new SetCostRequest(companyName, listing.cost(), symbolId);
+
+                if (sequencer == null) {
+                    doSetCost(symbolId, setCostRequest);
+                } else {
+                    pending.add(sequencer.submit(MarketCommand.SET_COST, symbolId, setCostRequest));
+                }
+            }
+        }
+
+        if (pending != null) {
+            for (CompletableFuture<Object> result : pending) {
+                try {
+                    MarketSequencer.await(result);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Listing batch failed", e);
+                }
+            }
+        }
+
+        awaitJournal();
+    }
+
+    private int listCompany(String companyName) {
+        final int listedSymbolId = market.symbolId(companyName);
+
+        if (SymbolId.isAssigned(listedSymbolId)) {
+            return listedSymbolId;
+        }
+
+        synchronized (market) {
+            final int racedSymbolId = market.symbolId(companyName);
+
+            if (SymbolId.isAssigned(racedSymbolId)) {
+                return racedSymbolId;
+            }
+
+            final int symbolId = market.nextSymbolId();
+
+            journal(JournalEntryType.ADD_COMPANY, companyName, symbolId);
+            market.list(companyName, symbolId);
+
+            return symbolId;
+        }
     }
 
     public void addStocks(AddStockRequest addStockRequest) throws StocksNotFoundException {
-        final Stocks stock = getStocks(addStockRequest.companyName());
+        final int symbolId = resolve(addStockRequest.symbolId(), addStockRequest.companyName());
+
+        if (sequencer == null) {
+            doAddStocks(symbolId, addStockRequest);
+        } else {
+            try {
+                sequencer.execute(MarketCommand.ADD_STOCKS, symbolId, addStockRequest);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Sequenced command failed: " + addStockRequest, e);
+            }
+        }
 
-        stock.count().addAndGet(addStockRequest.count());
+        awaitJournal();
+    }
+
+    private void doAddStocks(int symbolId, AddStockRequest addStockRequest) {
+        final String companyName = market.companyName(symbolId);
+        final Stocks stock = market.stocks(symbolId);
+
+        stock.addCount(addStockRequest.count());
+        journal(JournalEntryType.ADD_STOCKS, companyName, addStockRequest.count());
+        publishQuote(companyName, stock);
     }
 
     public Stocks getStocks(String companyName) throws StocksNotFoundException {
-        final Optional<Stocks> optionalStocks = Optional.ofNullable(stocksMarket.get(companyName));
+        return market.stocks(resolve(SymbolId.NONE, companyName));
+    }
 
-        return optionalStocks.orElseThrow(
-                () -> new StocksNotFoundException("Can't find stocks for company name: " + companyName)
-        );
+    public Stocks getStocks(int symbolId) throws StocksNotFoundException {
+        return market.stocks(resolve(symbolId, null));
+    }
+
+    public int getSymbolId(String companyName) throws StocksNotFoundException {
+        return resolve(SymbolId.NONE, companyName);
+    }
+
+    /**
+     * @return symbol ids of all requested companies that are listed on the market, unknown names are skipped
+     */
+    public Map<String, Integer> getSymbolIds(Collection<String> companyNames) {
+        final Map<String, Integer> symbolIds = new HashMap<>(companyNames.size() * 2);
+
+        for (String companyName : companyNames) {
+            final int symbolId = market.symbolId(companyName);
+
+            if (market.stocks(symbolId) != null) {
+                symbolIds.put(companyName, symbolId);
+            }
+        }
+
+        return symbolIds;
+    }
+
+    /**
+     * @param resolution {@code tick} for every recorded price change and trade, {@code 1s}, {@code 1m} or {@code 1h}
+     *                   for candles
+     * @param from       start of the range, epoch milliseconds, inclusive
+     * @param to         end of the range, epoch milliseconds, exclusive
+     * @return history within the range
+     * @throws HistoryNotFoundException if {@code market.history.enabled} isn't set or the company's history isn't kept
+     * @throws IllegalArgumentException if the resolution is unknown
+     */
+    public PriceHistory getHistory(
+            String companyName,
+            String resolution,
+            long from,
+            long to
+    ) throws StocksNotFoundException, HistoryNotFoundException {
+        final String listedName = market.companyName(resolve(SymbolId.NONE, companyName));
+        final Resolution parsed = Resolution.of(resolution);
+        final List<Candle> candles = history == null ? null : history.query(listedName, parsed, from, to);
+
+        if (candles == null) {
+            throw new HistoryNotFoundException("No history is kept for " + listedName);
+        }
+
+        return new PriceHistory(listedName, parsed.label(), candles);
+    }
+
+    /**
+     * @return snapshots of all requested companies that are listed on the market, unknown names are skipped
+     */
+    public Map<String, StocksSnapshot> getStocksSnapshots(Collection<String> companyNames) {
+        final Map<String, StocksSnapshot> snapshots = new HashMap<>(companyNames.size() * 2);
+
+        for (String companyName : companyNames) {
+            final Stocks stock = market.stocks(market.symbolId(companyName));
+
+            if (stock != null) {
+                snapshots.put(companyName, stock.snapshot());
+            }
+        }
+
+        return snapshots;
+    }
+
+    public void forEachStocks(BiConsumer<String, Stocks> action) {
+        market.forEach(action);
     }
 
     public void setCost(SetCostRequest setCostRequest) throws StocksNotFoundException {
-        final Stocks stock = getStocks(setCostRequest.companyName());
+        final int symbolId = resolve(setCostRequest.symbolId(), setCostRequest.companyName());
+
+        if (sequencer == null) {
+            doSetCost(symbolId, setCostRequest);
+        } else {
+            try {
+                sequencer.execute(MarketCommand.SET_COST, symbolId, setCostRequest);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Sequenced command failed: " + setCostRequest, e);
+            }
+        }
+
+        awaitJournal();
+    }
+
+    private void doSetCost(int symbolId, SetCostRequest setCostRequest) {
+        final String companyName = market.companyName(symbolId);
+        final Stocks stock = market.stocks(symbolId);
+
+        synchronized (stock) {
+            changeCost(companyName, () -> {
+                stock.setCost(setCostRequest.cost());
+                journal(JournalEntryType.SET_COST, companyName, setCostRequest.cost());
+                recordHistory(companyName, setCostRequest.cost(), 0);
+            });
+        }
+
+        publishQuote(companyName, stock);
+    }
+
+    /**
+     * Rejections are returned as preallocated results, nothing is thrown or formatted for them. A request with an
+     * idempotency key is executed once, its copies get the result of the first one and a different request reusing
+     * the key is rejected.
+     */
+    public OrderResult buyStocks(BuyStockRequest buyStockRequest) {
+        if (buyStockRequest.idempotencyKey() == null) {
+            return executeBuy(buyStockRequest);
+        }
+
+        return executeOnce(
+                MarketCommand.BUY_STOCKS,
+                buyStockRequest.idempotencyKey(),
+                buyStockRequest,
+                buyStockRequest.companyName(),
+                () -> executeBuy(buyStockRequest)
+        );
+    }
 
-        stock.cost().set(setCostRequest.cost());
+    private OrderResult executeBuy(BuyStockRequest buyStockRequest) {
+        final int symbolId = tradedSymbolId(
+                buyStockRequest.symbolId(),
+                buyStockRequest.companyName(),
+                buyStockRequest.count()
+        );
+
+        if (!SymbolId.isAssigned(symbolId)) {
+            return OrderResult.rejected(OrderStatus.NOT_FOUND);
+        }
+
+        final OrderResult result = sequencer == null
+                ? doBuyStocks(symbolId, buyStockRequest)
+                : sequenced(MarketCommand.BUY_STOCKS, symbolId, buyStockRequest);
+
+        if (result.status() == OrderStatus.FILLED) {
+            awaitJournal();
+        }
+
+        return result;
+    }
+
+    /**
+     * With history kept, the trade is made through it, so its tick isn't recorded on the wrong side of a cost change.
+     */
+    private OrderResult doBuyStocks(int symbolId, BuyStockRequest buyStockRequest) {
+        if (history == null) {
+            return buy(symbolId, buyStockRequest);
+        }
+
+        return history.trade(market.companyName(symbolId), () -> buy(symbolId, buyStockRequest));
     }
 
-    public StocksSnapshot buyStocks(
-            BuyStockRequest buyStockRequest
-    ) throws StocksNotFoundException, NotEnoughAmountException, NotEnoughStocksException {
+    private OrderResult buy(int symbolId, BuyStockRequest buyStockRequest) {
+        final String companyName = market.companyName(symbolId);
+        final Stocks stock = market.stocks(symbolId);
+
+        int casRetries = 0;
+
         while (true) {
-            final Stocks stock = getStocks(buyStockRequest.companyName());
-            final int stockCount = stock.count().get();
-            final int stockCost = stock.cost().get();
-
-            if (buyStockRequest.count() * stockCost > buyStockRequest.userAmountMoney()) {
-                final String errorMessage = String.format(
-                        "Not enough amount on user balance for buy stocks " +
-                                "of company '%s'. %nUser amount: %d%nRequired amount: %d",
-                        buyStockRequest.companyName(),
-                        buyStockRequest.userAmountMoney(),
-                        buyStockRequest.count() * stockCost
+            final long state = stock.get();
+            final int stockCount = Stocks.count(state);
+            final int stockCost = Stocks.cost(state);
+            final int requiredAmount = buyStockRequest.count() * stockCost;
+
+            if (requiredAmount > buyStockRequest.userAmountMoney()) {
+                metrics.recordRejection(
+                        RejectionReason.NOT_ENOUGH_AMOUNT,
+                        companyName,
+                        requiredAmount,
+                        buyStockRequest.userAmountMoney()
                 );
 
-                throw new NotEnoughAmountException(errorMessage);
+                return OrderResult.rejected(OrderStatus.NOT_ENOUGH_AMOUNT);
             }
 
             if (stockCount < buyStockRequest.count()) {
-                final String errorMessage = String.format(
-                        "Not enough stocks on StocksMarket of company: %s%n" +
-                                "Count of stocks requested by the user: %d%nCount of stocks on StocksMarket: %d",
-                        buyStockRequest.companyName(),
+                metrics.recordRejection(
+                        RejectionReason.NOT_ENOUGH_STOCKS,
+                        companyName,
                         buyStockRequest.count(),
                         stockCount
                 );
 
-                throw new NotEnoughStocksException(errorMessage);
+                return OrderResult.rejected(OrderStatus.NOT_ENOUGH_STOCKS);
             }
 
-            if (stock.cost().compareAndSet(stockCost, stockCost) &&
-                    stock.count().compareAndSet(stockCount, stockCount - buyStockRequest.count())
-            ) {
-                return new StocksSnapshot(
-                        buyStockRequest.count(),
-                        stockCost
-                );
+            final long newState = Stocks.pack(stockCount - buyStockRequest.count(), stockCost);
+
+            if (stock.compareAndSet(state, newState)) {
+                journal(JournalEntryType.BUY_STOCKS, companyName, buyStockRequest.count());
+                recordHistory(companyName, stockCost, buyStockRequest.count());
+                publishQuote(companyName, stock);
+                metrics.recordBuy(companyName, buyStockRequest.count(), casRetries);
+
+                return OrderResult.filled(buyStockRequest.count(), stockCost);
+            }
+
+            casRetries++;
+        }
+    }
+
+    /**
+     * Same as {@link #buyStocks}, a sell can only be rejected for an unknown company.
+     */
+    public OrderResult sellStocks(SellStockRequest sellStocksRequest) {
+        if (sellStocksRequest.idempotencyKey() == null) {
+            return executeSell(sellStocksRequest);
+        }
+
+        return executeOnce(
+                MarketCommand.SELL_STOCKS,
+                sellStocksRequest.idempotencyKey(),
+                sellStocksRequest,
+                sellStocksRequest.companyName(),
+                () -> executeSell(sellStocksRequest)
+        );
+    }
+
+    private OrderResult executeSell(SellStockRequest sellStocksRequest) {
+        final int symbolId = tradedSymbolId(
+                sellStocksRequest.symbolId(),
+                sellStocksRequest.companyName(),
+                sellStocksRequest.count()
+        );
+
+        if (!SymbolId.isAssigned(symbolId)) {
+            return OrderResult.rejected(OrderStatus.NOT_FOUND);
+        }
+
+        final OrderResult result = sequencer == null
+                ? doSellStocks(symbolId, sellStocksRequest)
+                : sequenced(MarketCommand.SELL_STOCKS, symbolId, sellStocksRequest);
+
+        awaitJournal();
+
+        return result;
+    }
+
+    /**
+     * Same as {@link #doBuyStocks}.
+     */
+    private OrderResult doSellStocks(int symbolId, SellStockRequest sellStocksRequest) {
+        if (history == null) {
+            return sell(symbolId, sellStocksRequest);
+        }
+
+        return history.trade(market.companyName(symbolId), () -> sell(symbolId, sellStocksRequest));
+    }
+
+    private OrderResult sell(int symbolId, SellStockRequest sellStocksRequest) {
+        final String companyName = market.companyName(symbolId);
+        final Stocks stock = market.stocks(symbolId);
+        final long previousState = stock.addCount(sellStocksRequest.count());
+        final int stockCost = Stocks.cost(previousState);
+
+        journal(JournalEntryType.SELL_STOCKS, companyName, sellStocksRequest.count());
+        recordHistory(companyName, stockCost, sellStocksRequest.count());
+        publishQuote(companyName, stock);
+        metrics.recordSell(companyName, sellStocksRequest.count());
+
+        return OrderResult.filled(sellStocksRequest.count(), stockCost);
+    }
+
+    private OrderResult sequenced(MarketCommand command, int symbolId, Object request) {
+        try {
+            return (OrderResult) sequencer.execute(command, symbolId, request);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Sequenced command failed: " + request, e);
+        }
+    }
+
+    private OrderResult executeOnce(
+            MarketCommand command,
+            String idempotencyKey,
+            Object request,
+            String companyName,
+            Supplier<OrderResult> execution
+    ) {
+        try {
+            return (OrderResult) idempotencyCache.execute(command, idempotencyKey, request, execution::get);
+        } catch (IdempotencyKeyReusedException e) {
+            metrics.recordRejection(RejectionReason.IDEMPOTENCY_KEY_REUSED, companyName, 0, 0);
+
+            return OrderResult.rejected(OrderStatus.IDEMPOTENCY_KEY_REUSED);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Idempotent command failed: " + command, e);
+        }
+    }
+
+    /**
+     * Executes every order of the batch and waits for the journal once for all of them. In sequencer mode all orders
+     * are published before the first result is awaited, so orders of different shards run in parallel.
+     * Orders of one company are executed in batch order. An order with an idempotency key is executed once, the same
+     * way as by {@link #buyStocks} and {@link #sellStocks}, whether its copies come in a batch or on their own.
+     *
+     * @return one result per order, results of the buys followed by results of the sells
+     */
+    public List<OrderResult> executeOrders(BatchOrderRequest batchOrderRequest) {
+        final List<BuyStockRequest> buyOrders = batchOrderRequest.buyOrders();
+        final List<SellStockRequest> sellOrders = batchOrderRequest.sellOrders();
+        final List<OrderResult> results = new ArrayList<>(buyOrders.size() + sellOrders.size());
+
+        if (sequencer == null) {
+            for (BuyStockRequest buyOrder : buyOrders) {
+                results.add(buyOrder.idempotencyKey() == null
+                        ? batchedBuy(buyOrder)
+                        : executeOnce(
+                                MarketCommand.BUY_STOCKS,
+                                buyOrder.idempotencyKey(),
+                                buyOrder,
+                                buyOrder.companyName(),
+                                () -> batchedBuy(buyOrder)
+                        ));
+            }
+
+            for (SellStockRequest sellOrder : sellOrders) {
+                results.add(sellOrder.idempotencyKey() == null
+                        ? batchedSell(sellOrder)
+                        : executeOnce(
+                                MarketCommand.SELL_STOCKS,
+                                sellOrder.idempotencyKey(),
+                                sellOrder,
+                                sellOrder.companyName(),
+                                () -> batchedSell(sellOrder)
+                        ));
+            }
+        } else {
+            final List<CompletableFuture<Object>> pending = new ArrayList<>(buyOrders.size() + sellOrders.size());
+
+            for (BuyStockRequest buyOrder : buyOrders) {
+                pending.add(submitOnce(
+                        MarketCommand.BUY_STOCKS,
+                        buyOrder.idempotencyKey(),
+                        buyOrder,
+                        buyOrder.companyName(),
+                        () -> submit(
+                                MarketCommand.BUY_STOCKS,
+                                buyOrder.symbolId(),
+                                buyOrder.companyName(),
+                                buyOrder.count(),
+                                buyOrder
+                        )
+                ));
+            }
+
+            for (SellStockRequest sellOrder : sellOrders) {
+                pending.add(submitOnce(
+                        MarketCommand.SELL_STOCKS,
+                        sellOrder.idempotencyKey(),
+                        sellOrder,
+                        sellOrder.companyName(),
+                        () -> submit(
+                                MarketCommand.SELL_STOCKS,
+                                sellOrder.symbolId(),
+                                sellOrder.companyName(),
+                                sellOrder.count(),
+                                sellOrder
+                        )
+                ));
+            }
+
+            for (CompletableFuture<Object> result : pending) {
+                try {
+                    results.add((OrderResult) MarketSequencer.await(result));
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Batch order failed", e);
+                }
             }
+        }
+
+        awaitJournal();
+
+        return results;
+    }
+
+    /**
+     * Buy of a batch, the batch waits for the journal.
+     */
+    private OrderResult batchedBuy(BuyStockRequest buyOrder) {
+        final int symbolId = tradedSymbolId(buyOrder.symbolId(), buyOrder.companyName(), buyOrder.count());
+
+        return SymbolId.isAssigned(symbolId)
+                ? doBuyStocks(symbolId, buyOrder)
+                : OrderResult.rejected(OrderStatus.NOT_FOUND);
+    }
+
+    /**
+     * Same as {@link #batchedBuy}.
+     */
+    private OrderResult batchedSell(SellStockRequest sellOrder) {
+        final int symbolId = tradedSymbolId(sellOrder.symbolId(), sellOrder.companyName(), sellOrder.count());
+
+        return SymbolId.isAssigned(symbolId)
+                ? doSellStocks(symbolId, sellOrder)
+                : OrderResult.rejected(OrderStatus.NOT_FOUND);
+    }
+
+    /**
+     * Same as {@link #executeOnce} for a command submitted to the sequencer, an order without a key is just submitted.
+     */
+    private CompletableFuture<Object> submitOnce(
+            MarketCommand command,
+            String idempotencyKey,
+            Object request,
+            String companyName,
+            Supplier<CompletableFuture<Object>> submission
+    ) {
+        if (idempotencyKey == null) {
+            return submission.get();
+        }
+
+        try {
+            return idempotencyCache.submit(command, idempotencyKey, request, submission);
+        } catch (IdempotencyKeyReusedException e) {
+            metrics.recordRejection(RejectionReason.IDEMPOTENCY_KEY_REUSED, companyName, 0, 0);
 
+            return CompletableFuture.completedFuture(OrderResult.rejected(OrderStatus.IDEMPOTENCY_KEY_REUSED));
         }
     }
 
-    public int sellStocks(SellStockRequest sellStocksRequest) throws StocksNotFoundException {
-        final Stocks stock = getStocks(sellStocksRequest.companyName());
-        final int stockCost = stock.cost().get();
+    private CompletableFuture<Object> submit(
+            MarketCommand command,
+            int symbolId,
+            String companyName,
+            int count,
+            Object request
+    ) {
+        final int tradedSymbolId = tradedSymbolId(symbolId, companyName, count);
+
+        return SymbolId.isAssigned(tradedSymbolId)
+                ? sequencer.submit(command, tradedSymbolId, request)
+                : CompletableFuture.completedFuture(OrderResult.rejected(OrderStatus.NOT_FOUND));
+    }
+
+    /**
+     * @return id of the company a request is for, see {@link #lookup}
+     */
+    private int resolve(int symbolId, String companyName) throws StocksNotFoundException {
+        final int resolvedSymbolId = lookup(symbolId, companyName);
+
+        if (market.stocks(resolvedSymbolId) == null) {
+            throw new StocksNotFoundException(SymbolId.isAssigned(symbolId)
+                    ? "Can't find stocks for symbol id: " + symbolId
+                    : "Can't find stocks for company name: " + companyName);
+        }
 
-        stock.count().addAndGet(sellStocksRequest.count());
+        return resolvedSymbolId;
+    }
 
-        return stockCost * sellStocksRequest.count();
+    /**
+     * Same as {@link #resolve} for buys and sells, without an exception: an unknown company is counted as
+     * a rejection.
+     *
+     * @return id of the company, {@link SymbolId#NONE} if it isn't listed
+     */
+    private int tradedSymbolId(int symbolId, String companyName, int count) {
+        final int resolvedSymbolId = lookup(symbolId, companyName);
+
+        if (market.stocks(resolvedSymbolId) == null) {
+            metrics.recordRejection(RejectionReason.NOT_FOUND, companyName, count, 0);
+
+            return SymbolId.NONE;
+        }
+
+        return resolvedSymbolId;
+    }
+
+    /**
+     * A request that carries both an id and a name is taken by id only if the company listed under it has that name,
+     * so an id resolved on another node, or before a restart that listed the companies anew, can't trade the wrong
+     * company.
+     *
+     * @return id the request carries, or the one its company is listed under, {@link SymbolId#NONE} if neither
+     */
+    private int lookup(int symbolId, String companyName) {
+        if (market.stocks(symbolId) != null
+                && (companyName == null || companyName.equals(market.companyName(symbolId)))) {
+            return symbolId;
+        }
+
+        return companyName == null ? SymbolId.NONE : market.symbolId(companyName);
+    }
+
+    /**
+     * Runs a cost change, through the history when it's kept. Cost changes of a cell are made under its lock, so they
+     * are journaled in the order they are made.
+     */
+    private void changeCost(String companyName, Runnable costChange) {
+        if (history == null) {
+            costChange.run();
+        } else {
+            history.changeCost(companyName, costChange);
+        }
+    }
+
+    private void recordHistory(String companyName, int cost, int volume) {
+        if (history != null) {
+            history.record(companyName, cost, volume);
+        }
+    }
+
+    private void journal(JournalEntryType type, String companyName, int value) {
+        if (journal != null) {
+            journal.append(type, companyName, value);
+        }
+    }
+
+    /**
+     * Waits until everything journaled so far, including the caller's own entry, is durable.
+     * In sequencer mode this runs on the request thread, so single writers never wait for the disk.
+     */
+    private void awaitJournal() {
+        if (journal != null) {
+            journal.awaitDurable(journal.appendedPosition());
+        }
+    }
+
+    private void applyJournalEntry(JournalEntryType type, String companyName, int value) {
+        JournalReplay.apply(market, type, companyName, value);
+    }
+
+    /**
+     * Tells the listeners the cell changed. Writers of one company may get here in any order, so the listeners read
+     * the cell itself rather than being handed the state this writer left.
+     */
+    private void publishQuote(String companyName, Stocks stock) {
+        for (QuoteListener quoteListener : quoteListeners) {
+            quoteListener.onQuote(companyName, stock);
+        }
+    }
+
+    /**
+     * Runs a sequenced command on the company it was resolved to when it was published. Companies are never delisted,
+     * so the id still points to a listed company.
+     */
+    private Object execute(MarketCommand command, int symbolId, Object request) {
+        return switch (command) {
+            case ADD_STOCKS -> {
+                doAddStocks(symbolId, (AddStockRequest) request);
+
+                yield null;
+            }
+            case SET_COST -> {
+                doSetCost(symbolId, (SetCostRequest) request);
+
+                yield null;
+            }
+            case BUY_STOCKS -> doBuyStocks(symbolId, (BuyStockRequest) request);
+            case SELL_STOCKS -> doSellStocks(symbolId, (SellStockRequest) request);
+        };
     }
 }
@@ -0,0 +1,11 @@
+package ru.itmo.services.exceptions;
+
+/**
+ * Thrown for a listed company whose history isn't kept, because history is disabled, the company had no event yet or
+ * every history was taken by more active companies.
+ */
+public class HistoryNotFoundException extends Exception {
+    public HistoryNotFoundException(String message) {
+        super(message, null, false, false);
+    }
+}
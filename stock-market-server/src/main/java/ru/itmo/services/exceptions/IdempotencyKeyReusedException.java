@@ -0,0 +1,11 @@
+package ru.itmo.services.exceptions;
+
+/**
+ * Thrown for a request whose idempotency key was first used by a different request. Refusing a key is a rejection
+ * like any other, so no stack trace is captured.
+ */
+public class IdempotencyKeyReusedException extends Exception {
+    public IdempotencyKeyReusedException(String idempotencyKey) {
+        super("Idempotency key was used by a different request: " + idempotencyKey, null, false, false);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.itmo.services.exceptions;
+
+public class InvalidOrderException extends Exception {
+    public InvalidOrderException(String message) {
+        super(message);
+    }
+}
@@ -1,7 +0,0 @@
-package ru.itmo.services.exceptions;
-
-public class NotEnoughStocksException extends Exception {
-    public NotEnoughStocksException(String message) {
-        super(message);
-    }
-}
@@ -0,0 +1,7 @@
+package ru.itmo.services.exceptions;
+
+public class OrderNotFoundException extends Exception {
+    public OrderNotFoundException(String message) {
+        super(message);
+    }
+}
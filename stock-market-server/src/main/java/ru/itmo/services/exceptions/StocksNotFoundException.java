@@ -1,7 +1,11 @@
 package ru.itmo.services.exceptions;
 
+/**
+ * Thrown for a company that isn't listed. Lookups of unknown companies are answered with it routinely, so no stack
+ * trace is captured.
+ */
 public class StocksNotFoundException extends Exception {
     public StocksNotFoundException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
@@ -0,0 +1,186 @@
+package ru.itmo.services.history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.itmo.domain.Candle;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded price history of traded companies: the latest price changes and trades, and 1s, 1m and 1h candles built
+ * from them as they are recorded.
+ * <p>
+ * A company's history is allocated off-heap on its first event and keeps a fixed number of ticks and of candles of
+ * each width, overwriting the oldest. At most {@code maxSymbols} companies have a history at a time, so direct memory
+ * stays bounded however many companies are listed. Once all are taken, the history of the least recently active
+ * company is dropped to make room if it has had no event for {@code idleMillis}, otherwise the events of the new
+ * company are dropped and counted. Queries never block recording, they skip whatever was overwritten while they read.
+ * The history lives in memory only, it's empty after a restart.
+ */
+public class MarketHistory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketHistory.class);
+    private static final long DROP_LOG_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final int tickCapacity;
+    private final int candleCapacity;
+    private final int maxSymbols;
+    private final long idleMillis;
+    private final ConcurrentHashMap<String, SymbolHistory> symbols = new ConcurrentHashMap<>();
+    private final LongAdder droppedEvents = new LongAdder();
+
+    /**
+     * Time before which no history can have been idle for long enough, so a company finding all of them taken is
+     * turned away without a scan.
+     */
+    private volatile long nextEviction;
+    private volatile long nextDropLog;
+
+    /**
+     * @param tickCapacity   price changes and trades kept per company
+     * @param candleCapacity candles of each width kept per company
+     * @param maxSymbols     companies with a history at most
+     * @param idleMillis     time without events after which a company's history may be dropped for another one
+     */
+    public MarketHistory(int tickCapacity, int candleCapacity, int maxSymbols, long idleMillis) {
+        this.tickCapacity = tickCapacity;
+        this.candleCapacity = candleCapacity;
+        this.maxSymbols = maxSymbols;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Runs a trade of the company that records its tick, so the tick lands between the ticks of the cost changes
+     * made before and after the trade went through. Trades don't wait for each other.
+     */
+    public <T> T trade(String companyName, Supplier<T> trade) {
+        final SymbolHistory history = history(companyName, System.currentTimeMillis());
+
+        return history == null ? trade.get() : history.trade(trade);
+    }
+
+    /**
+     * Runs a cost change of the company that records its tick, once the trades in flight are recorded.
+     */
+    public void changeCost(String companyName, Runnable costChange) {
+        final SymbolHistory history = history(companyName, System.currentTimeMillis());
+
+        if (history == null) {
+            costChange.run();
+        } else {
+            history.changeCost(costChange);
+        }
+    }
+
+    /**
+     * @param volume stocks traded at the cost, {@code 0} for a price change without a trade
+     */
+    public void record(String companyName, int cost, int volume) {
+        record(companyName, cost, volume, System.currentTimeMillis());
+    }
+
+    void record(String companyName, int cost, int volume, long time) {
+        final SymbolHistory history = history(companyName, time);
+
+        if (history == null) {
+            drop(companyName, time);
+
+            return;
+        }
+
+        history.record(time, cost, volume);
+    }
+
+    /**
+     * @param from start of the range, epoch milliseconds, inclusive
+     * @param to   end of the range, epoch milliseconds, exclusive
+     * @return candles starting within the range, oldest first, {@code null} if the company has no history
+     */
+    public List<Candle> query(String companyName, Resolution resolution, long from, long to) {
+        final SymbolHistory history = symbols.get(companyName);
+
+        return history == null ? null : history.query(resolution, from, to);
+    }
+
+    /**
+     * @return events not recorded since start because every history was taken by a company active at the time
+     */
+    public long droppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * @return history of the company, {@code null} if there is no room for it
+     */
+    private SymbolHistory history(String companyName, long time) {
+        final SymbolHistory history = symbols.get(companyName);
+
+        if (history != null || symbols.size() >= maxSymbols && time < nextEviction) {
+            return history;
+        }
+
+        return allocate(companyName, time);
+    }
+
+    private synchronized SymbolHistory allocate(String companyName, long time) {
+        SymbolHistory history = symbols.get(companyName);
+
+        if (history == null && (symbols.size() < maxSymbols || evictIdle(time))) {
+            history = new SymbolHistory(tickCapacity, candleCapacity, time);
+            symbols.put(companyName, history);
+        }
+
+        return history;
+    }
+
+    /**
+     * Drops the history of the least recently active company if it has been idle for long enough.
+     *
+     * @return {@code true} if a history was dropped
+     */
+    private boolean evictIdle(long time) {
+        Map.Entry<String, SymbolHistory> oldest = null;
+
+        for (Map.Entry<String, SymbolHistory> symbol : symbols.entrySet()) {
+            if (oldest == null || symbol.getValue().lastTime() < oldest.getValue().lastTime()) {
+                oldest = symbol;
+            }
+        }
+
+        if (oldest == null) {
+            nextEviction = Long.MAX_VALUE;
+
+            return false;
+        }
+
+        if (time - oldest.getValue().lastTime() >= idleMillis) {
+            symbols.remove(oldest.getKey());
+
+            return true;
+        }
+
+        nextEviction = oldest.getValue().lastTime() + idleMillis;
+
+        return false;
+    }
+
+    private void drop(String companyName, long time) {
+        droppedEvents.increment();
+
+        if (time >= nextDropLog) {
+            nextDropLog = time + DROP_LOG_INTERVAL_MILLIS;
+            LOGGER.warn(
+                    "History of {} isn't recorded, all {} histories are taken by companies active within {} ms, "
+                            + "{} events dropped so far",
+                    companyName,
+                    maxSymbols,
+                    idleMillis,
+                    droppedEvents.sum()
+            );
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.itmo.services.history;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed number of fixed-size records of {@code long} fields in one direct buffer, the newest overwriting the oldest.
+ * <p>
+ * Records are written by one thread at a time and read without locks. Every slot starts with a stamp, odd while the
+ * slot is written and {@code 2 * (number + 1)} once record {@code number} is complete. A reader copies the fields
+ * between two reads of the stamp and keeps the copy only if both are the stamp of the record it asked for, so it
+ * never sees a torn record, nor the record that replaced it.
+ */
+class OffHeapRing {
+    private static final VarHandle STAMPS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int fields;
+    private final int slotSize;
+
+    private volatile long size;
+
+    OffHeapRing(int capacity, int fields) {
+        this.capacity = capacity;
+        this.fields = fields;
+        this.slotSize = (fields + 1) * Long.BYTES;
+        this.buffer = ByteBuffer.allocateDirect(capacity * slotSize).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return number of records ever appended, the last {@link #capacity} of them can still be read
+     */
+    long size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Starts writing the next record. It becomes visible to readers with {@link #endWrite}.
+     *
+     * @return number of the record
+     */
+    long beginAppend() {
+        final long number = size;
+
+        beginWrite(number);
+
+        return number;
+    }
+
+    /**
+     * Starts rewriting a record, readers skip it until {@link #endWrite}.
+     */
+    void beginWrite(long number) {
+        STAMPS.setOpaque(buffer, offset(number), 2 * number + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    void put(long number, int field, long value) {
+        buffer.putLong(offset(number) + (field + 1) * Long.BYTES, value);
+    }
+
+    /**
+     * Reads a field on the writing thread, which needs no stamp check.
+     */
+    long get(long number, int field) {
+        return buffer.getLong(offset(number) + (field + 1) * Long.BYTES);
+    }
+
+    void endWrite(long number) {
+        STAMPS.setRelease(buffer, offset(number), 2 * number + 2);
+
+        if (number == size) {
+            size = number + 1;
+        }
+    }
+
+    /**
+     * Copies the fields of a record.
+     *
+     * @return {@code false} if the record is being written or was already overwritten
+     */
+    boolean read(long number, long[] copy) {
+        final int offset = offset(number);
+        final long stamp = 2 * number + 2;
+
+        if ((long) STAMPS.getAcquire(buffer, offset) != stamp) {
+            return false;
+        }
+
+        for (int field = 0; field < fields; field++) {
+            copy[field] = buffer.getLong(offset + (field + 1) * Long.BYTES);
+        }
+
+        VarHandle.loadLoadFence();
+
+        return (long) STAMPS.getOpaque(buffer, offset) == stamp;
+    }
+
+    private int offset(long number) {
+        return (int) (number % capacity) * slotSize;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.itmo.services.history;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Granularity of a price history query: every recorded event or candles of a fixed width.
+ */
+public enum Resolution {
+    TICK("tick", 0),
+    SECOND("1s", TimeUnit.SECONDS.toMillis(1)),
+    MINUTE("1m", TimeUnit.MINUTES.toMillis(1)),
+    HOUR("1h", TimeUnit.HOURS.toMillis(1));
+
+    private final String label;
+    private final long widthMillis;
+
+    Resolution(String label, long widthMillis) {
+        this.label = label;
+        this.widthMillis = widthMillis;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    /**
+     * @return width of a candle, {@code 0} for ticks
+     */
+    public long widthMillis() {
+        return widthMillis;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no resolution has the label
+     */
+    public static Resolution of(String label) {
+        for (Resolution resolution : values()) {
+            if (resolution.label.equals(label)) {
+                return resolution;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown resolution: " + label);
+    }
+}
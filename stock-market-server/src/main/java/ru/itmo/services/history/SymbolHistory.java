@@ -0,0 +1,215 @@
+package ru.itmo.services.history;
+
+import ru.itmo.domain.Candle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Price events of one company and the candles built from them, each in its own {@link OffHeapRing}.
+ * <p>
+ * Recording is serialized on the history. An event is appended to the ticks and folded into the newest candle of
+ * every width, or opens the next one once the event is past its end, so candles are complete the moment their
+ * last event is recorded. Event times never go backwards, a clock that does is held at the latest time seen.
+ * <p>
+ * Trades and cost changes are made through the history, so that ticks follow the order the cell changed in without
+ * trades locking the cell. Trades run side by side and are recorded in whatever order they finish, which only
+ * reorders ticks of the same cost. A cost change waits for the trades in flight to be recorded and holds new ones back
+ * until it is recorded itself, so no trade at the old cost is recorded after it and none at the new one before it.
+ */
+class SymbolHistory {
+    private static final int TICK_TIME = 0;
+    private static final int TICK_PRICE = 1;
+    private static final int CANDLE_START = 0;
+    private static final int CANDLE_OPEN_CLOSE = 1;
+    private static final int CANDLE_HIGH_LOW = 2;
+    private static final int CANDLE_VOLUME = 3;
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final OffHeapRing[] series = new OffHeapRing[RESOLUTIONS.length];
+    private final AtomicInteger trades = new AtomicInteger();
+    private final AtomicInteger costChanges = new AtomicInteger();
+
+    private volatile long lastTime;
+
+    /**
+     * @param time allocation time, epoch milliseconds, the history counts as active since then
+     */
+    SymbolHistory(int tickCapacity, int candleCapacity, long time) {
+        this.lastTime = time;
+
+        for (Resolution resolution : RESOLUTIONS) {
+            series[resolution.ordinal()] = resolution == Resolution.TICK
+                    ? new OffHeapRing(tickCapacity, 2)
+                    : new OffHeapRing(candleCapacity, 4);
+        }
+    }
+
+    /**
+     * Runs a trade that records its tick, waiting out a cost change in progress.
+     */
+    <T> T trade(Supplier<T> trade) {
+        trades.incrementAndGet();
+
+        while (costChanges.get() != 0) {
+            trades.decrementAndGet();
+
+            while (costChanges.get() != 0) {
+                Thread.onSpinWait();
+            }
+
+            trades.incrementAndGet();
+        }
+
+        try {
+            return trade.get();
+        } finally {
+            trades.decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs a cost change that records its tick once the trades in flight are recorded.
+     */
+    void changeCost(Runnable costChange) {
+        costChanges.incrementAndGet();
+
+        try {
+            while (trades.get() != 0) {
+                Thread.onSpinWait();
+            }
+
+            costChange.run();
+        } finally {
+            costChanges.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return time of the latest event, or of the allocation before the first one, epoch milliseconds
+     */
+    long lastTime() {
+        return lastTime;
+    }
+
+    /**
+     * @param volume stocks traded at the cost, {@code 0} for a price change without a trade
+     */
+    synchronized void record(long time, int cost, int volume) {
+        final long eventTime = Math.max(time, lastTime);
+
+        lastTime = eventTime;
+
+        final OffHeapRing ticks = series[Resolution.TICK.ordinal()];
+        final long tick = ticks.beginAppend();
+
+        ticks.put(tick, TICK_TIME, eventTime);
+        ticks.put(tick, TICK_PRICE, pack(cost, volume));
+        ticks.endWrite(tick);
+
+        for (int i = Resolution.TICK.ordinal() + 1; i < RESOLUTIONS.length; i++) {
+            fold(series[i], RESOLUTIONS[i].widthMillis(), eventTime, cost, volume);
+        }
+    }
+
+    /**
+     * @return candles, or ticks as single-event candles, that start within {@code [from, to)}, oldest first
+     */
+    List<Candle> query(Resolution resolution, long from, long to) {
+        final OffHeapRing ring = series[resolution.ordinal()];
+        final long size = ring.size();
+        final long[] copy = new long[4];
+        final List<Candle> candles = new ArrayList<>();
+
+        for (long number = Math.max(0, size - ring.capacity()); number < size; number++) {
+            if (!read(ring, number, copy)) {
+                continue;
+            }
+
+            final long start = copy[0];
+
+            if (start >= to) {
+                break;
+            }
+
+            if (start >= from) {
+                candles.add(resolution == Resolution.TICK ? tick(copy) : candle(copy));
+            }
+        }
+
+        return candles;
+    }
+
+    private static void fold(OffHeapRing candles, long width, long time, int cost, int volume) {
+        final long start = time - time % width;
+        final long newest = candles.size() - 1;
+
+        if (newest < 0 || candles.get(newest, CANDLE_START) != start) {
+            final long candle = candles.beginAppend();
+
+            candles.put(candle, CANDLE_START, start);
+            candles.put(candle, CANDLE_OPEN_CLOSE, pack(cost, cost));
+            candles.put(candle, CANDLE_HIGH_LOW, pack(cost, cost));
+            candles.put(candle, CANDLE_VOLUME, volume);
+            candles.endWrite(candle);
+
+            return;
+        }
+
+        final long highLow = candles.get(newest, CANDLE_HIGH_LOW);
+        final long openClose = candles.get(newest, CANDLE_OPEN_CLOSE);
+
+        candles.beginWrite(newest);
+        candles.put(newest, CANDLE_OPEN_CLOSE, pack(high(openClose), cost));
+        candles.put(newest, CANDLE_HIGH_LOW, pack(Math.max(high(highLow), cost), Math.min(low(highLow), cost)));
+        candles.put(newest, CANDLE_VOLUME, candles.get(newest, CANDLE_VOLUME) + volume);
+        candles.endWrite(newest);
+    }
+
+    /**
+     * Retries a record that is being rewritten, which takes the writer a few stores, and gives up on one that was
+     * overwritten meanwhile.
+     */
+    private static boolean read(OffHeapRing ring, long number, long[] copy) {
+        while (!ring.read(number, copy)) {
+            if (number < ring.size() - ring.capacity()) {
+                return false;
+            }
+
+            Thread.onSpinWait();
+        }
+
+        return true;
+    }
+
+    private static Candle tick(long[] copy) {
+        final int cost = high(copy[TICK_PRICE]);
+
+        return new Candle(copy[TICK_TIME], cost, cost, cost, cost, low(copy[TICK_PRICE]));
+    }
+
+    private static Candle candle(long[] copy) {
+        return new Candle(
+                copy[CANDLE_START],
+                high(copy[CANDLE_OPEN_CLOSE]),
+                high(copy[CANDLE_HIGH_LOW]),
+                low(copy[CANDLE_HIGH_LOW]),
+                low(copy[CANDLE_OPEN_CLOSE]),
+                copy[CANDLE_VOLUME]
+        );
+    }
+
+    private static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private static int high(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int low(long packed) {
+        return (int) packed;
+    }
+}
@@ -0,0 +1,188 @@
+package ru.itmo.services.idempotency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmo.services.exceptions.IdempotencyKeyReusedException;
+import ru.itmo.services.sequencer.MarketCommand;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Outcomes of requests that carried an idempotency key, so a retried or hedged copy of a request gets the outcome of
+ * the first one instead of being executed again.
+ * <p>
+ * The first request with a key registers a pending outcome and executes, copies arriving meanwhile wait for it.
+ * A key is bound to the request it came with, a different request reusing it is refused rather than answered with
+ * an outcome that isn't its own.
+ * Outcomes, results and rejections alike, are kept for a fixed time and at most for the configured number of
+ * keys; entries are evicted oldest first whenever a new key comes in. An entry evicted while its request is still
+ * executing no longer protects against copies, so the limit should be well above the number of requests in flight.
+ */
+@Component
+public class IdempotencyCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final LongAdder replays = new LongAdder();
+
+    public IdempotencyCache(
+            @Value("${market.idempotency.max-entries:100000}") int maxEntries,
+            @Value("${market.idempotency.ttl-s:60}") long ttlSeconds
+    ) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Executes the request unless a request of the same command and key was executed before.
+     *
+     * @param request request the key came with, compared to the request of the first one by {@code equals}
+     * @return result of the first request with this key
+     * @throws IdempotencyKeyReusedException if the first request with this key was a different one
+     * @throws Exception                     exception the first request with this key failed with
+     */
+    public Object execute(
+            MarketCommand command,
+            String idempotencyKey,
+            Object request,
+            Execution execution
+    ) throws Exception {
+        final long now = System.nanoTime();
+        final Key key = new Key(command, idempotencyKey);
+        final Entry entry = new Entry(key, request, now);
+        final Entry existing = entries.putIfAbsent(key, entry);
+
+        if (existing != null) {
+            if (!existing.request.equals(request)) {
+                throw new IdempotencyKeyReusedException(idempotencyKey);
+            }
+
+            replays.increment();
+
+            return await(existing.outcome);
+        }
+
+        insertionOrder.add(entry);
+        evict(now);
+
+        try {
+            final Object result = execution.execute();
+
+            entry.outcome.complete(result);
+
+            return result;
+        } catch (Exception e) {
+            entry.outcome.completeExceptionally(e);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #execute} for an execution that completes later, e.g. a command handed over to a single writer.
+     * Copies of the request get the outcome of the first one once it completes.
+     *
+     * @return outcome of the first request with this key
+     * @throws IdempotencyKeyReusedException if the first request with this key was a different one
+     */
+    public CompletableFuture<Object> submit(
+            MarketCommand command,
+            String idempotencyKey,
+            Object request,
+            Supplier<CompletableFuture<Object>> submission
+    ) throws IdempotencyKeyReusedException {
+        final long now = System.nanoTime();
+        final Key key = new Key(command, idempotencyKey);
+        final Entry entry = new Entry(key, request, now);
+        final Entry existing = entries.putIfAbsent(key, entry);
+
+        if (existing != null) {
+            if (!existing.request.equals(request)) {
+                throw new IdempotencyKeyReusedException(idempotencyKey);
+            }
+
+            replays.increment();
+
+            return existing.outcome.copy();
+        }
+
+        insertionOrder.add(entry);
+        evict(now);
+
+        try {
+            submission.get().whenComplete((result, failure) -> {
+                if (failure == null) {
+                    entry.outcome.complete(result);
+                } else {
+                    entry.outcome.completeExceptionally(
+                            failure instanceof CompletionException && failure.getCause() != null
+                                    ? failure.getCause()
+                                    : failure
+                    );
+                }
+            });
+        } catch (RuntimeException e) {
+            entry.outcome.completeExceptionally(e);
+        }
+
+        return entry.outcome.copy();
+    }
+
+    /**
+     * @return number of requests answered with the outcome of an earlier request
+     */
+    public long replays() {
+        return replays.sum();
+    }
+
+    private void evict(long now) {
+        Entry oldest;
+
+        while ((oldest = insertionOrder.peek()) != null
+                && (now - oldest.createdAt > ttlNanos || entries.size() > maxEntries)) {
+            if (insertionOrder.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> outcome) throws Exception {
+        try {
+            return outcome.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Execution {
+        Object execute() throws Exception;
+    }
+
+    private record Key(MarketCommand command, String idempotencyKey) {
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final Object request;
+        private final long createdAt;
+        private final CompletableFuture<Object> outcome = new CompletableFuture<>();
+
+        private Entry(Key key, Object request, long createdAt) {
+            this.key = key;
+            this.request = request;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.itmo.services.journal;
+
+public enum Durability {
+    /**
+     * Every command waits until it is on disk, the flusher syncs as soon as anything is pending.
+     */
+    SYNC,
+    /**
+     * Every command waits until it is on disk, the flusher lingers for the batch window to sync more commands at once.
+     */
+    BATCHED,
+    /**
+     * Commands don't wait, the flusher syncs in the background every async interval.
+     */
+    ASYNC
+}
@@ -0,0 +1,29 @@
+package ru.itmo.services.journal;
+
+public enum JournalEntryType {
+    ADD_COMPANY,
+    ADD_STOCKS,
+    SET_COST,
+    BUY_STOCKS,
+    SELL_STOCKS,
+    /**
+     * Opens a handoff, the name is its id. Followed by {@link #HANDOFF_TARGET} and the companies it releases.
+     */
+    HANDOFF_STARTED,
+    /**
+     * Base URL of the node the handoff opened last goes to.
+     */
+    HANDOFF_TARGET,
+    /**
+     * Takes the stocks of a company out of the market into the handoff opened last.
+     */
+    RELEASE_STOCKS,
+    /**
+     * The handoff named by its id was adopted by its target.
+     */
+    HANDOFF_COMPLETED,
+    /**
+     * This node adopted the handoff named by its id.
+     */
+    HANDOFF_ADOPTED
+}
@@ -0,0 +1,48 @@
+package ru.itmo.services.journal;
+
+import ru.itmo.domain.Stocks;
+import ru.itmo.domain.SymbolId;
+import ru.itmo.services.market.MarketTable;
+
+public final class JournalReplay {
+    private JournalReplay() {
+    }
+
+    /**
+     * Applies a journaled command to the market state without validating it again.
+     * A listing carries the symbol id of the company as its value. Journals written before companies had ids list
+     * them with {@code 0} and may even trade a company ahead of its listing, such companies get the next free id.
+     * Handoff entries name a handoff or its target instead of a company, see {@link JournalEntryType}.
+     */
+    public static void apply(MarketTable market, JournalEntryType type, String companyName, int value) {
+        switch (type) {
+            case ADD_COMPANY -> market.list(companyName, SymbolId.isAssigned(value) ? value : market.nextSymbolId());
+            case HANDOFF_STARTED -> market.handoffs().begin(companyName, null);
+            case HANDOFF_TARGET -> market.handoffs().retarget(companyName);
+            case HANDOFF_COMPLETED -> market.handoffs().complete(companyName);
+            case HANDOFF_ADOPTED -> market.handoffs().adopt(companyName);
+            default -> applyToCompany(market, type, companyName, value);
+        }
+    }
+
+    private static void applyToCompany(MarketTable market, JournalEntryType type, String companyName, int value) {
+        int symbolId = market.symbolId(companyName);
+
+        if (!SymbolId.isAssigned(symbolId)) {
+            symbolId = market.list(companyName, market.nextSymbolId());
+        }
+
+        final Stocks stock = market.stocks(symbolId);
+
+        switch (type) {
+            case ADD_STOCKS, SELL_STOCKS -> stock.addCount(value);
+            case BUY_STOCKS -> stock.addCount(-value);
+            case SET_COST -> stock.setCost(value);
+            case RELEASE_STOCKS -> {
+                stock.addCount(-value);
+                market.handoffs().release(companyName, value, Stocks.cost(stock.get()));
+            }
+            default -> throw new IllegalStateException("Not a company entry: " + type);
+        }
+    }
+}
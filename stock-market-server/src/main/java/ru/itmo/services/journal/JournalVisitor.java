@@ -0,0 +1,6 @@
+package ru.itmo.services.journal;
+
+@FunctionalInterface
+public interface JournalVisitor {
+    void onEntry(JournalEntryType type, String companyName, int value);
+}
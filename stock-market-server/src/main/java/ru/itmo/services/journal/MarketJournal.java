@@ -0,0 +1,449 @@
+package ru.itmo.services.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of state-changing market commands in memory-mapped segment files.
+ * <p>
+ * An entry is {@code [int length][int crc32][byte type][int value][company name UTF-8]}, where the length covers
+ * everything after the checksum. Segments are pre-sized and zero-filled, so a zero length marks the end of data.
+ * <p>
+ * Appending only copies the entry into the mapping under a short lock. A single flusher thread syncs the mapping
+ * to disk and advances the durable position for everyone who appended before the sync started, so concurrent
+ * commands share one fsync (group commit). If a sync fails the flusher stops, and everyone waiting for durability
+ * then or later gets the failure.
+ */
+public class MarketJournal implements AutoCloseable {
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int FIXED_BODY_SIZE = 1 + Integer.BYTES;
+    private static final int MAX_NAME_LENGTH = 4096;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Durability durability;
+    private final long batchWindowNanos;
+    private final long asyncIntervalNanos;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Object flushMonitor = new Object();
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+
+    private final List<MappedByteBuffer> unflushedSegments = new ArrayList<>();
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private int offset;
+
+    private volatile long appendedPosition;
+    private volatile long durablePosition;
+    private volatile UncheckedIOException failure;
+    private volatile boolean running = true;
+
+    /**
+     * @param segmentSize size of a segment file in bytes, has to fit an entry with the longest company name
+     */
+    public MarketJournal(
+            Path directory,
+            int segmentSize,
+            Durability durability,
+            long batchWindowMicros,
+            long asyncIntervalMillis
+    ) {
+        if (segmentSize < HEADER_SIZE + FIXED_BODY_SIZE + MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Journal segment is too small for the longest entry: " + segmentSize);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.durability = durability;
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.asyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(asyncIntervalMillis);
+        this.flusher = new Thread(this::flushLoop, "market-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Feeds every intact entry at or after {@code fromPosition} to the visitor in append order and positions the
+     * journal right after the last one, then starts flushing. Has to be called once before the first {@link #append}.
+     *
+     * @param fromPosition position of a snapshot that already contains everything before it, {@code 0} otherwise
+     */
+    public void replay(long fromPosition, JournalVisitor visitor) {
+        try {
+            Files.createDirectories(directory);
+
+            final List<Path> segments = segments();
+
+            final int lastIndex = segments.isEmpty() ? -1 : segmentIndex(segments.get(segments.size() - 1));
+
+            segmentIndex = lastIndex >= fromPosition / segmentSize
+                    ? lastIndex
+                    : (int) ((fromPosition + segmentSize - 1) / segmentSize);
+
+            for (Path path : segments) {
+                final int index = segmentIndex(path);
+
+                if (index < fromPosition / segmentSize) {
+                    continue;
+                }
+
+                final MappedByteBuffer buffer = map(path);
+                final int start = index == fromPosition / segmentSize ? (int) (fromPosition % segmentSize) : 0;
+                final int end = replaySegment(buffer, start, segmentSize, visitor);
+
+                if (index == segmentIndex) {
+                    segment = buffer;
+                    offset = end;
+                    truncateTail(buffer, end);
+                }
+            }
+
+            if (segment == null) {
+                segment = map(segmentPath(segmentIndex));
+                offset = 0;
+            }
+
+            appendedPosition = position();
+            durablePosition = appendedPosition;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't replay market journal in " + directory, e);
+        }
+
+        flusher.start();
+    }
+
+    /**
+     * Feeds every entry from {@code fromPosition} up to {@code toPosition} to the visitor in append order while the
+     * journal keeps being appended to. Both are positions returned by {@link #append}, or {@code 0}, and
+     * {@code toPosition} is at most the {@link #appendedPosition}.
+     *
+     * @throws IllegalStateException if an entry before {@code toPosition} is missing or broken
+     */
+    public void read(long fromPosition, long toPosition, JournalVisitor visitor) {
+        try {
+            for (long index = fromPosition / segmentSize; index * segmentSize < toPosition; index++) {
+                final int start = index == fromPosition / segmentSize ? (int) (fromPosition % segmentSize) : 0;
+                final int limit = (int) Math.min(segmentSize, toPosition - index * segmentSize);
+                final int end = replaySegment(mapReadOnly(segmentPath((int) index)), start, limit, visitor);
+
+                if (limit < segmentSize && end != limit) {
+                    throw new IllegalStateException(
+                            "Market journal breaks off at position " + (index * segmentSize + end)
+                    );
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read market journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Deletes segment files that only hold entries before {@code position}, the current segment is always kept.
+     */
+    public void deleteSegmentsBefore(long position) {
+        try {
+            for (Path path : segments()) {
+                final int index = segmentIndex(path);
+
+                if ((long) (index + 1) * segmentSize <= position && index < segmentIndex) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't delete old market journal segments in " + directory, e);
+        }
+    }
+
+    /**
+     * Copies the entry into the journal without waiting for it to reach the disk.
+     *
+     * @return journal position right after the entry, to be passed to {@link #awaitDurable}
+     */
+    public long append(JournalEntryType type, String companyName, int value) {
+        final byte[] name = companyName.getBytes(StandardCharsets.UTF_8);
+
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Company name is too long for the journal: " + companyName);
+        }
+
+        final int bodyLength = FIXED_BODY_SIZE + name.length;
+
+        appendLock.lock();
+
+        try {
+            if (offset + HEADER_SIZE + bodyLength > segmentSize) {
+                roll();
+            }
+
+            crc.reset();
+            crc.update((byte) type.ordinal());
+            crc.update(value >>> 24);
+            crc.update(value >>> 16);
+            crc.update(value >>> 8);
+            crc.update(value);
+            crc.update(name);
+
+            segment.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            segment.put(offset + HEADER_SIZE, (byte) type.ordinal());
+            segment.putInt(offset + HEADER_SIZE + 1, value);
+            segment.put(offset + HEADER_SIZE + FIXED_BODY_SIZE, name);
+            segment.putInt(offset, bodyLength);
+            offset += HEADER_SIZE + bodyLength;
+
+            final long position = position();
+
+            appendedPosition = position;
+
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything up to {@code position} is on disk, returns immediately in {@link Durability#ASYNC} mode.
+     *
+     * @throws UncheckedIOException if the journal couldn't be synced to disk
+     * @throws IllegalStateException if interrupted or the journal was closed before the position became durable
+     */
+    public void awaitDurable(long position) {
+        if (durability == Durability.ASYNC || durablePosition >= position) {
+            return;
+        }
+
+        LockSupport.unpark(flusher);
+
+        synchronized (flushMonitor) {
+            while (durablePosition < position && failure == null && running) {
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    throw new IllegalStateException("Interrupted waiting for market journal position " + position, e);
+                }
+            }
+        }
+
+        if (durablePosition >= position) {
+            return;
+        }
+
+        if (failure != null) {
+            throw new UncheckedIOException("Market journal in " + directory + " is not writable", failure.getCause());
+        }
+
+        throw new IllegalStateException("Market journal closed before position " + position + " became durable");
+    }
+
+    public long appendedPosition() {
+        return appendedPosition;
+    }
+
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure == null) {
+            flush();
+        }
+
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            if (appendedPosition == durablePosition) {
+                LockSupport.parkNanos(this, asyncIntervalNanos);
+
+                continue;
+            }
+
+            if (durability == Durability.BATCHED) {
+                LockSupport.parkNanos(this, batchWindowNanos);
+            }
+
+            try {
+                flush();
+            } catch (UncheckedIOException e) {
+                synchronized (flushMonitor) {
+                    failure = e;
+                    flushMonitor.notifyAll();
+                }
+
+                return;
+            }
+
+            if (durability == Durability.ASYNC) {
+                LockSupport.parkNanos(this, asyncIntervalNanos);
+            }
+        }
+    }
+
+    private void flush() {
+        final List<MappedByteBuffer> toForce;
+        final long position;
+
+        appendLock.lock();
+
+        try {
+            position = appendedPosition;
+            toForce = new ArrayList<>(unflushedSegments);
+            toForce.add(segment);
+            unflushedSegments.clear();
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (position == durablePosition) {
+            return;
+        }
+
+        for (MappedByteBuffer buffer : toForce) {
+            buffer.force();
+        }
+
+        synchronized (flushMonitor) {
+            durablePosition = position;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Moves on to the next segment, leaving the journal as it was if the segment can't be created.
+     */
+    private void roll() {
+        final MappedByteBuffer next;
+
+        try {
+            next = map(segmentPath(segmentIndex + 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't create market journal segment " + (segmentIndex + 1), e);
+        }
+
+        unflushedSegments.add(segment);
+        segmentIndex++;
+        segment = next;
+        offset = 0;
+    }
+
+    private long position() {
+        return (long) segmentIndex * segmentSize + offset;
+    }
+
+    /**
+     * @return offset right after the last intact entry that starts before {@code limit}
+     */
+    private int replaySegment(ByteBuffer buffer, int start, int limit, JournalVisitor visitor) {
+        final CRC32 checksum = new CRC32();
+        final JournalEntryType[] types = JournalEntryType.values();
+
+        int position = start;
+
+        while (position + HEADER_SIZE <= limit) {
+            final int bodyLength = buffer.getInt(position);
+
+            if (bodyLength < FIXED_BODY_SIZE
+                    || bodyLength > FIXED_BODY_SIZE + MAX_NAME_LENGTH
+                    || position + HEADER_SIZE + bodyLength > segmentSize) {
+                break;
+            }
+
+            final byte[] body = new byte[bodyLength];
+
+            buffer.get(position + HEADER_SIZE, body);
+            checksum.reset();
+            checksum.update(body);
+
+            if ((int) checksum.getValue() != buffer.getInt(position + Integer.BYTES) || body[0] >= types.length) {
+                break;
+            }
+
+            visitor.onEntry(
+                    types[body[0]],
+                    new String(body, FIXED_BODY_SIZE, bodyLength - FIXED_BODY_SIZE, StandardCharsets.UTF_8),
+                    buffer.getInt(position + HEADER_SIZE + 1)
+            );
+            position += HEADER_SIZE + bodyLength;
+        }
+
+        return position;
+    }
+
+    /**
+     * Zeroes whatever follows the last intact entry, so a torn write can't be mistaken for data later on.
+     */
+    private void truncateTail(MappedByteBuffer buffer, int end) {
+        for (int i = end; i < segmentSize; i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        )) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private MappedByteBuffer mapReadOnly(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static int segmentIndex(Path path) {
+        final String fileName = path.getFileName().toString();
+
+        return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,401 @@
+package ru.itmo.services.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.Listing;
+import ru.itmo.domain.Stocks;
+import ru.itmo.services.market.MarketTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Periodically writes the whole market state as of some journal position, so a restart only replays the journal
+ * after it.
+ * <p>
+ * The snapshot isn't taken from the live market, whose cells may hold trades not journaled yet, but from a copy of
+ * the market the snapshotter keeps for itself. The copy starts out as the loaded snapshot, and each snapshot brings
+ * it up to the current journal position by applying the entries journaled since, the same way a restart replays
+ * them. That makes every snapshot an exact cut at its position without ever stopping a writer, whatever the engine
+ * mode, at the cost of holding the market twice.
+ * <p>
+ * A snapshot file is {@code [int magic][int version][long position][int companies]}, then
+ * {@code [int symbol id][int name length][name UTF-8][int count][int cost]} per company, then
+ * {@code [int handoffs]} and {@code [id][target][int listings]} followed by {@code [name][int count][int cost]} per
+ * listing for every pending handoff, {@code [int adopted]} and {@code [id]} per adopted handoff, every string stored
+ * as {@code [int length][UTF-8]} with a length of {@code -1} for a missing one, and a trailing {@code [int crc32]}.
+ * It is written to a temporary file, synced and renamed into place. Version 1 snapshots have no symbol ids, their
+ * companies are listed in file order, and neither version 1 nor 2 snapshots have handoffs.
+ */
+public class MarketSnapshotter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketSnapshotter.class);
+
+    private static final int MAGIC = 0x534D4B54;
+    private static final int VERSION = 3;
+    private static final int VERSION_WITHOUT_SYMBOL_IDS = 1;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final MarketJournal journal;
+    private final long intervalNanos;
+    private final int retained;
+    private final Thread worker;
+
+    private final MarketTable state = new MarketTable();
+
+    private long position;
+    private volatile boolean running = true;
+
+    /**
+     * @param retained number of newest snapshots kept on disk, journal segments older than all of them are deleted
+     */
+    public MarketSnapshotter(Path directory, MarketJournal journal, long intervalSeconds, int retained) {
+        if (retained < 1) {
+            throw new IllegalArgumentException("At least one snapshot has to be retained: " + retained);
+        }
+
+        this.directory = directory;
+        this.journal = journal;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+        this.retained = retained;
+        this.worker = new Thread(this::snapshotLoop, "market-snapshotter");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Copies the newest intact snapshot into {@code market} and into the snapshotter's own copy of the market.
+     * Has to be called once before {@link #start}.
+     *
+     * @return journal position the snapshot was taken at, {@code 0} if there is none
+     */
+    public long load(MarketTable market) {
+        try {
+            Files.createDirectories(directory);
+
+            for (Path path : snapshots()) {
+                try {
+                    read(path, state);
+                    position = read(path, market);
+
+                    return position;
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Skipping unreadable snapshot {}: {}", path, e.getMessage());
+                    state.clear();
+                    market.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't load market snapshot from " + directory, e);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Starts taking snapshots periodically, once the journal was replayed after {@link #load}.
+     */
+    public synchronized void start() {
+        worker.start();
+    }
+
+    /**
+     * Writes out the market as of the current journal position if anything was journaled since the last snapshot.
+     * The entries are read before any of them is applied, so a journal that can't be read leaves the copy of the
+     * market at the last snapshot.
+     *
+     * @return journal position of the newest snapshot
+     */
+    public synchronized long snapshot() throws Exception {
+        final long cutPosition = journal.appendedPosition();
+
+        if (cutPosition == position && !snapshots().isEmpty()) {
+            return position;
+        }
+
+        final List<JournaledEntry> journaled = new ArrayList<>();
+
+        journal.read(position, cutPosition, (type, companyName, value) -> journaled.add(
+                new JournaledEntry(type, companyName, value)
+        ));
+
+        for (JournaledEntry entry : journaled) {
+            JournalReplay.apply(state, entry.type(), entry.companyName(), entry.value());
+        }
+
+        position = cutPosition;
+
+        final List<SnapshotEntry> entries = new ArrayList<>(state.size());
+
+        state.forEachListed((symbolId, companyName, stock) -> entries.add(
+                new SnapshotEntry(symbolId, companyName, stock.get())
+        ));
+
+        journal.awaitDurable(cutPosition);
+        write(entries, state.handoffs().pending(), state.handoffs().adopted());
+        prune();
+
+        return position;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void snapshotLoop() {
+        while (running) {
+            LockSupport.parkNanos(this, intervalNanos);
+
+            if (!running) {
+                return;
+            }
+
+            try {
+                snapshot();
+            } catch (Exception e) {
+                LOGGER.error("Can't write market snapshot at position {}", position, e);
+            }
+        }
+    }
+
+    private long read(Path path, MarketTable market) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        final CRC32 checksum = new CRC32();
+
+        checksum.update(buffer.array(), 0, buffer.limit() - Integer.BYTES);
+
+        if (buffer.getInt(buffer.limit() - Integer.BYTES) != (int) checksum.getValue()) {
+            throw new IOException("checksum mismatch");
+        }
+
+        final int magic = buffer.getInt();
+        final int version = buffer.getInt();
+
+        if (magic != MAGIC || version < VERSION_WITHOUT_SYMBOL_IDS || version > VERSION) {
+            throw new IOException("unknown format");
+        }
+
+        final long snapshotPosition = buffer.getLong();
+        final int companies = buffer.getInt();
+
+        for (int i = 0; i < companies; i++) {
+            final int symbolId = version == VERSION_WITHOUT_SYMBOL_IDS ? market.nextSymbolId() : buffer.getInt();
+            final String companyName = getString(buffer);
+            final int count = buffer.getInt();
+            final int cost = buffer.getInt();
+
+            restore(market, symbolId, companyName, count, cost);
+        }
+
+        if (version == VERSION) {
+            readHandoffs(buffer, market);
+        }
+
+        return snapshotPosition;
+    }
+
+    private static void readHandoffs(ByteBuffer buffer, MarketTable market) {
+        final int handoffs = buffer.getInt();
+
+        for (int i = 0; i < handoffs; i++) {
+            final String id = getString(buffer);
+            final String target = getString(buffer);
+            final List<Listing> listings = new ArrayList<>();
+            final int listingCount = buffer.getInt();
+
+            for (int j = 0; j < listingCount; j++) {
+                listings.add(new Listing(getString(buffer), buffer.getInt(), buffer.getInt()));
+            }
+
+            market.handoffs().restore(new Handoff(id, target, listings));
+        }
+
+        final int adopted = buffer.getInt();
+
+        for (int i = 0; i < adopted; i++) {
+            market.handoffs().adopt(getString(buffer));
+        }
+    }
+
+    private void write(List<SnapshotEntry> entries, List<Handoff> pending, List<String> adopted) throws IOException {
+        final ByteArrayOutputStream handoffBytes = new ByteArrayOutputStream();
+        final DataOutputStream handoffs = new DataOutputStream(handoffBytes);
+
+        handoffs.writeInt(pending.size());
+
+        for (Handoff handoff : pending) {
+            putString(handoffs, handoff.id());
+            putString(handoffs, handoff.target());
+            handoffs.writeInt(handoff.listings().size());
+
+            for (Listing listing : handoff.listings()) {
+                putString(handoffs, listing.companyName());
+                handoffs.writeInt(listing.count());
+                handoffs.writeInt(listing.cost());
+            }
+        }
+
+        handoffs.writeInt(adopted.size());
+
+        for (String id : adopted) {
+            putString(handoffs, id);
+        }
+
+        final List<byte[]> names = new ArrayList<>(entries.size());
+        int size = 3 * Integer.BYTES + Long.BYTES + handoffBytes.size();
+
+        for (SnapshotEntry entry : entries) {
+            final byte[] name = entry.companyName().getBytes(StandardCharsets.UTF_8);
+
+            names.add(name);
+            size += 4 * Integer.BYTES + name.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size + Integer.BYTES);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(position).putInt(entries.size());
+
+        for (int i = 0; i < entries.size(); i++) {
+            final SnapshotEntry entry = entries.get(i);
+
+            buffer.putInt(entry.symbolId())
+                    .putInt(names.get(i).length)
+                    .put(names.get(i))
+                    .putInt(Stocks.count(entry.state()))
+                    .putInt(Stocks.cost(entry.state()));
+        }
+
+        buffer.put(handoffBytes.toByteArray());
+
+        final CRC32 checksum = new CRC32();
+
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) checksum.getValue());
+        buffer.flip();
+
+        final Path target = snapshotPath(position);
+        final Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+                temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Keeps the {@code retained} newest snapshots, and the journal after the oldest of them,
+     * so a corrupted newest snapshot still leaves an older one to start from.
+     */
+    private void prune() throws IOException {
+        final List<Path> snapshots = snapshots();
+
+        for (Path path : snapshots.subList(Math.min(retained, snapshots.size()), snapshots.size())) {
+            Files.deleteIfExists(path);
+        }
+
+        if (snapshots.size() >= retained) {
+            journal.deleteSegmentsBefore(snapshotPosition(snapshots.get(retained - 1)));
+        }
+    }
+
+    /**
+     * @return snapshot files, newest first
+     */
+    private List<Path> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SNAPSHOT_SUFFIX))
+                    .sorted(Comparator.reverseOrder())
+                    .toList();
+        }
+    }
+
+    private Path snapshotPath(long snapshotPosition) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshotPosition, SNAPSHOT_SUFFIX));
+    }
+
+    private static void restore(MarketTable market, int symbolId, String companyName, int count, int cost) {
+        final Stocks stock = market.stocks(market.list(companyName, symbolId));
+
+        stock.addCount(count);
+        stock.setCost(cost);
+    }
+
+    /**
+     * @return the string, {@code null} for a length of {@code -1}
+     */
+    private static String getString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static long snapshotPosition(Path path) {
+        final String fileName = path.getFileName().toString();
+
+        return Long.parseLong(fileName.substring(SNAPSHOT_PREFIX.length(), fileName.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    private record SnapshotEntry(int symbolId, String companyName, long state) {
+    }
+
+    private record JournaledEntry(JournalEntryType type, String companyName, int value) {
+    }
+}
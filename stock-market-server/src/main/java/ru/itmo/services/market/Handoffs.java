@@ -0,0 +1,139 @@
+package ru.itmo.services.market;
+
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.Listing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Handoffs of companies between market nodes: the ones this node released and that weren't confirmed adopted yet,
+ * and the ids of the ones it adopted. Both are market state, journaled, replayed and snapshotted with the cells, so
+ * released stocks survive a restart until they are adopted and an adopted handoff stays adopted.
+ * <p>
+ * A release is recorded as a handoff followed by its companies, in the order the releasing node journals them under
+ * the market lock, so every company is added to the handoff opened last. Only the newest {@link #MAX_ADOPTED} adopted
+ * ids are kept, enough for any handoff still pending on some other node.
+ */
+public class Handoffs {
+    static final int MAX_ADOPTED = 10_000;
+
+    private final Map<String, PendingHandoff> pending = new LinkedHashMap<>();
+    private final Set<String> adopted = new LinkedHashSet<>();
+
+    private PendingHandoff releasing;
+
+    /**
+     * Opens a handoff, the companies released next are added to it.
+     */
+    public synchronized void begin(String id, String target) {
+        releasing = new PendingHandoff(target);
+        pending.put(id, releasing);
+    }
+
+    /**
+     * Sets the target of the handoff opened last, which the journal records after opening it.
+     */
+    public synchronized void retarget(String target) {
+        if (releasing != null) {
+            releasing.target = target;
+        }
+    }
+
+    /**
+     * Puts back a handoff that was pending when a snapshot was taken.
+     */
+    public synchronized void restore(Handoff handoff) {
+        final PendingHandoff restored = new PendingHandoff(handoff.target());
+
+        restored.listings.addAll(handoff.listings());
+        pending.put(handoff.id(), restored);
+    }
+
+    /**
+     * Adds a released company to the handoff opened last.
+     */
+    public synchronized void release(String companyName, int count, int cost) {
+        if (releasing == null) {
+            throw new IllegalStateException("No handoff to release " + companyName + " into");
+        }
+
+        releasing.listings.add(new Listing(companyName, count, cost));
+    }
+
+    /**
+     * @return the pending handoff, {@code null} if it was completed or never released here
+     */
+    public synchronized Handoff pending(String id) {
+        final PendingHandoff handoff = pending.get(id);
+
+        return handoff == null ? null : handoff.toHandoff(id);
+    }
+
+    /**
+     * @return handoffs released here and not completed, oldest first
+     */
+    public synchronized List<Handoff> pending() {
+        final List<Handoff> handoffs = new ArrayList<>(pending.size());
+
+        pending.forEach((id, handoff) -> handoffs.add(handoff.toHandoff(id)));
+
+        return handoffs;
+    }
+
+    /**
+     * @return {@code true} if the handoff was pending
+     */
+    public synchronized boolean complete(String id) {
+        final PendingHandoff handoff = pending.remove(id);
+
+        if (handoff == releasing) {
+            releasing = null;
+        }
+
+        return handoff != null;
+    }
+
+    public synchronized boolean isAdopted(String id) {
+        return adopted.contains(id);
+    }
+
+    public synchronized void adopt(String id) {
+        adopted.add(id);
+
+        if (adopted.size() > MAX_ADOPTED) {
+            adopted.remove(adopted.iterator().next());
+        }
+    }
+
+    /**
+     * @return adopted ids, oldest first
+     */
+    public synchronized List<String> adopted() {
+        return List.copyOf(adopted);
+    }
+
+    public synchronized void clear() {
+        pending.clear();
+        adopted.clear();
+        releasing = null;
+    }
+
+    private static class PendingHandoff {
+        private final List<Listing> listings = new ArrayList<>();
+
+        private String target;
+
+        PendingHandoff(String target) {
+            this.target = target;
+        }
+
+        Handoff toHandoff(String id) {
+            return new Handoff(id, target, List.copyOf(listings));
+        }
+    }
+}
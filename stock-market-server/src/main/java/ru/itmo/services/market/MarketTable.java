@@ -0,0 +1,157 @@
+package ru.itmo.services.market;
+
+import ru.itmo.domain.Stocks;
+import ru.itmo.domain.SymbolId;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Listed companies indexed by their dense symbol id.
+ * <p>
+ * Quote cells and names live in plain arrays, so a request that carries the id reaches its cell with one bounds
+ * check and one array load. The name index is only consulted by requests that name the company.
+ * <p>
+ * Listing is serialized on the table. The name of a new company is stored before its cell is released into the
+ * array, the arrays are republished through the volatile fields when they grow, and the name is indexed last, so
+ * whoever sees a cell, whether by name or by an id sent ahead of the listing, also sees the name.
+ */
+public class MarketTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(Stocks[].class);
+
+    private final ConcurrentHashMap<String, Integer> symbolIds = new ConcurrentHashMap<>();
+    private final Handoffs handoffs = new Handoffs();
+
+    private volatile String[] companyNames = new String[INITIAL_CAPACITY];
+    private volatile Stocks[] stocks = new Stocks[INITIAL_CAPACITY];
+    private int nextSymbolId = SymbolId.NONE + 1;
+
+    /**
+     * @return id of the listed company, {@link SymbolId#NONE} if there is no such company
+     */
+    public int symbolId(String companyName) {
+        if (companyName == null) {
+            return SymbolId.NONE;
+        }
+
+        final Integer symbolId = symbolIds.get(companyName);
+
+        return symbolId != null ? symbolId : SymbolId.NONE;
+    }
+
+    /**
+     * @return quote cell of the company, {@code null} if the id isn't assigned
+     */
+    public Stocks stocks(int symbolId) {
+        final Stocks[] cells = stocks;
+
+        return symbolId > SymbolId.NONE && symbolId < cells.length ? (Stocks) CELLS.getAcquire(cells, symbolId) : null;
+    }
+
+    /**
+     * Has to be called after {@link #stocks} returned a cell for the id.
+     */
+    public String companyName(int symbolId) {
+        return companyNames[symbolId];
+    }
+
+    /**
+     * @return id the next company is listed under unless it's listed with an explicit one
+     */
+    public synchronized int nextSymbolId() {
+        return nextSymbolId;
+    }
+
+    /**
+     * Lists a company with no stocks under the given id, a company that is already listed keeps its id.
+     *
+     * @return id of the company
+     */
+    public synchronized int list(String companyName, int symbolId) {
+        final int listed = symbolId(companyName);
+
+        if (SymbolId.isAssigned(listed)) {
+            return listed;
+        }
+
+        if (!SymbolId.isAssigned(symbolId) || stocks(symbolId) != null) {
+            throw new IllegalStateException("Symbol id " + symbolId + " can't be assigned to " + companyName);
+        }
+
+        String[] names = companyNames;
+        Stocks[] cells = stocks;
+
+        if (symbolId >= cells.length) {
+            final int capacity = Math.max(cells.length * 2, symbolId + 1);
+
+            names = Arrays.copyOf(names, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+        }
+
+        names[symbolId] = companyName;
+        CELLS.setRelease(cells, symbolId, new Stocks(0, 0));
+        companyNames = names;
+        stocks = cells;
+        symbolIds.put(companyName, symbolId);
+        nextSymbolId = Math.max(nextSymbolId, symbolId + 1);
+
+        return symbolId;
+    }
+
+    public void forEach(BiConsumer<String, Stocks> action) {
+        final Stocks[] cells = stocks;
+        final String[] names = companyNames;
+
+        for (int symbolId = SymbolId.NONE + 1; symbolId < cells.length; symbolId++) {
+            final Stocks cell = (Stocks) CELLS.getAcquire(cells, symbolId);
+
+            if (cell != null) {
+                action.accept(names[symbolId], cell);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #forEach}, with the id of every company.
+     */
+    public void forEachListed(ListedCompanyConsumer action) {
+        final Stocks[] cells = stocks;
+        final String[] names = companyNames;
+
+        for (int symbolId = SymbolId.NONE + 1; symbolId < cells.length; symbolId++) {
+            final Stocks cell = (Stocks) CELLS.getAcquire(cells, symbolId);
+
+            if (cell != null) {
+                action.accept(symbolId, names[symbolId], cell);
+            }
+        }
+    }
+
+    public int size() {
+        return symbolIds.size();
+    }
+
+    /**
+     * @return companies released to and adopted from other nodes
+     */
+    public Handoffs handoffs() {
+        return handoffs;
+    }
+
+    public synchronized void clear() {
+        symbolIds.clear();
+        handoffs.clear();
+        companyNames = new String[INITIAL_CAPACITY];
+        stocks = new Stocks[INITIAL_CAPACITY];
+        nextSymbolId = SymbolId.NONE + 1;
+    }
+
+    @FunctionalInterface
+    public interface ListedCompanyConsumer {
+        void accept(int symbolId, String companyName, Stocks stocks);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.itmo.services.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power-of-two buckets from about a microsecond to about 69 seconds, plus an overflow bucket.
+ * <p>
+ * Recording is a leading-zero count and two striped increments, it neither locks nor allocates once the stripes
+ * of the touched {@link LongAdder}s exist.
+ */
+public class LatencyHistogram {
+    private static final int MIN_EXPONENT = 10;
+    private static final int BUCKETS = 27;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        buckets[bucket(nanos)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Appends the histogram in Prometheus text format with cumulative {@code le} buckets in seconds.
+     *
+     * @param labels rendered labels without braces, e.g. {@code endpoint="/buy/stocks"}
+     */
+    public void writeTo(StringBuilder out, String name, String labels) {
+        final String separator = labels.isEmpty() ? "" : ",";
+
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append((1L << (i + MIN_EXPONENT)) / NANOS_PER_SECOND).append("\"} ")
+                    .append(count).append('\n');
+        }
+
+        count += buckets[BUCKETS].sum();
+        out.append(name).append("_bucket{").append(labels).append(separator)
+                .append("le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(sumNanos.sum() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+
+    /**
+     * @return index of the bucket whose upper bound {@code 2^(index + 10)} ns is the first one not below the value
+     */
+    static int bucket(long nanos) {
+        if (nanos <= 1L << MIN_EXPONENT) {
+            return 0;
+        }
+
+        return Math.min(Long.SIZE - Long.numberOfLeadingZeros(nanos - 1) - MIN_EXPONENT, BUCKETS);
+    }
+}
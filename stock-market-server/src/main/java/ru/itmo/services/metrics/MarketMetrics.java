@@ -0,0 +1,196 @@
+package ru.itmo.services.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the market, rendered in Prometheus text format on scrape.
+ * <p>
+ * Everything recorded on the request path is a striped {@link LongAdder} increment behind at most one map lookup,
+ * all aggregation, sorting and formatting happens in {@link #writePrometheus}.
+ */
+@Component
+public class MarketMetrics {
+    private final int topSymbols;
+    private final RejectionLog rejectionLog;
+    private final LongAdder buys = new LongAdder();
+    private final LongAdder sells = new LongAdder();
+    private final LongAdder stocksBought = new LongAdder();
+    private final LongAdder stocksSold = new LongAdder();
+    private final LongAdder buyCasRetries = new LongAdder();
+    private final Map<RejectionReason, LongAdder> rejections = new EnumMap<>(RejectionReason.class);
+    private final ConcurrentHashMap<String, SymbolMetrics> symbols = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param topSymbols        number of companies with the most trades that get their own series
+     * @param rejectionLogLimit rejections logged per second, the rest are only counted
+     */
+    public MarketMetrics(
+            @Value("${market.metrics.top-symbols:10}") int topSymbols,
+            @Value("${market.rejections.log-per-second:10}") int rejectionLogLimit
+    ) {
+        this.topSymbols = topSymbols;
+        this.rejectionLog = new RejectionLog(rejectionLogLimit);
+
+        for (RejectionReason reason : RejectionReason.values()) {
+            rejections.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * @param casRetries failed compare-and-set attempts before the buy went through
+     */
+    public void recordBuy(String companyName, int count, int casRetries) {
+        buys.increment();
+        stocksBought.add(count);
+        symbol(companyName).buys.increment();
+
+        if (casRetries > 0) {
+            buyCasRetries.add(casRetries);
+        }
+    }
+
+    public void recordSell(String companyName, int count) {
+        sells.increment();
+        stocksSold.add(count);
+        symbol(companyName).sells.increment();
+    }
+
+    /**
+     * Counts the rejection and logs it unless the rate limit of the rejection log is reached.
+     * Unknown companies and reused keys are only counted in total, so made-up names can't blow up the number of
+     * series.
+     *
+     * @param requested count or amount the order asked for
+     * @param available count or amount the market or the user had
+     */
+    public void recordRejection(RejectionReason reason, String companyName, int requested, int available) {
+        rejections.get(reason).increment();
+
+        if (reason != RejectionReason.NOT_FOUND && reason != RejectionReason.IDEMPOTENCY_KEY_REUSED) {
+            symbol(companyName).rejections.increment();
+        }
+
+        rejectionLog.log(reason, companyName, requested, available);
+    }
+
+    public void recordRequest(String endpoint, long nanos) {
+        LatencyHistogram histogram = endpoints.get(endpoint);
+
+        if (histogram == null) {
+            histogram = endpoints.computeIfAbsent(endpoint, key -> new LatencyHistogram());
+        }
+
+        histogram.record(nanos);
+    }
+
+    public String writePrometheus() {
+        final StringBuilder out = new StringBuilder(4096);
+
+        counter(out, "market_buys_total", "Executed buy requests", buys);
+        counter(out, "market_sells_total", "Executed sell requests", sells);
+        counter(out, "market_stocks_bought_total", "Stocks bought", stocksBought);
+        counter(out, "market_stocks_sold_total", "Stocks sold", stocksSold);
+        counter(out, "market_buy_cas_retries_total", "Failed compare-and-set attempts of buys", buyCasRetries);
+
+        out.append("# HELP market_rejections_total Rejected buy and sell requests\n");
+        out.append("# TYPE market_rejections_total counter\n");
+
+        for (Map.Entry<RejectionReason, LongAdder> rejection : rejections.entrySet()) {
+            out.append("market_rejections_total{reason=\"").append(rejection.getKey().label()).append("\"} ")
+                    .append(rejection.getValue().sum()).append('\n');
+        }
+
+        counter(
+                out,
+                "market_rejections_not_logged_total",
+                "Rejections skipped by the rate limit of the log",
+                rejectionLog.skipped()
+        );
+
+        writeTopSymbols(out);
+
+        out.append("# HELP http_server_request_duration_seconds Request latency by endpoint\n");
+        out.append("# TYPE http_server_request_duration_seconds histogram\n");
+
+        for (Map.Entry<String, LatencyHistogram> endpoint : endpoints.entrySet()) {
+            endpoint.getValue().writeTo(
+                    out,
+                    "http_server_request_duration_seconds",
+                    "endpoint=\"" + escape(endpoint.getKey()) + "\""
+            );
+        }
+
+        return out.toString();
+    }
+
+    private void writeTopSymbols(StringBuilder out) {
+        final List<SymbolSnapshot> snapshots = new ArrayList<>(symbols.size());
+
+        symbols.forEach((companyName, symbol) -> snapshots.add(new SymbolSnapshot(
+                escape(companyName),
+                symbol.buys.sum(),
+                symbol.sells.sum(),
+                symbol.rejections.sum()
+        )));
+        snapshots.sort(Comparator.comparingLong(SymbolSnapshot::trades).reversed());
+
+        final List<SymbolSnapshot> hottest = snapshots.subList(0, Math.min(topSymbols, snapshots.size()));
+
+        out.append("# HELP market_symbol_trades_total Trades of the most traded companies\n");
+        out.append("# TYPE market_symbol_trades_total counter\n");
+
+        for (SymbolSnapshot symbol : hottest) {
+            out.append("market_symbol_trades_total{company=\"").append(symbol.company()).append("\",side=\"buy\"} ")
+                    .append(symbol.buys()).append('\n');
+            out.append("market_symbol_trades_total{company=\"").append(symbol.company()).append("\",side=\"sell\"} ")
+                    .append(symbol.sells()).append('\n');
+        }
+
+        out.append("# HELP market_symbol_rejections_total Rejected requests of the most traded companies\n");
+        out.append("# TYPE market_symbol_rejections_total counter\n");
+
+        for (SymbolSnapshot symbol : hottest) {
+            out.append("market_symbol_rejections_total{company=\"").append(symbol.company()).append("\"} ")
+                    .append(symbol.rejections()).append('\n');
+        }
+    }
+
+    private SymbolMetrics symbol(String companyName) {
+        final SymbolMetrics symbol = symbols.get(companyName);
+
+        return symbol != null ? symbol : symbols.computeIfAbsent(companyName, key -> new SymbolMetrics());
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+        counter(out, name, help, value.sum());
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Counters of a company read once, so sorting sees stable values while trading goes on.
+     */
+    private record SymbolSnapshot(String company, long buys, long sells, long rejections) {
+        long trades() {
+            return buys + sells;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.itmo.services.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs rejected orders, at most {@code limit} of them a second. Rejections beyond that are only counted, the next
+ * logged line reports how many were skipped since the previous one.
+ * <p>
+ * Nothing is formatted for a skipped rejection and nothing ever captures a stack trace, so a burst of rejections
+ * costs a clock read and a counter increment each.
+ */
+public class RejectionLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RejectionLog.class);
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int limit;
+    /**
+     * Current second in the high half and rejections logged in it in the low half, swapped together so a new second
+     * can't lose the rejections already logged in it.
+     */
+    private final AtomicLong window = new AtomicLong();
+    private final LongAdder skipped = new LongAdder();
+    private final AtomicLong reportedSkipped = new AtomicLong();
+
+    /**
+     * @param limit rejections logged per second, {@code 0} counts them without logging any
+     */
+    public RejectionLog(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @param requested count or amount the order asked for
+     * @param available count or amount the market or the user had
+     */
+    public void log(RejectionReason reason, String companyName, int requested, int available) {
+        if (!tryAcquire()) {
+            skipped.increment();
+
+            return;
+        }
+
+        final long skippedTotal = skipped.sum();
+
+        LOGGER.warn(
+                "Order for '{}' rejected as {}: requested {}, available {}, {} rejections not logged before",
+                companyName,
+                reason.label(),
+                requested,
+                available,
+                skippedTotal - reportedSkipped.getAndSet(skippedTotal)
+        );
+    }
+
+    /**
+     * @return rejections counted but not logged
+     */
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    private boolean tryAcquire() {
+        if (limit == 0) {
+            return false;
+        }
+
+        final int now = (int) (System.nanoTime() / WINDOW_NANOS);
+
+        while (true) {
+            final long current = window.get();
+            final int logged = (int) (current >>> Integer.SIZE) == now ? (int) current : 0;
+
+            if (logged >= limit) {
+                return false;
+            }
+
+            if (window.compareAndSet(current, (long) now << Integer.SIZE | (logged + 1))) {
+                return true;
+            }
+        }
+    }
+}
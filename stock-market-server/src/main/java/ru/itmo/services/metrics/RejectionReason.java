@@ -0,0 +1,18 @@
+package ru.itmo.services.metrics;
+
+public enum RejectionReason {
+    NOT_FOUND("not_found"),
+    NOT_ENOUGH_AMOUNT("not_enough_amount"),
+    NOT_ENOUGH_STOCKS("not_enough_stocks"),
+    IDEMPOTENCY_KEY_REUSED("idempotency_key_reused");
+
+    private final String label;
+
+    RejectionReason(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
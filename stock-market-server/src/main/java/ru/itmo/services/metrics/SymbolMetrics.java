@@ -0,0 +1,12 @@
+package ru.itmo.services.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trade counters of one listed company.
+ */
+class SymbolMetrics {
+    final LongAdder buys = new LongAdder();
+    final LongAdder sells = new LongAdder();
+    final LongAdder rejections = new LongAdder();
+}
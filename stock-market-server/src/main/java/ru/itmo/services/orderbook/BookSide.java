@@ -0,0 +1,87 @@
+package ru.itmo.services.orderbook;
+
+import java.util.Arrays;
+
+/**
+ * Price levels of one side of the book in a sorted primitive array of keys with a parallel array of levels.
+ * <p>
+ * Keys are ordered so that the best level is always the last one: bids are keyed by price, asks by negated price.
+ * Taking liquidity therefore only ever touches the tail, while a new level costs one binary search and one
+ * {@link System#arraycopy}.
+ */
+final class BookSide {
+    private final boolean bid;
+
+    private int[] keys = new int[64];
+    private PriceLevel[] levels = new PriceLevel[64];
+    private int size;
+
+    BookSide(boolean bid) {
+        this.bid = bid;
+    }
+
+    PriceLevel best() {
+        return size == 0 ? null : levels[size - 1];
+    }
+
+    /**
+     * @return whether an incoming order of the opposite side with the given limit price can trade against {@code level}
+     */
+    boolean crosses(PriceLevel level, int limitPrice) {
+        return bid ? level.price >= limitPrice : level.price <= limitPrice;
+    }
+
+    PriceLevel getOrCreate(int price) {
+        final int key = key(price);
+        final int index = Arrays.binarySearch(keys, 0, size, key);
+
+        if (index >= 0) {
+            return levels[index];
+        }
+
+        final int insertion = -index - 1;
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            levels = Arrays.copyOf(levels, size * 2);
+        }
+
+        System.arraycopy(keys, insertion, keys, insertion + 1, size - insertion);
+        System.arraycopy(levels, insertion, levels, insertion + 1, size - insertion);
+
+        final PriceLevel level = new PriceLevel(this, price);
+
+        keys[insertion] = key;
+        levels[insertion] = level;
+        size++;
+
+        return level;
+    }
+
+    void remove(PriceLevel level) {
+        final int index = Arrays.binarySearch(keys, 0, size, key(level.price));
+
+        if (index < 0) {
+            return;
+        }
+
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(levels, index + 1, levels, index, size - index - 1);
+        levels[--size] = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param depth position from the best level, {@code 0} is the best one
+     */
+    PriceLevel level(int depth) {
+        return levels[size - 1 - depth];
+    }
+
+    private int key(int price) {
+        return bid ? price : -price;
+    }
+}
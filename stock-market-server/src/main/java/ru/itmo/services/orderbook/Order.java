@@ -0,0 +1,20 @@
+package ru.itmo.services.orderbook;
+
+/**
+ * Resting order, an intrusive node of the FIFO queue of its {@link PriceLevel}.
+ */
+final class Order {
+    long id;
+    int remaining;
+    PriceLevel level;
+    Order prev;
+    Order next;
+
+    void reset() {
+        id = 0;
+        remaining = 0;
+        level = null;
+        prev = null;
+        next = null;
+    }
+}
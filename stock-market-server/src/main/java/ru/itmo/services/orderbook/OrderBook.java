@@ -0,0 +1,150 @@
+package ru.itmo.services.orderbook;
+
+import ru.itmo.domain.BookDepth;
+import ru.itmo.domain.BookLevel;
+import ru.itmo.domain.LimitOrderResult;
+import ru.itmo.domain.OrderSide;
+import ru.itmo.domain.Stocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Price-time priority limit order book of a single company.
+ * <p>
+ * All operations of one book are serialized by its monitor, books of different companies are independent.
+ * Fully filled and cancelled orders are returned to a free list, so steady-state matching does not allocate
+ * besides the result record.
+ */
+public final class OrderBook {
+    private final String companyName;
+    private final Stocks quote;
+    private final BookSide bids = new BookSide(true);
+    private final BookSide asks = new BookSide(false);
+    private final OrderIndex index = new OrderIndex(1024);
+
+    private Order freeOrders;
+
+    /**
+     * @param quote quote cell of the company, its cost follows the last trade price of the book
+     */
+    public OrderBook(String companyName, Stocks quote) {
+        this.companyName = companyName;
+        this.quote = quote;
+    }
+
+    public synchronized LimitOrderResult place(long orderId, OrderSide side, int price, int count) {
+        final boolean buy = side == OrderSide.BUY;
+        final BookSide opposite = buy ? asks : bids;
+
+        int remaining = count;
+        long filledAmount = 0;
+        int lastPrice = 0;
+
+        while (remaining > 0) {
+            final PriceLevel level = opposite.best();
+
+            if (level == null || !opposite.crosses(level, price)) {
+                break;
+            }
+
+            final Order maker = level.head;
+            final int fill = Math.min(remaining, maker.remaining);
+
+            maker.remaining -= fill;
+            level.totalCount -= fill;
+            remaining -= fill;
+            filledAmount += (long) fill * level.price;
+            lastPrice = level.price;
+
+            if (maker.remaining == 0) {
+                level.unlink(maker);
+                index.remove(maker.id);
+                release(maker);
+
+                if (level.isEmpty()) {
+                    opposite.remove(level);
+                }
+            }
+        }
+
+        if (lastPrice != 0) {
+            quote.setCost(lastPrice);
+        }
+
+        if (remaining > 0) {
+            final Order order = acquire();
+
+            order.id = orderId;
+            order.remaining = remaining;
+            (buy ? bids : asks).getOrCreate(price).append(order);
+            index.put(order);
+        }
+
+        return new LimitOrderResult(orderId, count - remaining, filledAmount, remaining);
+    }
+
+    /**
+     * @return count of stocks left unfilled in the cancelled order, or {@code -1} if the order is not resting
+     */
+    public synchronized int cancel(long orderId) {
+        final Order order = index.remove(orderId);
+
+        if (order == null) {
+            return -1;
+        }
+
+        final PriceLevel level = order.level;
+        final int remaining = order.remaining;
+
+        level.unlink(order);
+
+        if (level.isEmpty()) {
+            level.side.remove(level);
+        }
+
+        release(order);
+
+        return remaining;
+    }
+
+    public synchronized BookDepth depth(int levels) {
+        return new BookDepth(companyName, levels(bids, levels), levels(asks, levels));
+    }
+
+    public synchronized int restingOrders() {
+        return index.size();
+    }
+
+    private static List<BookLevel> levels(BookSide side, int maxLevels) {
+        final int count = Math.min(maxLevels, side.size());
+        final List<BookLevel> result = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final PriceLevel level = side.level(i);
+
+            result.add(new BookLevel(level.price, (int) level.totalCount, level.orders));
+        }
+
+        return result;
+    }
+
+    private Order acquire() {
+        final Order order = freeOrders;
+
+        if (order == null) {
+            return new Order();
+        }
+
+        freeOrders = order.next;
+        order.next = null;
+
+        return order;
+    }
+
+    private void release(Order order) {
+        order.reset();
+        order.next = freeOrders;
+        freeOrders = order;
+    }
+}
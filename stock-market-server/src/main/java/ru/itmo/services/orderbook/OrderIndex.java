@@ -0,0 +1,103 @@
+package ru.itmo.services.orderbook;
+
+/**
+ * Open-addressing map from order id to resting order, used to cancel orders without boxing ids.
+ */
+final class OrderIndex {
+    private long[] ids;
+    private Order[] orders;
+    private int mask;
+    private int size;
+
+    OrderIndex(int expectedSize) {
+        final int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+
+        this.ids = new long[capacity];
+        this.orders = new Order[capacity];
+        this.mask = capacity - 1;
+    }
+
+    void put(Order order) {
+        if ((size + 1) * 2 > orders.length) {
+            resize();
+        }
+
+        int slot = slot(order.id);
+
+        while (orders[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+
+        ids[slot] = order.id;
+        orders[slot] = order;
+        size++;
+    }
+
+    Order remove(long id) {
+        int slot = slot(id);
+
+        while (orders[slot] != null) {
+            if (ids[slot] == id) {
+                final Order order = orders[slot];
+
+                deleteSlot(slot);
+                size--;
+
+                return order;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Backward-shift deletion, keeps probe chains intact without tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while (orders[next] != null) {
+            final int home = slot(ids[next]);
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                ids[hole] = ids[next];
+                orders[hole] = orders[next];
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        ids[hole] = 0;
+        orders[hole] = null;
+    }
+
+    private void resize() {
+        final long[] oldIds = ids;
+        final Order[] oldOrders = orders;
+
+        ids = new long[oldIds.length * 2];
+        orders = new Order[oldOrders.length * 2];
+        mask = orders.length - 1;
+        size = 0;
+
+        for (Order order : oldOrders) {
+            if (order != null) {
+                put(order);
+            }
+        }
+    }
+
+    private int slot(long id) {
+        final long hash = id * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.itmo.services.orderbook;
+
+/**
+ * All resting orders of one side at one price, kept in arrival order.
+ */
+final class PriceLevel {
+    final BookSide side;
+    final int price;
+
+    Order head;
+    Order tail;
+    long totalCount;
+    int orders;
+
+    PriceLevel(BookSide side, int price) {
+        this.side = side;
+        this.price = price;
+    }
+
+    void append(Order order) {
+        order.level = this;
+        order.prev = tail;
+        order.next = null;
+
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+
+        tail = order;
+        totalCount += order.remaining;
+        orders++;
+    }
+
+    void unlink(Order order) {
+        if (order.prev == null) {
+            head = order.next;
+        } else {
+            order.prev.next = order.next;
+        }
+
+        if (order.next == null) {
+            tail = order.prev;
+        } else {
+            order.next.prev = order.prev;
+        }
+
+        totalCount -= order.remaining;
+        orders--;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+}
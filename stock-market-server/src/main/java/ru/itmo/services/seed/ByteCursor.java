@@ -0,0 +1,247 @@
+package ru.itmo.services.seed;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of one line straight from a mapped file, only the company name is ever copied out of it.
+ * Every read returns {@code null} or {@code -1} instead of throwing when the line doesn't have the expected shape.
+ */
+class ByteCursor {
+    private final ByteBuffer buffer;
+    private final int end;
+
+    private int position;
+
+    ByteCursor(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.position = start;
+        this.end = end;
+    }
+
+    boolean atEnd() {
+        skipWhitespace();
+
+        return position == end;
+    }
+
+    /**
+     * Consumes the byte if it's next after optional whitespace.
+     */
+    boolean skip(char expected) {
+        skipWhitespace();
+
+        if (position < end && buffer.get(position) == expected) {
+            position++;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return non-negative decimal integer, {@code -1} if there is none or it doesn't fit an {@code int}
+     */
+    int integer() {
+        skipWhitespace();
+
+        final int start = position;
+        long value = 0;
+
+        while (position < end && isDigit(buffer.get(position))) {
+            value = value * 10 + buffer.get(position++) - '0';
+
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+
+        return position == start ? -1 : (int) value;
+    }
+
+    /**
+     * Reads a CSV field up to the next comma, either bare and trimmed or quoted with doubled quotes inside.
+     *
+     * @return the field, {@code null} if it's empty or its quotes aren't closed
+     */
+    String csvField() {
+        skipWhitespace();
+
+        if (position < end && buffer.get(position) == '"') {
+            final StringBuilder field = new StringBuilder();
+            int run = ++position;
+
+            while (position < end) {
+                if (buffer.get(position) == '"') {
+                    field.append(decode(run, position));
+
+                    if (position + 1 < end && buffer.get(position + 1) == '"') {
+                        field.append('"');
+                        position += 2;
+                        run = position;
+
+                        continue;
+                    }
+
+                    position++;
+
+                    return field.isEmpty() ? null : field.toString();
+                }
+
+                position++;
+            }
+
+            return null;
+        }
+
+        final int start = position;
+
+        while (position < end && buffer.get(position) != ',') {
+            position++;
+        }
+
+        int fieldEnd = position;
+
+        while (fieldEnd > start && isWhitespace(buffer.get(fieldEnd - 1))) {
+            fieldEnd--;
+        }
+
+        return fieldEnd == start ? null : decode(start, fieldEnd);
+    }
+
+    /**
+     * @return the JSON string, {@code null} if there is none or it's malformed
+     */
+    String jsonString() {
+        if (!skip('"')) {
+            return null;
+        }
+
+        final StringBuilder string = new StringBuilder();
+        int run = position;
+
+        while (position < end) {
+            final byte next = buffer.get(position);
+
+            if (next == '"') {
+                string.append(decode(run, position++));
+
+                return string.toString();
+            }
+
+            if (next != '\\') {
+                position++;
+
+                continue;
+            }
+
+            string.append(decode(run, position));
+
+            if (position + 1 >= end) {
+                return null;
+            }
+
+            final byte escaped = buffer.get(position + 1);
+
+            position += 2;
+
+            switch (escaped) {
+                case '"', '\\', '/' -> string.append((char) escaped);
+                case 'b' -> string.append('\b');
+                case 'f' -> string.append('\f');
+                case 'n' -> string.append('\n');
+                case 'r' -> string.append('\r');
+                case 't' -> string.append('\t');
+                case 'u' -> {
+                    final int codeUnit = hex4();
+
+                    if (codeUnit < 0) {
+                        return null;
+                    }
+
+                    string.append((char) codeUnit);
+                }
+                default -> {
+                    return null;
+                }
+            }
+
+            run = position;
+        }
+
+        return null;
+    }
+
+    /**
+     * Skips a JSON string, number, {@code true}, {@code false} or {@code null}.
+     *
+     * @return {@code false} for anything else, nested objects and arrays included
+     */
+    boolean skipJsonScalar() {
+        skipWhitespace();
+
+        if (position >= end) {
+            return false;
+        }
+
+        if (buffer.get(position) == '"') {
+            return jsonString() != null;
+        }
+
+        final int start = position;
+
+        while (position < end && isScalarByte(buffer.get(position))) {
+            position++;
+        }
+
+        return position > start;
+    }
+
+    private int hex4() {
+        if (position + 4 > end) {
+            return -1;
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(buffer.get(position++), 16);
+
+            if (digit < 0) {
+                return -1;
+            }
+
+            value = value << 4 | digit;
+        }
+
+        return value;
+    }
+
+    private String decode(int from, int to) {
+        final byte[] bytes = new byte[to - from];
+
+        buffer.get(from, bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(buffer.get(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isDigit(byte value) {
+        return value >= '0' && value <= '9';
+    }
+
+    private static boolean isWhitespace(byte value) {
+        return value == ' ' || value == '\t' || value == '\r';
+    }
+
+    private static boolean isScalarByte(byte value) {
+        return isDigit(value) || value >= 'a' && value <= 'z' || value == '-' || value == '+' || value == '.'
+                || value == 'E';
+    }
+}
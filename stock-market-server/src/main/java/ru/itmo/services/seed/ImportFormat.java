@@ -0,0 +1,131 @@
+package ru.itmo.services.seed;
+
+import ru.itmo.domain.Listing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Line format of a listing import, one listing per line.
+ */
+public enum ImportFormat {
+    /**
+     * {@code company,count,cost}, the company optionally quoted. The file may start with a header line.
+     */
+    CSV("csv", true) {
+        @Override
+        Listing parse(ByteBuffer buffer, int start, int end) {
+            final ByteCursor cursor = new ByteCursor(buffer, start, end);
+            final String companyName = cursor.csvField();
+
+            if (companyName == null || !cursor.skip(',')) {
+                return null;
+            }
+
+            final int count = cursor.integer();
+
+            if (count < 0 || !cursor.skip(',')) {
+                return null;
+            }
+
+            final int cost = cursor.integer();
+
+            return cost < 0 || !cursor.atEnd() ? null : new Listing(companyName, count, cost);
+        }
+    },
+    /**
+     * A flat JSON object per line with {@code company} or {@code companyName}, {@code count} and {@code cost},
+     * other scalar fields are ignored.
+     */
+    NDJSON("ndjson", false) {
+        @Override
+        Listing parse(ByteBuffer buffer, int start, int end) {
+            final ByteCursor cursor = new ByteCursor(buffer, start, end);
+
+            if (!cursor.skip('{')) {
+                return null;
+            }
+
+            String companyName = null;
+            int count = -1;
+            int cost = -1;
+            boolean first = true;
+
+            while (!cursor.skip('}')) {
+                if (!first && !cursor.skip(',')) {
+                    return null;
+                }
+
+                first = false;
+
+                final String key = cursor.jsonString();
+
+                if (key == null || !cursor.skip(':')) {
+                    return null;
+                }
+
+                switch (key) {
+                    case "company", "companyName" -> companyName = cursor.jsonString();
+                    case "count" -> count = cursor.integer();
+                    case "cost" -> cost = cursor.integer();
+                    default -> {
+                        if (!cursor.skipJsonScalar()) {
+                            return null;
+                        }
+                    }
+                }
+            }
+
+            return companyName == null || companyName.isEmpty() || count < 0 || cost < 0 || !cursor.atEnd()
+                    ? null
+                    : new Listing(companyName, count, cost);
+        }
+    };
+
+    private final String label;
+    private final boolean header;
+
+    ImportFormat(String label, boolean header) {
+        this.label = label;
+        this.header = header;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    /**
+     * @return {@code true} if a first line that isn't a listing is a header rather than an invalid line
+     */
+    boolean allowsHeader() {
+        return header;
+    }
+
+    /**
+     * Parses the line between {@code start} and {@code end}, its line break excluded.
+     *
+     * @return the listing, {@code null} if the line isn't one
+     */
+    abstract Listing parse(ByteBuffer buffer, int start, int end);
+
+    /**
+     * @throws IllegalArgumentException if no format has the label
+     */
+    public static ImportFormat of(String label) {
+        for (ImportFormat format : values()) {
+            if (format.label.equalsIgnoreCase(label)) {
+                return format;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown import format: " + label);
+    }
+
+    /**
+     * @return NDJSON for {@code .ndjson} and {@code .jsonl} files, CSV for anything else
+     */
+    public static ImportFormat ofFileName(String fileName) {
+        final String name = fileName.toLowerCase();
+
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") ? NDJSON : CSV;
+    }
+}
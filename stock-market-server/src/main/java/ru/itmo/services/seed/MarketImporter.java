@@ -0,0 +1,325 @@
+package ru.itmo.services.seed;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmo.domain.ImportResult;
+import ru.itmo.domain.Listing;
+import ru.itmo.services.StockMarketService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Seeds the market with companies, stocks and prices from a CSV or NDJSON file.
+ * <p>
+ * The file is split into chunks at line breaks, one or more per import thread. Every thread maps its chunk, parses
+ * the lines in place and hands the listings to {@link StockMarketService#importListings} in batches, so the whole
+ * file is never on the heap and the journal is waited for once per batch. Listings are applied like any other
+ * change: they are journaled and published to quote subscribers. Lines that aren't listings are counted and
+ * skipped. A company listed on several lines gets the stocks of all of them, which cost it ends up with is
+ * unspecified unless all the lines are in one chunk, where the last one wins.
+ */
+@Component
+public class MarketImporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketImporter.class);
+
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final int LOGGED_INVALID_LINES = 10;
+    private static final int BOUNDARY_SCAN_SIZE = 8192;
+
+    private final StockMarketService stockMarketService;
+    private final String startupFile;
+    private final String startupFormat;
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * @param startupFile   file imported on startup if the market is empty, none if blank
+     * @param startupFormat {@code csv} or {@code ndjson}, if blank taken from the file extension
+     * @param threads       chunks of a file parsed and applied in parallel
+     * @param batchSize     listings applied per journal wait
+     */
+    public MarketImporter(
+            StockMarketService stockMarketService,
+            @Value("${market.import.file:}") String startupFile,
+            @Value("${market.import.format:}") String startupFormat,
+            @Value("${market.import.threads:4}") int threads,
+            @Value("${market.import.batch-size:1024}") int batchSize
+    ) {
+        this.stockMarketService = stockMarketService;
+        this.startupFile = startupFile;
+        this.startupFormat = startupFormat;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports {@code market.import.file} before the server starts serving. A market restored from a snapshot or the
+     * journal is left as it is, so restarts don't import the file on top of its earlier import.
+     */
+    @PostConstruct
+    public void importStartupFile() {
+        if (startupFile.isBlank()) {
+            return;
+        }
+
+        final Path file = Path.of(startupFile);
+
+        if (!stockMarketService.isEmpty()) {
+            LOGGER.info("Market is not empty, skipping import of {}", file);
+
+            return;
+        }
+
+        final ImportFormat format = startupFormat.isBlank()
+                ? ImportFormat.ofFileName(file.getFileName().toString())
+                : ImportFormat.of(startupFormat);
+
+        try {
+            final ImportResult result = importFile(file, format);
+
+            LOGGER.info(
+                    "Imported {} listings from {} in {} ms, skipped {} invalid lines",
+                    result.rows(),
+                    file,
+                    result.elapsedMillis(),
+                    result.invalidRows()
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't import " + file, e);
+        }
+    }
+
+    /**
+     * Spools the stream to a temporary file and imports it, so uploads are parsed the same way as local files.
+     */
+    public ImportResult importStream(InputStream inputStream, ImportFormat format) throws IOException {
+        final Path file = Files.createTempFile("market-import-", "." + format.label());
+
+        try {
+            Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+
+            return importFile(file, format);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public ImportResult importFile(Path file, ImportFormat format) throws IOException {
+        final long startNanos = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final List<Chunk> chunks = split(channel);
+            final ImportRun run = new ImportRun(channel, format);
+
+            if (chunks.size() == 1) {
+                run.importChunk(chunks.get(0));
+            } else {
+                importParallel(run, chunks);
+            }
+
+            return new ImportResult(
+                    run.rows.sum(),
+                    run.invalidRows.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+            );
+        }
+    }
+
+    private void importParallel(ImportRun run, List<Chunk> chunks) throws IOException {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunks.size()), runnable -> {
+            final Thread thread = new Thread(runnable, "market-import-" + threadNumber.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        try {
+            final List<Future<?>> pending = new ArrayList<>(chunks.size());
+
+            for (Chunk chunk : chunks) {
+                pending.add(executor.submit(() -> {
+                    run.importChunk(chunk);
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> chunk : pending) {
+                chunk.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw new IllegalStateException("Import failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while importing", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return chunks of about {@code size / threads} bytes, each ending after a line break or at the end of the file
+     */
+    private List<Chunk> split(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final long chunkSize = Math.min(Math.max(size / Math.max(threads, 1), 1), MAX_CHUNK_SIZE);
+        final List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+
+        do {
+            final long end = start + chunkSize >= size ? size : lineStart(channel, start + chunkSize, size);
+
+            chunks.add(new Chunk(start, end));
+            start = end;
+        } while (start < size);
+
+        return chunks;
+    }
+
+    /**
+     * @return position of the first line that starts at or after {@code position}
+     */
+    private static long lineStart(FileChannel channel, long position, long size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        long scanned = position - 1;
+
+        while (scanned < size) {
+            buffer.clear();
+
+            final int read = channel.read(buffer, scanned);
+
+            if (read <= 0) {
+                break;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return scanned + i + 1;
+                }
+            }
+
+            scanned += read;
+        }
+
+        return size;
+    }
+
+    private static boolean hasByteOrderMark(ByteBuffer buffer) {
+        return buffer.limit() >= 3
+                && buffer.get(0) == (byte) 0xEF
+                && buffer.get(1) == (byte) 0xBB
+                && buffer.get(2) == (byte) 0xBF;
+    }
+
+    private record Chunk(long start, long end) {
+    }
+
+    private final class ImportRun {
+        private final FileChannel channel;
+        private final ImportFormat format;
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder invalidRows = new LongAdder();
+        private final AtomicInteger loggedInvalidRows = new AtomicInteger();
+
+        private ImportRun(FileChannel channel, ImportFormat format) {
+            this.channel = channel;
+            this.format = format;
+        }
+
+        private void importChunk(Chunk chunk) throws IOException {
+            final MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    chunk.start(),
+                    chunk.end() - chunk.start()
+            );
+            final int limit = buffer.limit();
+            final List<Listing> batch = new ArrayList<>(batchSize);
+            boolean firstLine = chunk.start() == 0;
+            int lineStart = firstLine && hasByteOrderMark(buffer) ? 3 : 0;
+
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+
+                final int nextLineStart = lineEnd + 1;
+
+                if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+
+                if (!new ByteCursor(buffer, lineStart, lineEnd).atEnd()) {
+                    final Listing listing = format.parse(buffer, lineStart, lineEnd);
+
+                    if (listing != null) {
+                        batch.add(listing);
+
+                        if (batch.size() == batchSize) {
+                            apply(batch);
+                        }
+                    } else if (!firstLine || !format.allowsHeader()) {
+                        skipInvalid(chunk.start() + lineStart);
+                    }
+
+                    firstLine = false;
+                }
+
+                lineStart = nextLineStart;
+            }
+
+            apply(batch);
+        }
+
+        private void apply(List<Listing> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            stockMarketService.importListings(batch);
+            rows.add(batch.size());
+            batch.clear();
+        }
+
+        private void skipInvalid(long position) {
+            invalidRows.increment();
+
+            if (loggedInvalidRows.getAndIncrement() < LOGGED_INVALID_LINES) {
+                LOGGER.warn("Skipping invalid {} line at byte {}", format.label(), position);
+            }
+        }
+    }
+}
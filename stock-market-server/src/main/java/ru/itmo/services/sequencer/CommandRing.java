@@ -0,0 +1,178 @@
+package ru.itmo.services.sequencer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated multi-producer single-consumer ring of command slots.
+ * <p>
+ * Producers claim a sequence with a single fetch-and-add, fill the slot and publish it by writing the sequence
+ * into the slot. The only consumer reads slots strictly in sequence order, which gives a total order of commands.
+ * <p>
+ * Closing adds a flag to the claim counter, so every sequence claimed before it is still executed and every later
+ * claim is rejected without touching a slot.
+ */
+final class CommandRing {
+    private static final int SPIN_TRIES = 256;
+    private static final long CLOSED = 1L << 62;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+
+    private volatile long consumed;
+    private volatile long closedAt = Long.MAX_VALUE;
+    private volatile boolean stopped;
+    private volatile boolean consumerSleeping;
+    private volatile Thread consumer;
+
+    CommandRing(int size) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two: " + size);
+        }
+
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    void publish(MarketCommand command, int symbolId, Object request, CompletableFuture<Object> result) {
+        final long sequence = claimed.getAndIncrement();
+
+        if (sequence >= CLOSED) {
+            result.completeExceptionally(new RejectedExecutionException("Market sequencer is closed"));
+
+            return;
+        }
+
+        while (sequence - consumed >= slots.length) {
+            if (stopped) {
+                result.completeExceptionally(new RejectedExecutionException("Market sequencer is stopped"));
+
+                return;
+            }
+
+            LockSupport.parkNanos(1_000);
+        }
+
+        final Slot slot = slots[(int) sequence & mask];
+
+        slot.command = command;
+        slot.symbolId = symbolId;
+        slot.request = request;
+        slot.result = result;
+        slot.published = sequence;
+
+        if (stopped) {
+            result.completeExceptionally(new RejectedExecutionException("Market sequencer is stopped"));
+        } else if (consumerSleeping) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Runs the consumer loop on the calling thread until every command claimed before {@link #close()} is executed
+     * or the thread is interrupted.
+     */
+    void consume(MarketCommandHandler handler) {
+        consumer = Thread.currentThread();
+
+        try {
+            long next = consumed;
+
+            while (next < closedAt && !Thread.currentThread().isInterrupted()) {
+                final Slot slot = slots[(int) next & mask];
+
+                if (!await(slot, next)) {
+                    continue;
+                }
+
+                final CompletableFuture<Object> result = slot.result;
+
+                try {
+                    result.complete(handler.handle(slot.command, slot.symbolId, slot.request));
+                } catch (InterruptedException e) {
+                    result.completeExceptionally(e);
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+
+                slot.command = null;
+                slot.request = null;
+                slot.result = null;
+                consumed = ++next;
+            }
+        } finally {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Rejects all later commands, the consumer still executes the ones already claimed and then returns.
+     */
+    synchronized void close() {
+        final long claimedBefore = claimed.getAndAdd(CLOSED);
+
+        if (closedAt == Long.MAX_VALUE) {
+            closedAt = Math.min(claimedBefore, CLOSED);
+        }
+
+        final Thread current = consumer;
+
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Completes the commands the stopped consumer left behind exceptionally, so nobody waits for them forever.
+     */
+    void abandon() {
+        final long end = Math.min(closedAt, claimed.get());
+
+        for (long sequence = consumed; sequence < end; sequence++) {
+            final Slot slot = slots[(int) sequence & mask];
+
+            if (slot.published == sequence) {
+                slot.result.completeExceptionally(
+                        new RejectedExecutionException("Market sequencer stopped before executing the command")
+                );
+            }
+        }
+    }
+
+    private boolean await(Slot slot, long sequence) {
+        for (int i = 0; i < SPIN_TRIES; i++) {
+            if (slot.published == sequence) {
+                return true;
+            }
+
+            Thread.onSpinWait();
+        }
+
+        consumerSleeping = true;
+
+        if (slot.published != sequence && sequence < closedAt) {
+            LockSupport.park(this);
+        }
+
+        consumerSleeping = false;
+
+        return slot.published == sequence;
+    }
+
+    private static final class Slot {
+        private volatile long published = -1;
+
+        private MarketCommand command;
+        private int symbolId;
+        private Object request;
+        private CompletableFuture<Object> result;
+    }
+}
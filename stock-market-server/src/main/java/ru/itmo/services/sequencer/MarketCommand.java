@@ -0,0 +1,8 @@
+package ru.itmo.services.sequencer;
+
+public enum MarketCommand {
+    ADD_STOCKS,
+    SET_COST,
+    BUY_STOCKS,
+    SELL_STOCKS
+}
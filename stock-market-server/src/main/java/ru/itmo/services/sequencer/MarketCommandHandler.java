@@ -0,0 +1,9 @@
+package ru.itmo.services.sequencer;
+
+@FunctionalInterface
+public interface MarketCommandHandler {
+    /**
+     * @param symbolId id the company of the command was resolved to before the command was published
+     */
+    Object handle(MarketCommand command, int symbolId, Object request) throws Exception;
+}
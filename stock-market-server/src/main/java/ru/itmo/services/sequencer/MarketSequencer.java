@@ -0,0 +1,181 @@
+package ru.itmo.services.sequencer;
+
+import ru.itmo.domain.SymbolId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shards companies by symbol id onto a fixed set of single-writer threads, each draining its own
+ * {@link CommandRing}. Ids are dense, so consecutive listings land on consecutive shards.
+ * <p>
+ * All commands of one company are executed by the same thread in publication order, so the handler never
+ * contends with another writer of that company.
+ * <p>
+ * Closing drains the rings: commands published before {@link #close()} are still executed, later ones complete
+ * exceptionally with a {@link java.util.concurrent.RejectedExecutionException}.
+ * <p>
+ * {@link #runPaused} parks every worker between two commands, which is a cut through the command order of all
+ * companies at once.
+ */
+public class MarketSequencer implements AutoCloseable {
+    private static final long DRAIN_TIMEOUT_MILLIS = 5_000;
+    private static final long PAUSE_CHECK_MILLIS = 10;
+
+    private final CommandRing[] rings;
+    private final Thread[] workers;
+
+    /**
+     * @param shards   single-writer threads, at least one
+     * @param ringSize command slots per shard, a power of two
+     */
+    public MarketSequencer(int shards, int ringSize, MarketCommandHandler handler) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Sequencer needs at least one shard: " + shards);
+        }
+
+        this.rings = new CommandRing[shards];
+        this.workers = new Thread[shards];
+
+        for (int i = 0; i < shards; i++) {
+            final CommandRing ring = new CommandRing(ringSize);
+
+            rings[i] = ring;
+            workers[i] = new Thread(
+                    () -> ring.consume((command, symbolId, request) -> request instanceof Pause pause
+                            ? pause.hold()
+                            : handler.handle(command, symbolId, request)),
+                    "market-sequencer-" + i
+            );
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Publishes the command to the shard of the company and waits for its result.
+     *
+     * @throws Exception exception thrown by the handler while executing the command
+     */
+    public Object execute(MarketCommand command, int symbolId, Object request) throws Exception {
+        return await(submit(command, symbolId, request));
+    }
+
+    /**
+     * Publishes the command to the shard of the company without waiting, so a batch of commands can be spread over
+     * all shards before the first result is awaited. The handler gets the id with the command, so it doesn't have to
+     * look the company up again.
+     */
+    public CompletableFuture<Object> submit(MarketCommand command, int symbolId, Object request) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        rings[symbolId % rings.length].publish(command, symbolId, request, result);
+
+        return result;
+    }
+
+    /**
+     * @throws Exception exception thrown by the handler while executing the command
+     */
+    public static Object await(CompletableFuture<Object> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the action once every worker has executed the commands published to it before this call, and keeps the
+     * workers parked until the action returns, so no command of any company runs concurrently with it.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the sequencer is closed
+     */
+    public void runPaused(Runnable action) throws Exception {
+        final Pause pause = new Pause(new CountDownLatch(rings.length), new CountDownLatch(1));
+        final List<CompletableFuture<Object>> pauses = new ArrayList<>(rings.length);
+
+        try {
+            for (CommandRing ring : rings) {
+                final CompletableFuture<Object> result = new CompletableFuture<>();
+
+                pauses.add(result);
+                ring.publish(null, SymbolId.NONE, pause, result);
+            }
+
+            while (!pause.parked().await(PAUSE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                for (CompletableFuture<Object> result : pauses) {
+                    if (result.isCompletedExceptionally()) {
+                        await(result);
+                    }
+                }
+            }
+
+            action.run();
+        } finally {
+            pause.resumed().countDown();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops accepting commands and waits for the workers to execute the ones already published. Workers still busy
+     * after the timeout are interrupted and whatever they didn't execute completes exceptionally.
+     */
+    public void close(long timeout, TimeUnit unit) {
+        for (CommandRing ring : rings) {
+            ring.close();
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean interrupted = false;
+
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join(Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1));
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+
+            if (workers[i].isAlive()) {
+                workers[i].interrupt();
+
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            rings[i].abandon();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Published to every ring by {@link #runPaused}, the worker that reaches it reports being parked and waits.
+     */
+    private record Pause(CountDownLatch parked, CountDownLatch resumed) {
+        Object hold() throws InterruptedException {
+            parked.countDown();
+            resumed.await();
+
+            return null;
+        }
+    }
+}
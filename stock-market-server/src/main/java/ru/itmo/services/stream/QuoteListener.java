@@ -0,0 +1,15 @@
+package ru.itmo.services.stream;
+
+import ru.itmo.domain.Stocks;
+
+/**
+ * Callback invoked by the market after a quote cell of a company has changed.
+ * <p>
+ * It is called on the thread that made the change, so implementations must be cheap and must not block. Writers of
+ * the same company don't call it in the order of their changes, so implementations read the quote from the cell
+ * when they deliver it: the last call is made after the last change and so always sees the final quote.
+ */
+@FunctionalInterface
+public interface QuoteListener {
+    void onQuote(String companyName, Stocks stocks);
+}
@@ -0,0 +1,16 @@
+package ru.itmo.services.stream;
+
+import ru.itmo.domain.QuoteUpdate;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface QuoteSink {
+    void send(QuoteUpdate quoteUpdate) throws IOException;
+
+    /**
+     * Called once, after the quotes every subscription starts with were sent, any later quote is a change.
+     */
+    default void replayed() throws IOException {
+    }
+}
@@ -0,0 +1,110 @@
+package ru.itmo.services.stream;
+
+import ru.itmo.domain.QuoteUpdate;
+import ru.itmo.domain.Stocks;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Conflating delivery of quote changes to one subscriber.
+ * <p>
+ * Changed cells are parked in a map keyed by company and read only when they are delivered, so while the subscriber
+ * is busy every company is sent once, with its latest quote. A single drain task per subscription delivers them on
+ * the shared dispatch executor.
+ */
+public class QuoteSubscription implements QuoteListener {
+    private final Set<String> companyNames;
+    private final QuoteSink quoteSink;
+    private final Executor executor;
+    private final Consumer<QuoteSubscription> onClose;
+    private final ConcurrentHashMap<String, Stocks> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean replayed = new AtomicBoolean();
+
+    /**
+     * @param companyNames companies to deliver, {@code null} for all of them
+     */
+    public QuoteSubscription(
+            Set<String> companyNames,
+            QuoteSink quoteSink,
+            Executor executor,
+            Consumer<QuoteSubscription> onClose
+    ) {
+        this.companyNames = companyNames;
+        this.quoteSink = quoteSink;
+        this.executor = executor;
+        this.onClose = onClose;
+    }
+
+    public boolean isSubscribed(String companyName) {
+        return companyNames == null || companyNames.contains(companyName);
+    }
+
+    @Override
+    public void onQuote(String companyName, Stocks stocks) {
+        if (closed.get() || !isSubscribed(companyName)) {
+            return;
+        }
+
+        pending.put(companyName, stocks);
+        schedule();
+    }
+
+    /**
+     * Tells the sink the current quotes are replayed once every quote queued so far was delivered. A drain pass that
+     * starts after this call visits every company still pending, so its end is the earliest the sink can be told.
+     */
+    public void markReplayed() {
+        if (!closed.get()) {
+            replayed.set(true);
+            schedule();
+        }
+    }
+
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pending.clear();
+            onClose.accept(this);
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        final boolean replayedBefore = replayed.get();
+
+        try {
+            for (String companyName : pending.keySet()) {
+                final Stocks stocks = pending.remove(companyName);
+
+                if (stocks != null && !closed.get()) {
+                    final long state = stocks.get();
+
+                    quoteSink.send(new QuoteUpdate(companyName, Stocks.count(state), Stocks.cost(state)));
+                }
+            }
+
+            if (replayedBefore && replayed.compareAndSet(true, false) && !closed.get()) {
+                quoteSink.replayed();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+        } finally {
+            scheduled.set(false);
+        }
+
+        if ((!pending.isEmpty() || replayed.get()) && !closed.get()) {
+            schedule();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ru.itmo;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,14 +12,32 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BatchOrderResult;
+import ru.itmo.domain.BookDepth;
 import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.CancelOrderRequest;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.ImportResult;
+import ru.itmo.domain.Listing;
+import ru.itmo.domain.LimitOrderRequest;
+import ru.itmo.domain.LimitOrderResult;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.OrderStatus;
+import ru.itmo.domain.OrderSide;
+import ru.itmo.domain.ReleaseRequest;
 import ru.itmo.domain.StocksSnapshot;
 import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.SellStockRequest;
 import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.SymbolId;
 
 import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -56,6 +75,308 @@ public class StockMarketApplicationTests {
         assertEquals(995, stocksSnapshotNewCost.count());
     }
 
+    @Test
+    public void testLimitOrderMatching() throws Exception {
+        final String companyName = "Order Book Company";
+
+        postRaw("/add/company", companyName);
+
+        post("/order/limit", new LimitOrderRequest(companyName, OrderSide.SELL, 100, 5));
+
+        final LimitOrderResult secondAsk = objectMapper.readValue(
+                getPostResult("/order/limit", new LimitOrderRequest(companyName, OrderSide.SELL, 101, 5)),
+                LimitOrderResult.class
+        );
+
+        final LimitOrderResult bid = objectMapper.readValue(
+                getPostResult("/order/limit", new LimitOrderRequest(companyName, OrderSide.BUY, 101, 7)),
+                LimitOrderResult.class
+        );
+
+        assertEquals(7, bid.filledCount());
+        assertEquals(5 * 100 + 2 * 101, bid.filledAmount());
+        assertEquals(0, bid.restingCount());
+
+        post("/order/cancel", new CancelOrderRequest(companyName, secondAsk.orderId()));
+
+        final String bookResult = mockMvc.perform(MockMvcRequestBuilders.get("/book/{company}", companyName))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        final BookDepth bookDepth = objectMapper.readValue(bookResult, BookDepth.class);
+
+        assertEquals(0, bookDepth.bids().size());
+        assertEquals(0, bookDepth.asks().size());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/book/{company}", companyName).param("depth", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testTradingBySymbolId() throws Exception {
+        final String companyName = "Symbol Id Company";
+        final int symbolId = Integer.parseInt(getRawPostResult("/add/company", companyName));
+
+        assertEquals(symbolId, Integer.parseInt(getRawPostResult("/add/company", companyName)));
+
+        post("/add/stocks", new AddStockRequest(null, 100, symbolId));
+        post("/set/cost", new SetCostRequest(null, 10, symbolId));
+
+        final StocksSnapshot bought = objectMapper.readValue(
+                getPostResult("/buy/stocks", new BuyStockRequest(null, 30, 300, symbolId)),
+                StocksSnapshot.class
+        );
+
+        assertEquals(30, bought.count());
+        assertEquals(10, bought.cost());
+
+        final String symbolResult = mockMvc.perform(MockMvcRequestBuilders.get("/symbol/{company}", companyName))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        assertEquals(symbolId, Integer.parseInt(symbolResult));
+        assertEquals(
+                Map.of(companyName, symbolId),
+                objectMapper.readValue(
+                        getPostResult("/symbols", List.of(companyName, "Unknown Symbol Id Company")),
+                        new TypeReference<Map<String, Integer>>() {
+                        }
+                )
+        );
+
+        final String stocksResult = mockMvc.perform(MockMvcRequestBuilders.get("/get/stocks/{symbolId}", symbolId))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        final StocksSnapshot stocksSnapshot = objectMapper.readValue(stocksResult, StocksSnapshot.class);
+
+        assertEquals(70, stocksSnapshot.count());
+        assertEquals(10, stocksSnapshot.cost());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/get/stocks/{symbolId}", symbolId + 1000))
+                .andExpect(status().isNotFound());
+
+        final String otherCompanyName = "Other Symbol Id Company";
+        final int otherSymbolId = Integer.parseInt(getRawPostResult("/add/company", otherCompanyName));
+
+        post("/sell/stocks", new SellStockRequest(companyName, 5, otherSymbolId));
+
+        assertEquals(new StocksSnapshot(75, 10), getStocks(companyName));
+        assertEquals(new StocksSnapshot(0, 0), getStocks(otherCompanyName));
+    }
+
+    @Test
+    public void testBatchOrders() throws Exception {
+        final String companyName = "Batch Company";
+
+        postRaw("/add/company", companyName);
+        post("/add/stocks", new AddStockRequest(companyName, 10));
+        post("/set/cost", new SetCostRequest(companyName, 10));
+
+        final BatchOrderRequest batchOrderRequest = new BatchOrderRequest(
+                List.of(
+                        new BuyStockRequest(companyName, 4, 100),
+                        new BuyStockRequest(companyName, 20, 1000),
+                        new BuyStockRequest(companyName, 5, 10),
+                        new BuyStockRequest("Unknown Company", 1, 100)
+                ),
+                List.of(new SellStockRequest(companyName, 2))
+        );
+        final BatchOrderResult batchOrderResult = objectMapper.readValue(
+                getPostResult("/orders/batch", batchOrderRequest),
+                BatchOrderResult.class
+        );
+
+        assertEquals(
+                List.of(
+                        new OrderResult(OrderStatus.FILLED, 4, 10),
+                        new OrderResult(OrderStatus.NOT_ENOUGH_STOCKS, 0, 0),
+                        new OrderResult(OrderStatus.NOT_ENOUGH_AMOUNT, 0, 0),
+                        new OrderResult(OrderStatus.NOT_FOUND, 0, 0),
+                        new OrderResult(OrderStatus.FILLED, 2, 10)
+                ),
+                batchOrderResult.results()
+        );
+
+        final StocksSnapshot stocksSnapshot = objectMapper.readValue(
+                getRawPostResult("/get/stocks", companyName),
+                StocksSnapshot.class
+        );
+
+        assertEquals(8, stocksSnapshot.count());
+    }
+
+    /**
+     * Unknown companies are left out of the answer rather than failing the batch, an empty batch gets an empty answer.
+     */
+    @Test
+    public void testGetStocksBatch() throws Exception {
+        final String companyName = "Batch Lookup Company";
+        final String otherCompanyName = "Other Batch Lookup Company";
+
+        postRaw("/add/company", companyName);
+        post("/add/stocks", new AddStockRequest(companyName, 10));
+        post("/set/cost", new SetCostRequest(companyName, 3));
+        postRaw("/add/company", otherCompanyName);
+
+        assertEquals(
+                Map.of(companyName, new StocksSnapshot(10, 3), otherCompanyName, new StocksSnapshot(0, 0)),
+                getStocksBatch(List.of(companyName, "Unknown Company", otherCompanyName, companyName))
+        );
+        assertEquals(Map.of(), getStocksBatch(List.of("Unknown Company")));
+        assertEquals(Map.of(), getStocksBatch(List.of()));
+    }
+
+    @Test
+    public void testIdempotentRetries() throws Exception {
+        final String companyName = "Idempotent Company";
+
+        postRaw("/add/company", companyName);
+        post("/add/stocks", new AddStockRequest(companyName, 10));
+        post("/set/cost", new SetCostRequest(companyName, 10));
+
+        final BuyStockRequest buyStockRequest = new BuyStockRequest(
+                companyName, 3, 100, SymbolId.NONE, "buy-key"
+        );
+        final StocksSnapshot bought = objectMapper.readValue(
+                getPostResult("/buy/stocks", buyStockRequest),
+                StocksSnapshot.class
+        );
+        final StocksSnapshot boughtAgain = objectMapper.readValue(
+                getPostResult("/buy/stocks", buyStockRequest),
+                StocksSnapshot.class
+        );
+
+        assertEquals(bought, boughtAgain);
+
+        final SellStockRequest sellStockRequest = new SellStockRequest(companyName, 1, SymbolId.NONE, "sell-key");
+
+        assertEquals("10", getPostResult("/sell/stocks", sellStockRequest));
+        assertEquals("10", getPostResult("/sell/stocks", sellStockRequest));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/sell/stocks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(
+                                new SellStockRequest(companyName, 2, SymbolId.NONE, "sell-key")
+                        )))
+                .andExpect(status().isUnprocessableEntity());
+
+        final StocksSnapshot stocksSnapshot = objectMapper.readValue(
+                getRawPostResult("/get/stocks", companyName),
+                StocksSnapshot.class
+        );
+
+        assertEquals(8, stocksSnapshot.count());
+    }
+
+    @Test
+    public void testImportListings() throws Exception {
+        final String csv = """
+                company,count,cost
+                Imported Company,50,20
+                "Imported, Quoted",7,3
+                not a listing
+                """;
+        final ImportResult csvResult = importListings("csv", csv);
+
+        assertEquals(2, csvResult.rows());
+        assertEquals(1, csvResult.invalidRows());
+        assertEquals(new StocksSnapshot(50, 20), getStocks("Imported Company"));
+        assertEquals(new StocksSnapshot(7, 3), getStocks("Imported, Quoted"));
+
+        final String ndjson = """
+                {"company": "Imported Company", "count": 5, "cost": 25}
+                {"companyName": "Imported Json", "count": 1, "cost": 2, "sector": "tech"}
+                """;
+        final ImportResult ndjsonResult = importListings("ndjson", ndjson);
+
+        assertEquals(2, ndjsonResult.rows());
+        assertEquals(new StocksSnapshot(55, 25), getStocks("Imported Company"));
+        assertEquals(new StocksSnapshot(1, 2), getStocks("Imported Json"));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/import").param("format", "xml").content("<listings/>"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testPartitionHandoff() throws Exception {
+        final String companyName = "Handed Over Company";
+
+        postRaw("/add/company", companyName);
+        post("/add/stocks", new AddStockRequest(companyName, 40));
+        post("/set/cost", new SetCostRequest(companyName, 15));
+
+        final Handoff released = objectMapper.readValue(
+                getPostResult(
+                        "/partition/release",
+                        new ReleaseRequest("handoff", "http://target", List.of(companyName, "Unknown Company"))
+                ),
+                Handoff.class
+        );
+
+        assertEquals(new Handoff("handoff", "http://target", List.of(new Listing(companyName, 40, 15))), released);
+        assertEquals(new StocksSnapshot(0, 15), getStocks(companyName));
+        assertEquals(List.of(released), getPendingHandoffs());
+
+        post("/sell/stocks", new SellStockRequest(companyName, 2));
+        post("/partition/adopt", new Handoff("handoff", "http://target", List.of(new Listing(companyName, 40, 99))));
+        post("/partition/adopt", new Handoff("handoff", "http://target", List.of(new Listing(companyName, 40, 99))));
+        postRaw("/partition/complete", "handoff");
+
+        assertEquals(new StocksSnapshot(42, 15), getStocks(companyName));
+        assertEquals(List.of(), getPendingHandoffs());
+
+        final List<String> companyNames = objectMapper.readValue(
+                mockMvc.perform(MockMvcRequestBuilders.get("/companies"))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse()
+                        .getContentAsString(),
+                new TypeReference<>() {
+                }
+        );
+
+        assertTrue(companyNames.contains(companyName));
+    }
+
+    private ImportResult importListings(String format, String content) throws Exception {
+        final String importResult = mockMvc.perform(MockMvcRequestBuilders.post("/import")
+                        .param("format", format)
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content(content))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        return objectMapper.readValue(importResult, ImportResult.class);
+    }
+
+    private List<Handoff> getPendingHandoffs() throws Exception {
+        return objectMapper.readValue(
+                mockMvc.perform(MockMvcRequestBuilders.get("/partition/pending"))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse()
+                        .getContentAsString(),
+                new TypeReference<>() {
+                }
+        );
+    }
+
+    private Map<String, StocksSnapshot> getStocksBatch(List<String> companyNames) throws Exception {
+        return objectMapper.readValue(getPostResult("/get/stocks/batch", companyNames), new TypeReference<>() {
+        });
+    }
+
+    private StocksSnapshot getStocks(String companyName) throws Exception {
+        return objectMapper.readValue(getRawPostResult("/get/stocks", companyName), StocksSnapshot.class);
+    }
+
     private String getPostResult(String path, Object serializableContent) throws UnsupportedEncodingException {
         return post(path, serializableContent)
                 .andReturn()
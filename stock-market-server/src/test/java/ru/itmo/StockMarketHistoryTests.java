@@ -0,0 +1,119 @@
+package ru.itmo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.Candle;
+import ru.itmo.domain.PriceHistory;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "market.history.enabled=true")
+@AutoConfigureMockMvc
+public class StockMarketHistoryTests {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void testPriceHistory() throws Exception {
+        final String companyName = "History Company";
+
+        postRaw("/add/company", companyName);
+        post("/add/stocks", new AddStockRequest(companyName, 100));
+        post("/set/cost", new SetCostRequest(companyName, 10));
+        post("/buy/stocks", new BuyStockRequest(companyName, 3, 100));
+        post("/set/cost", new SetCostRequest(companyName, 12));
+        post("/sell/stocks", new SellStockRequest(companyName, 2));
+
+        final PriceHistory ticks = getHistory(companyName, "tick");
+
+        assertEquals(
+                List.of(10, 10, 12, 12),
+                ticks.candles().stream().map(Candle::close).toList()
+        );
+        assertEquals(
+                List.of(0L, 3L, 0L, 2L),
+                ticks.candles().stream().map(Candle::volume).toList()
+        );
+
+        final List<Candle> hours = getHistory(companyName, "1h").candles();
+
+        assertEquals(5, hours.stream().mapToLong(Candle::volume).sum());
+        assertEquals(12, hours.get(hours.size() - 1).close());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/history/{company}", companyName).param("resolution", "1d"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/history/{company}", "Unknown Company"))
+                .andExpect(status().isNotFound());
+
+        postRaw("/add/company", "Quiet Company");
+        mockMvc.perform(MockMvcRequestBuilders.get("/history/{company}", "Quiet Company"))
+                .andExpect(status().isNotFound());
+        assertEquals(List.of(), getHistory(companyName, "tick", 0, 1).candles());
+    }
+
+    private PriceHistory getHistory(String companyName, String resolution) throws Exception {
+        return getHistory(companyName, resolution, 0, Long.MAX_VALUE);
+    }
+
+    private PriceHistory getHistory(String companyName, String resolution, long from, long to) throws Exception {
+        final String historyResult = mockMvc.perform(MockMvcRequestBuilders.get("/history/{company}", companyName)
+                        .param("resolution", resolution)
+                        .param("from", String.valueOf(from))
+                        .param("to", String.valueOf(to)))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        return objectMapper.readValue(historyResult, PriceHistory.class);
+    }
+
+    private ResultActions post(String path, Object serializableContent) {
+        try {
+            final RequestBuilder requestBuilder = MockMvcRequestBuilders.post(path)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(serializableContent));
+
+            return mockMvc.perform(requestBuilder)
+                    .andExpect(status().isOk());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("unlucky", e);
+        } catch (Exception e) {
+            throw new RuntimeException("mega unlucky", e);
+        }
+    }
+
+    private ResultActions postRaw(String path, String content) {
+        try {
+            final RequestBuilder requestBuilder = MockMvcRequestBuilders.post(path)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(content);
+
+            return mockMvc.perform(requestBuilder)
+                    .andExpect(status().isOk());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("unlucky", e);
+        } catch (Exception e) {
+            throw new RuntimeException("mega unlucky", e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ru.itmo.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.QuoteUpdate;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.services.idempotency.IdempotencyCache;
+import ru.itmo.services.metrics.MarketMetrics;
+import ru.itmo.services.stream.QuoteSink;
+import ru.itmo.services.stream.QuoteSubscription;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuoteStreamServiceTest {
+    private static final List<String> COMPANIES = List.of("alpha", "beta", "gamma");
+    private static final int WRITERS = 8;
+    private static final int ROUNDS = 5_000;
+
+    private StockMarketService stockMarketService;
+    private QuoteStreamService quoteStreamService;
+
+    @AfterEach
+    public void tearDown() {
+        if (quoteStreamService != null) {
+            quoteStreamService.shutdown();
+        }
+
+        if (stockMarketService != null) {
+            stockMarketService.shutdown();
+        }
+    }
+
+    @Test
+    public void testLastStreamedQuoteIsFinalCellStateInDirectMode() throws Exception {
+        stockMarketService = new StockMarketService();
+
+        assertLastStreamedQuoteIsFinalCellState();
+    }
+
+    @Test
+    public void testLastStreamedQuoteIsFinalCellStateInSequencerMode() throws Exception {
+        stockMarketService = new StockMarketService(
+                "sequencer",
+                2,
+                1024,
+                Optional.empty(),
+                Optional.empty(),
+                new MarketMetrics(0, 0),
+                new IdempotencyCache(1000, 60),
+                Optional.empty()
+        );
+
+        assertLastStreamedQuoteIsFinalCellState();
+    }
+
+    /**
+     * The replay is marked while the market keeps changing, so current quotes and changes race through the same
+     * conflating queue. Every listed company still has to be sent before the mark.
+     */
+    @Test
+    public void testMarksReplayAfterCurrentQuoteOfEveryCompany() throws Exception {
+        stockMarketService = new StockMarketService();
+        quoteStreamService = new QuoteStreamService(stockMarketService, 2);
+
+        for (int i = 0; i < 2_000; i++) {
+            stockMarketService.addCompany("company-" + i);
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<?> writer = executor.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                for (int i = 0; i < 100_000; i++) {
+                    stockMarketService.addStocks(new AddStockRequest("company-" + random.nextInt(2_000), 1));
+                }
+
+                return null;
+            });
+
+            for (int subscriber = 0; subscriber < 20; subscriber++) {
+                final Set<String> sent = new HashSet<>();
+                final CountDownLatch replayed = new CountDownLatch(1);
+                final QuoteSubscription subscription = quoteStreamService.subscribe(null, new QuoteSink() {
+                    @Override
+                    public synchronized void send(QuoteUpdate quoteUpdate) {
+                        sent.add(quoteUpdate.companyName());
+                    }
+
+                    @Override
+                    public synchronized void replayed() {
+                        assertEquals(2_000, sent.size());
+                        replayed.countDown();
+                    }
+                });
+
+                assertTrue(replayed.await(10, TimeUnit.SECONDS));
+                subscription.close();
+            }
+
+            writer.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Every round all writers change the same company at once, so the last two changes often race between their
+     * compare-and-set and their publication. A subscriber that kept the state of the last publication would then
+     * keep a stale quote, as nothing changes the company after the round.
+     */
+    private void assertLastStreamedQuoteIsFinalCellState() throws Exception {
+        quoteStreamService = new QuoteStreamService(stockMarketService, 2);
+
+        for (String companyName : COMPANIES) {
+            stockMarketService.addCompany(companyName);
+            stockMarketService.addStocks(new AddStockRequest(companyName, 1_000_000));
+            stockMarketService.setCost(new SetCostRequest(companyName, 10));
+        }
+
+        final ConcurrentHashMap<String, QuoteUpdate> streamed = new ConcurrentHashMap<>();
+        final QuoteSubscription subscription = quoteStreamService.subscribe(
+                null,
+                quoteUpdate -> streamed.put(quoteUpdate.companyName(), quoteUpdate)
+        );
+        final CyclicBarrier roundStart = new CyclicBarrier(WRITERS + 1);
+        final CyclicBarrier roundEnd = new CyclicBarrier(WRITERS + 1);
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+
+            for (int i = 0; i < WRITERS; i++) {
+                writers.add(executor.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                    for (int round = 0; round < ROUNDS; round++) {
+                        final String companyName = COMPANIES.get(round % COMPANIES.size());
+
+                        roundStart.await();
+
+                        switch (random.nextInt(4)) {
+                            case 0 -> stockMarketService.buyStocks(
+                                    new BuyStockRequest(companyName, random.nextInt(1, 5), Integer.MAX_VALUE)
+                            );
+                            case 1 -> stockMarketService.sellStocks(
+                                    new SellStockRequest(companyName, random.nextInt(1, 5))
+                            );
+                            case 2 -> stockMarketService.setCost(
+                                    new SetCostRequest(companyName, random.nextInt(1, 100))
+                            );
+                            default -> stockMarketService.addStocks(
+                                    new AddStockRequest(companyName, random.nextInt(1, 5))
+                            );
+                        }
+
+                        roundEnd.await();
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (int round = 0; round < ROUNDS; round++) {
+                roundStart.await(10, TimeUnit.SECONDS);
+                roundEnd.await(10, TimeUnit.SECONDS);
+                awaitStreamed(streamed, COMPANIES.get(round % COMPANIES.size()));
+            }
+
+            for (Future<?> writer : writers) {
+                writer.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        subscription.close();
+    }
+
+    private void awaitStreamed(Map<String, QuoteUpdate> streamed, String companyName) throws Exception {
+        final StocksSnapshot finalState = stockMarketService.getStocks(companyName).snapshot();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        QuoteUpdate last = streamed.get(companyName);
+
+        while (!finalState.equals(snapshot(last)) && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+            last = streamed.get(companyName);
+        }
+
+        assertEquals(finalState, snapshot(last), companyName);
+    }
+
+    private static StocksSnapshot snapshot(QuoteUpdate quoteUpdate) {
+        return quoteUpdate == null ? null : new StocksSnapshot(quoteUpdate.count(), quoteUpdate.cost());
+    }
+}
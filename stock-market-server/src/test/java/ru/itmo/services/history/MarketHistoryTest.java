@@ -0,0 +1,189 @@
+package ru.itmo.services.history;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.Candle;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.services.StockMarketService;
+import ru.itmo.services.idempotency.IdempotencyCache;
+import ru.itmo.services.metrics.MarketMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarketHistoryTest {
+    private static final String COMPANY_NAME = "company";
+    private static final int TRADERS = 4;
+    private static final int TRADES = 20_000;
+
+    @Test
+    public void testDropsEventsOfNewCompaniesWhileHistoriesAreActive() {
+        final MarketHistory history = new MarketHistory(16, 4, 2, 1_000);
+
+        for (int i = 0; i < 4; i++) {
+            history.record("company-" + i, 10 + i, 1, 100);
+        }
+
+        history.record("company-0", 20, 0, 1_099);
+        history.record("company-3", 30, 0, 1_099);
+
+        assertEquals(2, ticks(history, "company-0").size());
+        assertEquals(1, ticks(history, "company-1").size());
+        assertNull(ticks(history, "company-2"));
+        assertNull(ticks(history, "company-3"));
+        assertEquals(3, history.droppedEvents());
+    }
+
+    /**
+     * Once idle for long enough, the least recently active company gives its history up to a new one.
+     */
+    @Test
+    public void testGivesHistoryOfIdleCompanyToNewOne() {
+        final MarketHistory history = new MarketHistory(16, 4, 2, 1_000);
+
+        history.record("company-0", 10, 1, 100);
+        history.record("company-1", 11, 1, 200);
+        history.record("company-0", 12, 1, 300);
+        history.record("company-2", 13, 1, 1_199);
+
+        assertNull(ticks(history, "company-2"));
+
+        history.record("company-2", 14, 1, 1_200);
+
+        assertEquals(2, ticks(history, "company-0").size());
+        assertNull(ticks(history, "company-1"));
+        assertEquals(List.of(14), ticks(history, "company-2").stream().map(Candle::close).toList());
+        assertEquals(1, history.droppedEvents());
+    }
+
+    /**
+     * A trade holds its tick back while a cost change comes in, the change has to wait for the tick to be recorded.
+     */
+    @Test
+    public void testCostChangeWaitsForTradeInFlight() throws Exception {
+        final MarketHistory history = new MarketHistory(16, 4, 1, 60_000);
+        final CountDownLatch traded = new CountDownLatch(1);
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            final Future<?> trade = executor.submit(() -> history.trade(COMPANY_NAME, () -> {
+                traded.countDown();
+                released.join();
+                history.record(COMPANY_NAME, 10, 1);
+
+                return null;
+            }));
+
+            traded.await();
+
+            final Future<?> costChange = executor.submit(
+                    () -> history.changeCost(COMPANY_NAME, () -> history.record(COMPANY_NAME, 20, 0))
+            );
+
+            Thread.sleep(100);
+            released.complete(null);
+            trade.get(10, TimeUnit.SECONDS);
+            costChange.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(
+                List.of(List.of(10L, 1L), List.of(20L, 0L)),
+                ticks(history, COMPANY_NAME).stream().map(tick -> List.of((long) tick.close(), tick.volume())).toList()
+        );
+    }
+
+    /**
+     * Traders buy and sell while the cost keeps changing, none of them locking the cell. Every trade has to be recorded
+     * at the cost of the price change recorded last before it, as the cell had that cost when the trade went through.
+     */
+    @Test
+    public void testRecordsTradesInOrderOfCostChanges() throws Exception {
+        final MarketHistory history = new MarketHistory(4 * TRADERS * TRADES, 4, 1, 60_000);
+        final StockMarketService stockMarketService = new StockMarketService(
+                "direct",
+                1,
+                16,
+                Optional.empty(),
+                Optional.empty(),
+                new MarketMetrics(0, 0),
+                new IdempotencyCache(1000, 60),
+                Optional.of(history)
+        );
+        final AtomicBoolean trading = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(TRADERS + 1);
+
+        stockMarketService.addCompany(COMPANY_NAME);
+        stockMarketService.addStocks(new AddStockRequest(COMPANY_NAME, TRADERS * TRADES));
+        stockMarketService.setCost(new SetCostRequest(COMPANY_NAME, 1));
+
+        try {
+            final Future<?> costs = executor.submit(() -> {
+                int cost = 1;
+
+                while (trading.get()) {
+                    stockMarketService.setCost(new SetCostRequest(COMPANY_NAME, ++cost));
+                }
+
+                return null;
+            });
+            final List<Future<?>> traders = new ArrayList<>();
+
+            for (int i = 0; i < TRADERS; i++) {
+                traders.add(executor.submit(() -> {
+                    for (int j = 0; j < TRADES; j++) {
+                        if (j % 2 == 0) {
+                            stockMarketService.buyStocks(new BuyStockRequest(COMPANY_NAME, 1, Integer.MAX_VALUE));
+                        } else {
+                            stockMarketService.sellStocks(new SellStockRequest(COMPANY_NAME, 1));
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> trader : traders) {
+                trader.get(30, TimeUnit.SECONDS);
+            }
+
+            trading.set(false);
+            costs.get(10, TimeUnit.SECONDS);
+        } finally {
+            trading.set(false);
+            executor.shutdownNow();
+            stockMarketService.shutdown();
+        }
+
+        final List<Candle> ticks = ticks(history, COMPANY_NAME);
+        int cost = 0;
+
+        assertTrue(ticks.size() > TRADERS * TRADES, "Ticks: " + ticks.size());
+
+        for (Candle tick : ticks) {
+            if (tick.volume() == 0) {
+                cost = tick.close();
+            } else {
+                assertEquals(cost, tick.close(), "Trade at " + tick.start());
+            }
+        }
+    }
+
+    private static List<Candle> ticks(MarketHistory history, String companyName) {
+        return history.query(companyName, Resolution.TICK, 0, Long.MAX_VALUE);
+    }
+}
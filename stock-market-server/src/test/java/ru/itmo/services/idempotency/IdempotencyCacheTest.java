@@ -0,0 +1,184 @@
+package ru.itmo.services.idempotency;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BatchOrderRequest;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.OrderResult;
+import ru.itmo.domain.OrderStatus;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.services.StockMarketService;
+import ru.itmo.services.exceptions.IdempotencyKeyReusedException;
+import ru.itmo.services.metrics.MarketMetrics;
+import ru.itmo.services.sequencer.MarketCommand;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotencyCacheTest {
+    @Test
+    public void testExecutesCopiesOfRequestOnce() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(1000, 60);
+        final AtomicInteger executions = new AtomicInteger();
+        final SellStockRequest request = new SellStockRequest("company", 5, 0, "key");
+
+        assertEquals(1, cache.execute(MarketCommand.SELL_STOCKS, "key", request, executions::incrementAndGet));
+        assertEquals(
+                1,
+                cache.execute(
+                        MarketCommand.SELL_STOCKS,
+                        "key",
+                        new SellStockRequest("company", 5, 0, "key"),
+                        executions::incrementAndGet
+                )
+        );
+        assertEquals(2, cache.execute(MarketCommand.BUY_STOCKS, "key", request, executions::incrementAndGet));
+        assertEquals(1, cache.replays());
+    }
+
+    @Test
+    public void testRejectsKeyReusedByDifferentRequest() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(1000, 60);
+        final AtomicInteger executions = new AtomicInteger();
+
+        cache.execute(
+                MarketCommand.SELL_STOCKS,
+                "key",
+                new SellStockRequest("company", 5, 0, "key"),
+                executions::incrementAndGet
+        );
+
+        assertThrows(IdempotencyKeyReusedException.class, () -> cache.execute(
+                MarketCommand.SELL_STOCKS,
+                "key",
+                new SellStockRequest("company", 6, 0, "key"),
+                executions::incrementAndGet
+        ));
+        assertThrows(IdempotencyKeyReusedException.class, () -> cache.execute(
+                MarketCommand.SELL_STOCKS,
+                "key",
+                new SellStockRequest("other", 5, 0, "key"),
+                executions::incrementAndGet
+        ));
+        assertEquals(1, executions.get());
+        assertEquals(0, cache.replays());
+    }
+
+    @Test
+    public void testSubmittedCopiesGetOutcomeOfFirst() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(1000, 60);
+        final AtomicInteger executions = new AtomicInteger();
+        final CompletableFuture<Object> execution = new CompletableFuture<>();
+        final SellStockRequest request = new SellStockRequest("company", 5, 0, "key");
+
+        final CompletableFuture<Object> first = cache.submit(MarketCommand.SELL_STOCKS, "key", request, () -> {
+            executions.incrementAndGet();
+
+            return execution;
+        });
+        final CompletableFuture<Object> copy = cache.submit(MarketCommand.SELL_STOCKS, "key", request, () -> {
+            executions.incrementAndGet();
+
+            return CompletableFuture.completedFuture(2);
+        });
+
+        execution.complete(1);
+
+        assertEquals(1, first.get());
+        assertEquals(1, copy.get());
+        assertEquals(1, cache.execute(MarketCommand.SELL_STOCKS, "key", request, executions::incrementAndGet));
+        assertEquals(1, executions.get());
+        assertEquals(2, cache.replays());
+        assertThrows(IdempotencyKeyReusedException.class, () -> cache.submit(
+                MarketCommand.SELL_STOCKS,
+                "key",
+                new SellStockRequest("company", 6, 0, "key"),
+                () -> CompletableFuture.completedFuture(3)
+        ));
+    }
+
+    @Test
+    public void testMarketExecutesBatchedOrderOnce() throws Exception {
+        assertBatchedOrderExecutedOnce(new StockMarketService());
+    }
+
+    @Test
+    public void testSequencedMarketExecutesBatchedOrderOnce() throws Exception {
+        assertBatchedOrderExecutedOnce(new StockMarketService(
+                "sequencer",
+                2,
+                1024,
+                Optional.empty(),
+                Optional.empty(),
+                new MarketMetrics(0, 0),
+                new IdempotencyCache(1000, 60),
+                Optional.empty()
+        ));
+    }
+
+    @Test
+    public void testMarketRejectsOrderReusingKey() throws Exception {
+        final StockMarketService stockMarketService = new StockMarketService();
+
+        try {
+            stockMarketService.addCompany("company");
+            stockMarketService.addStocks(new AddStockRequest("company", 100));
+            stockMarketService.setCost(new SetCostRequest("company", 10));
+
+            final OrderResult filled = stockMarketService.buyStocks(
+                    new BuyStockRequest("company", 10, 1000, 0, "key")
+            );
+
+            assertEquals(filled, stockMarketService.buyStocks(new BuyStockRequest("company", 10, 1000, 0, "key")));
+            assertEquals(
+                    OrderStatus.IDEMPOTENCY_KEY_REUSED,
+                    stockMarketService.buyStocks(new BuyStockRequest("company", 50, 1000, 0, "key")).status()
+            );
+            assertEquals(new StocksSnapshot(90, 10), stockMarketService.getStocks("company").snapshot());
+        } finally {
+            stockMarketService.shutdown();
+        }
+    }
+
+    /**
+     * Copies of a keyed buy and sell, in batches and on their own, are executed once, and a batched order reusing
+     * a key of another order is rejected.
+     */
+    private static void assertBatchedOrderExecutedOnce(StockMarketService stockMarketService) throws Exception {
+        try {
+            stockMarketService.addCompany("company");
+            stockMarketService.addStocks(new AddStockRequest("company", 100));
+            stockMarketService.setCost(new SetCostRequest("company", 10));
+
+            final BuyStockRequest buy = new BuyStockRequest("company", 10, 1000, 0, "buy");
+            final SellStockRequest sell = new SellStockRequest("company", 3, 0, "sell");
+            final BatchOrderRequest batch = new BatchOrderRequest(List.of(buy, buy), List.of(sell));
+            final List<OrderResult> results = stockMarketService.executeOrders(batch);
+
+            assertEquals(
+                    List.of(OrderResult.filled(10, 10), OrderResult.filled(10, 10), OrderResult.filled(3, 10)),
+                    results
+            );
+            assertEquals(results, stockMarketService.executeOrders(batch));
+            assertEquals(results.get(0), stockMarketService.buyStocks(buy));
+            assertEquals(results.get(2), stockMarketService.sellStocks(sell));
+            assertEquals(
+                    List.of(OrderResult.rejected(OrderStatus.IDEMPOTENCY_KEY_REUSED)),
+                    stockMarketService.executeOrders(new BatchOrderRequest(
+                            List.of(new BuyStockRequest("company", 20, 1000, 0, "buy")),
+                            List.of()
+                    ))
+            );
+            assertEquals(new StocksSnapshot(93, 10), stockMarketService.getStocks("company").snapshot());
+        } finally {
+            stockMarketService.shutdown();
+        }
+    }
+}
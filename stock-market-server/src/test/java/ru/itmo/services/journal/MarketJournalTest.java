@@ -0,0 +1,249 @@
+package ru.itmo.services.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.config.JournalConfiguration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarketJournalTest {
+    private static final int SEGMENT_SIZE = 8192;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReplaysEveryEntryAfterRestart() {
+        final List<Entry> appended = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+
+        try (MarketJournal journal = open()) {
+            assertEquals(List.of(), replay(journal, 0));
+
+            for (int i = 0; i < 1_000; i++) {
+                final Entry entry = new Entry(JournalEntryType.values()[i % 5], "company-" + i % 7, i - 500);
+
+                appended.add(entry);
+                positions.add(journal.append(entry.type(), entry.companyName(), entry.value()));
+            }
+        }
+
+        assertTrue(positions.get(positions.size() - 1) > 2L * SEGMENT_SIZE);
+
+        try (MarketJournal journal = open()) {
+            assertEquals(appended, replay(journal, 0));
+            assertEquals(positions.get(positions.size() - 1), journal.appendedPosition());
+
+            appended.add(new Entry(JournalEntryType.SET_COST, "after-restart", 42));
+            positions.add(journal.append(JournalEntryType.SET_COST, "after-restart", 42));
+        }
+
+        try (MarketJournal journal = open()) {
+            assertEquals(appended, replay(journal, 0));
+        }
+
+        for (int i : new int[]{0, 1, 400, 999}) {
+            try (MarketJournal journal = open()) {
+                assertEquals(appended.subList(i + 1, appended.size()), replay(journal, positions.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatesEntryWithBrokenChecksum() throws IOException {
+        final long[] positions = new long[3];
+
+        try (MarketJournal journal = open()) {
+            replay(journal, 0);
+            positions[0] = journal.append(JournalEntryType.ADD_COMPANY, "company", 1);
+            positions[1] = journal.append(JournalEntryType.ADD_STOCKS, "company", 10);
+            positions[2] = journal.append(JournalEntryType.SET_COST, "company", 5);
+        }
+
+        write(positions[1] + HEADER_SIZE + 1, new byte[]{7});
+
+        try (MarketJournal journal = open()) {
+            assertEquals(
+                    List.of(
+                            new Entry(JournalEntryType.ADD_COMPANY, "company", 1),
+                            new Entry(JournalEntryType.ADD_STOCKS, "company", 10)
+                    ),
+                    replay(journal, 0)
+            );
+            assertEquals(positions[1], journal.appendedPosition());
+            journal.append(JournalEntryType.BUY_STOCKS, "company", 3);
+        }
+
+        try (MarketJournal journal = open()) {
+            assertEquals(
+                    List.of(
+                            new Entry(JournalEntryType.ADD_COMPANY, "company", 1),
+                            new Entry(JournalEntryType.ADD_STOCKS, "company", 10),
+                            new Entry(JournalEntryType.BUY_STOCKS, "company", 3)
+                    ),
+                    replay(journal, 0)
+            );
+        }
+    }
+
+    /**
+     * An intact entry is left behind the torn one, right where the entries appended after the restart end, so it
+     * would be replayed if the tail weren't zeroed.
+     */
+    @Test
+    public void testTruncatesTornTail() throws IOException {
+        final long listed;
+        final long position;
+
+        try (MarketJournal journal = open()) {
+            replay(journal, 0);
+            listed = journal.append(JournalEntryType.ADD_COMPANY, "company", 1);
+            position = journal.append(JournalEntryType.ADD_STOCKS, "company", 10);
+        }
+
+        final byte[] stale = read(listed, (int) (position - listed));
+
+        write(position, ByteBuffer.allocate(HEADER_SIZE + 3).putInt(40).putInt(0x1234).put((byte) 2).array());
+        write(position + 2L * stale.length, stale);
+
+        try (MarketJournal journal = open()) {
+            assertEquals(2, replay(journal, 0).size());
+            assertEquals(position, journal.appendedPosition());
+        }
+
+        write(position, ByteBuffer.allocate(Integer.BYTES).putInt(SEGMENT_SIZE).array());
+
+        try (MarketJournal journal = open()) {
+            assertEquals(2, replay(journal, 0).size());
+            journal.append(JournalEntryType.SELL_STOCKS, "company", 4);
+            journal.append(JournalEntryType.SELL_STOCKS, "company", 5);
+        }
+
+        try (MarketJournal journal = open()) {
+            assertEquals(
+                    List.of(
+                            new Entry(JournalEntryType.ADD_COMPANY, "company", 1),
+                            new Entry(JournalEntryType.ADD_STOCKS, "company", 10),
+                            new Entry(JournalEntryType.SELL_STOCKS, "company", 4),
+                            new Entry(JournalEntryType.SELL_STOCKS, "company", 5)
+                    ),
+                    replay(journal, 0)
+            );
+        }
+    }
+
+    /**
+     * A directory in place of the next segment makes rolling fail, the journal has to stay where it was and roll
+     * into that same segment once it can be created.
+     */
+    @Test
+    public void testFailedRollLeavesJournalInPlace() throws IOException {
+        final Path blocker = directory.resolve("journal-00000001.log");
+        final List<Entry> appended = new ArrayList<>();
+        final String companyName = "c".repeat(1000);
+
+        try (MarketJournal journal = open()) {
+            replay(journal, 0);
+
+            while (journal.appendedPosition() + 2 * (HEADER_SIZE + 5 + companyName.length()) <= SEGMENT_SIZE) {
+                appended.add(new Entry(JournalEntryType.ADD_STOCKS, companyName, appended.size()));
+                journal.append(JournalEntryType.ADD_STOCKS, companyName, appended.size() - 1);
+            }
+
+            final long position = journal.appendedPosition();
+
+            appended.add(new Entry(JournalEntryType.ADD_STOCKS, companyName, appended.size()));
+            journal.append(JournalEntryType.ADD_STOCKS, companyName, appended.size() - 1);
+            Files.createDirectory(blocker);
+
+            assertThrows(
+                    UncheckedIOException.class,
+                    () -> journal.append(JournalEntryType.ADD_STOCKS, companyName, -1)
+            );
+            assertThrows(
+                    UncheckedIOException.class,
+                    () -> journal.append(JournalEntryType.ADD_STOCKS, companyName, -1)
+            );
+            assertTrue(journal.appendedPosition() > position && journal.appendedPosition() < SEGMENT_SIZE);
+
+            Files.delete(blocker);
+            appended.add(new Entry(JournalEntryType.SET_COST, companyName, 7));
+
+            assertEquals(
+                    SEGMENT_SIZE + HEADER_SIZE + 5 + companyName.length(),
+                    journal.append(JournalEntryType.SET_COST, companyName, 7)
+            );
+        }
+
+        assertTrue(Files.notExists(directory.resolve("journal-00000002.log")));
+
+        try (MarketJournal journal = open()) {
+            assertEquals(appended, replay(journal, 0));
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidSegmentSize() {
+        final JournalConfiguration configuration = new JournalConfiguration();
+        final String path = directory.toString();
+
+        assertThrows(IllegalArgumentException.class, () -> configuration.marketJournal(path, 0, "sync", 200, 10));
+        assertThrows(IllegalArgumentException.class, () -> configuration.marketJournal(path, -1, "sync", 200, 10));
+        assertThrows(IllegalArgumentException.class, () -> configuration.marketJournal(path, 2048, "sync", 200, 10));
+        assertThrows(IllegalArgumentException.class, () -> configuration.marketJournal(path, 4096, "sync", 200, 10));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new MarketJournal(directory, 1024, Durability.SYNC, 200, 10)
+        );
+    }
+
+    private MarketJournal open() {
+        return new MarketJournal(directory, SEGMENT_SIZE, Durability.ASYNC, 200, 1);
+    }
+
+    private static List<Entry> replay(MarketJournal journal, long fromPosition) {
+        final List<Entry> entries = new ArrayList<>();
+
+        journal.replay(fromPosition, (type, companyName, value) -> entries.add(new Entry(type, companyName, value)));
+
+        return entries;
+    }
+
+    /**
+     * Overwrites bytes of the journal as a crash in the middle of a write would leave them.
+     */
+    private void write(long position, byte[] bytes) throws IOException {
+        final Path segment = directory.resolve(String.format("journal-%08d.log", position / SEGMENT_SIZE));
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position % SEGMENT_SIZE);
+        }
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        final Path segment = directory.resolve(String.format("journal-%08d.log", position / SEGMENT_SIZE));
+        final ByteBuffer bytes = ByteBuffer.allocate(length);
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            channel.read(bytes, position % SEGMENT_SIZE);
+        }
+
+        return bytes.array();
+    }
+
+    private record Entry(JournalEntryType type, String companyName, int value) {
+    }
+}
@@ -0,0 +1,268 @@
+package ru.itmo.services.journal;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.BuyStockRequest;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.Listing;
+import ru.itmo.domain.ReleaseRequest;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.services.StockMarketService;
+import ru.itmo.services.idempotency.IdempotencyCache;
+import ru.itmo.services.metrics.MarketMetrics;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarketSnapshotterTest {
+    private static final int SEGMENT_SIZE = 8192;
+    private static final int WRITERS = 4;
+    private static final int SNAPSHOTS = 50;
+
+    @TempDir
+    Path directory;
+
+    private MarketJournal journal;
+    private MarketSnapshotter snapshotter;
+    private StockMarketService stockMarketService;
+
+    @AfterEach
+    public void tearDown() {
+        stop();
+    }
+
+    @Test
+    public void testRestoresSnapshotAndJournalSuffix() throws Exception {
+        start();
+
+        for (int i = 0; i < 20; i++) {
+            stockMarketService.addCompany("company-" + i);
+            stockMarketService.addStocks(new AddStockRequest("company-" + i, 1_000));
+            stockMarketService.setCost(new SetCostRequest("company-" + i, 10 + i));
+        }
+
+        final long firstPosition = snapshotter.snapshot();
+
+        assertEquals(journal.appendedPosition(), firstPosition);
+        assertEquals(firstPosition, snapshotter.snapshot());
+
+        stockMarketService.buyStocks(new BuyStockRequest("company-0", 100, Integer.MAX_VALUE));
+        stockMarketService.sellStocks(new SellStockRequest("company-1", 5));
+        stockMarketService.addCompany("listed-after-snapshot");
+        stockMarketService.addStocks(new AddStockRequest("listed-after-snapshot", 7));
+
+        final Map<String, StocksSnapshot> expected = state();
+
+        stop();
+        start();
+
+        assertEquals(expected, state());
+        assertEquals(
+                stockMarketService.getSymbolId("listed-after-snapshot"),
+                stockMarketService.getSymbolId("company-19") + 1
+        );
+    }
+
+    /**
+     * Released stocks are pending until their handoff is completed and adopted handoffs stay adopted, whether the
+     * restart restores them from the journal or from a snapshot.
+     */
+    @Test
+    public void testRestoresPendingAndAdoptedHandoffs() throws Exception {
+        start();
+
+        stockMarketService.addCompany("first");
+        stockMarketService.addStocks(new AddStockRequest("first", 100));
+        stockMarketService.setCost(new SetCostRequest("first", 10));
+        stockMarketService.addCompany("second");
+        stockMarketService.addStocks(new AddStockRequest("second", 50));
+        stockMarketService.setCost(new SetCostRequest("second", 20));
+
+        final Handoff first = stockMarketService.releaseListings(
+                new ReleaseRequest("first-handoff", "http://target", List.of("first"))
+        );
+
+        snapshotter.snapshot();
+
+        final Handoff second = stockMarketService.releaseListings(
+                new ReleaseRequest("second-handoff", "http://other", List.of("second", "unknown"))
+        );
+
+        stockMarketService.adoptListings(new Handoff("adopted", "http://self", List.of(new Listing("third", 5, 7))));
+
+        assertEquals(new Handoff("first-handoff", "http://target", List.of(new Listing("first", 100, 10))), first);
+        assertEquals(new Handoff("second-handoff", "http://other", List.of(new Listing("second", 50, 20))), second);
+
+        stop();
+        start();
+
+        assertEquals(List.of(first, second), stockMarketService.getPendingHandoffs());
+
+        stockMarketService.adoptListings(new Handoff("adopted", "http://self", List.of(new Listing("third", 5, 7))));
+        stockMarketService.completeHandoff("first-handoff");
+        snapshotter.snapshot();
+        stop();
+        start();
+
+        assertEquals(List.of(second), stockMarketService.getPendingHandoffs());
+        assertEquals(
+                Map.of(
+                        "first", new StocksSnapshot(0, 10),
+                        "second", new StocksSnapshot(0, 20),
+                        "third", new StocksSnapshot(5, 7)
+                ),
+                state()
+        );
+    }
+
+    @Test
+    public void testSnapshotsTakenWhileTradingAreExactCuts() throws Exception {
+        assertSnapshotsAreExactCuts("sequencer");
+    }
+
+    @Test
+    public void testSnapshotsTakenWhileTradingDirectlyAreExactCuts() throws Exception {
+        assertSnapshotsAreExactCuts("direct");
+    }
+
+    /**
+     * Snapshots are taken while writers trade, then the market is restored from each of them in turn, newest first,
+     * by deleting the newer ones. Every restored market is only right if its snapshot is an exact cut at its journal
+     * position, anything traded between a cell change and its journal entry would be counted twice or lost.
+     */
+    private void assertSnapshotsAreExactCuts(String engineMode) throws Exception {
+        start(engineMode, SNAPSHOTS);
+
+        for (int i = 0; i < 10; i++) {
+            stockMarketService.addCompany("company-" + i);
+            stockMarketService.addStocks(new AddStockRequest("company-" + i, 1_000_000));
+            stockMarketService.setCost(new SetCostRequest("company-" + i, 10));
+        }
+
+        final AtomicBoolean trading = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        final List<Long> positions = new ArrayList<>();
+
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+
+            for (int i = 0; i < WRITERS; i++) {
+                final int writer = i;
+
+                writers.add(executor.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                    for (int listed = 0; trading.get(); listed++) {
+                        final String companyName = "company-" + random.nextInt(10);
+
+                        switch (random.nextInt(4)) {
+                            case 0 -> stockMarketService.buyStocks(
+                                    new BuyStockRequest(companyName, random.nextInt(1, 5), Integer.MAX_VALUE)
+                            );
+                            case 1 -> stockMarketService.sellStocks(
+                                    new SellStockRequest(companyName, random.nextInt(1, 5))
+                            );
+                            case 2 -> stockMarketService.setCost(
+                                    new SetCostRequest(companyName, random.nextInt(1, 100))
+                            );
+                            default -> stockMarketService.addCompany("listed-" + writer + "-" + listed % 1_000);
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < SNAPSHOTS; i++) {
+                positions.add(snapshotter.snapshot());
+            }
+
+            trading.set(false);
+
+            for (Future<?> writer : writers) {
+                writer.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            trading.set(false);
+            executor.shutdownNow();
+        }
+
+        assertTrue(positions.get(0) < positions.get(positions.size() - 1));
+        assertTrue(positions.get(positions.size() - 1) > 2L * SEGMENT_SIZE);
+
+        final Map<String, StocksSnapshot> expected = state();
+
+        for (int i = positions.size() - 1; i >= 0; i--) {
+            stop();
+            start(engineMode, SNAPSHOTS);
+
+            assertEquals(expected, state(), "Restored from snapshot at " + positions.get(i));
+
+            Files.deleteIfExists(
+                    directory.resolve("snapshots").resolve(String.format("snapshot-%020d.bin", positions.get(i)))
+            );
+        }
+    }
+
+    private void start() {
+        start("sequencer", 1);
+    }
+
+    private void start(String engineMode, int retainedSnapshots) {
+        journal = new MarketJournal(directory.resolve("journal"), SEGMENT_SIZE, Durability.ASYNC, 200, 1);
+        snapshotter = new MarketSnapshotter(directory.resolve("snapshots"), journal, 3600, retainedSnapshots);
+        stockMarketService = new StockMarketService(
+                engineMode,
+                2,
+                1024,
+                Optional.of(journal),
+                Optional.of(snapshotter),
+                new MarketMetrics(0, 0),
+                new IdempotencyCache(1000, 60),
+                Optional.empty()
+        );
+    }
+
+    private void stop() {
+        if (stockMarketService != null) {
+            stockMarketService.shutdown();
+            stockMarketService = null;
+        }
+
+        if (snapshotter != null) {
+            snapshotter.close();
+            snapshotter = null;
+        }
+
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private Map<String, StocksSnapshot> state() {
+        final Map<String, StocksSnapshot> state = new HashMap<>();
+
+        stockMarketService.forEachStocks((companyName, stock) -> state.put(companyName, stock.snapshot()));
+
+        return state;
+    }
+}
@@ -0,0 +1,110 @@
+package ru.itmo.services.market;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.itmo.domain.AddStockRequest;
+import ru.itmo.domain.Handoff;
+import ru.itmo.domain.Listing;
+import ru.itmo.domain.ReleaseRequest;
+import ru.itmo.domain.SellStockRequest;
+import ru.itmo.domain.SetCostRequest;
+import ru.itmo.domain.StocksSnapshot;
+import ru.itmo.services.StockMarketService;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HandoffsTest {
+    private final StockMarketService stockMarketService = new StockMarketService();
+
+    @AfterEach
+    public void tearDown() {
+        stockMarketService.shutdown();
+    }
+
+    @Test
+    public void testReleasesHandoffOnceUntilCompleted() throws Exception {
+        list("company", 100, 10);
+
+        final Handoff released = stockMarketService.releaseListings(
+                new ReleaseRequest("handoff", "http://target", List.of("company"))
+        );
+
+        stockMarketService.sellStocks(new SellStockRequest("company", 5));
+
+        assertEquals(new Handoff("handoff", "http://target", List.of(new Listing("company", 100, 10))), released);
+        assertEquals(
+                released,
+                stockMarketService.releaseListings(new ReleaseRequest("handoff", "http://target", List.of("company")))
+        );
+        assertEquals(new StocksSnapshot(5, 10), stockMarketService.getStocks("company").snapshot());
+        assertEquals(List.of(released), stockMarketService.getPendingHandoffs());
+
+        stockMarketService.completeHandoff("handoff");
+        stockMarketService.completeHandoff("handoff");
+
+        assertEquals(List.of(), stockMarketService.getPendingHandoffs());
+        assertEquals(
+                List.of(new Listing("company", 5, 10)),
+                stockMarketService.releaseListings(
+                        new ReleaseRequest("sweep", "http://target", List.of("company"))
+                ).listings()
+        );
+    }
+
+    @Test
+    public void testAdoptsHandoffOnce() throws Exception {
+        list("company", 10, 15);
+
+        final Handoff handoff = new Handoff(
+                "handoff",
+                "http://self",
+                List.of(new Listing("company", 40, 99), new Listing("new company", 7, 3))
+        );
+
+        stockMarketService.adoptListings(handoff);
+        stockMarketService.adoptListings(handoff);
+
+        assertEquals(new StocksSnapshot(50, 15), stockMarketService.getStocks("company").snapshot());
+        assertEquals(new StocksSnapshot(7, 3), stockMarketService.getStocks("new company").snapshot());
+
+        stockMarketService.adoptListings(new Handoff("other", "http://self", List.of(new Listing("company", 1, 1))));
+
+        assertEquals(new StocksSnapshot(51, 15), stockMarketService.getStocks("company").snapshot());
+    }
+
+    @Test
+    public void testRejectsHandoffWithoutId() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> stockMarketService.releaseListings(new ReleaseRequest(null, "http://target", List.of()))
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> stockMarketService.adoptListings(new Handoff(null, "http://target", List.of()))
+        );
+    }
+
+    @Test
+    public void testForgetsOldestAdoptedIdsBeyondLimit() {
+        final Handoffs handoffs = new Handoffs();
+
+        for (int i = 0; i <= Handoffs.MAX_ADOPTED; i++) {
+            handoffs.adopt("handoff-" + i);
+        }
+
+        assertEquals(Handoffs.MAX_ADOPTED, handoffs.adopted().size());
+        assertFalse(handoffs.isAdopted("handoff-0"));
+        assertTrue(handoffs.isAdopted("handoff-" + Handoffs.MAX_ADOPTED));
+    }
+
+    private void list(String companyName, int count, int cost) throws Exception {
+        stockMarketService.addCompany(companyName);
+        stockMarketService.addStocks(new AddStockRequest(companyName, count));
+        stockMarketService.setCost(new SetCostRequest(companyName, cost));
+    }
+}
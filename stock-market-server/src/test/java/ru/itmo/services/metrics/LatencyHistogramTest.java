@@ -0,0 +1,129 @@
+package ru.itmo.services.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    private static final String NAME = "latency_seconds";
+
+    /**
+     * Every bucket holds the values above the bound of the previous one up to its own bound, the last one everything
+     * above 2^36 ns.
+     */
+    @Test
+    public void testPutsValuesUpToBucketBound() {
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(0, LatencyHistogram.bucket(1_024));
+        assertEquals(1, LatencyHistogram.bucket(1_025));
+        assertEquals(1, LatencyHistogram.bucket(2_048));
+        assertEquals(2, LatencyHistogram.bucket(2_049));
+        assertEquals(10, LatencyHistogram.bucket(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(26, LatencyHistogram.bucket(1L << 36));
+        assertEquals(27, LatencyHistogram.bucket((1L << 36) + 1));
+        assertEquals(27, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    /**
+     * Nine in ten requests take a millisecond and the rest a tenth of a second, so the cumulative buckets have to put
+     * the 90th percentile at or below the 2^20 ns bound and the 99th percentile at the 2^27 ns one.
+     */
+    @Test
+    public void testCumulativeBucketsLocatePercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        final StringBuilder out = new StringBuilder();
+
+        histogram.writeTo(out, NAME, "");
+
+        final String exported = out.toString();
+
+        assertEquals(0, count(exported, NAME + "_bucket{le=\"1.024E-6\"}"));
+        assertEquals(0, count(exported, NAME + "_bucket{le=\"5.24288E-4\"}"));
+        assertEquals(90, count(exported, NAME + "_bucket{le=\"0.001048576\"}"));
+        assertEquals(90, count(exported, NAME + "_bucket{le=\"0.067108864\"}"));
+        assertEquals(100, count(exported, NAME + "_bucket{le=\"0.134217728\"}"));
+        assertEquals(100, count(exported, NAME + "_bucket{le=\"68.719476736\"}"));
+        assertEquals(100, count(exported, NAME + "_bucket{le=\"+Inf\"}"));
+        assertEquals(100, count(exported, NAME + "_count{}"));
+        assertEquals(90 * 0.001 + 10 * 0.1, seconds(exported, NAME + "_sum{}"), 1e-9);
+        assertEquals(28 + 2, exported.split("\n").length);
+    }
+
+    @Test
+    public void testCountsValuesAboveLastBoundOnlyInInfBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(TimeUnit.SECONDS.toNanos(100));
+
+        final StringBuilder out = new StringBuilder();
+
+        histogram.writeTo(out, NAME, "");
+
+        final String exported = out.toString();
+
+        assertEquals(0, count(exported, NAME + "_bucket{le=\"68.719476736\"}"));
+        assertEquals(1, count(exported, NAME + "_bucket{le=\"+Inf\"}"));
+        assertEquals(1, count(exported, NAME + "_count{}"));
+        assertEquals(100, seconds(exported, NAME + "_sum{}"), 1e-9);
+    }
+
+    /**
+     * Every endpoint gets its own series under one metric family, with the endpoint escaped into a label.
+     */
+    @Test
+    public void testExportsRequestLatencyByEndpoint() {
+        final MarketMetrics metrics = new MarketMetrics(0, 0);
+
+        metrics.recordRequest("/buy/stocks", TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.recordRequest("/buy/stocks", TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordRequest("/get/\"stocks\"", TimeUnit.MICROSECONDS.toNanos(1));
+
+        final String exported = metrics.writePrometheus();
+        final String buy = "http_server_request_duration_seconds_%s{endpoint=\"/buy/stocks\"%s}";
+        final String get = "http_server_request_duration_seconds_%s{endpoint=\"/get/\\\"stocks\\\"\"%s}";
+
+        assertTrue(exported.contains(
+                "# HELP http_server_request_duration_seconds Request latency by endpoint\n"
+                        + "# TYPE http_server_request_duration_seconds histogram\n"
+        ), exported);
+        assertEquals(1, count(exported, buy.formatted("bucket", ",le=\"0.001048576\"")));
+        assertEquals(1, count(exported, buy.formatted("bucket", ",le=\"0.002097152\"")));
+        assertEquals(2, count(exported, buy.formatted("bucket", ",le=\"0.004194304\"")));
+        assertEquals(2, count(exported, buy.formatted("bucket", ",le=\"+Inf\"")));
+        assertEquals(2, count(exported, buy.formatted("count", "")));
+        assertEquals(0.004, seconds(exported, buy.formatted("sum", "")), 1e-9);
+        assertEquals(1, count(exported, get.formatted("bucket", ",le=\"1.024E-6\"")));
+        assertEquals(1, count(exported, get.formatted("count", "")));
+        assertEquals(0.000001, seconds(exported, get.formatted("sum", "")), 1e-12);
+    }
+
+    private static long count(String exported, String series) {
+        return Long.parseLong(value(exported, series));
+    }
+
+    private static double seconds(String exported, String series) {
+        return Double.parseDouble(value(exported, series));
+    }
+
+    private static String value(String exported, String series) {
+        for (String line : exported.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return line.substring(series.length() + 1);
+            }
+        }
+
+        throw new AssertionError("No series " + series + " in:\n" + exported);
+    }
+}
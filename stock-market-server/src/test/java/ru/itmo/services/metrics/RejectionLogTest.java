@@ -0,0 +1,105 @@
+package ru.itmo.services.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RejectionLogTest {
+    private static final int LIMIT = 5;
+    private static final int THREADS = 8;
+    private static final int REJECTIONS = 20_000;
+
+    /**
+     * Threads flood the log at once, so every second they span has to log exactly up to the limit and count the rest.
+     */
+    @Test
+    public void testLogsAtMostLimitPerSecond() throws Exception {
+        final RejectionLog rejectionLog = new RejectionLog(LIMIT);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final long firstSecond = currentSecond();
+
+        try {
+            final List<Future<?>> floods = new ArrayList<>();
+
+            for (int i = 0; i < THREADS; i++) {
+                floods.add(executor.submit(() -> {
+                    for (int j = 0; j < REJECTIONS; j++) {
+                        rejectionLog.log(RejectionReason.NOT_ENOUGH_STOCKS, "company", j, 0);
+                    }
+                }));
+            }
+
+            for (Future<?> flood : floods) {
+                flood.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final long seconds = currentSecond() - firstSecond + 1;
+        final long logged = (long) THREADS * REJECTIONS - rejectionLog.skipped();
+
+        assertTrue(logged >= LIMIT, "Logged: " + logged);
+        assertTrue(logged <= LIMIT * seconds, "Logged " + logged + " in " + seconds + " seconds");
+    }
+
+    @Test
+    public void testOnlyCountsWhenLimitIsZero() {
+        final RejectionLog rejectionLog = new RejectionLog(0);
+
+        for (int i = 0; i < 100; i++) {
+            rejectionLog.log(RejectionReason.NOT_ENOUGH_AMOUNT, "company", i, 0);
+        }
+
+        assertEquals(100, rejectionLog.skipped());
+    }
+
+    @Test
+    public void testExportsRejectionCounters() {
+        final MarketMetrics metrics = new MarketMetrics(10, LIMIT);
+        final long firstSecond = currentSecond();
+
+        for (int i = 0; i < 1_000; i++) {
+            metrics.recordRejection(RejectionReason.NOT_ENOUGH_STOCKS, "company", i, 0);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            metrics.recordRejection(RejectionReason.NOT_FOUND, "unknown-" + i, 1, 0);
+        }
+
+        final long seconds = currentSecond() - firstSecond + 1;
+        final String exported = metrics.writePrometheus();
+        final long notLogged = counter(exported, "market_rejections_not_logged_total");
+
+        assertEquals(1_000, counter(exported, "market_rejections_total{reason=\"not_enough_stocks\"}"));
+        assertEquals(10, counter(exported, "market_rejections_total{reason=\"not_found\"}"));
+        assertEquals(0, counter(exported, "market_rejections_total{reason=\"not_enough_amount\"}"));
+        assertEquals(1_000, counter(exported, "market_symbol_rejections_total{company=\"company\"}"));
+        assertFalse(exported.contains("unknown-"), "Unknown companies got their own series");
+        assertTrue(notLogged >= 1_010 - LIMIT * seconds, "Not logged: " + notLogged);
+        assertTrue(notLogged <= 1_010 - LIMIT, "Not logged: " + notLogged);
+    }
+
+    private static long currentSecond() {
+        return System.nanoTime() / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static long counter(String exported, String series) {
+        for (String line : exported.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return Long.parseLong(line.substring(series.length() + 1));
+            }
+        }
+
+        throw new AssertionError("No series " + series + " in:\n" + exported);
+    }
+}
@@ -0,0 +1,228 @@
+package ru.itmo.services.sequencer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarketSequencerTest {
+    private MarketSequencer sequencer;
+
+    @AfterEach
+    public void tearDown() {
+        if (sequencer != null) {
+            sequencer.close();
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidShardCount() {
+        final MarketCommandHandler handler = (command, symbolId, request) -> null;
+
+        assertThrows(IllegalArgumentException.class, () -> new MarketSequencer(0, 16, handler));
+        assertThrows(IllegalArgumentException.class, () -> new MarketSequencer(-1, 16, handler));
+        assertThrows(IllegalArgumentException.class, () -> new MarketSequencer(2, 12, handler));
+    }
+
+    @Test
+    public void testExecutesCommandsOfEverySymbolInPublicationOrder() throws Exception {
+        final int symbols = 8;
+        final int commands = 20_000;
+        final ConcurrentHashMap<Integer, List<Integer>> executed = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Integer, Thread> writers = new ConcurrentHashMap<>();
+        final AtomicBoolean sharedWriter = new AtomicBoolean();
+        final AtomicBoolean wrongSymbol = new AtomicBoolean();
+
+        sequencer = new MarketSequencer(3, 64, (command, symbolId, request) -> {
+            final int[] symbolAndValue = (int[]) request;
+
+            if (symbolId != symbolAndValue[0]) {
+                wrongSymbol.set(true);
+            }
+
+            if (writers.computeIfAbsent(symbolAndValue[0], key -> Thread.currentThread()) != Thread.currentThread()) {
+                sharedWriter.set(true);
+            }
+
+            executed.computeIfAbsent(symbolAndValue[0], key -> new ArrayList<>()).add(symbolAndValue[1]);
+
+            return symbolAndValue[1];
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(symbols);
+
+        try {
+            final List<Future<?>> producers = new ArrayList<>();
+
+            for (int symbol = 0; symbol < symbols; symbol++) {
+                final int symbolId = symbol;
+
+                producers.add(executor.submit(() -> {
+                    final List<CompletableFuture<Object>> results = new ArrayList<>();
+
+                    for (int value = 0; value < commands; value++) {
+                        results.add(sequencer.submit(MarketCommand.ADD_STOCKS, symbolId, new int[]{symbolId, value}));
+                    }
+
+                    for (int value = 0; value < commands; value++) {
+                        assertEquals(value, MarketSequencer.await(results.get(value)));
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> producer : producers) {
+                producer.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertFalse(sharedWriter.get());
+        assertFalse(wrongSymbol.get());
+
+        for (int symbol = 0; symbol < symbols; symbol++) {
+            final List<Integer> values = executed.get(symbol);
+
+            assertEquals(commands, values.size());
+
+            for (int value = 0; value < commands; value++) {
+                assertEquals(value, values.get(value));
+            }
+        }
+    }
+
+    @Test
+    public void testRunsPausedActionBetweenCommandsOfAllShards() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+
+        sequencer = new MarketSequencer(4, 64, (command, symbolId, request) -> {
+            running.incrementAndGet();
+            Thread.sleep(0, 100_000);
+            running.decrementAndGet();
+
+            return request;
+        });
+
+        for (int round = 0; round < 20; round++) {
+            final List<CompletableFuture<Object>> published = new ArrayList<>();
+
+            for (int symbolId = 0; symbolId < 16; symbolId++) {
+                published.add(sequencer.submit(MarketCommand.ADD_STOCKS, symbolId, symbolId));
+            }
+
+            final List<CompletableFuture<Object>> late = new ArrayList<>();
+
+            sequencer.runPaused(() -> {
+                if (running.get() != 0 || !published.stream().allMatch(CompletableFuture::isDone)) {
+                    overlapped.set(true);
+                }
+
+                late.add(sequencer.submit(MarketCommand.ADD_STOCKS, 0, -1));
+                LockSupport.parkNanos(1_000_000);
+
+                if (running.get() != 0 || late.get(0).isDone()) {
+                    overlapped.set(true);
+                }
+            });
+
+            assertEquals(-1, MarketSequencer.await(late.get(0)));
+        }
+
+        assertFalse(overlapped.get());
+        sequencer.close();
+        assertThrows(RejectedExecutionException.class, () -> sequencer.runPaused(() -> overlapped.set(true)));
+        assertFalse(overlapped.get());
+    }
+
+    @Test
+    public void testCloseDrainsPublishedCommands() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CopyOnWriteArrayList<Object> executed = new CopyOnWriteArrayList<>();
+
+        sequencer = new MarketSequencer(1, 16, (command, symbolId, request) -> {
+            started.countDown();
+            release.await();
+            executed.add(request);
+
+            return request;
+        });
+
+        final List<CompletableFuture<Object>> results = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            results.add(sequencer.submit(MarketCommand.SET_COST, 0, i));
+        }
+
+        started.await();
+
+        final Thread closer = new Thread(sequencer::close);
+
+        closer.start();
+
+        while (closer.getState() != Thread.State.TIMED_WAITING && closer.isAlive()) {
+            Thread.onSpinWait();
+        }
+
+        final CompletableFuture<Object> late = sequencer.submit(MarketCommand.SET_COST, 0, 10);
+
+        release.countDown();
+        closer.join();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, MarketSequencer.await(results.get(i)));
+        }
+
+        assertEquals(10, executed.size());
+        assertThrows(RejectedExecutionException.class, () -> MarketSequencer.await(late));
+        assertThrows(
+                RejectedExecutionException.class,
+                () -> MarketSequencer.await(sequencer.submit(MarketCommand.SET_COST, 0, 11))
+        );
+    }
+
+    @Test
+    public void testCloseCompletesCommandsOfStuckWorkerExceptionally() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        sequencer = new MarketSequencer(1, 16, (command, symbolId, request) -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+
+            return request;
+        });
+
+        final CompletableFuture<Object> stuck = sequencer.submit(MarketCommand.BUY_STOCKS, 0, 0);
+        final CompletableFuture<Object> queued = sequencer.submit(MarketCommand.BUY_STOCKS, 0, 1);
+
+        started.await();
+        sequencer.close(100, TimeUnit.MILLISECONDS);
+
+        assertTrue(stuck.isCompletedExceptionally());
+        assertTrue(queued.isCompletedExceptionally());
+        assertInstanceOf(InterruptedException.class, assertThrows(Exception.class, () -> MarketSequencer.await(stuck)));
+        assertThrows(RejectedExecutionException.class, () -> MarketSequencer.await(queued));
+    }
+}